@@ -3,12 +3,10 @@ package com.qingdai;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = "com.qingdai")
 @MapperScan("com.qingdai.mapper")
-@EnableCaching
 @EnableScheduling
 public class QingDaiSpApplication {
 
@@ -0,0 +1,56 @@
+package com.qingdai.cache;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * 包在缓存拦截器内侧的切面，只在缓存未命中、真正执行@Cacheable方法时运行：
+ * 加载失败或结果为null（不会写入缓存）时立即唤醒等待同一个键的请求；
+ * 无参数方法记下加载方法，供提前刷新和定时刷新在后台重新执行
+ * </p>
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class CacheLoadAspect {
+
+    @Around("@annotation(org.springframework.cache.annotation.Cacheable)")
+    public Object aroundLoad(ProceedingJoinPoint joinPoint) throws Throwable {
+        CacheLoadContext context = CacheLoadContext.take();
+        if (context == null) {
+            return joinPoint.proceed();
+        }
+        TwoLevelCache cache = context.getCache();
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable e) {
+            cache.loadFailed(context.getKey());
+            throw e;
+        }
+        // 带参数的方法键很多（如每张照片一个），不保存加载方法，避免占用内存
+        Callable<Object> loader = joinPoint.getArgs().length == 0 ? () -> proceedAgain(joinPoint) : null;
+        cache.loaded(context.getKey(), result, System.nanoTime() - start, loader);
+        return result;
+    }
+
+    // 每次proceed都会复制一份调用链，可以在之后的其他线程中重复执行
+    private static Object proceedAgain(ProceedingJoinPoint joinPoint) throws Exception {
+        try {
+            return joinPoint.proceed();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.qingdai.cache;
+
+/**
+ * <p>
+ * 记录当前线程刚刚未命中的缓存键，@Cacheable方法执行时据此把加载结果、加载方法和这个键对应起来。
+ * 缓存拦截器在未命中后立即在同一线程中调用方法，所以用线程变量传递
+ * </p>
+ */
+final class CacheLoadContext {
+
+    private static final ThreadLocal<CacheLoadContext> CURRENT = new ThreadLocal<>();
+
+    private final TwoLevelCache cache;
+    private final Object key;
+
+    private CacheLoadContext(TwoLevelCache cache, Object key) {
+        this.cache = cache;
+        this.key = key;
+    }
+
+    static void missed(TwoLevelCache cache, Object key) {
+        CURRENT.set(new CacheLoadContext(cache, key));
+    }
+
+    static CacheLoadContext take() {
+        CacheLoadContext context = CURRENT.get();
+        CURRENT.remove();
+        return context;
+    }
+
+    TwoLevelCache getCache() {
+        return cache;
+    }
+
+    Object getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,70 @@
+package com.qingdai.cache;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>
+ * 缓存未命中时的加载策略：合并并发加载（本节点内等待同一次加载，跨节点通过Redis租约只由一个节点加载），
+ * 以及条目接近过期（没有过期时间的按写入后的时长）时返回旧值并在后台提前刷新
+ * </p>
+ */
+public class CacheLoadPolicy {
+
+    private final boolean singleFlight;
+    private final long leaseMs;
+    private final long waitMs;
+    private final long pollMs;
+    private final double refreshAheadRatio;
+    private final long refreshAfterMs;
+    private final ExecutorService refreshExecutor;
+
+    public CacheLoadPolicy(boolean singleFlight, long leaseMs, long waitMs, long pollMs, double refreshAheadRatio,
+            long refreshAfterMs, ExecutorService refreshExecutor) {
+        this.singleFlight = singleFlight;
+        this.leaseMs = leaseMs;
+        this.waitMs = waitMs;
+        this.pollMs = pollMs;
+        this.refreshAheadRatio = refreshAheadRatio;
+        this.refreshAfterMs = refreshAfterMs;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    public long getLeaseMs() {
+        return leaseMs;
+    }
+
+    public long getWaitMs() {
+        return waitMs;
+    }
+
+    public long getPollMs() {
+        return pollMs;
+    }
+
+    public double getRefreshAheadRatio() {
+        return refreshAheadRatio;
+    }
+
+    public long getRefreshAfterMs() {
+        return refreshAfterMs;
+    }
+
+    public ExecutorService getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    public boolean isRefreshAhead() {
+        return refreshAheadRatio > 0 && refreshAheadRatio < 1 && refreshExecutor != null;
+    }
+
+    /**
+     * 没有过期时间的条目是否按写入后的时长提前刷新
+     */
+    public boolean isRefreshAfterWrite() {
+        return refreshAfterMs > 0 && refreshExecutor != null;
+    }
+}
@@ -0,0 +1,274 @@
+package com.qingdai.cache;
+
+import com.qingdai.entity.Photo;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * photo缓存中各条目依赖的数据，以及一次写入会影响到的键
+ * 键与PhotoServiceImpl中@Cacheable的key一一对应：按ID缓存的条目依赖照片ID，计数依赖拍摄月份和星级，
+ * 统计和列表依赖对应的元数据字段，dashboardStats依赖所有统计。
+ * 分页和文件夹解析结果无法从字段推出具体键，作为键族整体失效
+ * </p>
+ */
+public class PhotoCacheDependencies {
+
+    public static final String CACHE_NAME = "photo";
+
+    public static final String FAMILY_NO_METADATA = "noMetadataPhotos_";
+    public static final String FAMILY_PHOTOS_BY_FOLDER = "photosByFolder_";
+    public static final List<String> FAMILIES = List.of(FAMILY_NO_METADATA, FAMILY_PHOTOS_BY_FOLDER);
+
+    private static final String DASHBOARD_STATS = "dashboardStats";
+
+    private final Set<String> keys = new LinkedHashSet<>();
+    private final Set<String> families = new LinkedHashSet<>();
+
+    /**
+     * 新增照片
+     * @param photo 新照片
+     */
+    public PhotoCacheDependencies photoInserted(Photo photo) {
+        photoAddedOrRemoved(photo);
+        // 文件夹解析结果在照片入库后会变化
+        families.add(FAMILY_PHOTOS_BY_FOLDER);
+        return this;
+    }
+
+    /**
+     * 删除照片
+     * @param photo 删除前的照片
+     */
+    public PhotoCacheDependencies photoDeleted(Photo photo) {
+        photoAddedOrRemoved(photo);
+        idKeys(photo.getId());
+        // 关联的组图记录一并删除，主题统计随之变化
+        return groupMembershipChanged();
+    }
+
+    /**
+     * 修改照片，只更新非空字段（与updateById的默认策略一致）
+     * @param before 修改前的照片，为null时无法比较，按所有字段都可能变化处理
+     * @param update 本次写入的照片
+     */
+    public PhotoCacheDependencies photoUpdated(Photo before, Photo update) {
+        if (before == null) {
+            idKeys(update.getId());
+            photoAddedOrRemoved(update);
+            return this;
+        }
+        Photo after = merge(before, update);
+        if (changed(before, after, Photo::getFileName) || changed(before, after, Photo::getContentHash)) {
+            idKeys(before.getId());
+        }
+        boolean ratingChanged = changed(before, after, Photo::getStartRating);
+        boolean shootTimeChanged = changed(before, after, Photo::getShootTime);
+        if (ratingChanged || shootTimeChanged) {
+            countKeys(before);
+            countKeys(after);
+            aggregate("photoChangeStats");
+        }
+        if (ratingChanged) {
+            aggregate("photoTypeCounts");
+        }
+        if (shootTimeChanged) {
+            aggregate("monthStats");
+            aggregate("yearStats");
+        }
+        if (changed(before, after, Photo::getCamera)) {
+            camera(before.getCamera());
+            camera(after.getCamera());
+        }
+        if (changed(before, after, Photo::getLens)) {
+            lens(before.getLens());
+            lens(after.getLens());
+        }
+        if (changed(before, after, Photo::getFocalLength)) {
+            focalLength(before.getFocalLength());
+            focalLength(after.getFocalLength());
+        }
+        if (changed(before, after, Photo::getIso)) {
+            aggregate("isoStats");
+        }
+        if (changed(before, after, Photo::getShutter)) {
+            aggregate("shutterStats");
+        }
+        if (changed(before, after, Photo::getAperture)) {
+            aggregate("apertureStats");
+        }
+        // 缺少元数据的照片整条出现在分页结果里，任何修改都会反映到页面内容
+        if (missingMetadata(before) || missingMetadata(after)) {
+            families.add(FAMILY_NO_METADATA);
+        }
+        return this;
+    }
+
+    /**
+     * 批量修改相机型号
+     */
+    public PhotoCacheDependencies cameraRenamed(String oldCamera, String newCamera) {
+        camera(oldCamera);
+        camera(newCamera);
+        return metadataValueRenamed(oldCamera, newCamera);
+    }
+
+    /**
+     * 批量修改镜头型号
+     */
+    public PhotoCacheDependencies lensRenamed(String oldLens, String newLens) {
+        lens(oldLens);
+        lens(newLens);
+        return metadataValueRenamed(oldLens, newLens);
+    }
+
+    /**
+     * 批量修改焦距
+     */
+    public PhotoCacheDependencies focalLengthRenamed(String oldFocalLength, String newFocalLength) {
+        focalLength(oldFocalLength);
+        focalLength(newFocalLength);
+        return metadataValueRenamed(oldFocalLength, newFocalLength);
+    }
+
+    /**
+     * 组图关联变化，影响主题统计
+     */
+    public PhotoCacheDependencies groupMembershipChanged() {
+        aggregate("photoSubjectStats");
+        return this;
+    }
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    public Set<String> getFamilies() {
+        return Collections.unmodifiableSet(families);
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty() && families.isEmpty();
+    }
+
+    private void photoAddedOrRemoved(Photo photo) {
+        countKeys(photo);
+        aggregate("photoTypeCounts");
+        aggregate("photoChangeStats");
+        aggregate("monthStats");
+        aggregate("yearStats");
+        aggregate("isoStats");
+        aggregate("shutterStats");
+        aggregate("apertureStats");
+        camera(photo.getCamera());
+        lens(photo.getLens());
+        focalLength(photo.getFocalLength());
+        families.add(FAMILY_NO_METADATA);
+    }
+
+    private PhotoCacheDependencies metadataValueRenamed(String oldValue, String newValue) {
+        if (isBlank(oldValue) || isBlank(newValue)) {
+            families.add(FAMILY_NO_METADATA);
+        }
+        return this;
+    }
+
+    private void idKeys(String photoId) {
+        if (photoId != null) {
+            keys.add("fileName_" + photoId);
+            keys.add("contentHash_" + photoId);
+        }
+    }
+
+    // 拍摄时间格式为yyyy-MM-dd HH:mm:ss，计数键中的年月与YearMonth/Year的toString一致
+    private void countKeys(Photo photo) {
+        String shootTime = photo.getShootTime();
+        if (shootTime == null || shootTime.length() < 7) {
+            return;
+        }
+        String yearMonth = shootTime.substring(0, 7);
+        String year = shootTime.substring(0, 4);
+        keys.add("countByMonth_" + yearMonth);
+        keys.add("countByYear_" + year);
+        if (photo.getStartRating() != null) {
+            keys.add("countByMonthAndStart_" + yearMonth + "_" + photo.getStartRating());
+            keys.add("countByYearAndStart_" + year + "_" + photo.getStartRating());
+        }
+    }
+
+    private void camera(String camera) {
+        aggregate("cameraStats");
+        aggregate("allCameras");
+        if (camera != null) {
+            keys.add("photoCountByCamera_" + camera);
+        }
+    }
+
+    private void lens(String lens) {
+        aggregate("lensStats");
+        aggregate("allLenses");
+        if (lens != null) {
+            keys.add("photoCountByLens_" + lens);
+        }
+    }
+
+    private void focalLength(String focalLength) {
+        aggregate("focalLengthStats");
+        aggregate("allFocalLengths");
+        if (focalLength != null) {
+            keys.add("photoCountByFocalLength_" + focalLength);
+        }
+    }
+
+    // 统计类条目都汇总在dashboardStats中
+    private void aggregate(String key) {
+        keys.add(key);
+        keys.add(DASHBOARD_STATS);
+    }
+
+    private static Photo merge(Photo before, Photo update) {
+        Photo after = new Photo();
+        after.setId(before.getId());
+        after.setFileName(pick(update.getFileName(), before.getFileName()));
+        after.setAuthor(pick(update.getAuthor(), before.getAuthor()));
+        after.setWidth(pick(update.getWidth(), before.getWidth()));
+        after.setHeight(pick(update.getHeight(), before.getHeight()));
+        after.setShootTime(pick(update.getShootTime(), before.getShootTime()));
+        after.setAperture(pick(update.getAperture(), before.getAperture()));
+        after.setShutter(pick(update.getShutter(), before.getShutter()));
+        after.setIso(pick(update.getIso(), before.getIso()));
+        after.setCamera(pick(update.getCamera(), before.getCamera()));
+        after.setLens(pick(update.getLens(), before.getLens()));
+        after.setFocalLength(pick(update.getFocalLength(), before.getFocalLength()));
+        after.setContentHash(pick(update.getContentHash(), before.getContentHash()));
+        after.setStartRating(pick(update.getStartRating(), before.getStartRating()));
+        return after;
+    }
+
+    private static <T> T pick(T updated, T original) {
+        return updated != null ? updated : original;
+    }
+
+    private static boolean changed(Photo before, Photo after, Function<Photo, Object> field) {
+        return !Objects.equals(field.apply(before), field.apply(after));
+    }
+
+    // 与getNoMetadataPhotosByPage的查询条件一致
+    private static boolean missingMetadata(Photo photo) {
+        return isBlank(photo.getFileName()) || isBlank(photo.getAuthor())
+                || photo.getWidth() == null || photo.getHeight() == null
+                || isBlank(photo.getShootTime()) || isBlank(photo.getAperture())
+                || isBlank(photo.getShutter()) || isBlank(photo.getIso())
+                || isBlank(photo.getCamera()) || isBlank(photo.getLens())
+                || isBlank(photo.getFocalLength()) || photo.getStartRating() == null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+}
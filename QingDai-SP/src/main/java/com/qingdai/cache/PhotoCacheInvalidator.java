@@ -0,0 +1,70 @@
+package com.qingdai.cache;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * 按依赖失效photo缓存，只删除受写入影响的键
+ * 写入后立即失效一次；处在事务中时提交后再失效一次，清除事务提交前被并发读请求回填的旧值
+ * </p>
+ */
+@Slf4j
+@Component
+public class PhotoCacheInvalidator {
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @PostConstruct
+    public void init() {
+        Cache cache = cacheManager.getCache(PhotoCacheDependencies.CACHE_NAME);
+        if (cache instanceof TwoLevelCache) {
+            PhotoCacheDependencies.FAMILIES.forEach(((TwoLevelCache) cache)::trackFamily);
+        }
+    }
+
+    public void invalidate(PhotoCacheDependencies dependencies) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+        evict(dependencies);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(dependencies);
+                }
+            });
+        }
+    }
+
+    private void evict(PhotoCacheDependencies dependencies) {
+        Cache cache = cacheManager.getCache(PhotoCacheDependencies.CACHE_NAME);
+        if (cache == null) {
+            return;
+        }
+        try {
+            if (cache instanceof TwoLevelCache) {
+                TwoLevelCache twoLevelCache = (TwoLevelCache) cache;
+                twoLevelCache.evictAll(dependencies.getKeys());
+                dependencies.getFamilies().forEach(twoLevelCache::evictFamily);
+            } else {
+                dependencies.getKeys().forEach(cache::evict);
+                if (!dependencies.getFamilies().isEmpty()) {
+                    cache.clear();
+                }
+            }
+            log.debug("失效photo缓存，键: {}, 键族: {}", dependencies.getKeys(), dependencies.getFamilies());
+        } catch (RuntimeException e) {
+            // 写入已经成功，缓存失效失败只记录日志，不影响写入结果
+            log.error("失效photo缓存失败，键: {}, 错误: {}", dependencies.getKeys(), e.getMessage(), e);
+        }
+    }
+}
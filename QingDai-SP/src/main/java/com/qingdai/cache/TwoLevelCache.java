@@ -0,0 +1,624 @@
+package com.qingdai.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>
+ * 两级缓存：进程内Caffeine一级缓存在前，Redis二级缓存在后
+ * 读取先查一级缓存，未命中再查Redis并回填；写入和失效同时作用于两级，并通过回调通知其他节点清除各自的一级缓存。
+ * 加载和失效并发时用失效代数判断，加载期间发生过失效的结果不会留在一级缓存中。
+ * 除单键失效外还支持一次删除一批键，以及按前缀登记的键族整体失效，取代allEntries的全量清空。
+ * 两级都未命中时按CacheLoadPolicy合并加载，避免热点条目过期瞬间所有请求同时查库；
+ * 有过期时间的条目接近过期时先返回旧值，在后台刷新；没有过期时间的条目（如photo缓存中的统计）在写入超过refresh-after后同样处理
+ * </p>
+ */
+@Slf4j
+public class TwoLevelCache implements Cache {
+
+    // 失效消息中的目标标记：清空、单个键、键前缀
+    static final String CLEAR_MARK = "*";
+    static final String KEY_MARK = "=";
+    static final String PREFIX_MARK = "^";
+
+    // 键族索引（Redis集合）的键名后缀
+    private static final String INDEX_SEGMENT = "__index:";
+    // 跨节点加载租约的键名后缀
+    private static final String LEASE_SEGMENT = "__lease:";
+    // 每次从键族索引中弹出的数量
+    private static final int INDEX_POP_BATCH = 500;
+
+    private final String name;
+    private final Cache redisCache;
+    // 为null时不使用一级缓存，直接读写Redis
+    private final com.github.benmanes.caffeine.cache.Cache<String, Object> localCache;
+    // 通知其他节点失效：缓存名，失效目标（带标记）
+    private final BiConsumer<String, Collection<String>> invalidationPublisher;
+    private final RedisTemplate<String, Object> redisTemplate;
+    // 缓存条目在Redis中的键前缀，如photo::
+    private final String redisKeyPrefix;
+
+    // Redis中的过期时间，0表示不过期
+    private final long ttlMillis;
+    private final CacheLoadPolicy loadPolicy;
+
+    // 需要登记到索引中的键前缀
+    private final Set<String> trackedPrefixes = ConcurrentHashMap.newKeySet();
+
+    // 本节点正在加载的键，同一个键的其他请求等待这次加载的结果
+    private final ConcurrentMap<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    // 本节点持有的加载租约
+    private final Set<String> heldLeases = ConcurrentHashMap.newKeySet();
+    // 无参数缓存方法的加载方法，用于后台刷新
+    private final ConcurrentMap<String, Callable<Object>> loaders = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    // 有加载方法的条目在本节点最后一次写入或首次读到的时间，没有过期时间时用来判断是否需要刷新
+    private final ConcurrentMap<String, Long> writtenAt = new ConcurrentHashMap<>();
+
+    // 每次失效加一，回填一级缓存前后比较
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter redisHits;
+    private final Counter redisMisses;
+    private final Timer redisGetTimer;
+    private final Timer loadTimer;
+    private final Counter coalescedLoads;
+    private final Counter refreshSuccess;
+    private final Counter refreshFailure;
+
+    public TwoLevelCache(String name, Cache redisCache,
+            com.github.benmanes.caffeine.cache.Cache<String, Object> localCache,
+            BiConsumer<String, Collection<String>> invalidationPublisher, RedisTemplate<String, Object> redisTemplate,
+            String redisKeyPrefix, Duration ttl, CacheLoadPolicy loadPolicy, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.redisCache = redisCache;
+        this.localCache = localCache;
+        this.invalidationPublisher = invalidationPublisher;
+        this.redisTemplate = redisTemplate;
+        this.redisKeyPrefix = redisKeyPrefix;
+        this.ttlMillis = ttl == null || ttl.isNegative() ? 0 : ttl.toMillis();
+        this.loadPolicy = loadPolicy;
+        this.redisHits = Counter.builder("qingdai.cache.redis.requests")
+                .description("二级缓存（Redis）查询次数")
+                .tag("cache", name).tag("result", "hit")
+                .register(meterRegistry);
+        this.redisMisses = Counter.builder("qingdai.cache.redis.requests")
+                .description("二级缓存（Redis）查询次数")
+                .tag("cache", name).tag("result", "miss")
+                .register(meterRegistry);
+        this.redisGetTimer = Timer.builder("qingdai.cache.redis.get")
+                .description("二级缓存（Redis）查询耗时")
+                .tag("cache", name)
+                .register(meterRegistry);
+        this.loadTimer = Timer.builder("qingdai.cache.load")
+                .description("两级缓存都未命中时加载数据的耗时")
+                .tag("cache", name)
+                .register(meterRegistry);
+        this.coalescedLoads = Counter.builder("qingdai.cache.coalesced")
+                .description("未命中时等到其他请求加载结果、没有自行加载的次数")
+                .tag("cache", name)
+                .register(meterRegistry);
+        this.refreshSuccess = Counter.builder("qingdai.cache.refresh")
+                .description("后台刷新次数")
+                .tag("cache", name).tag("result", "success")
+                .register(meterRegistry);
+        this.refreshFailure = Counter.builder("qingdai.cache.refresh")
+                .description("后台刷新次数")
+                .tag("cache", name).tag("result", "failure")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return redisCache.getNativeCache();
+    }
+
+    /**
+     * 缓存拦截器在未命中时会接着执行方法并put，所以这里未命中时按加载策略决定由谁加载：
+     * 本节点第一个请求且拿到跨节点租约时返回null由调用方加载，其他请求等待加载结果
+     */
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        long generation = invalidations.get();
+        ValueWrapper wrapper = lookup(key, localKey, generation);
+        if (wrapper != null) {
+            return wrapper;
+        }
+        if (!loadPolicy.isSingleFlight()) {
+            CacheLoadContext.missed(this, key);
+            return null;
+        }
+        return awaitOrLoad(key, localKey, generation);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        String localKey = localKey(key);
+        ValueWrapper wrapper = lookup(key, localKey, invalidations.get());
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("缓存值类型不匹配，期望: " + type.getName() + "，实际: " + value.getClass().getName());
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        // 这里自己加载，不经过切面
+        CacheLoadContext.take();
+
+        long start = System.nanoTime();
+        T value;
+        try {
+            value = valueLoader.call();
+        } catch (Exception e) {
+            loadFailed(key);
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+        loaded(key, value, System.nanoTime() - start, null);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        redisCache.put(key, value);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        if (localCache != null && value != null) {
+            localCache.put(localKey, value);
+        }
+        if (value != null && loaders.containsKey(localKey)) {
+            writtenAt.put(localKey, System.currentTimeMillis());
+        }
+        track(localKey);
+        publish(KEY_MARK + localKey);
+        finishLoad(localKey, value);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = redisCache.putIfAbsent(key, value);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        if (existing == null) {
+            track(localKey);
+            publish(KEY_MARK + localKey);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        redisCache.evict(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        publish(KEY_MARK + localKey);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = redisCache.evictIfPresent(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        publish(KEY_MARK + localKey);
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        redisCache.clear();
+        clearLocal();
+        publish(CLEAR_MARK);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = redisCache.invalidate();
+        clearLocal();
+        publish(CLEAR_MARK);
+        return invalidated;
+    }
+
+    /**
+     * 一次失效一批键：Redis中用一条DEL删除，其他节点只收到一条失效消息
+     * @param keys 缓存键
+     */
+    public void evictAll(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        Set<String> localKeys = new LinkedHashSet<>(keys);
+        List<String> redisKeys = new ArrayList<>(localKeys.size());
+        for (String localKey : localKeys) {
+            redisKeys.add(redisKeyPrefix + localKey);
+        }
+        redisTemplate.delete(redisKeys);
+
+        List<String> targets = new ArrayList<>(localKeys.size());
+        for (String localKey : localKeys) {
+            invalidateLocal(localKey);
+            targets.add(KEY_MARK + localKey);
+        }
+        invalidationPublisher.accept(name, targets);
+    }
+
+    /**
+     * 登记键族：以该前缀开头的键写入时同时记入Redis中的索引集合，之后可用evictFamily整体失效。
+     * 用于分页、文件夹这类无法从实体字段推出具体键的条目
+     * @param prefix 键前缀
+     */
+    public void trackFamily(String prefix) {
+        trackedPrefixes.add(prefix);
+    }
+
+    /**
+     * 失效一个已登记的键族，从索引中分批弹出键名后批量删除，不扫描整个缓存空间
+     * @param prefix 键前缀
+     */
+    public void evictFamily(String prefix) {
+        String indexKey = indexKey(prefix);
+        List<Object> members;
+        // 弹出而不是读取后删除索引，避免删除期间新登记的键从索引中丢失
+        while ((members = redisTemplate.opsForSet().pop(indexKey, INDEX_POP_BATCH)) != null && !members.isEmpty()) {
+            List<String> redisKeys = new ArrayList<>(members.size());
+            for (Object member : members) {
+                redisKeys.add(redisKeyPrefix + member);
+            }
+            redisTemplate.delete(redisKeys);
+        }
+        invalidateLocalPrefix(prefix);
+        publish(PREFIX_MARK + prefix);
+    }
+
+    /**
+     * 立即重新加载一个条目并覆盖旧值，旧值在加载完成前一直可读，不会出现未命中
+     * @param key 缓存键
+     * @return 本节点没有该条目的加载方法时返回false，调用方需自行失效后重新加载
+     */
+    public boolean refresh(Object key) throws Exception {
+        Callable<Object> loader = loaders.get(localKey(key));
+        if (loader == null) {
+            return false;
+        }
+        Object value = loader.call();
+        if (value == null) {
+            evict(key);
+        } else {
+            put(key, value);
+        }
+        return true;
+    }
+
+    /**
+     * 缓存方法执行完成，由切面调用
+     * @param key 缓存键
+     * @param value 加载结果，为null时不会写入缓存，直接唤醒等待的请求
+     * @param elapsedNanos 加载耗时
+     * @param loader 加载方法，为null时不支持后台刷新
+     */
+    void loaded(Object key, Object value, long elapsedNanos, Callable<Object> loader) {
+        loadTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        String localKey = localKey(key);
+        if (loader != null) {
+            loaders.put(localKey, loader);
+        }
+        if (value == null) {
+            finishLoad(localKey, null);
+        }
+    }
+
+    /**
+     * 缓存方法抛出异常，由切面调用，等待的请求各自重试加载
+     * @param key 缓存键
+     */
+    void loadFailed(Object key) {
+        finishLoad(localKey(key), null);
+    }
+
+    /**
+     * 处理其他节点发来的失效目标，只作用于本节点一级缓存
+     * @param target 带标记的失效目标
+     */
+    void applyRemoteInvalidation(String target) {
+        if (CLEAR_MARK.equals(target)) {
+            invalidateLocal(null);
+        } else if (target.startsWith(KEY_MARK)) {
+            invalidateLocal(target.substring(KEY_MARK.length()));
+        } else if (target.startsWith(PREFIX_MARK)) {
+            invalidateLocalPrefix(target.substring(PREFIX_MARK.length()));
+        }
+    }
+
+    /**
+     * 只清除本节点一级缓存中的条目，收到其他节点的失效通知时调用
+     * @param localKey 键，null表示清空
+     */
+    void invalidateLocal(String localKey) {
+        invalidations.incrementAndGet();
+        // 其他节点重新写入后，本节点从下次读到时重新计时
+        if (localKey == null) {
+            writtenAt.clear();
+        } else {
+            writtenAt.remove(localKey);
+        }
+        if (localCache != null) {
+            if (localKey == null) {
+                localCache.invalidateAll();
+            } else {
+                localCache.invalidate(localKey);
+            }
+        }
+    }
+
+    // 先查一级缓存，再查Redis，Redis命中时回填一级缓存并检查是否需要提前刷新；
+    // 没有过期时间的条目判断刷新不访问Redis，一级缓存命中时也检查
+    private ValueWrapper lookup(Object key, String localKey, long generation) {
+        if (localCache != null) {
+            Object value = localCache.getIfPresent(localKey);
+            if (value != null) {
+                if (ttlMillis <= 0) {
+                    refreshIfAging(key, localKey);
+                }
+                return new SimpleValueWrapper(value);
+            }
+        }
+
+        Timer.Sample sample = Timer.start();
+        ValueWrapper wrapper = redisCache.get(key);
+        sample.stop(redisGetTimer);
+        if (wrapper == null || wrapper.get() == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        cacheLocally(localKey, wrapper.get(), generation);
+        refreshIfAging(key, localKey);
+        return wrapper;
+    }
+
+    private ValueWrapper awaitOrLoad(Object key, String localKey, long generation) {
+        CompletableFuture<Object> pending = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(localKey, pending);
+        if (existing != null) {
+            // 本节点已有请求在加载这个键
+            Object value = await(localKey, existing);
+            if (value != null) {
+                coalescedLoads.increment();
+                return new SimpleValueWrapper(value);
+            }
+            CacheLoadContext.missed(this, key);
+            return null;
+        }
+
+        if (!acquireLease(localKey)) {
+            // 其他节点正在加载，等它写入Redis
+            ValueWrapper wrapper = pollRedis(key, localKey, generation);
+            if (wrapper != null) {
+                coalescedLoads.increment();
+                finishLoad(localKey, wrapper.get());
+                return wrapper;
+            }
+        }
+        CacheLoadContext.missed(this, key);
+        return null;
+    }
+
+    private Object await(String localKey, CompletableFuture<Object> future) {
+        try {
+            return future.get(loadPolicy.getWaitMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 加载方还没结束，不再等它，之后的请求重新竞争加载
+            loading.remove(localKey, future);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private ValueWrapper pollRedis(Object key, String localKey, long generation) {
+        long deadline = System.currentTimeMillis() + loadPolicy.getWaitMs();
+        String leaseKey = leaseKey(localKey);
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(loadPolicy.getPollMs());
+                ValueWrapper wrapper = redisCache.get(key);
+                if (wrapper != null && wrapper.get() != null) {
+                    cacheLocally(localKey, wrapper.get(), generation);
+                    return wrapper;
+                }
+                // 租约已释放但没有结果，说明对方加载失败
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(leaseKey))) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("等待其他节点加载缓存失败，缓存: {}, 键: {}, 错误: {}", name, localKey, e.getMessage());
+        }
+        return null;
+    }
+
+    private boolean acquireLease(String localKey) {
+        try {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey(localKey), 1,
+                    Duration.ofMillis(loadPolicy.getLeaseMs()));
+            if (Boolean.TRUE.equals(acquired)) {
+                heldLeases.add(localKey);
+                return true;
+            }
+            return false;
+        } catch (RuntimeException e) {
+            // Redis不可用时只在本节点内合并
+            log.warn("获取缓存加载租约失败，缓存: {}, 键: {}, 错误: {}", name, localKey, e.getMessage());
+            return true;
+        }
+    }
+
+    // 加载结束：唤醒本节点等待的请求，释放跨节点租约
+    private void finishLoad(String localKey, Object value) {
+        CompletableFuture<Object> future = loading.remove(localKey);
+        if (future != null) {
+            future.complete(value);
+        }
+        if (heldLeases.remove(localKey)) {
+            try {
+                redisTemplate.delete(leaseKey(localKey));
+            } catch (RuntimeException e) {
+                log.warn("释放缓存加载租约失败，缓存: {}, 键: {}, 错误: {}", name, localKey, e.getMessage());
+            }
+        }
+    }
+
+    // 存活时间超过过期时间的一定比例后在后台重新加载，期间继续返回旧值；没有过期时间时按写入后的时长判断
+    private void refreshIfAging(Object key, String localKey) {
+        if (ttlMillis > 0 ? !loadPolicy.isRefreshAhead() : !loadPolicy.isRefreshAfterWrite()) {
+            return;
+        }
+        Callable<Object> loader = loaders.get(localKey);
+        if (loader == null || refreshing.contains(localKey)) {
+            return;
+        }
+        if (ttlMillis > 0) {
+            Long remaining = redisTemplate.getExpire(redisKeyPrefix + localKey, TimeUnit.MILLISECONDS);
+            if (remaining == null || remaining < 0
+                    || ttlMillis - remaining < ttlMillis * loadPolicy.getRefreshAheadRatio()) {
+                return;
+            }
+        } else {
+            long now = System.currentTimeMillis();
+            Long written = writtenAt.putIfAbsent(localKey, now);
+            if (written == null || now - written < loadPolicy.getRefreshAfterMs()) {
+                return;
+            }
+        }
+        if (!refreshing.add(localKey)) {
+            return;
+        }
+        try {
+            loadPolicy.getRefreshExecutor().execute(() -> refreshInBackground(key, localKey, loader));
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(localKey);
+        }
+    }
+
+    private void refreshInBackground(Object key, String localKey, Callable<Object> loader) {
+        try {
+            // 多个节点同时发现需要刷新时只有一个执行
+            if (!acquireLease(localKey)) {
+                return;
+            }
+            Object value = loader.call();
+            if (value != null) {
+                put(key, value);
+            } else {
+                finishLoad(localKey, null);
+            }
+            refreshSuccess.increment();
+        } catch (Exception e) {
+            finishLoad(localKey, null);
+            refreshFailure.increment();
+            log.warn("后台刷新缓存失败，缓存: {}, 键: {}, 错误: {}", name, localKey, e.getMessage());
+        } finally {
+            refreshing.remove(localKey);
+        }
+    }
+
+    private String leaseKey(String localKey) {
+        return redisKeyPrefix + LEASE_SEGMENT + localKey;
+    }
+
+    private void invalidateLocalPrefix(String prefix) {
+        invalidations.incrementAndGet();
+        writtenAt.keySet().removeIf(localKey -> localKey.startsWith(prefix));
+        if (localCache != null) {
+            localCache.asMap().keySet().removeIf(localKey -> localKey.startsWith(prefix));
+        }
+    }
+
+    private void clearLocal() {
+        invalidateLocal(null);
+    }
+
+    private void publish(String target) {
+        invalidationPublisher.accept(name, Collections.singletonList(target));
+    }
+
+    private void track(String localKey) {
+        if (trackedPrefixes.isEmpty()) {
+            return;
+        }
+        for (String prefix : trackedPrefixes) {
+            if (localKey.startsWith(prefix)) {
+                try {
+                    redisTemplate.opsForSet().add(indexKey(prefix), localKey);
+                } catch (RuntimeException e) {
+                    // 未登记的条目只能等过期或全量清空
+                    log.warn("登记缓存键失败，缓存: {}, 键: {}, 错误: {}", name, localKey, e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private String indexKey(String prefix) {
+        return redisKeyPrefix + INDEX_SEGMENT + prefix;
+    }
+
+    private void cacheLocally(String localKey, Object value, long generation) {
+        if (localCache == null) {
+            return;
+        }
+        localCache.put(localKey, value);
+        // 回填期间有失效时读到的可能是旧值，不保留
+        if (invalidations.get() != generation) {
+            localCache.asMap().remove(localKey, value);
+        }
+    }
+
+    // 一级缓存和失效消息统一使用字符串键，与Redis中键的后半部分一致
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,146 @@
+package com.qingdai.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * 两级缓存管理器，每个缓存名对应一个Caffeine一级缓存和一个Redis二级缓存
+ * 一级缓存的容量和过期时间按缓存名读取qingdai.cache.local.caches.{name}.*，未配置时使用默认值；
+ * 本节点的写入和失效通过Redis发布订阅通知其他节点，其他节点只清除各自的一级缓存；
+ * 未命中时的合并加载和提前刷新对所有缓存生效，@Cacheable方法不需要额外注解
+ * </p>
+ */
+@Slf4j
+public class TwoLevelCacheManager implements CacheManager {
+
+    private static final String PROPERTY_PREFIX = "qingdai.cache.local.caches.";
+
+    private final RedisCacheManager redisCacheManager;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final boolean localEnabled;
+    private final long defaultMaxSize;
+    private final long defaultExpireSeconds;
+    private final String channel;
+    private final CacheLoadPolicy loadPolicy;
+
+    // 本节点标识，忽略自己发出的失效消息
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ConcurrentMap<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+
+    public TwoLevelCacheManager(RedisCacheManager redisCacheManager, RedisTemplate<String, Object> redisTemplate,
+            MeterRegistry meterRegistry, Environment environment, boolean localEnabled, long defaultMaxSize,
+            long defaultExpireSeconds, String channel, CacheLoadPolicy loadPolicy) {
+        this.redisCacheManager = redisCacheManager;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.localEnabled = localEnabled;
+        this.defaultMaxSize = defaultMaxSize;
+        this.defaultExpireSeconds = defaultExpireSeconds;
+        this.channel = channel;
+        this.loadPolicy = loadPolicy;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        TwoLevelCache cache = caches.get(name);
+        if (cache != null) {
+            return cache;
+        }
+        Cache redisCache = redisCacheManager.getCache(name);
+        if (redisCache == null) {
+            return null;
+        }
+        return caches.computeIfAbsent(name, n -> new TwoLevelCache(n, redisCache, createLocalCache(n),
+                this::publishInvalidation, redisTemplate, redisKeyPrefix(n, redisCache), redisTtl(n, redisCache),
+                loadPolicy, meterRegistry));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return redisCacheManager.getCacheNames();
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    private static String redisKeyPrefix(String name, Cache redisCache) {
+        if (redisCache instanceof RedisCache) {
+            return ((RedisCache) redisCache).getCacheConfiguration().getKeyPrefixFor(name);
+        }
+        return name + "::";
+    }
+
+    private static Duration redisTtl(String name, Cache redisCache) {
+        if (redisCache instanceof RedisCache) {
+            return ((RedisCache) redisCache).getCacheConfiguration().getTtlFunction().getTimeToLive(name, null);
+        }
+        return Duration.ZERO;
+    }
+
+    private com.github.benmanes.caffeine.cache.Cache<String, Object> createLocalCache(String name) {
+        long maxSize = environment.getProperty(PROPERTY_PREFIX + name + ".max-size", Long.class, defaultMaxSize);
+        long expireSeconds = environment.getProperty(PROPERTY_PREFIX + name + ".expire-seconds", Long.class,
+                defaultExpireSeconds);
+        if (!localEnabled || maxSize <= 0 || expireSeconds <= 0) {
+            log.info("缓存{}不使用一级缓存", name);
+            return null;
+        }
+        com.github.benmanes.caffeine.cache.Cache<String, Object> localCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(expireSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, name, "level", "local");
+        log.info("缓存{}启用一级缓存，容量{}条，过期时间{}秒", name, maxSize, expireSeconds);
+        return localCache;
+    }
+
+    // 消息格式：节点标识\n缓存名\n目标[\n目标...]，目标为 =键、^键前缀 或 *
+    private void publishInvalidation(String cacheName, Collection<String> targets) {
+        String message = nodeId + "\n" + cacheName + "\n" + String.join("\n", targets);
+        try {
+            redisTemplate.convertAndSend(channel, message);
+        } catch (RuntimeException e) {
+            // 其他节点的一级缓存最迟在过期后更新
+            log.warn("发送缓存失效消息失败，缓存: {}, 错误: {}", cacheName, e.getMessage());
+        }
+    }
+
+    /**
+     * 处理其他节点发来的失效消息，只清除本节点的一级缓存
+     * @param message 失效消息
+     */
+    public void onInvalidation(String message) {
+        String[] parts = message.split("\n");
+        if (parts.length < 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        TwoLevelCache cache = caches.get(parts[1]);
+        if (cache == null) {
+            return;
+        }
+        for (int i = 2; i < parts.length; i++) {
+            cache.applyRemoteInvalidation(parts[i]);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.qingdai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * 带版本头的二进制Redis值序列化器
+ * 结构化的值（实体、列表、分页、统计Map）用二进制格式的ObjectMapper（如Smile）编码，超过阈值时再用LZ4压缩；
+ * 字符串、数字、布尔这类标量仍按原来的JSON格式写入，它们本身不带类名，也保证HyperLogLog元素、
+ * 发布订阅消息和集合成员的字节内容与切换前一致。
+ * 二进制数据以 魔数、结构版本、标志位 三个字节开头：结构版本与当前配置不同的数据、旧版本写入的JSON结构化数据
+ * 以及解码失败的数据都按不存在处理，缓存会重新加载并覆盖，部署后不会因为读到旧数据而出错；
+ * 压缩数据记录的原始长度超过上限时不分配内存直接按不存在处理，解压按输出长度检查边界，不信任数据本身；
+ * 回退到JSON格式时用jsonOnly包装原来的序列化器，已写入的二进制数据同样按不存在处理
+ * </p>
+ */
+@Slf4j
+public class VersionedRedisSerializer implements RedisSerializer<Object> {
+
+    // UTF-8编码的JSON不会以该字节开头
+    static final byte MAGIC = (byte) 0xC7;
+    static final int HEADER_LENGTH = 3;
+    private static final byte FLAG_LZ4 = 0x01;
+    private static final int LENGTH_PREFIX = 4;
+    // 未配置时解压后的最大字节数
+    static final int DEFAULT_MAX_DECOMPRESSED_BYTES = 16 * 1024 * 1024;
+
+    private final ObjectMapper binaryMapper;
+    private final RedisSerializer<Object> legacySerializer;
+    private final byte schemaVersion;
+    // 编码后超过该字节数时压缩，小于等于0表示不压缩
+    private final int compressThreshold;
+    // 解压后允许的最大字节数，防止损坏或伪造的长度前缀触发超大分配
+    private final int maxDecompressedBytes;
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    public VersionedRedisSerializer(ObjectMapper binaryMapper, RedisSerializer<Object> legacySerializer,
+            int schemaVersion, int compressThreshold) {
+        this(binaryMapper, legacySerializer, schemaVersion, compressThreshold, DEFAULT_MAX_DECOMPRESSED_BYTES);
+    }
+
+    public VersionedRedisSerializer(ObjectMapper binaryMapper, RedisSerializer<Object> legacySerializer,
+            int schemaVersion, int compressThreshold, int maxDecompressedBytes) {
+        if (maxDecompressedBytes <= 0) {
+            throw new IllegalArgumentException("解压后的最大字节数必须大于0: " + maxDecompressedBytes);
+        }
+        if (schemaVersion < 0 || schemaVersion > 255) {
+            throw new IllegalArgumentException("结构版本必须在0到255之间: " + schemaVersion);
+        }
+        this.binaryMapper = binaryMapper;
+        this.legacySerializer = legacySerializer;
+        this.schemaVersion = (byte) schemaVersion;
+        this.compressThreshold = compressThreshold;
+        this.maxDecompressedBytes = maxDecompressedBytes;
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (isScalar(value)) {
+            return legacySerializer.serialize(value);
+        }
+        byte[] payload;
+        try {
+            payload = binaryMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new SerializationException("二进制序列化失败: " + value.getClass().getName(), e);
+        }
+        if (compressThreshold > 0 && payload.length > compressThreshold) {
+            return compress(payload);
+        }
+        byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+        writeHeader(bytes, (byte) 0);
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            // 标量和切换前写入的JSON
+            Object value = legacySerializer.deserialize(bytes);
+            return isScalar(value) ? value : null;
+        }
+        if (bytes.length < HEADER_LENGTH || bytes[1] != schemaVersion) {
+            return null;
+        }
+        try {
+            if ((bytes[2] & FLAG_LZ4) != 0) {
+                byte[] payload = decompress(bytes);
+                return payload == null ? null : binaryMapper.readValue(payload, Object.class);
+            }
+            return binaryMapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, Object.class);
+        } catch (IOException | RuntimeException e) {
+            // 同一结构版本下类定义不兼容时也只当作未命中，同时提示需要提高结构版本
+            log.warn("Redis值解码失败，按不存在处理，结构版本: {}, 错误: {}", schemaVersion, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 只读写JSON的序列化器，用于把格式切回json：以魔数开头的二进制数据按不存在处理，不再抛出解码异常
+     *
+     * @param jsonSerializer 原来的JSON序列化器
+     */
+    public static RedisSerializer<Object> jsonOnly(RedisSerializer<Object> jsonSerializer) {
+        return new RedisSerializer<Object>() {
+            @Override
+            public byte[] serialize(Object value) throws SerializationException {
+                return jsonSerializer.serialize(value);
+            }
+
+            @Override
+            public Object deserialize(byte[] bytes) throws SerializationException {
+                if (bytes != null && bytes.length > 0 && bytes[0] == MAGIC) {
+                    return null;
+                }
+                return jsonSerializer.deserialize(bytes);
+            }
+        };
+    }
+
+    // 长度前缀超出上限或与实际解压长度不一致时返回null
+    private byte[] decompress(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH + LENGTH_PREFIX) {
+            log.warn("Redis压缩值缺少长度前缀，按不存在处理");
+            return null;
+        }
+        int length = ByteBuffer.wrap(bytes, HEADER_LENGTH, LENGTH_PREFIX).getInt();
+        if (length < 0 || length > maxDecompressedBytes) {
+            log.warn("Redis压缩值的原始长度{}超出上限{}，按不存在处理", length, maxDecompressedBytes);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        int offset = HEADER_LENGTH + LENGTH_PREFIX;
+        int decompressed = decompressor.decompress(bytes, offset, bytes.length - offset, payload, 0, length);
+        if (decompressed != length) {
+            log.warn("Redis压缩值解压后长度{}与记录的{}不一致，按不存在处理", decompressed, length);
+            return null;
+        }
+        return payload;
+    }
+
+    private byte[] compress(byte[] payload) {
+        int maxLength = compressor.maxCompressedLength(payload.length);
+        byte[] bytes = new byte[HEADER_LENGTH + LENGTH_PREFIX + maxLength];
+        writeHeader(bytes, FLAG_LZ4);
+        ByteBuffer.wrap(bytes, HEADER_LENGTH, LENGTH_PREFIX).putInt(payload.length);
+        int compressedLength = compressor.compress(payload, 0, payload.length, bytes, HEADER_LENGTH + LENGTH_PREFIX,
+                maxLength);
+        return Arrays.copyOf(bytes, HEADER_LENGTH + LENGTH_PREFIX + compressedLength);
+    }
+
+    private void writeHeader(byte[] bytes, byte flags) {
+        bytes[0] = MAGIC;
+        bytes[1] = schemaVersion;
+        bytes[2] = flags;
+    }
+
+    private static boolean isScalar(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean;
+    }
+}
@@ -4,14 +4,17 @@ import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.interceptor.KeyGenerator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
 
 /**
  * 缓存配置类
+ * 缓存拦截器排在CacheLoadAspect外侧，切面只在未命中、真正执行方法时运行
  */
 @Configuration
+@EnableCaching(order = Ordered.LOWEST_PRECEDENCE - 1)
 public class CacheConfig {
 
     /**
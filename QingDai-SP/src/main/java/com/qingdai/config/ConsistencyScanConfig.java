@@ -0,0 +1,34 @@
+package com.qingdai.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一致性检查线程池配置
+ * 读取数据库和列出各档位目录都是IO等待为主，使用独立的小线程池，不占用图片处理线程
+ */
+@Configuration
+public class ConsistencyScanConfig {
+
+    @Value("${qingdai.consistency.worker-count:5}")
+    private int workerCount;
+
+    @Bean(name = "consistencyScanExecutor", destroyMethod = "shutdown")
+    public ExecutorService consistencyScanExecutor(MeterRegistry meterRegistry) {
+        // 一次检查同时读取数据库和三个档位，后台检查的编排还占用一个线程
+        int threads = Math.max(2, workerCount);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("consistency-scan-"));
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "consistencyScan");
+    }
+}
@@ -0,0 +1,71 @@
+package com.qingdai.config;
+
+import com.qingdai.utils.PixelBudgetGate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片处理线程池配置
+ * 解码、压缩等CPU和内存密集的任务统一在专用线程池中执行，不占用ForkJoin公共池；
+ * 线程池的队列长度、活跃线程数和任务耗时通过Micrometer暴露到actuator和JMX
+ */
+@Configuration
+public class ImageProcessConfig {
+
+    @Value("${qingdai.image-process.worker-count:0}")
+    private int workerCount;
+
+    @Value("${qingdai.image-process.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${qingdai.image-process.max-in-flight-megapixels:400}")
+    private long maxInFlightMegapixels;
+
+    @Value("${qingdai.image-process.upload-worker-count:2}")
+    private int uploadWorkerCount;
+
+    @Value("${qingdai.image-process.upload-queue-capacity:32}")
+    private int uploadQueueCapacity;
+
+    @Bean(name = "imageProcessExecutor", destroyMethod = "shutdown")
+    public ExecutorService imageProcessExecutor(MeterRegistry meterRegistry) {
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        // 队列满时由提交任务的线程自己执行，形成背压
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("image-process-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "imageProcess");
+    }
+
+    @Bean(name = "photoUploadExecutor", destroyMethod = "shutdown")
+    public ExecutorService photoUploadExecutor(MeterRegistry meterRegistry) {
+        // 上传任务整体在此线程池排队，单张图片的解码仍受像素预算限制；队列满时拒绝新任务
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(uploadWorkerCount, uploadWorkerCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(uploadQueueCapacity), new CustomizableThreadFactory("photo-upload-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "photoUpload");
+    }
+
+    @Bean
+    public PixelBudgetGate pixelBudgetGate(MeterRegistry meterRegistry) {
+        PixelBudgetGate gate = new PixelBudgetGate(maxInFlightMegapixels);
+        Gauge.builder("qingdai.image.decode.inflight", gate, PixelBudgetGate::getInFlightMegapixels)
+                .description("正在解码的百万像素数")
+                .baseUnit("megapixels")
+                .register(meterRegistry);
+        Gauge.builder("qingdai.image.decode.waiting", gate, PixelBudgetGate::getQueueLength)
+                .description("等待解码预算的任务数")
+                .register(meterRegistry);
+        return gate;
+    }
+}
@@ -0,0 +1,164 @@
+package com.qingdai.config;
+
+import com.qingdai.storage.LocalPhotoStorage;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.S3PhotoStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原图存储配置
+ * local时原图和介绍图片存放在配置的本机目录；s3时存放在S3兼容的对象存储中，
+ * 本机目录配置仍用于识别档位，对象键为“key-prefix + fullSize/或introduce/ + 文件名”
+ */
+@Configuration
+public class PhotoStorageConfig {
+
+    private static final String TYPE = "qingdai.photo-storage.type";
+
+    @Value("${" + TYPE + ":local}")
+    private String type;
+
+    @Value("${qingdai.url.fullSizeUrl}")
+    private String fullSizeUrl;
+
+    @Value("${qingdai.url.introduceUrl}")
+    private String introduceUrl;
+
+    @Value("${qingdai.photo-storage.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${qingdai.photo-storage.s3.public-endpoint:}")
+    private String publicEndpoint;
+
+    @Value("${qingdai.photo-storage.s3.region:us-east-1}")
+    private String region;
+
+    @Value("${qingdai.photo-storage.s3.bucket:qingdai}")
+    private String bucket;
+
+    @Value("${qingdai.photo-storage.s3.key-prefix:}")
+    private String keyPrefix;
+
+    @Value("${qingdai.photo-storage.s3.access-key:}")
+    private String accessKey;
+
+    @Value("${qingdai.photo-storage.s3.secret-key:}")
+    private String secretKey;
+
+    @Value("${qingdai.photo-storage.s3.path-style-access:true}")
+    private boolean pathStyleAccess;
+
+    @Value("${qingdai.photo-storage.s3.multipart-threshold-mb:16}")
+    private long multipartThresholdMb;
+
+    @Value("${qingdai.photo-storage.s3.part-size-mb:8}")
+    private long partSizeMb;
+
+    @Value("${qingdai.photo-storage.s3.upload-concurrency:4}")
+    private int uploadConcurrency;
+
+    @Value("${qingdai.photo-storage.s3.redirect-downloads:false}")
+    private boolean redirectDownloads;
+
+    @Value("${qingdai.photo-storage.s3.presign-ttl-seconds:300}")
+    private long presignTtlSeconds;
+
+    @Bean(name = "fullSizePhotoStorage")
+    public PhotoStorage fullSizePhotoStorage(ObjectProvider<S3Client> s3Client,
+            ObjectProvider<S3Presigner> s3Presigner,
+            @Qualifier("photoStorageUploadExecutor") ObjectProvider<ExecutorService> uploadExecutor) {
+        return create(fullSizeUrl, "fullSize/", s3Client, s3Presigner, uploadExecutor);
+    }
+
+    @Bean(name = "introducePhotoStorage")
+    public PhotoStorage introducePhotoStorage(ObjectProvider<S3Client> s3Client,
+            ObjectProvider<S3Presigner> s3Presigner,
+            @Qualifier("photoStorageUploadExecutor") ObjectProvider<ExecutorService> uploadExecutor) {
+        return create(introduceUrl, "introduce/", s3Client, s3Presigner, uploadExecutor);
+    }
+
+    private PhotoStorage create(String tierUrl, String folder, ObjectProvider<S3Client> s3Client,
+            ObjectProvider<S3Presigner> s3Presigner, ObjectProvider<ExecutorService> uploadExecutor) {
+        if (!"s3".equalsIgnoreCase(type)) {
+            return new LocalPhotoStorage(Paths.get(tierUrl));
+        }
+        // 前端通过带凭证的XHR读取原图和头像，跨域重定向后请求的Origin变为null，对象存储无法放行，默认由应用节点转发
+        Duration presignTtl = redirectDownloads && presignTtlSeconds > 0 ? Duration.ofSeconds(presignTtlSeconds)
+                : null;
+        return new S3PhotoStorage(s3Client.getObject(), s3Presigner.getObject(), uploadExecutor.getObject(), bucket,
+                keyPrefix + folder, Paths.get(tierUrl), multipartThresholdMb * 1024 * 1024, partSizeMb * 1024 * 1024,
+                presignTtl);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = TYPE, havingValue = "s3")
+    public S3Client photoStorageS3Client() {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                // MinIO等自建服务通常只支持路径风格的地址
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyleAccess).build());
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = TYPE, havingValue = "s3")
+    public S3Presigner photoStorageS3Presigner() {
+        S3Presigner.Builder builder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyleAccess).build());
+        // 预签名地址由浏览器访问，对象存储对外地址与应用节点访问的地址不同时使用public-endpoint
+        String presignEndpoint = !publicEndpoint.isEmpty() ? publicEndpoint : endpoint;
+        if (!presignEndpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(presignEndpoint));
+        }
+        return builder.build();
+    }
+
+    @Bean(name = "photoStorageUploadExecutor", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = TYPE, havingValue = "s3")
+    public ExecutorService photoStorageUploadExecutor(MeterRegistry meterRegistry) {
+        // 分片上传线程池，队列满时由提交分片的线程自己上传
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(uploadConcurrency, uploadConcurrency, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(uploadConcurrency * 4),
+                new CustomizableThreadFactory("photo-storage-upload-"), new ThreadPoolExecutor.CallerRunsPolicy());
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "photoStorageUpload");
+    }
+
+    // 未配置访问密钥时使用SDK默认的凭证链（环境变量、实例角色等）
+    private AwsCredentialsProvider credentialsProvider() {
+        if (accessKey.isEmpty()) {
+            return DefaultCredentialsProvider.create();
+        }
+        return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+    }
+}
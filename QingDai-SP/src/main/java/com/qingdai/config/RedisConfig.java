@@ -5,23 +5,38 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.qingdai.cache.CacheLoadPolicy;
+import com.qingdai.cache.TwoLevelCacheManager;
+import com.qingdai.cache.VersionedRedisSerializer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class RedisConfig {
@@ -53,12 +68,89 @@ public class RedisConfig {
         @Value("${qingdai.redis.ttl.photo-view-hours:0}")
         private int redisPhotoViewTtlHours;
 
+        @Value("${qingdai.cache.local.enabled:true}")
+        private boolean localCacheEnabled;
+
+        @Value("${qingdai.cache.local.max-size:10000}")
+        private long localCacheMaxSize;
+
+        @Value("${qingdai.cache.local.expire-seconds:300}")
+        private long localCacheExpireSeconds;
+
+        @Value("${qingdai.cache.local.channel:qingdai:cache:invalidate}")
+        private String cacheInvalidationChannel;
+
+        @Value("${qingdai.cache.load.single-flight:true}")
+        private boolean cacheSingleFlight;
+
+        @Value("${qingdai.cache.load.lease-ms:30000}")
+        private long cacheLoadLeaseMs;
+
+        @Value("${qingdai.cache.load.wait-ms:3000}")
+        private long cacheLoadWaitMs;
+
+        @Value("${qingdai.cache.load.poll-ms:50}")
+        private long cacheLoadPollMs;
+
+        @Value("${qingdai.cache.load.refresh-ahead-ratio:0.8}")
+        private double cacheRefreshAheadRatio;
+
+        @Value("${qingdai.cache.load.refresh-after-seconds:600}")
+        private long cacheRefreshAfterSeconds;
+
+        @Value("${qingdai.cache.load.refresh-threads:2}")
+        private int cacheRefreshThreads;
+
+        @Value("${qingdai.redis.codec.format:smile}")
+        private String redisCodecFormat;
+
+        @Value("${qingdai.redis.codec.schema-version:1}")
+        private int redisCodecSchemaVersion;
+
+        @Value("${qingdai.redis.codec.compress-threshold-bytes:2048}")
+        private int redisCodecCompressThreshold;
+
+        @Value("${qingdai.redis.codec.max-decompressed-bytes:16777216}")
+        private int redisCodecMaxDecompressedBytes;
+
         /**
          * 创建一个专门用于Redis的ObjectMapper，需要包含类型信息
          */
         @Bean(name = "redisObjectMapper")
         public ObjectMapper redisObjectMapper() {
-                ObjectMapper objectMapper = new ObjectMapper();
+                return configureRedisMapper(new ObjectMapper());
+        }
+
+        /**
+         * Redis值的序列化器，缓存和RedisTemplate共用
+         * smile：结构化的值用Smile二进制格式，超过阈值时LZ4压缩，数据带结构版本；json：与之前相同的带类型JSON，
+         * 从smile切回json时Redis中残留的二进制数据按未命中处理
+         */
+        @Bean(name = "redisValueSerializer")
+        public RedisSerializer<Object> redisValueSerializer(
+                        @Qualifier("redisObjectMapper") ObjectMapper redisObjectMapper) {
+                Jackson2JsonRedisSerializer<Object> jsonSerializer = new Jackson2JsonRedisSerializer<>(redisObjectMapper,
+                                Object.class);
+                if ("json".equalsIgnoreCase(redisCodecFormat)) {
+                        return VersionedRedisSerializer.jsonOnly(jsonSerializer);
+                }
+                if (!"smile".equalsIgnoreCase(redisCodecFormat)) {
+                        throw new IllegalArgumentException("不支持的Redis值格式: " + redisCodecFormat);
+                }
+                // 重复出现的类名和字符串值用回引代替，带类型信息时体积明显减小
+                SmileFactory smileFactory = SmileFactory.builder()
+                                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                                .build();
+                ObjectMapper smileMapper = configureRedisMapper(new ObjectMapper(smileFactory));
+                return new VersionedRedisSerializer(smileMapper, jsonSerializer, redisCodecSchemaVersion,
+                                redisCodecCompressThreshold, redisCodecMaxDecompressedBytes);
+        }
+
+        /**
+         * Redis值使用的ObjectMapper配置：保存类型信息，反序列化时还原为原来的类
+         * JSON和Smile共用，基准测试也用它保证与线上一致
+         */
+        public static ObjectMapper configureRedisMapper(ObjectMapper objectMapper) {
                 objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
                 objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance,
                                 ObjectMapper.DefaultTyping.NON_FINAL);
@@ -73,45 +165,81 @@ public class RedisConfig {
 
         @Bean
         public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory factory,
-                        @Qualifier("redisObjectMapper") ObjectMapper redisObjectMapper) {
+                        @Qualifier("redisValueSerializer") RedisSerializer<Object> redisValueSerializer) {
                 RedisTemplate<String, Object> template = new RedisTemplate<>();
                 template.setConnectionFactory(factory);
 
                 // 使用StringRedisSerializer来序列化和反序列化redis的key值
                 template.setKeySerializer(new StringRedisSerializer());
 
-                // 使用定制的Jackson2JsonRedisSerializer来序列化和反序列化redis的value值
-                Jackson2JsonRedisSerializer<Object> serializer = new Jackson2JsonRedisSerializer<>(redisObjectMapper,
-                                Object.class);
-                template.setValueSerializer(serializer);
+                template.setValueSerializer(redisValueSerializer);
 
                 // Hash的key也采用StringRedisSerializer的序列化方式
                 template.setHashKeySerializer(new StringRedisSerializer());
-                // Hash的value采用Jackson2JsonRedisSerializer的序列化方式
-                template.setHashValueSerializer(serializer);
+                template.setHashValueSerializer(redisValueSerializer);
 
                 template.afterPropertiesSet();
                 return template;
         }
 
+        /**
+         * 两级缓存：进程内Caffeine在前，Redis在后，热点查询不再每次访问Redis和反序列化
+         */
         @Bean
-        public CacheManager cacheManager(RedisConnectionFactory factory,
-                        @Qualifier("redisObjectMapper") ObjectMapper redisObjectMapper) {
-                // 创建支持Java 8日期时间API的序列化器
-                Jackson2JsonRedisSerializer<Object> serializer = new Jackson2JsonRedisSerializer<>(redisObjectMapper,
-                                Object.class);
-
+        public TwoLevelCacheManager cacheManager(RedisConnectionFactory factory,
+                        @Qualifier("redisValueSerializer") RedisSerializer<Object> serializer,
+                        RedisTemplate<String, Object> redisTemplate, MeterRegistry meterRegistry,
+                        Environment environment, @Qualifier("cacheRefreshExecutor") ExecutorService cacheRefreshExecutor) {
                 // 配置不同cacheName的过期时间
                 Map<String, RedisCacheConfiguration> configMap = new HashMap<>();
                 configMap.put("photo", getCacheConfig(redisPhotoTtlHours, serializer));
 
-                return RedisCacheManager.builder(factory)
+                RedisCacheManager redisCacheManager = RedisCacheManager.builder(factory)
                                 .cacheDefaults(getCacheConfig(redisCacheTtlHours, serializer))
                                 .withInitialCacheConfigurations(configMap)
                                 .build();
+                redisCacheManager.afterPropertiesSet();
+
+                CacheLoadPolicy loadPolicy = new CacheLoadPolicy(cacheSingleFlight, cacheLoadLeaseMs, cacheLoadWaitMs,
+                                cacheLoadPollMs, cacheRefreshAheadRatio, cacheRefreshAfterSeconds * 1000,
+                                cacheRefreshExecutor);
+
+                return new TwoLevelCacheManager(redisCacheManager, redisTemplate, meterRegistry, environment,
+                                localCacheEnabled, localCacheMaxSize, localCacheExpireSeconds, cacheInvalidationChannel,
+                                loadPolicy);
+        }
+
+        /**
+         * 缓存后台刷新线程池，刷新时执行的是统计查询，线程数不宜多
+         */
+        @Bean(name = "cacheRefreshExecutor", destroyMethod = "shutdown")
+        public ExecutorService cacheRefreshExecutor(MeterRegistry meterRegistry) {
+                int threads = Math.max(1, cacheRefreshThreads);
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                new LinkedBlockingQueue<>(100), new CustomizableThreadFactory("cache-refresh-"),
+                                new ThreadPoolExecutor.AbortPolicy());
+                executor.allowCoreThreadTimeOut(true);
+                return ExecutorServiceMetrics.monitor(meterRegistry, executor, "cacheRefresh");
+        }
+
+        /**
+         * 订阅其他节点发出的缓存失效消息
+         */
+        @Bean
+        public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory factory,
+                        TwoLevelCacheManager cacheManager, RedisTemplate<String, Object> redisTemplate) {
+                RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+                container.setConnectionFactory(factory);
+                container.addMessageListener((message, pattern) -> {
+                        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+                        if (body instanceof String) {
+                                cacheManager.onInvalidation((String) body);
+                        }
+                }, new ChannelTopic(cacheManager.getChannel()));
+                return container;
         }
 
-        public RedisCacheConfiguration getCacheConfig(int configHours, Jackson2JsonRedisSerializer<Object> serializer) {
+        public RedisCacheConfiguration getCacheConfig(int configHours, RedisSerializer<Object> serializer) {
                 return RedisCacheConfiguration.defaultCacheConfig()
                                 .entryTtl(getTtl(configHours))
                                 .serializeKeysWith(RedisSerializationContext.SerializationPair
@@ -25,7 +25,8 @@ public class WebMvcConfig implements WebMvcConfigurer {
                 )
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")  // 允许的 HTTP 方法
                 .allowedHeaders("*")  // 允许所有请求头
-                .exposedHeaders("Authorization", "Content-Type", "Content-Length", "Content-Disposition", "Vary")  // 允许暴露的响应头
+                .exposedHeaders("Authorization", "Content-Type", "Content-Length", "Content-Disposition", "Vary",
+                        "ETag", "Last-Modified", "Accept-Ranges", "Content-Range")  // 允许暴露的响应头
                 .allowCredentials(true)  // 允许发送凭证（cookies）
                 .maxAge(3600);  // 预检请求的缓存时间
     }
@@ -2,18 +2,29 @@ package com.qingdai.controller;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.qingdai.entity.dto.PhotoStartStatusDTO;
 import com.qingdai.entity.Photo;
 import com.qingdai.entity.GroupPhotoPhoto;
 import com.qingdai.service.PhotoService;
 import com.qingdai.service.GroupPhotoPhotoService;
 import com.qingdai.service.GroupPhotoService;
+import com.qingdai.utils.BundleWriter;
+import com.qingdai.utils.FileResponseUtils;
 import com.qingdai.utils.FileUtils;
+import com.qingdai.utils.ImageCompressUtils;
 import com.qingdai.utils.ValidationUtils;
 import com.qingdai.service.FileProcessService;
 import com.qingdai.service.PhotoViewService;
+import com.qingdai.service.PhotoUploadJobService;
+import com.qingdai.service.PendingWatchService;
+import com.qingdai.service.PhotoLookupFilterService;
+import com.qingdai.service.PhotoConsistencyService;
+import com.qingdai.service.PhotoRenditionService;
+import com.qingdai.service.ThumbnailCacheService;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.ThumbnailStore;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
@@ -24,8 +35,11 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -33,7 +47,9 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.data.redis.core.RedisTemplate;
 
 import java.io.File;
@@ -47,6 +63,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -73,6 +91,34 @@ public class PhotoController {
     @Autowired
     private PhotoViewService photoViewService;
 
+    @Autowired
+    private PhotoUploadJobService photoUploadJobService;
+
+    @Autowired
+    private PendingWatchService pendingWatchService;
+
+    @Autowired
+    private PhotoLookupFilterService photoLookupFilterService;
+
+    @Autowired
+    private PhotoRenditionService photoRenditionService;
+
+    @Autowired
+    private PhotoConsistencyService photoConsistencyService;
+
+    @Autowired
+    private ThumbnailCacheService thumbnailCacheService;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Autowired
+    @Qualifier("fullSizePhotoStorage")
+    private PhotoStorage fullSizePhotoStorage;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
@@ -90,19 +136,28 @@ public class PhotoController {
     @Value("${qingdai.redis.key.photo-view}")
     private String viewKeyPrefix;
 
+    @Value("${qingdai.cdn.max-age-seconds:3600}")
+    private long cdnMaxAgeSeconds;
+
+    @Value("${qingdai.cdn.direct-transfer-threshold-kb:1024}")
+    private long directTransferThresholdKB;
+
+    @Value("${qingdai.cdn.bundle-max-items:100}")
+    private int bundleMaxItems;
+
     @GetMapping("/cdn/thumbnails/small")
     @PreAuthorize("permitAll()")
-    @Operation(summary = "批量获取压缩照片文件", description = "根据ID列表获取多个压缩照片文件")
-    public ResponseEntity<Resource> getThumbnail100KPhotosByIds(@RequestParam List<String> ids) {
+    @Operation(summary = "批量获取压缩照片文件", description = "根据ID列表获取多个压缩照片文件，以不压缩的ZIP流式返回")
+    public ResponseEntity<StreamingResponseBody> getThumbnail100KPhotosByIds(@RequestParam List<String> ids) {
         try {
-            List<File> validFiles = new ArrayList<>();
+            List<ThumbnailStore.StoredThumbnail> validFiles = new ArrayList<>();
 
             for (String id : ids) {
                 try {
                     String fileName = photoService.getFileNameById(id);
                     if (fileName != null) {
-                        File file = new File(thumbnail100KUrl, fileName);
-                        if (file.exists()) {
+                        ThumbnailStore.StoredThumbnail file = thumbnailStore.get(fileName);
+                        if (file != null) {
                             validFiles.add(file);
                             log.debug("成功添加照片文件到列表，ID: {}, 文件名: {}", id, fileName);
                         } else {
@@ -121,26 +176,146 @@ public class PhotoController {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
 
-            log.info("成功获取批量照片文件，共{}个文件", validFiles.size());
-            return FileUtils.getFilesResource(validFiles);
+            // 不设置Content-Length，边读文件边以分块传输发送
+            StreamingResponseBody body = out -> {
+                long startTime = System.currentTimeMillis();
+                int count = FileUtils.writeStoredZip(validFiles, out);
+                log.info("成功发送批量照片文件，共{}个文件，耗时{}毫秒", count, System.currentTimeMillis() - startTime);
+            };
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"package_" + System.currentTimeMillis() + ".zip\"")
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .body(body);
         } catch (Exception e) {
             log.error("批量获取照片文件时发生错误，ID列表: {}, 错误: {}", ids, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
 
+    @GetMapping("/cdn/bundle/small")
+    @PreAuthorize("permitAll()")
+    @Operation(summary = "打包获取一页100K压缩照片",
+            description = "传ids时按ID列表打包，否则按page和pageSize查询可见照片并把分页信息一起返回；"
+                    + "超过单次上限时只打包前面的照片，其余ID放在元数据remainingIds中；pageSize超过上限时按上限分页；"
+                    + "响应为长度前缀的二进制格式(" + BundleWriter.CONTENT_TYPE + ")，一次请求代替逐张获取")
+    public ResponseEntity<StreamingResponseBody> getThumbnail100KBundle(
+            @RequestParam(required = false) List<String> ids,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        try {
+            Map<String, Object> metadata = new HashMap<>();
+            List<String> photoIds;
+            if (ids != null && !ids.isEmpty()) {
+                photoIds = ids;
+            } else if (page != null && pageSize != null) {
+                Page<Photo> photoPage = photoService.page(
+                        new Page<>(Math.max(page, 1), Math.min(Math.max(pageSize, 1), bundleMaxItems)),
+                        visiblePhotoQuery());
+                metadata.put("page", photoPage);
+                photoIds = photoPage.getRecords().stream().map(Photo::getId).collect(Collectors.toList());
+            } else {
+                return ResponseEntity.badRequest().build();
+            }
+            // 超过上限时只打包前面的照片，客户端按remainingIds继续请求
+            boolean truncated = photoIds.size() > bundleMaxItems;
+            List<String> bundleIds = truncated ? new ArrayList<>(photoIds.subList(0, bundleMaxItems)) : photoIds;
+            List<String> remainingIds = truncated
+                    ? new ArrayList<>(photoIds.subList(bundleMaxItems, photoIds.size()))
+                    : Collections.emptyList();
+            metadata.put("ids", bundleIds);
+            metadata.put("remainingIds", remainingIds);
+            byte[] metadataBytes = objectMapper.writeValueAsBytes(metadata);
+            boolean webp = FileUtils.acceptsWebp(accept);
+
+            StreamingResponseBody body = out -> {
+                BundleWriter writer = new BundleWriter(out, metadataBytes);
+                for (String id : bundleIds) {
+                    writeBundleEntry(writer, id, webp);
+                }
+                int count = writer.finish();
+                log.info("成功发送打包照片，共{}个，请求{}个", count, bundleIds.size());
+            };
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(BundleWriter.CONTENT_TYPE))
+                    .cacheControl(CacheControl.noCache())
+                    .body(body);
+        } catch (Exception e) {
+            log.error("打包获取照片时发生错误，ID列表: {}, 页码: {}, 错误: {}", ids, page, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // 优先从热点缓存写入，未命中时读文件，照片或文件不存在时跳过
+    private void writeBundleEntry(BundleWriter writer, String id, boolean webp) throws IOException {
+        ThumbnailCacheService.CachedThumbnail cached = thumbnailCacheService.get(id, webp);
+        if (cached != null) {
+            try {
+                writer.write(id, cached.getMediaType().toString(), cached.getData());
+            } finally {
+                cached.release();
+            }
+            return;
+        }
+        String fileName = photoService.getFileNameById(id);
+        if (fileName == null) {
+            log.warn("未找到ID为{}的照片记录", id);
+            return;
+        }
+        ThumbnailStore.StoredThumbnail stored = thumbnailStore.get(fileName, webp);
+        MediaType mediaType = stored == null ? null : FileUtils.getImageMediaType(stored.getName());
+        if (mediaType == null) {
+            log.warn("照片文件不存在或格式不支持，ID: {}, 文件名: {}", id, fileName);
+        } else if (stored.getData() != null) {
+            writer.write(id, mediaType.toString(), stored.getData());
+        } else if (!writer.write(id, mediaType.toString(), stored.getFile())) {
+            log.warn("照片文件在打包过程中被删除，ID: {}, 文件名: {}", id, fileName);
+        }
+    }
+
     @GetMapping("/cdn/thumbnail/small")
     @Operation(summary = "获取指定100K压缩照片文件", description = "根据接收到的的照片ID获取100K压缩照片文件并返回")
     @PreAuthorize("permitAll()")
-    public ResponseEntity<Resource> getThumbnail100KPhotoById(@RequestParam String id) {
+    public ResponseEntity<Resource> getThumbnail100KPhotoById(@RequestParam String id,
+            @Parameter(description = "内容版本，等于照片当前内容哈希时响应可长期缓存") @RequestParam(required = false) String v,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request, HttpServletResponse response) {
         try {
+            // 热点缩略图直接从内存返回，不查文件名也不读磁盘；Range请求仍然读文件
+            ThumbnailCacheService.CachedThumbnail cached = request.getHeader(HttpHeaders.RANGE) == null
+                    ? thumbnailCacheService.get(id, FileUtils.acceptsWebp(accept))
+                    : null;
+            if (cached != null) {
+                try {
+                    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+                    return FileResponseUtils.serveBuffer(cached.getData(), cached.getMediaType(), cached.getEtag(),
+                            cached.getLastModified(), "100K", request, response,
+                            versionedCacheControl(cached.getContentHash(), v, true));
+                } finally {
+                    cached.release();
+                }
+            }
+
             String fileName = photoService.getFileNameById(id);
             if (fileName == null) {
                 log.warn("未找到ID为{}的照片记录", id);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
             }
             log.info("成功获取100K压缩照片，文件名: {}", fileName);
-            return FileUtils.getFileResource(thumbnail100KUrl, fileName);
+            ThumbnailStore.StoredThumbnail stored = thumbnailStore.get(fileName, FileUtils.acceptsWebp(accept));
+            if (stored == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            if (stored.getFile() != null) {
+                return FileUtils.varyOnAccept(FileResponseUtils.serve(stored.getFile(), "100K", request,
+                        cdnCacheControl(id, v, true)));
+            }
+            // 分段存储的缩略图直接从映射内存写出，不处理Range
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            return FileResponseUtils.serveBuffer(stored.getData(), FileUtils.getImageMediaType(stored.getName()),
+                    stored.getEtag(), stored.getLastModified(), "100K", request, response,
+                    cdnCacheControl(id, v, true));
         } catch (Exception e) {
             log.error("获取100K压缩照片时发生错误，ID: {}, 错误: {}", id, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
@@ -150,7 +325,10 @@ public class PhotoController {
     @GetMapping("/cdn/thumbnail/medium")
     @Operation(summary = "获取指定1000K压缩照片文件", description = "根据接收到的的照片ID获取1000K压缩照片文件并返回")
     @PreAuthorize("permitAll()")
-    public ResponseEntity<Resource> getThumbnail1000KPhotoById(@RequestParam String id) {
+    public ResponseEntity<Resource> getThumbnail1000KPhotoById(@RequestParam String id,
+            @Parameter(description = "内容版本，等于照片当前内容哈希时响应可长期缓存") @RequestParam(required = false) String v,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request) {
         try {
             String fileName = photoService.getFileNameById(id);
             if (fileName == null) {
@@ -158,17 +336,62 @@ public class PhotoController {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
             }
             log.info("成功获取1000K压缩照片，文件名: {}", fileName);
-            return FileUtils.getFileResource(thumbnail1000KUrl, fileName);
+            File file = FileUtils.negotiateWebp(new File(thumbnail1000KUrl, fileName), accept);
+            return FileUtils.varyOnAccept(FileResponseUtils.serve(file, "1000K", request, cdnCacheControl(id, v, true)));
         } catch (Exception e) {
             log.error("获取1000K压缩照片时发生错误，ID: {}, 错误: {}", id, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
 
+    @GetMapping("/cdn/rendition")
+    @Operation(summary = "按需获取指定尺寸的照片", description = "按宽度、质量和格式从最接近的已有档位生成照片，结果缓存到磁盘；格式为auto时按Accept头选择WebP或JPEG；没有VIEWER角色时宽度不超过1000K档位")
+    @PreAuthorize("permitAll()")
+    public ResponseEntity<Resource> getPhotoRenditionById(@RequestParam String id,
+            @RequestParam int width,
+            @RequestParam(defaultValue = "0.8") double quality,
+            @RequestParam(defaultValue = "auto") String format,
+            @Parameter(description = "内容版本，等于照片当前内容哈希时响应可长期缓存") @RequestParam(required = false) String v,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request, HttpServletResponse response) {
+        try {
+            String fileName = photoService.getFileNameById(id);
+            if (fileName == null) {
+                log.warn("未找到ID为{}的照片记录", id);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            boolean negotiated = "auto".equalsIgnoreCase(format);
+            if (negotiated) {
+                format = FileUtils.acceptsWebp(accept) && ImageCompressUtils.canEncode("webp") ? "webp" : "jpg";
+            }
+            // 与原图接口的权限一致，没有VIEWER角色时只能从压缩图生成
+            boolean allowOriginal = request.isUserInRole("VIEWER");
+            File rendition = photoRenditionService.getRendition(fileName, photoService.getContentHashById(id), width,
+                    quality, format, allowOriginal);
+            if (rendition == null) {
+                log.warn("照片文件不存在，ID: {}, 文件名: {}", id, fileName);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            // 结果随登录身份不同，共享缓存按Authorization区分，大于1000K档位的结果只允许私有缓存
+            response.setHeader(HttpHeaders.VARY, negotiated ? HttpHeaders.ACCEPT + ", " + HttpHeaders.AUTHORIZATION
+                    : HttpHeaders.AUTHORIZATION);
+            return FileResponseUtils.serve(rendition, "rendition", request, response,
+                    cdnCacheControl(id, v, !allowOriginal), directTransferThresholdKB * 1024);
+        } catch (IllegalArgumentException e) {
+            log.warn("获取渲染照片参数错误，ID: {}, 错误: {}", id, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("获取渲染照片时发生错误，ID: {}, 错误: {}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @GetMapping("/cdn/fullsize")
     @PreAuthorize("hasRole('VIEWER')")
     @Operation(summary = "获取指定原图照片文件", description = "根据接收到的照片ID获取原图照片文件并返回")
-    public ResponseEntity<Resource> getFullSizePhotoById(@RequestParam String id) {
+    public ResponseEntity<Resource> getFullSizePhotoById(@RequestParam String id,
+            @Parameter(description = "内容版本，等于照片当前内容哈希时响应可长期缓存") @RequestParam(required = false) String v,
+            HttpServletRequest request, HttpServletResponse response) {
         try {
             String fileName = photoService.getFileNameById(id);
             if (fileName == null) {
@@ -176,13 +399,27 @@ public class PhotoController {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
             log.info("成功获取原图照片，文件名: {}", fileName);
-            return FileUtils.getFileResource(fullSizeUrl, fileName);
+            // 原图需要登录查看，只允许浏览器私有缓存；大文件直接写出，对象存储时转发或按配置重定向，返回null表示响应已写完
+            return FileResponseUtils.serveStored(fullSizePhotoStorage, fileName, "fullsize", request, response,
+                    cdnCacheControl(id, v, false), directTransferThresholdKB * 1024);
         } catch (Exception e) {
             log.error("获取原图照片时发生错误，ID: {}, 错误: {}", id, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    // URL带照片当前的内容哈希时内容不会再变，可以长期缓存；否则短期缓存，过期后用ETag校验
+    private CacheControl cdnCacheControl(String id, String version, boolean shared) {
+        return versionedCacheControl(version == null ? null : photoService.getContentHashById(id), version, shared);
+    }
+
+    private CacheControl versionedCacheControl(String contentHash, String version, boolean shared) {
+        CacheControl cacheControl = version != null && version.equals(contentHash)
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).immutable()
+                : CacheControl.maxAge(cdnMaxAgeSeconds, TimeUnit.SECONDS);
+        return shared ? cacheControl.cachePublic() : cacheControl.cachePrivate();
+    }
+
     @GetMapping
     @Operation(summary = "获取全部照片信息(时间倒叙)", description = "从数据库获取所有照片的详细信息(时间倒叙)")
     @PreAuthorize("hasRole('ADMIN')")
@@ -438,9 +675,7 @@ public class PhotoController {
                 log.warn("页码小于1，已自动调整为1");
             }
             Page<Photo> photoPage = new Page<>(page, pageSize);
-            photoService.page(photoPage, new LambdaQueryWrapper<Photo>()
-                    .orderByDesc(Photo::getShootTime)
-                    .in(Photo::getStartRating, Arrays.asList(0, 1)));
+            photoService.page(photoPage, visiblePhotoQuery());
             log.info("成功获取可见照片分页信息，总记录数: {}, 总页数: {}", photoPage.getTotal(), photoPage.getPages());
             return ResponseEntity.ok().body(photoPage);
         } catch (Exception e) {
@@ -449,6 +684,13 @@ public class PhotoController {
         }
     }
 
+    // 可见照片：start为0或1，按拍摄时间倒序
+    private LambdaQueryWrapper<Photo> visiblePhotoQuery() {
+        return new LambdaQueryWrapper<Photo>()
+                .orderByDesc(Photo::getShootTime)
+                .in(Photo::getStartRating, Arrays.asList(0, 1));
+    }
+
     @GetMapping("/page")
     @Operation(summary = "获取分页照片信息(时间倒叙)", description = "从数据库获取分页照片的信息(时间倒叙)")
     @PreAuthorize("hasRole('ADMIN')")
@@ -524,7 +766,45 @@ public class PhotoController {
         }
     }
 
-    @Operation(summary = "上传图片", description = "将前端传入的图片添加到数据库，压缩到thumbnailSizeUrl，复制到fullSizeUrl")
+    @GetMapping("/pending-watcher")
+    @Operation(summary = "查询待处理目录监听状态", description = "返回待处理目录自动导入的运行状态、等待写入完成的文件数和累计导入数")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getPendingWatchStatus() {
+        try {
+            return ResponseEntity.ok(pendingWatchService.getStatus());
+        } catch (Exception e) {
+            log.error("查询待处理目录监听状态时发生错误: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    @GetMapping("/lookup-filter")
+    @Operation(summary = "查询照片存在性过滤状态", description = "返回过滤器是否已建立、容量和直接判定为不存在的查询次数")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getLookupFilterStatus() {
+        try {
+            return ResponseEntity.ok(photoLookupFilterService.getStatus());
+        } catch (Exception e) {
+            log.error("查询照片存在性过滤状态时发生错误: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+    @PostMapping("/lookup-filter/rebuild")
+    @Operation(summary = "重建照片存在性过滤器", description = "从数据库重新读取所有照片ID和文件名，清除已删除照片的残留")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rebuildLookupFilter() {
+        try {
+            photoLookupFilterService.rebuild();
+            return ResponseEntity.ok(photoLookupFilterService.getStatus());
+        } catch (Exception e) {
+            log.error("重建照片存在性过滤器时发生错误: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Collections.singletonMap("error", "重建失败: " + e.getMessage()));
+        }
+    }
+
+    @Operation(summary = "上传图片", description = "保存前端传入的图片后立即返回任务ID，后台逐张压缩、复制到fullSizeUrl并写入数据库，进度通过/{messageId}/upload/status查询")
     @PostMapping
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Map<String, Object>> processPhotosFromFrontend(
@@ -556,71 +836,35 @@ public class PhotoController {
             }
             log.info("创建临时目录: {}", tempDir.getAbsolutePath());
 
-            // 保存到临时目录
+            // 保存到临时目录，写入的同时计算内容哈希，后台任务不再重复读取计算
             String[] fileNames = new String[files.length];
+            String[] contentHashes = new String[files.length];
             for (int i = 0; i < files.length; i++) {
                 MultipartFile file = files[i];
-                FileUtils.saveFile(file, tempDir);
+                contentHashes[i] = FileUtils.saveFile(file, tempDir).getSha256();
                 fileNames[i] = file.getOriginalFilename();
                 log.debug("图片：{},已保存文件到临时目录", file.getOriginalFilename());
             }
 
-            // 同步处理图片
+            // 提交后台任务，立即返回任务ID供前端轮询进度
+            String messageId;
             try {
-                // 创建消息ID
-                String messageId = String.valueOf(System.currentTimeMillis());
-                
-                // 初始化任务状态
-                photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 10, "开始处理图片");
-                
-                // 处理图片压缩流程
-                photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 30, "正在压缩图片");
-                fileProcessService.processPhotoCompression(tempDir, thumbnail100KDir, thumbnail1000KDir, fullSizeDir, overwrite);
-                log.info("完成图片压缩处理");
-                
-                // 处理元数据并保存到数据库
-                photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 60, "正在处理图片元数据");
-                PhotoService.ProcessResult result = photoService.processPhotoFromMQ(
-                        fileNames, tempDir.getAbsolutePath(), start, overwrite);
-                
-                if (result.isSuccess()) {
-                    photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 80,
-                            String.format("数据处理完成，更新：%d张，新增：%d张",
-                                    result.getExistingPhotos().size(), result.getNewPhotos().size()));
-                    log.info("成功处理图片数据，更新：{}张，新增：{}张",
-                            result.getExistingPhotos().size(), result.getNewPhotos().size());
-                } else {
-                    photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 80, "图片数据处理未完全成功");
-                    log.warn("图片数据处理未完全成功");
-                }
-                
-                // 清理临时目录
-                try {
-                    photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 90, "正在清理临时文件");
-                    FileUtils.clearFolder(tempDir, true);
-                    log.info("已清理临时目录: {}", tempDir.getAbsolutePath());
-                } catch (IOException cleanEx) {
-                    log.warn("清理临时目录时出错: {}", cleanEx.getMessage(), cleanEx);
-                }
-                
-                long endTime = System.currentTimeMillis();
-                long duration = endTime - startTime;
-                photoService.updatePhotoUploadStatus(messageId, "COMPLETED", 100,
-                        String.format("图片处理完成，耗时%d毫秒", duration));
-                log.info("图片处理完成，耗时{}毫秒", duration);
-                
-                // 返回消息ID，以便前端查询进度
-                Map<String, Object> response = new HashMap<>();
-                response.put("messageId", messageId);
-                response.put("message", "图片上传并处理成功，共处理 " + files.length + " 张图片，耗时" + duration + "毫秒");
-                response.put("files", files.length);
-                
-                return ResponseEntity.ok(response);
-            } catch (Exception e) {
-                log.error("处理图片时出错, 错误: {}", e.getMessage(), e);
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body(Collections.singletonMap("error", "处理图片时出错: " + e.getMessage()));
+                messageId = photoUploadJobService.submitUploadJob(tempDir, fileNames, contentHashes, start, overwrite);
+            } catch (RejectedExecutionException e) {
+                log.warn("上传任务队列已满，拒绝本次上传");
+                FileUtils.deleteFolder(tempDir);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(Collections.singletonMap("error", "上传任务过多，请稍后再试"));
             }
+
+            long duration = System.currentTimeMillis() - startTime;
+            log.info("已接收{}张图片，任务ID: {}，耗时{}毫秒", files.length, messageId, duration);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("messageId", messageId);
+            response.put("message", "已接收" + files.length + "张图片，正在后台处理");
+            response.put("files", files.length);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
         } catch (Exception e) {
             long endTime = System.currentTimeMillis();
             long duration = endTime - startTime;
@@ -694,9 +938,7 @@ public class PhotoController {
                 return ResponseEntity.badRequest().body("start参数必须为0或1");
             }
 
-            boolean updated = photoService.update(new LambdaUpdateWrapper<Photo>()
-                    .eq(Photo::getId, Long.parseLong(id))
-                    .set(Photo::getStartRating, start));
+            boolean updated = photoService.updateStartRating(id, start);
 
             if (!updated) {
                 log.warn("未找到ID为{}的照片记录", id);
@@ -829,6 +1071,57 @@ public class PhotoController {
         }
     }
 
+    @PostMapping("/consistency-scan")
+    @Operation(summary = "后台执行一致性检查", description = "在后台比较数据库与原图、100K、1000K三个档位，完成后保存报告，进度通过/consistency-scan/{scanId}查询")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Object> startConsistencyScan() {
+        try {
+            String scanId = photoConsistencyService.startScan();
+            log.info("控制器调用: 后台一致性检查，检查ID: {}", scanId);
+            return ResponseEntity.ok(Collections.singletonMap("scanId", scanId));
+        } catch (Exception e) {
+            log.error("启动一致性检查时发生错误: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Collections.singletonMap("error", "启动一致性检查失败: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/consistency-scan/{scanId}")
+    @Operation(summary = "查询一致性检查进度", description = "返回后台一致性检查的状态和已完成档位的比较结果")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Object> getConsistencyScanStatus(@PathVariable String scanId) {
+        try {
+            Map<String, Object> status = photoConsistencyService.getScanStatus(scanId);
+            if (status == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Collections.singletonMap("error", "检查不存在或已过期"));
+            }
+            return ResponseEntity.ok(status);
+        } catch (Exception e) {
+            log.error("查询一致性检查进度时发生错误，检查ID: {}, 错误: {}", scanId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Collections.singletonMap("error", "查询失败: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/consistency-report")
+    @Operation(summary = "获取最近一次一致性检查报告", description = "返回定时或后台一致性检查保存的最近一份报告")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Object> getLatestConsistencyReport() {
+        try {
+            Map<String, Object> report = photoConsistencyService.getLatestReport();
+            if (report == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Collections.singletonMap("error", "还没有一致性检查报告"));
+            }
+            return ResponseEntity.ok(report);
+        } catch (Exception e) {
+            log.error("读取一致性检查报告时发生错误: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Collections.singletonMap("error", "读取报告失败: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/validate-meteorology-groups")
     @Operation(summary = "验证气象组图冲突", description = "检查照片是否同时属于冲突的气象组图类型")
     @PreAuthorize("hasRole('ADMIN')")
@@ -7,18 +7,23 @@ import com.qingdai.entity.User;
 import com.qingdai.entity.dto.UserUpdateDTO;
 import com.qingdai.entity.dto.IntroduceDTO;
 import com.qingdai.service.UserService;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.utils.FileResponseUtils;
 import com.qingdai.utils.JwtTokenUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -51,8 +56,9 @@ public class UserController {
     @Autowired
     private UserService userService;
     
-    @Value("${qingdai.url.introduceUrl}")
-    private String introduceUrl;
+    @Autowired
+    @Qualifier("introducePhotoStorage")
+    private PhotoStorage introducePhotoStorage;
 
     @Operation(summary = "获取所有用户", description = "需管理员权限")
     @GetMapping
@@ -224,19 +230,18 @@ public class UserController {
     
     @Operation(summary = "获取头像", description = "获取头像图片")
     @GetMapping("/introduce/avatar")
-    public ResponseEntity<Resource> getAvatar() throws IOException {
+    public ResponseEntity<Resource> getAvatar(HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
-            Resource resource = userService.getAvatarResource();
-            if (resource == null) {
+            String fileName = userService.getAvatarFileName();
+            if (fileName == null || fileName.isEmpty()) {
                 log.warn("获取头像失败：文件不存在");
                 return ResponseEntity.notFound().build();
             }
             
-            String contentType = Files.probeContentType(resource.getFile().toPath());
             log.info("成功获取头像");
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .body(resource);
+            // 文件名固定、上传后原地替换，每次用ETag校验
+            return FileResponseUtils.serveStored(introducePhotoStorage, fileName, "avatar", request, response,
+                    CacheControl.noCache().cachePublic(), Long.MAX_VALUE);
         } catch (Exception e) {
             log.error("获取头像时发生错误: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -245,19 +250,18 @@ public class UserController {
     
     @Operation(summary = "获取背景图", description = "获取背景图片")
     @GetMapping("/introduce/background")
-    public ResponseEntity<Resource> getBackground() throws IOException {
+    public ResponseEntity<Resource> getBackground(HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
-            Resource resource = userService.getBackgroundResource();
-            if (resource == null) {
+            String fileName = userService.getBackgroundFileName();
+            if (fileName == null || fileName.isEmpty()) {
                 log.warn("获取背景图失败：文件不存在");
                 return ResponseEntity.notFound().build();
             }
             
-            String contentType = Files.probeContentType(resource.getFile().toPath());
             log.info("成功获取背景图");
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .body(resource);
+            // 文件名固定、上传后原地替换，每次用ETag校验
+            return FileResponseUtils.serveStored(introducePhotoStorage, fileName, "background", request, response,
+                    CacheControl.noCache().cachePublic(), Long.MAX_VALUE);
         } catch (Exception e) {
             log.error("获取背景图时发生错误: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
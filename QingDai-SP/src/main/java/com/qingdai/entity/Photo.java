@@ -59,6 +59,12 @@ public class Photo {
     @TableField(value = "introduce")
     @Schema(description = "照片介绍")
     private String introduce;
+    @TableField(value = "content_hash")
+    @Schema(description = "原图SHA-256")
+    private String contentHash;
+    @TableField(value = "blur_hash")
+    @Schema(description = "BlurHash占位串，缩略图加载前用于绘制模糊预览")
+    private String blurHash;
     @TableField(value = "start_rating")
     @Schema(description = "星标")
     private Integer startRating;
@@ -0,0 +1,76 @@
+package com.qingdai.filter;
+
+import com.qingdai.utils.FileResponseUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按档位统计文件下载的字节数和发送耗时
+ * 只统计经过FileResponseUtils的请求；sendfile模式下响应体在过滤器返回后才由Tomcat发送，耗时只到交给连接器为止
+ */
+@Component
+public class FileServeMetricsFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        chain.doFilter(request, response);
+
+        Object tier = request.getAttribute(FileResponseUtils.TIER_ATTRIBUTE);
+        Object mode = request.getAttribute(FileResponseUtils.MODE_ATTRIBUTE);
+        if (tier == null || mode == null) {
+            return;
+        }
+        if (!FileResponseUtils.MODE_SENDFILE.equals(mode) && !response.isCommitted()) {
+            // 把缓冲区中剩余的内容发出去，耗时才是最后一个字节写出的时间
+            response.flushBuffer();
+        }
+        long duration = System.nanoTime() - startTime;
+
+        Timer.builder("qingdai.file.serve")
+                .description("文件下载到最后一个字节的耗时")
+                .tag("tier", tier.toString())
+                .tag("mode", mode.toString())
+                .register(meterRegistry)
+                .record(duration, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("qingdai.file.serve.bytes")
+                .description("文件下载的字节数")
+                .baseUnit("bytes")
+                .tag("tier", tier.toString())
+                .tag("mode", mode.toString())
+                .register(meterRegistry)
+                .record(servedBytes(request, response));
+    }
+
+    // 分段请求以实际的Content-Length为准，多段响应没有长度时按文件大小计
+    private long servedBytes(HttpServletRequest request, HttpServletResponse response) {
+        if (response.getStatus() == HttpServletResponse.SC_PARTIAL_CONTENT) {
+            String contentLength = response.getHeader("Content-Length");
+            if (contentLength != null) {
+                try {
+                    return Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    // 按文件大小计
+                }
+            }
+        }
+        Object bytes = request.getAttribute(FileResponseUtils.BYTES_ATTRIBUTE);
+        return bytes instanceof Long ? (Long) bytes : 0L;
+    }
+}
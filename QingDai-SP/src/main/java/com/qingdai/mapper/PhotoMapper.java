@@ -5,6 +5,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
 /**
  * <p>
@@ -17,4 +22,12 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface PhotoMapper extends BaseMapper<Photo> {
 
+    /**
+     * 流式读取所有照片的ID和文件名，MySQL驱动逐行返回，不把整表读入内存
+     * @param handler 逐行回调
+     */
+    @Select("SELECT id, file_name FROM photo")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Photo.class)
+    void streamFileNames(ResultHandler<Photo> handler);
 }
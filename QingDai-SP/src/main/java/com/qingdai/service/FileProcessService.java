@@ -4,6 +4,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -39,7 +40,57 @@ public interface FileProcessService {
      * @param overwrite 是否覆盖已存在的文件
      */
     void thumbnailPhotosFromFolderToFolder(File srcDir, File thumbnailDir, int maxSizeKB, boolean overwrite);
-    
+
+    /**
+     * 压缩文件夹内所有图片到多个目录，每张图片只解码一次
+     * @param srcDir 源目录
+     * @param thumbnailDirs 目标目录及对应的最大大小(KB)
+     * @param overwrite 是否覆盖已存在的文件
+     */
+    void thumbnailPhotosFromFolderToFolders(File srcDir, Map<File, Integer> thumbnailDirs, boolean overwrite);
+
+    /**
+     * 压缩单张图片到多个目录，原图只解码一次，各档压缩图都基于同一份内存图像生成
+     * @param fullSizeFile 原图文件
+     * @param thumbnailDirs 目标目录及对应的最大大小(KB)，按迭代顺序生成
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 本次生成的压缩图文件
+     * @throws IOException 读取或写入图片时的IO异常
+     */
+    List<File> thumbnailPhotoToFolders(File fullSizeFile, Map<File, Integer> thumbnailDirs, boolean overwrite) throws IOException;
+
+    /**
+     * 同thumbnailPhotoToFolders，并在同一次解码中计算BlurHash占位串
+     * @param fullSizeFile 原图文件
+     * @param thumbnailDirs 目标目录及对应的最大大小(KB)，按迭代顺序生成
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 本次生成的压缩图文件和占位串，所有档位都已存在而未解码时占位串为null
+     * @throws IOException 读取或写入图片时的IO异常
+     */
+    RenderResult renderPhotoToFolders(File fullSizeFile, Map<File, Integer> thumbnailDirs, boolean overwrite) throws IOException;
+
+    /**
+     * 按图片像素数申请解码内存预算，预算不足时阻塞等待
+     * @param photoFile 即将解码的图片文件
+     * @return 占用的许可数，需通过releaseDecodeBudget释放
+     * @throws IOException 等待过程中被中断
+     */
+    int acquireDecodeBudget(File photoFile) throws IOException;
+
+    /**
+     * 按已知的像素数申请解码内存预算，用于不在文件中的图片
+     * @param pixelCount 像素数
+     * @return 占用的许可数，需通过releaseDecodeBudget释放
+     * @throws IOException 等待过程中被中断
+     */
+    int acquireDecodeBudget(long pixelCount) throws IOException;
+
+    /**
+     * 释放解码内存预算
+     * @param permits acquireDecodeBudget返回的许可数
+     */
+    void releaseDecodeBudget(int permits);
+
     /**
      * 处理照片压缩
      * @param tempDir 临时目录
@@ -51,6 +102,30 @@ public interface FileProcessService {
      */
     void processPhotoCompression(File tempDir, File thumbnail100KDir, File thumbnail1000KDir, File fullSizeDir, boolean overwrite) throws IOException;
     
+    /**
+     * 处理单张照片：压缩到1000K和100K目录并复制原图，失败时回滚本张已生成的文件；
+     * 内容库中已有相同内容时直接链接，不再压缩；不覆盖且同名文件已存在时按名称冲突抛出异常，不登记到内容库
+     * @param photoFile 原图文件
+     * @param contentHash 原图的内容哈希，为null时重新计算
+     * @param thumbnail100KDir 100K缩略图目录
+     * @param thumbnail1000KDir 1000K缩略图目录
+     * @param fullSizeDir 原图目录
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 已生成的文件（供后续步骤失败时回滚）和占位串，直接链接时占位串为null
+     * @throws IOException 处理文件时的IO异常
+     */
+    RenderResult processSinglePhotoCompression(File photoFile, String contentHash, File thumbnail100KDir, File thumbnail1000KDir, File fullSizeDir, boolean overwrite) throws IOException;
+
+    /**
+     * 把原图复制到原图目录，原图存储为对象存储时上传
+     * @param photoFile 原图文件
+     * @param fullSizeDir 原图目录
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 写入的文件，已存在且不覆盖时返回null
+     * @throws IOException 复制或上传失败
+     */
+    File placeFullSizePhoto(File photoFile, File fullSizeDir, boolean overwrite) throws IOException;
+
     /**
      * 删除照片文件
      * @param fullSizeUrl 原图目录
@@ -84,7 +159,7 @@ public interface FileProcessService {
      * @param fullSizeUrl 原图目录
      * @param thumbnail100KUrl 100K缩略图目录
      * @param thumbnail1000KUrl 1000K缩略图目录
-     * @return 验证结果
+     * @return 验证结果，列出失败的档位及错误信息放在tierErrors中
      */
     Map<String, Object> validateFileSystemPhotos(String fullSizeUrl, String thumbnail100KUrl, String thumbnail1000KUrl);
     
@@ -93,7 +168,43 @@ public interface FileProcessService {
      * @param fullSizeUrl 原图目录
      * @param thumbnail100KUrl 100K缩略图目录
      * @param thumbnail1000KUrl 1000K缩略图目录
-     * @return 删除结果
+     * @return 删除结果，有档位列出失败时不删除任何文件并返回error
      */
     Map<String, Object> deletePhotosNotInDatabase(String fullSizeUrl, String thumbnail100KUrl, String thumbnail1000KUrl);
-} 
\ No newline at end of file
+
+    /**
+     * 压缩结果类
+     */
+    class RenderResult {
+        private final List<File> files;
+        private final String blurHash;
+
+        public RenderResult(List<File> files, String blurHash) {
+            this.files = files;
+            this.blurHash = blurHash;
+        }
+
+        public List<File> getFiles() {
+            return files;
+        }
+
+        public String getBlurHash() {
+            return blurHash;
+        }
+
+        /**
+         * 本次是否生成了每个档位的压缩图，有档位因同名文件已存在而跳过时返回false
+         * @param thumbnailDirs 档位目录
+         * @param fileName 文件名
+         */
+        public boolean covers(Collection<File> thumbnailDirs, String fileName) {
+            for (File thumbnailDir : thumbnailDirs) {
+                File thumbnailFile = new File(thumbnailDir, fileName);
+                if (!files.contains(thumbnailFile)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
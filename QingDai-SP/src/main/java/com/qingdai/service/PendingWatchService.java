@@ -0,0 +1,17 @@
+package com.qingdai.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 待处理目录监听服务接口，新图片写入完成后自动按批导入，不需要再手动调用导入接口
+ * </p>
+ */
+public interface PendingWatchService {
+
+    /**
+     * 获取监听状态
+     * @return 是否运行、等待写入完成的文件数、累计导入和失败数等
+     */
+    Map<String, Object> getStatus();
+}
@@ -0,0 +1,154 @@
+package com.qingdai.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 数据库与原图、100K、1000K三个档位的一致性检查
+ * 数据库文件名流式读取一次，每个档位只列出一次，排序后按有序集合比较，各档位并行进行
+ * </p>
+ */
+public interface PhotoConsistencyService {
+
+    String TIER_FULL_SIZE = "fullSize";
+    String TIER_100K = "100K";
+    String TIER_1000K = "1000K";
+
+    /**
+     * 执行一次检查，每个档位比较完成后立即回调
+     * @param listener 档位结果回调，可为null
+     * @return 检查报告
+     */
+    ScanReport scan(Consumer<TierDiff> listener);
+
+    /**
+     * 在后台执行检查并保存报告，已有后台检查在执行时返回其ID
+     * @return 检查ID
+     */
+    String startScan();
+
+    /**
+     * 查询后台检查的进度，包含已完成档位的结果
+     * @param scanId 检查ID
+     * @return 进度信息，不存在或已过期时返回null
+     */
+    Map<String, Object> getScanStatus(String scanId);
+
+    /**
+     * 执行检查并保存报告，已有后台检查在执行时跳过
+     * @return 检查报告，跳过时返回null
+     * @throws IOException 保存报告失败
+     */
+    ScanReport scanAndPersist() throws IOException;
+
+    /**
+     * 读取最近一次保存的报告
+     * @return 报告内容，没有报告时返回null
+     * @throws IOException 读取失败
+     */
+    Map<String, Object> getLatestReport() throws IOException;
+
+    /**
+     * 单个档位的比较结果，名称均按字典序排列
+     */
+    class TierDiff {
+        private final String tier;
+        private final int fileCount;
+        private final List<String> missing;
+        private final List<String> notInDb;
+        private final String error;
+
+        public TierDiff(String tier, int fileCount, List<String> missing, List<String> notInDb, String error) {
+            this.tier = tier;
+            this.fileCount = fileCount;
+            this.missing = missing;
+            this.notInDb = notInDb;
+            this.error = error;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        // 档位中的图片数
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        // 数据库中有记录但档位中缺失的文件名
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        // 档位中有但数据库中没有记录的文件名
+        public List<String> getNotInDb() {
+            return notInDb;
+        }
+
+        // 列出档位失败时的错误信息，此时两个列表为空
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 一次检查的报告
+     */
+    class ScanReport {
+        private final String scanId;
+        private final long startTime;
+        private final long durationMs;
+        private final int dbPhotoCount;
+        private final Map<String, TierDiff> tiers;
+        private final List<String> missingAllFiles;
+        private final List<String> missingAllDetails;
+
+        public ScanReport(String scanId, long startTime, long durationMs, int dbPhotoCount,
+                Map<String, TierDiff> tiers, List<String> missingAllFiles, List<String> missingAllDetails) {
+            this.scanId = scanId;
+            this.startTime = startTime;
+            this.durationMs = durationMs;
+            this.dbPhotoCount = dbPhotoCount;
+            this.tiers = tiers;
+            this.missingAllFiles = missingAllFiles;
+            this.missingAllDetails = missingAllDetails;
+        }
+
+        public String getScanId() {
+            return scanId;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getDbPhotoCount() {
+            return dbPhotoCount;
+        }
+
+        public Map<String, TierDiff> getTiers() {
+            return tiers;
+        }
+
+        public TierDiff getTier(String tier) {
+            return tiers.get(tier);
+        }
+
+        // 三种图片都缺失的文件名
+        public List<String> getMissingAllFiles() {
+            return missingAllFiles;
+        }
+
+        // 三种图片都缺失的记录，格式为"ID:123,文件名:xxx.jpg,原图缺失:true,100K缺失:true,1000K缺失:true"
+        public List<String> getMissingAllDetails() {
+            return missingAllDetails;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.qingdai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>
+ * 照片内容库服务接口
+ * 原图、1000K、100K三个目录下各有一个按SHA-256存放的内容库，按文件名访问的照片文件是内容库文件的硬链接，
+ * 相同内容的照片只保存一份，重复上传时直接链接已有的压缩图，不再重新压缩
+ * </p>
+ */
+public interface PhotoContentService {
+
+    /**
+     * 内容库中是否已有该内容的全部三个档位
+     * @param contentHash 原图SHA-256
+     * @return 是否存在
+     */
+    boolean contains(String contentHash);
+
+    /**
+     * 从内容库为文件名建立原图、1000K、100K三个文件
+     * @param contentHash 原图SHA-256
+     * @param fileName 文件名
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 新建立的文件，内容库中没有该内容时返回null
+     * @throws IOException 建立文件失败
+     */
+    List<File> linkFromStore(String contentHash, String fileName, boolean overwrite) throws IOException;
+
+    /**
+     * 把已生成的原图、1000K、100K文件登记到内容库；只能在本次确实写入了这三个文件后调用，
+     * 沿用同名已有文件时登记的会是其他照片的内容
+     * @param contentHash 原图SHA-256
+     * @param fileName 文件名
+     */
+    void addToStore(String contentHash, String fileName);
+
+    /**
+     * 内容库文件不再被任何文件名引用时删除
+     * @param contentHash 原图SHA-256
+     */
+    void releaseIfUnused(String contentHash);
+}
@@ -0,0 +1,36 @@
+package com.qingdai.service;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * <p>
+ * 待处理目录导入服务接口，每张照片的元数据、压缩图、原图作为一个任务并行处理，处理完的照片按批入库
+ * </p>
+ */
+public interface PhotoIngestService {
+
+    /**
+     * 导入目录中的所有图片，处理中和等待入库的照片数不超过max-in-flight，入库按批提交，成功入库的源文件随即删除
+     * @param pendingDir 待处理目录
+     * @param thumbnail100KDir 100K缩略图目录
+     * @param thumbnail1000KDir 1000K缩略图目录
+     * @param fullSizeDir 原图目录
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 处理结果，包含已入库的照片记录
+     */
+    PhotoService.ProcessResult ingestFolder(File pendingDir, File thumbnail100KDir, File thumbnail1000KDir,
+            File fullSizeDir, boolean overwrite);
+
+    /**
+     * 导入指定的图片，供待处理目录监听按批调用；已有导入任务在运行时最多等待lock-wait-ms，已不存在的文件直接跳过
+     * @param files 待导入的图片
+     * @param thumbnail100KDir 100K缩略图目录
+     * @param thumbnail1000KDir 1000K缩略图目录
+     * @param fullSizeDir 原图目录
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 处理结果，包含已入库的照片记录；等待超时或被中断时返回null，图片未处理
+     */
+    PhotoService.ProcessResult ingestFiles(List<File> files, File thumbnail100KDir, File thumbnail1000KDir,
+            File fullSizeDir, boolean overwrite);
+}
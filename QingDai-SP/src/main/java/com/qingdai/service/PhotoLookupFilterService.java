@@ -0,0 +1,45 @@
+package com.qingdai.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 照片ID和文件名的存在性过滤服务
+ * 用进程内布隆过滤器记录所有有效的照片ID和文件名，不存在的ID（爬虫、失效的分享链接）直接判定为不存在，
+ * 不再穿透缓存查询数据库；新增和改名时增量加入，删除的照片在下一次定时重建后移除
+ * </p>
+ */
+public interface PhotoLookupFilterService {
+
+    /**
+     * 照片ID是否可能存在，过滤器尚未建立时总是返回true
+     * @param photoId 照片ID
+     * @return false表示一定不存在
+     */
+    boolean mightContainId(String photoId);
+
+    /**
+     * 文件名是否可能存在，过滤器尚未建立时总是返回true
+     * @param fileName 文件名
+     * @return false表示一定不存在
+     */
+    boolean mightContainFileName(String fileName);
+
+    /**
+     * 加入新照片或照片的新文件名，并通知其他节点
+     * @param photoId 照片ID
+     * @param fileName 文件名，可为null
+     */
+    void add(String photoId, String fileName);
+
+    /**
+     * 从数据库流式读取所有照片ID和文件名，重建过滤器后替换当前过滤器
+     */
+    void rebuild();
+
+    /**
+     * 获取过滤器状态
+     * @return 元素数、位数组大小、拦截次数等
+     */
+    Map<String, Object> getStatus();
+}
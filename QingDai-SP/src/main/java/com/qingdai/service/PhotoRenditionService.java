@@ -0,0 +1,27 @@
+package com.qingdai.service;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>
+ * 照片按需渲染服务接口，按指定宽度、质量和格式从最接近的已有档位生成图片并缓存到磁盘
+ * </p>
+ */
+public interface PhotoRenditionService {
+
+    /**
+     * 获取渲染结果，缓存未命中时生成；同一参数的并发请求只生成一次。
+     * 缓存键包含内容哈希，照片内容被替换或改名后不会读到旧的渲染结果，命中时不访问原图存储
+     * @param fileName 照片文件名
+     * @param contentHash 原图内容哈希，为null时（旧数据）改用原图存储的ETag，每次都需要查询原图
+     * @param width 目标宽度，按配置的步长向上取整且不超过原图宽度
+     * @param quality 压缩质量(0-1)，按0.05取整
+     * @param format 输出格式，支持jpg、png、webp
+     * @param allowOriginal 是否允许超过1000K档位的宽度并从原图生成；为false时宽度不超过1000K档位，只从压缩图生成
+     * @return 渲染后的文件，照片不存在时返回null
+     * @throws IOException 生成失败
+     */
+    File getRendition(String fileName, String contentHash, int width, double quality, String format,
+            boolean allowOriginal) throws IOException;
+}
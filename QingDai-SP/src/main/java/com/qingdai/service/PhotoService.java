@@ -40,6 +40,12 @@ public interface PhotoService extends IService<Photo> {
 
     String getFileNameById(String photoId);
 
+    // 根据照片ID获取内容哈希，用于判断请求的URL是否指向当前内容
+    String getContentHashById(String photoId);
+
+    // 查找相同内容的已有照片的BlurHash，内容库直接链接、没有重新解码时复用
+    String getBlurHashByContentHash(String contentHash);
+
     boolean multipartFileIsSupportedPhoto(MultipartFile file);
 
     boolean fileIsSupportedPhoto(File file);
@@ -62,15 +68,6 @@ public interface PhotoService extends IService<Photo> {
     void processPhotoCompression(File tempDir, File thumbnail100KDir, File thumbnail1000KDir, File fullSizeDir,
             boolean overwrite) throws IOException;
 
-    /**
-     * 处理前端上传的图片
-     * @param files 上传的图片文件数组
-     * @param startRating 图片的startRating值
-     * @param overwrite 是否覆盖已存在的文件
-     * @return 处理结果，包含更新和新增的图片列表
-     */
-    ProcessResult processPhotosFromFrontend(MultipartFile[] files, Integer startRating, boolean overwrite);
-
     /**
      * 验证数据库中的照片文件是否都存在于文件系统中
      * @return 包含验证结果的Map，包括总照片数、缺失原图数、缺失100K压缩图数、缺失1000K压缩图数及详细信息
@@ -242,6 +239,14 @@ public interface PhotoService extends IService<Photo> {
      */
     boolean updateFocalLength(String oldFocalLength, String newFocalLength);
 
+    /**
+     * 更新照片星级，只失效与该照片月份和星级相关的缓存
+     * @param photoId 照片ID
+     * @param startRating 新星级
+     * @return 照片不存在时返回false
+     */
+    boolean updateStartRating(String photoId, int startRating);
+
     /**
      * 获取无元数据照片分页信息
      * @param page 页码
@@ -258,6 +263,13 @@ public interface PhotoService extends IService<Photo> {
      */
     boolean renamePhotoFiles(String oldFileName, String newFileName);
 
+    /**
+     * 只读取图片头部和EXIF生成Photo对象，不解码像素
+     * @param photoFile 图片文件
+     * @return Photo对象，无法识别时返回null
+     */
+    Photo getPhotoMetadataByFile(File photoFile);
+
     /**
      * MQ消息消费者处理图片
      * @param fileNames 文件名数组
@@ -268,6 +280,19 @@ public interface PhotoService extends IService<Photo> {
      */
     ProcessResult processPhotoFromMQ(String[] fileNames, String tempDirPath, Integer startRating, boolean overwrite);
 
+    /**
+     * MQ消息消费者处理图片，附带压缩时计算好的占位串
+     * @param fileNames 文件名数组
+     * @param tempDirPath 临时目录路径
+     * @param startRating 图片的startRating值
+     * @param overwrite 是否覆盖已存在的文件
+     * @param blurHashes 文件名到BlurHash的映射，缺少的按内容哈希从已有照片复用
+     * @param contentHashes 文件名到内容哈希的映射，上传时已计算，缺少的重新计算
+     * @return 处理结果
+     */
+    ProcessResult processPhotoFromMQ(String[] fileNames, String tempDirPath, Integer startRating, boolean overwrite,
+            Map<String, String> blurHashes, Map<String, String> contentHashes);
+
     /**
      * 获取照片上传处理状态
      * @param messageId 消息ID
@@ -339,4 +364,12 @@ public interface PhotoService extends IService<Photo> {
      * @return 是否存在
      */
     boolean existsByFileName(String fileName);
+
+    /**
+     * 判断同名且内容相同的照片是否已入库，用于识别入库后、删除源文件前中断留下的待处理文件
+     * @param fileName 文件名
+     * @param contentHash 内容哈希
+     * @return 是否已入库
+     */
+    boolean existsByFileNameAndContentHash(String fileName, String contentHash);
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.qingdai.service;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>
+ * 照片上传任务服务接口，上传的文件落盘后由后台线程池逐张处理
+ * </p>
+ */
+public interface PhotoUploadJobService {
+
+    /**
+     * 提交上传任务，任务清单写入临时目录后立即返回，处理进度通过getPhotoUploadStatus查询
+     * @param tempDir 已保存上传文件的临时目录
+     * @param fileNames 需要处理的文件名
+     * @param contentHashes 与fileNames一一对应的内容哈希，保存上传文件时已计算
+     * @param startRating 新照片的星级
+     * @param overwrite 是否覆盖已存在的文件
+     * @return 任务ID（即消息ID）
+     * @throws IOException 写入任务清单失败
+     */
+    String submitUploadJob(File tempDir, String[] fileNames, String[] contentHashes, Integer startRating,
+            boolean overwrite) throws IOException;
+
+    /**
+     * 恢复待处理目录中未完成的上传任务
+     * @return 重新提交的任务数
+     */
+    int resumeUnfinishedJobs();
+}
@@ -0,0 +1,114 @@
+package com.qingdai.service;
+
+import org.springframework.http.MediaType;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * 热点100K缩略图的进程内缓存服务接口，按照片ID缓存文件内容，供/cdn/thumbnail/small直接从内存返回
+ * </p>
+ */
+public interface ThumbnailCacheService {
+
+    /**
+     * 缓存的缩略图
+     * 带引用计数：缓存持有一个引用，get返回前为调用方再加一个；最后一个引用释放时立即释放堆外内存
+     */
+    class CachedThumbnail {
+        private final String fileName;
+        private final String contentHash;
+        private final MediaType mediaType;
+        private final String etag;
+        private final long lastModified;
+        private final ByteBuffer data;
+        private final Runnable deallocator;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        public CachedThumbnail(String fileName, String contentHash, MediaType mediaType, String etag,
+                long lastModified, ByteBuffer data, Runnable deallocator) {
+            this.fileName = fileName;
+            this.contentHash = contentHash;
+            this.mediaType = mediaType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.data = data;
+            this.deallocator = deallocator;
+        }
+
+        /**
+         * 增加一个引用
+         * @return 已经释放时返回false，不能再使用
+         */
+        public boolean retain() {
+            while (true) {
+                int count = refs.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 释放一个引用，每次成功的retain和get都要对应一次release
+         */
+        public void release() {
+            if (refs.decrementAndGet() == 0 && deallocator != null) {
+                deallocator.run();
+            }
+        }
+
+        // 照片文件名（不含WebP后缀），用于按文件名失效
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        // 只读的堆外缓冲区，使用时需要duplicate
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public int size() {
+            return data.capacity();
+        }
+    }
+
+    /**
+     * 获取缩略图，未缓存时从磁盘加载；返回的缩略图已为调用方增加引用，写出后必须调用release
+     * @param photoId 照片ID
+     * @param webp 客户端是否接受WebP，接受且存在WebP副本时返回WebP
+     * @return 缓存的缩略图，照片或文件不存在、文件超过单条上限或缓存关闭时返回null，调用方回退到读文件
+     */
+    CachedThumbnail get(String photoId, boolean webp);
+
+    /**
+     * 使该文件名对应的所有缓存失效，删除、重命名、覆盖照片文件后调用
+     * @param fileName 照片文件名
+     */
+    void invalidateFileName(String fileName);
+
+    /**
+     * 清空缓存
+     */
+    void invalidateAll();
+}
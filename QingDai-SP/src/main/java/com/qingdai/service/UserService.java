@@ -7,7 +7,6 @@ import com.qingdai.entity.dto.IntroduceDTO;
 import com.qingdai.entity.dto.LoginRequest;
 import com.qingdai.entity.dto.UserCreateDTO;
 import com.qingdai.entity.dto.UserInfoDTO;
-import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -83,20 +82,6 @@ public interface UserService extends IService<User> {
      */
     Map<String, Object> getRolesAndPermissions(String token);
 
-    /**
-     * 获取头像资源
-     * @return 头像资源
-     * @throws IOException 如果文件不存在或无法读取
-     */
-    Resource getAvatarResource() throws IOException;
-
-    /**
-     * 获取背景图资源
-     * @return 背景图资源
-     * @throws IOException 如果文件不存在或无法读取
-     */
-    Resource getBackgroundResource() throws IOException;
-
     /**
      * 保存头像
      * @param file 头像文件
@@ -1,21 +1,36 @@
 package com.qingdai.service.impl;
 
 import com.qingdai.service.FileProcessService;
-import com.qingdai.service.PhotoService;
+import com.qingdai.service.PhotoConsistencyService;
+import com.qingdai.service.PhotoContentService;
+import com.qingdai.service.ThumbnailCacheService;
+import com.qingdai.storage.NamedStore;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.ThumbnailStore;
+import com.qingdai.utils.BlurHashUtils;
+import com.qingdai.utils.ExecutorUtils;
+import com.qingdai.utils.FileStreamUtils;
 import com.qingdai.utils.FileUtils;
+import com.qingdai.utils.ImageCompressUtils;
+import com.qingdai.utils.PixelBudgetGate;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -29,19 +44,41 @@ import java.util.*;
 @Slf4j
 public class FileProcessServiceImpl implements FileProcessService {
 
-    @Lazy
     @Autowired
-    private PhotoService photoService;
+    private PhotoConsistencyService photoConsistencyService;
+
+    @Autowired
+    @Qualifier("imageProcessExecutor")
+    private ExecutorService imageProcessExecutor;
+
+    @Autowired
+    private PixelBudgetGate pixelBudgetGate;
+
+    @Autowired
+    private PhotoContentService photoContentService;
+
+    @Autowired
+    private ThumbnailCacheService thumbnailCacheService;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Autowired
+    @Qualifier("fullSizePhotoStorage")
+    private PhotoStorage fullSizePhotoStorage;
+
+    @Value("${qingdai.photo.compress.size-tolerance:0.1}")
+    private double sizeTolerance;
+
+    @Value("${qingdai.photo.webp.enabled:true}")
+    private boolean webpEnabled;
 
     @Override
     public boolean fileIsSupportedPhoto(File file) {
         if (!file.isFile()) {
             return false;
         }
-        String fileName = file.getName().toLowerCase();
-        // 仅支持jpg、jpeg、png、gif格式
-        return fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") || 
-               fileName.endsWith(".png") || fileName.endsWith(".gif");
+        return FileUtils.isSupportedPhotoName(file.getName());
     }
 
     @Override
@@ -63,112 +100,253 @@ public class FileProcessServiceImpl implements FileProcessService {
 
     @Override
     public void thumbnailPhotosFromFolderToFolder(File srcDir, File thumbnailDir, int maxSizeKB, boolean overwrite) {
-        Arrays.stream(Objects.requireNonNull(srcDir.listFiles()))
-                .parallel()
+        thumbnailPhotosFromFolderToFolders(srcDir, Collections.singletonMap(thumbnailDir, maxSizeKB), overwrite);
+    }
+
+    @Override
+    public void thumbnailPhotosFromFolderToFolders(File srcDir, Map<File, Integer> thumbnailDirs, boolean overwrite) {
+        List<File> photoFiles = Arrays.stream(Objects.requireNonNull(srcDir.listFiles()))
                 .filter(this::fileIsSupportedPhoto)
-                .forEach(file -> compressPhoto(file, thumbnailDir, maxSizeKB, overwrite));
+                .collect(Collectors.toList());
+        ExecutorUtils.invokeAll(imageProcessExecutor, photoFiles, file -> {
+            try {
+                return thumbnailPhotoToFolders(file, thumbnailDirs, overwrite);
+            } catch (Exception e) {
+                log.error("压缩图片时出错: {}, 错误: {}", file.getAbsolutePath(), e.getMessage(), e);
+                return null;
+            }
+        });
     }
 
-    private void compressPhoto(File fullSizeFile, File thumbnailDir, int maxSizeKB, boolean overwrite) {
-        String fileName = fullSizeFile.getName();
-        File thumbnailFile = new File(thumbnailDir, fileName);
+    @Override
+    public List<File> thumbnailPhotoToFolders(File fullSizeFile, Map<File, Integer> thumbnailDirs, boolean overwrite)
+            throws IOException {
+        return renderPhotoToFolders(fullSizeFile, thumbnailDirs, overwrite).getFiles();
+    }
 
-        // 如果目标文件已存在且不覆盖，则跳过
-        if (thumbnailFile.exists() && !overwrite) {
-            log.debug("压缩图片跳过，目标文件已存在: {}", thumbnailFile.getAbsolutePath());
-            return;
-        }
+    @Override
+    public RenderResult renderPhotoToFolders(File fullSizeFile, Map<File, Integer> thumbnailDirs, boolean overwrite)
+            throws IOException {
+        String fileName = fullSizeFile.getName();
 
-        try {
+        // 筛选出需要生成的压缩图，已存在且不覆盖的直接跳过
+        Map<File, Integer> targets = new LinkedHashMap<>();
+        for (Map.Entry<File, Integer> entry : thumbnailDirs.entrySet()) {
+            File thumbnailDir = entry.getKey();
+            File thumbnailFile = new File(thumbnailDir, fileName);
+            if (photoFileExists(thumbnailFile) && !overwrite) {
+                log.debug("压缩图片跳过，目标文件已存在: {}", thumbnailFile.getAbsolutePath());
+                continue;
+            }
             // 确保目标目录存在
             if (!thumbnailDir.exists() && !thumbnailDir.mkdirs()) {
-                log.error("无法创建目标目录: {}", thumbnailDir.getAbsolutePath());
-                return;
+                throw new IOException("无法创建目标目录: " + thumbnailDir.getAbsolutePath());
             }
+            targets.put(thumbnailFile, entry.getValue());
+        }
+        if (targets.isEmpty()) {
+            return new RenderResult(Collections.emptyList(), null);
+        }
 
-            BufferedImage image = ImageIO.read(fullSizeFile);
-            if (image == null) {
-                log.warn("无法读取图片: {}", fullSizeFile.getAbsolutePath());
-                return;
-            }
+        String formatName = getFormatName(fileName);
+        if (formatName == null) {
+            throw new IOException("无法确定图片格式: " + fullSizeFile.getAbsolutePath());
+        }
 
-            String formatName = getFormatName(fullSizeFile.getName());
-            if (formatName == null) {
-                log.warn("无法确定图片格式: {}", fullSizeFile.getAbsolutePath());
-                return;
+        // 解码前按像素数申请内存预算，避免并发解码大图时内存溢出
+        int permits = acquireDecodeBudget(fullSizeFile);
+        try {
+            // 原图只解码一次（同时按EXIF方向校正），所有档位的压缩图和占位串都基于这份内存中的图像生成
+            BufferedImage image = decodePhoto(fullSizeFile);
+            String blurHash = computeBlurHash(image, fileName);
+
+            List<File> thumbnailFiles = new ArrayList<>();
+            for (Map.Entry<File, Integer> target : targets.entrySet()) {
+                thumbnailFiles.addAll(compressPhoto(image, target.getKey(), formatName, target.getValue()));
             }
+            thumbnailCacheService.invalidateFileName(fileName);
+            return new RenderResult(thumbnailFiles, blurHash);
+        } finally {
+            pixelBudgetGate.release(permits);
+        }
+    }
 
-            // 计算最大字节数
-            long maxSizeBytes = maxSizeKB * 1024L;
+    @Override
+    public int acquireDecodeBudget(File photoFile) throws IOException {
+        try {
+            return pixelBudgetGate.acquire(FileUtils.getImagePixelCount(photoFile));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待图片解码预算时被中断: " + photoFile.getName(), e);
+        }
+    }
 
-            // 先尝试通过调整质量压缩图片
-            boolean success = adjustPhotoQuality(fullSizeFile, thumbnailFile, formatName, maxSizeBytes);
+    @Override
+    public int acquireDecodeBudget(long pixelCount) throws IOException {
+        try {
+            return pixelBudgetGate.acquire(pixelCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待图片解码预算时被中断", e);
+        }
+    }
 
-            // 如果质量调整不足以达到目标大小，则通过缩小尺寸来压缩图片
-            if (!success) {
-                scaleDownPhoto(fullSizeFile, thumbnailFile, formatName, maxSizeBytes);
-            }
-        } catch (Exception e) {
-            log.error("压缩图片时出错: {}, 错误: {}", fullSizeFile.getAbsolutePath(), e.getMessage(), e);
+    @Override
+    public void releaseDecodeBudget(int permits) {
+        pixelBudgetGate.release(permits);
+    }
+
+    // 解码原图，Thumbnailator会根据EXIF方向信息自动旋转
+    private BufferedImage decodePhoto(File fullSizeFile) throws IOException {
+        BufferedImage image = Thumbnails.of(fullSizeFile)
+                .scale(1.0)
+                .asBufferedImage();
+        if (image == null) {
+            throw new IOException("无法读取图片: " + fullSizeFile.getAbsolutePath());
         }
+        return image;
     }
 
-    private String getFormatName(String fileName) {
-        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
-        if ("jpg".equals(extension)) {
-            return "jpeg";
+    // 占位串只是锦上添花，计算失败时不影响压缩图的生成
+    private String computeBlurHash(BufferedImage image, String fileName) {
+        try {
+            return BlurHashUtils.encode(image);
+        } catch (RuntimeException e) {
+            log.warn("计算BlurHash失败: {}, 错误: {}", fileName, e.getMessage());
+            return null;
         }
-        return extension;
     }
 
-    private boolean adjustPhotoQuality(File fullSizeFile, File thumbnailFile, String formatName, long maxSizeBytes)
+    // 按目标大小压缩图片，所有尝试都在内存中编码，只把最终结果写入磁盘，返回写入的文件（含WebP副本）
+    private List<File> compressPhoto(BufferedImage image, File thumbnailFile, String formatName, int maxSizeKB)
             throws IOException {
-        double quality = 0.9; // 起始质量
-        double minQuality = 0.1; // 最低质量
-
-        while (quality >= minQuality) {
-            Thumbnails.of(fullSizeFile)
-                    .scale(1.0) // 保持原始大小
-                    .outputQuality(quality)
-                    .outputFormat(formatName)
-                    .toFile(thumbnailFile);
-
-            if (thumbnailFile.length() <= maxSizeBytes) {
-                log.debug("通过质量调整成功压缩图片: {}, 质量: {}, 大小: {}KB", 
-                        thumbnailFile.getName(), quality, thumbnailFile.length() / 1024);
-                return true;
-            }
+        // 计算最大字节数
+        long maxSizeBytes = maxSizeKB * 1024L;
 
-            quality -= 0.1; // 逐步降低质量
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, formatName,
+                maxSizeBytes, sizeTolerance);
+        if (result.getBytes().length == 0) {
+            throw new IOException("压缩结果为空: " + thumbnailFile.getName());
+        }
+        writePhotoFile(thumbnailFile, result.getBytes());
+        List<File> writtenFiles = new ArrayList<>();
+        writtenFiles.add(thumbnailFile);
+
+        if (result.isSizeMet()) {
+            log.debug("成功压缩图片: {}, 质量: {}, 缩放比例: {}, 大小: {}KB, 编码次数: {}",
+                    thumbnailFile.getName(), result.getQuality(), result.getScale(),
+                    result.getBytes().length / 1024, result.getEncodeCount());
+        } else {
+            log.warn("无法将图片压缩到目标大小: {}, 最终大小: {}KB",
+                    thumbnailFile.getName(), result.getBytes().length / 1024);
         }
 
-        return false;
+        File webpFile = writeWebpCopy(image, thumbnailFile, result);
+        if (webpFile != null) {
+            writtenFiles.add(webpFile);
+        }
+        return writtenFiles;
     }
 
-    private boolean scaleDownPhoto(File fullSizeFile, File thumbnailFile, String formatName, long maxSizeBytes)
-            throws IOException {
-        double scale = 0.9; // 起始缩放比例
-        double minScale = 0.1; // 最小缩放比例
-
-        while (scale >= minScale) {
-            Thumbnails.of(fullSizeFile)
-                    .scale(scale)
-                    .outputQuality(0.8) // 使用固定的质量
-                    .outputFormat(formatName)
-                    .toFile(thumbnailFile);
-
-            if (thumbnailFile.length() <= maxSizeBytes) {
-                log.debug("通过缩小尺寸成功压缩图片: {}, 缩放比例: {}, 大小: {}KB", 
-                        thumbnailFile.getName(), scale, thumbnailFile.length() / 1024);
-                return true;
-            }
+    // 按主格式搜索出的缩放比例和质量再编码一份WebP，同等质量下通常更小，编码失败不影响主文件
+    private File writeWebpCopy(BufferedImage image, File thumbnailFile, ImageCompressUtils.CompressResult result) {
+        if (!webpEnabled) {
+            return null;
+        }
+        if (!ImageCompressUtils.canEncode("webp")) {
+            log.warn("当前环境没有WebP编码器，跳过生成WebP副本: {}", thumbnailFile.getName());
+            return null;
+        }
+        File webpFile = FileUtils.getWebpFile(thumbnailFile);
+        try {
+            BufferedImage scaled = result.getScale() < 1.0
+                    ? Thumbnails.of(image).scale(result.getScale()).asBufferedImage()
+                    : image;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageCompressUtils.encode(scaled, "webp", result.getQuality(), out);
+            writePhotoFile(webpFile, out.toByteArray());
+            log.debug("生成WebP副本: {}, 大小: {}KB, 主文件: {}KB", webpFile.getName(), out.size() / 1024,
+                    result.getBytes().length / 1024);
+            return webpFile;
+        } catch (IOException | RuntimeException e) {
+            log.warn("生成WebP副本失败: {}, 错误: {}", webpFile.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    // 100K目录和原图目录下的文件分别由缩略图存储和原图存储管理，按名称访问；其他目录直接操作文件
+    private NamedStore storeOf(File file) {
+        if (thumbnailStore.owns(file)) {
+            return thumbnailStore;
+        }
+        return fullSizePhotoStorage.owns(file) ? fullSizePhotoStorage : null;
+    }
+
+    private boolean photoFileExists(File file) {
+        NamedStore store = storeOf(file);
+        return store != null ? store.exists(file.getName()) : file.exists();
+    }
+
+    // 先写临时文件再替换，不原地改写，避免改动与内容库共享的硬链接文件
+    private void writePhotoFile(File file, byte[] data) throws IOException {
+        if (thumbnailStore.owns(file)) {
+            thumbnailStore.put(file.getName(), data);
+            return;
+        }
+        Path tempFile = file.toPath().resolveSibling("." + file.getName() + ".writing");
+        try {
+            Files.write(tempFile, data);
+            Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // 临时文件以点开头，不会被当作照片读取，删除失败也无妨
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    // 把本地文件放到原图位置，同一文件系统内建立硬链接不复制数据；原图存储为对象存储时上传
+    private void copyPhotoFile(File sourceFile, File destFile, boolean overwrite) throws IOException {
+        if (!fullSizePhotoStorage.owns(destFile)) {
+            FileUtils.linkOrCopyFile(sourceFile, destFile, overwrite);
+            return;
+        }
+        if (overwrite || !fullSizePhotoStorage.exists(destFile.getName())) {
+            fullSizePhotoStorage.put(destFile.getName(), sourceFile);
+        }
+    }
+
+    private boolean deletePhotoFile(File file) {
+        NamedStore store = storeOf(file);
+        if (store == null) {
+            return file.delete();
+        }
+        try {
+            return store.delete(file.getName());
+        } catch (IOException e) {
+            log.warn("删除照片文件失败: {}, 错误: {}", file.getName(), e.getMessage());
+            return false;
+        }
+    }
 
-            scale -= 0.1; // 逐步缩小尺寸
+    private boolean renamePhotoFile(File oldFile, File newFile) {
+        NamedStore store = storeOf(oldFile);
+        if (store == null) {
+            return oldFile.renameTo(newFile);
+        }
+        try {
+            return store.rename(oldFile.getName(), newFile.getName());
+        } catch (IOException e) {
+            log.warn("重命名照片文件失败: {} -> {}, 错误: {}", oldFile.getName(), newFile.getName(), e.getMessage());
+            return false;
         }
+    }
 
-        log.warn("无法将图片压缩到目标大小: {}, 最终大小: {}KB", 
-                thumbnailFile.getName(), thumbnailFile.length() / 1024);
-        return false;
+    private String getFormatName(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        if ("jpg".equals(extension)) {
+            return "jpeg";
+        }
+        return extension;
     }
 
     @Override
@@ -183,13 +361,12 @@ public class FileProcessServiceImpl implements FileProcessService {
                 throw new IOException("无法创建1000K临时目录: " + temp1000KDir.getAbsolutePath());
             }
             
-            // 压缩到1000K临时目录
-            thumbnailPhotosFromFolderToFolder(tempDir, temp1000KDir, 1000, overwrite);
-            log.info("目录{}完成1000K压缩", tempDir.getName());
-            
-            // 基于1000K临时目录的图片压缩到100K目录
-            thumbnailPhotosFromFolderToFolder(temp1000KDir, thumbnail100KDir, 100, overwrite);
-            log.info("目录{}完成100K压缩", tempDir.getName());
+            // 每张原图只解码一次，同时压缩到1000K临时目录和100K目录
+            Map<File, Integer> thumbnailDirs = new LinkedHashMap<>();
+            thumbnailDirs.put(temp1000KDir, 1000);
+            thumbnailDirs.put(thumbnail100KDir, 100);
+            thumbnailPhotosFromFolderToFolders(tempDir, thumbnailDirs, overwrite);
+            log.info("目录{}完成1000K与100K压缩", tempDir.getName());
             
             // 将tempDir/1000K目录下的图片复制到thumbnail1000KDir
             for (File file : Objects.requireNonNull(temp1000KDir.listFiles())) {
@@ -204,7 +381,7 @@ public class FileProcessServiceImpl implements FileProcessService {
             for (File file : Objects.requireNonNull(tempDir.listFiles())) {
                 if (file.isFile() && fileIsSupportedPhoto(file) && !file.getName().equals("1000K")) {
                     File destFile = new File(fullSizeDir, file.getName());
-                    FileUtils.copyFile(file, destFile, overwrite);
+                    copyPhotoFile(file, destFile, overwrite);
                     processedFiles.add(destFile);
                 }
             }
@@ -218,21 +395,68 @@ public class FileProcessServiceImpl implements FileProcessService {
         }
     }
 
+    @Override
+    public RenderResult processSinglePhotoCompression(File photoFile, String contentHash, File thumbnail100KDir, File thumbnail1000KDir, File fullSizeDir, boolean overwrite) throws IOException {
+        List<File> processedFiles = new ArrayList<>();
+        try {
+            // 内容库中已有相同内容时直接链接，跳过压缩
+            if (contentHash == null) {
+                contentHash = FileStreamUtils.sha256(photoFile.toPath());
+            }
+            List<File> linkedFiles = photoContentService.linkFromStore(contentHash, photoFile.getName(), overwrite);
+            if (linkedFiles != null) {
+                return new RenderResult(linkedFiles, null);
+            }
+
+            Map<File, Integer> thumbnailDirs = new LinkedHashMap<>();
+            thumbnailDirs.put(thumbnail1000KDir, 1000);
+            thumbnailDirs.put(thumbnail100KDir, 100);
+            RenderResult rendered = renderPhotoToFolders(photoFile, thumbnailDirs, overwrite);
+            processedFiles.addAll(rendered.getFiles());
+
+            File destFile = placeFullSizePhoto(photoFile, fullSizeDir, overwrite);
+            if (destFile != null) {
+                processedFiles.add(destFile);
+            }
+            // 跳过的档位是其他照片的文件，登记到内容库会让之后相同内容的照片链接到别人的图片
+            if (destFile == null || !rendered.covers(thumbnailDirs.keySet(), photoFile.getName())) {
+                throw new IOException("同名照片已存在且未选择覆盖: " + photoFile.getName());
+            }
+            photoContentService.addToStore(contentHash, photoFile.getName());
+            return new RenderResult(processedFiles, rendered.getBlurHash());
+        } catch (Exception e) {
+            rollbackProcessedFiles(processedFiles);
+            log.error("处理图片{}时发生错误: {}", photoFile.getName(), e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    @Override
+    public File placeFullSizePhoto(File photoFile, File fullSizeDir, boolean overwrite) throws IOException {
+        File destFile = new File(fullSizeDir, photoFile.getName());
+        if (!overwrite && photoFileExists(destFile)) {
+            return null;
+        }
+        copyPhotoFile(photoFile, destFile, true);
+        return destFile;
+    }
+
     @Override
     public void deletePhotoFiles(String fullSizeUrl, String thumbnail100KUrl, String thumbnail1000KUrl, String fileName) throws IOException {
+        thumbnailCacheService.invalidateFileName(fileName);
         boolean allDeleted = true;
         StringBuilder errorMessages = new StringBuilder();
 
         // 删除原图
         File fullSizeFile = new File(fullSizeUrl, fileName);
-        if (fullSizeFile.exists() && !fullSizeFile.delete()) {
+        if (photoFileExists(fullSizeFile) && !deletePhotoFile(fullSizeFile)) {
             allDeleted = false;
             errorMessages.append("删除原图失败: ").append(fullSizeFile.getAbsolutePath()).append("; ");
         }
 
         // 删除100K缩略图
         File thumbnail100KFile = new File(thumbnail100KUrl, fileName);
-        if (thumbnail100KFile.exists() && !thumbnail100KFile.delete()) {
+        if (photoFileExists(thumbnail100KFile) && !deletePhotoFile(thumbnail100KFile)) {
             allDeleted = false;
             errorMessages.append("删除100K缩略图失败: ").append(thumbnail100KFile.getAbsolutePath()).append("; ");
         }
@@ -244,6 +468,15 @@ public class FileProcessServiceImpl implements FileProcessService {
             errorMessages.append("删除1000K缩略图失败: ").append(thumbnail1000KFile.getAbsolutePath());
         }
 
+        // 删除缩略图的WebP副本
+        for (File thumbnailFile : new File[] { thumbnail100KFile, thumbnail1000KFile }) {
+            File webpFile = FileUtils.getWebpFile(thumbnailFile);
+            if (photoFileExists(webpFile) && !deletePhotoFile(webpFile)) {
+                allDeleted = false;
+                errorMessages.append("; 删除WebP副本失败: ").append(webpFile.getAbsolutePath());
+            }
+        }
+
         if (!allDeleted) {
             throw new IOException(errorMessages.toString());
         }
@@ -254,6 +487,8 @@ public class FileProcessServiceImpl implements FileProcessService {
         if (oldFileName == null || newFileName == null || oldFileName.equals(newFileName)) {
             return true;
         }
+        thumbnailCacheService.invalidateFileName(oldFileName);
+        thumbnailCacheService.invalidateFileName(newFileName);
 
         boolean allSuccess = true;
         List<String> paths = Arrays.asList(fullSizeUrl, thumbnail100KUrl, thumbnail1000KUrl);
@@ -265,9 +500,9 @@ public class FileProcessServiceImpl implements FileProcessService {
                 File oldFile = new File(path, oldFileName);
                 File newFile = new File(path, newFileName);
 
-                if (oldFile.exists()) {
+                if (photoFileExists(oldFile)) {
                     // 如果目标文件已存在，先删除
-                    if (newFile.exists() && !newFile.delete()) {
+                    if (photoFileExists(newFile) && !deletePhotoFile(newFile)) {
                         allSuccess = false;
                         failedPaths.add(path);
                         log.error("无法删除已存在的目标文件: {}", newFile.getAbsolutePath());
@@ -275,7 +510,7 @@ public class FileProcessServiceImpl implements FileProcessService {
                     }
 
                     // 重命名文件
-                    if (!oldFile.renameTo(newFile)) {
+                    if (!renamePhotoFile(oldFile, newFile)) {
                         allSuccess = false;
                         failedPaths.add(path);
                         log.error("无法重命名文件: {} -> {}", oldFile.getAbsolutePath(), newFile.getAbsolutePath());
@@ -291,20 +526,30 @@ public class FileProcessServiceImpl implements FileProcessService {
                 for (File newFile : renamedFiles) {
                     String path = newFile.getParent();
                     File oldFile = new File(path, oldFileName);
-                    if (!newFile.renameTo(oldFile)) {
+                    if (!renamePhotoFile(newFile, oldFile)) {
                         log.error("回滚重命名文件失败: {} -> {}", newFile.getAbsolutePath(), oldFile.getAbsolutePath());
                     }
                 }
                 throw new IOException("重命名照片文件失败，失败的路径: " + failedPaths);
             }
 
+            // WebP副本可以重新生成，重命名失败只记录日志，不回滚主文件
+            for (String path : Arrays.asList(thumbnail100KUrl, thumbnail1000KUrl)) {
+                File oldWebp = FileUtils.getWebpFile(new File(path, oldFileName));
+                File newWebp = FileUtils.getWebpFile(new File(path, newFileName));
+                if (photoFileExists(oldWebp)
+                        && (photoFileExists(newWebp) && !deletePhotoFile(newWebp) || !renamePhotoFile(oldWebp, newWebp))) {
+                    log.warn("重命名WebP副本失败: {} -> {}", oldWebp.getAbsolutePath(), newWebp.getAbsolutePath());
+                }
+            }
+
             return true;
         } catch (Exception e) {
             // 回滚已重命名的文件
             for (File newFile : renamedFiles) {
                 String path = newFile.getParent();
                 File oldFile = new File(path, oldFileName);
-                if (!newFile.renameTo(oldFile)) {
+                if (!renamePhotoFile(newFile, oldFile)) {
                     log.error("回滚重命名文件失败: {} -> {}", newFile.getAbsolutePath(), oldFile.getAbsolutePath());
                 }
             }
@@ -320,7 +565,7 @@ public class FileProcessServiceImpl implements FileProcessService {
 
         for (File file : processedFiles) {
             try {
-                if (file.exists() && !file.delete()) {
+                if (photoFileExists(file) && !deletePhotoFile(file)) {
                     log.warn("无法删除已处理的文件进行回滚: {}", file.getAbsolutePath());
                 }
             } catch (Exception e) {
@@ -334,65 +579,30 @@ public class FileProcessServiceImpl implements FileProcessService {
         log.info("开始验证文件系统照片在数据库中的存在性");
         
         Map<String, Object> result = new HashMap<>();
-        List<String> fullSizeNotInDb = new ArrayList<>();
-        List<String> thumbnail100KNotInDb = new ArrayList<>();
-        List<String> thumbnail1000KNotInDb = new ArrayList<>();
-        
-        // 获取数据库照片数
-        long dbPhotoCount = photoService.count();
-        
-        // 获取原图目录中的所有照片
-        File fullSizeDir = new File(fullSizeUrl);
-        int fullSizeCount = 0;
-        if (fullSizeDir.exists() && fullSizeDir.isDirectory()) {
-            File[] files = fullSizeDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                if (fileIsSupportedPhoto(file)) {
-                        fullSizeCount++;
-                        boolean existsInDatabase = photoService.existsByFileName(file.getName());
-                        if (!existsInDatabase) {
-                            fullSizeNotInDb.add(file.getName());
-                        }
-                    }
-                }
-            }
-        }
-        
-        // 获取100K缩略图目录中的所有照片
-        File thumbnail100KDir = new File(thumbnail100KUrl);
-        int thumbnail100KCount = 0;
-        if (thumbnail100KDir.exists() && thumbnail100KDir.isDirectory()) {
-            File[] files = thumbnail100KDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                if (fileIsSupportedPhoto(file)) {
-                        thumbnail100KCount++;
-                        boolean existsInDatabase = photoService.existsByFileName(file.getName());
-                        if (!existsInDatabase) {
-                            thumbnail100KNotInDb.add(file.getName());
-                        }
-                    }
-                }
-            }
-        }
-        
-        // 获取1000K缩略图目录中的所有照片
-        File thumbnail1000KDir = new File(thumbnail1000KUrl);
-        int thumbnail1000KCount = 0;
-        if (thumbnail1000KDir.exists() && thumbnail1000KDir.isDirectory()) {
-            File[] files = thumbnail1000KDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                if (fileIsSupportedPhoto(file)) {
-                        thumbnail1000KCount++;
-                        boolean existsInDatabase = photoService.existsByFileName(file.getName());
-            if (!existsInDatabase) {
-                            thumbnail1000KNotInDb.add(file.getName());
+
+        // 数据库文件名和各档位只各读取一次，按有序集合比较，不再逐个文件查询数据库
+        PhotoConsistencyService.ScanReport report = photoConsistencyService.scan(null);
+        PhotoConsistencyService.TierDiff fullSize = report.getTier(PhotoConsistencyService.TIER_FULL_SIZE);
+        PhotoConsistencyService.TierDiff thumbnail100K = report.getTier(PhotoConsistencyService.TIER_100K);
+        PhotoConsistencyService.TierDiff thumbnail1000K = report.getTier(PhotoConsistencyService.TIER_1000K);
+
+        long dbPhotoCount = report.getDbPhotoCount();
+        int fullSizeCount = fullSize.getFileCount();
+        int thumbnail100KCount = thumbnail100K.getFileCount();
+        int thumbnail1000KCount = thumbnail1000K.getFileCount();
+        List<String> fullSizeNotInDb = fullSize.getNotInDb();
+        List<String> thumbnail100KNotInDb = thumbnail100K.getNotInDb();
+        List<String> thumbnail1000KNotInDb = thumbnail1000K.getNotInDb();
+
+        // 列出失败的档位两个列表都为空，不能当作没有多余文件
+        Map<String, String> tierErrors = new LinkedHashMap<>();
+        for (PhotoConsistencyService.TierDiff diff : report.getTiers().values()) {
+            if (diff.getError() != null) {
+                tierErrors.put(diff.getTier(), diff.getError());
             }
         }
-                }
-            }
+        if (!tierErrors.isEmpty()) {
+            log.warn("以下档位列出失败，验证结果不完整: {}", tierErrors);
         }
         
         log.info("文件系统中有：原图{}个、100K压缩图{}个、1000K压缩图{}个，数据库中有{}张照片记录", 
@@ -406,8 +616,13 @@ public class FileProcessServiceImpl implements FileProcessService {
         result.put("fullSizeNotInDb", fullSizeNotInDb);
         result.put("thumbnail100KNotInDb", thumbnail100KNotInDb);
         result.put("thumbnail1000KNotInDb", thumbnail1000KNotInDb);
-        result.put("message", String.format("文件系统中有：原图%d个、100K压缩图%d个、1000K压缩图%d个，数据库中有%d张照片记录", 
-                fullSizeCount, thumbnail100KCount, thumbnail1000KCount, dbPhotoCount));
+        result.put("tierErrors", tierErrors);
+        String message = String.format("文件系统中有：原图%d个、100K压缩图%d个、1000K压缩图%d个，数据库中有%d张照片记录", 
+                fullSizeCount, thumbnail100KCount, thumbnail1000KCount, dbPhotoCount);
+        if (!tierErrors.isEmpty()) {
+            message += "；以下档位列出失败，结果不完整: " + tierErrors;
+        }
+        result.put("message", message);
         
         return result;
     }
@@ -422,6 +637,20 @@ public class FileProcessServiceImpl implements FileProcessService {
         
         // 验证文件系统照片
         Map<String, Object> validateResult = validateFileSystemPhotos(fullSizeUrl, thumbnail100KUrl, thumbnail1000KUrl);
+
+        // 有档位列出失败时不删除任何文件，等档位恢复后重新执行
+        @SuppressWarnings("unchecked")
+        Map<String, String> tierErrors = (Map<String, String>) validateResult.get("tierErrors");
+        if (tierErrors != null && !tierErrors.isEmpty()) {
+            log.warn("档位列出失败，拒绝删除: {}", tierErrors);
+            result.put("error", "以下档位列出失败，未删除任何文件: " + tierErrors);
+            result.put("tierErrors", tierErrors);
+            result.put("totalToDelete", 0);
+            result.put("deletedCount", 0);
+            result.put("deletedFiles", Collections.emptyList());
+            result.put("errorFiles", Collections.emptyList());
+            return result;
+        }
         
         @SuppressWarnings("unchecked")
         List<String> fullSizeNotInDb = (List<String>) validateResult.get("fullSizeNotInDb");
@@ -458,8 +687,8 @@ public class FileProcessServiceImpl implements FileProcessService {
             
             // 删除原图
             File fullSizeFile = new File(fullSizeUrl, fileName);
-            if (fullSizeFile.exists()) {
-                if (fullSizeFile.delete()) {
+            if (photoFileExists(fullSizeFile)) {
+                if (deletePhotoFile(fullSizeFile)) {
                     deleted = true;
                     log.debug("删除了原图: {}", fullSizeFile.getAbsolutePath());
                 } else {
@@ -470,9 +699,10 @@ public class FileProcessServiceImpl implements FileProcessService {
             }
             
             // 删除100K缩略图
+            thumbnailCacheService.invalidateFileName(fileName);
             File thumbnail100KFile = new File(thumbnail100KUrl, fileName);
-            if (thumbnail100KFile.exists()) {
-                if (thumbnail100KFile.delete()) {
+            if (photoFileExists(thumbnail100KFile)) {
+                if (deletePhotoFile(thumbnail100KFile)) {
                     deleted = true;
                     log.debug("删除了100K缩略图: {}", thumbnail100KFile.getAbsolutePath());
                 } else {
@@ -494,6 +724,20 @@ public class FileProcessServiceImpl implements FileProcessService {
                     errorFiles.add("1000K:" + fileName);
                 }
             }
+
+            // 删除缩略图的WebP副本，列出档位时不包含它们
+            for (File thumbnailFile : new File[] { thumbnail100KFile, thumbnail1000KFile }) {
+                File webpFile = FileUtils.getWebpFile(thumbnailFile);
+                if (photoFileExists(webpFile)) {
+                    if (deletePhotoFile(webpFile)) {
+                        log.debug("删除了WebP副本: {}", webpFile.getAbsolutePath());
+                    } else {
+                        hasError = true;
+                        log.warn("无法删除WebP副本: {}", webpFile.getAbsolutePath());
+                        errorFiles.add("WebP:" + webpFile.getName());
+                    }
+                }
+            }
             
             if (deleted && !hasError) {
                 deletedCount++;
@@ -1,11 +1,14 @@
 package com.qingdai.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.qingdai.cache.PhotoCacheDependencies;
+import com.qingdai.cache.PhotoCacheInvalidator;
 import com.qingdai.entity.dto.GroupPhotoDTO;
 import com.qingdai.entity.GroupPhotoPhoto;
 import com.qingdai.mapper.GroupPhotoPhotoMapper;
 import com.qingdai.service.GroupPhotoPhotoService;
 import com.qingdai.service.base.BaseCachedServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
@@ -27,6 +30,9 @@ import java.util.stream.Collectors;
 @CacheConfig(cacheNames = "groupPhotoPhoto")
 public class GroupPhotoPhotoServiceImpl extends BaseCachedServiceImpl<GroupPhotoPhotoMapper, GroupPhotoPhoto> implements GroupPhotoPhotoService {
 
+    @Autowired
+    private PhotoCacheInvalidator photoCacheInvalidator;
+
     @Override
     @Cacheable(key = "'count_' + #groupPhotoId")
     public int countByGroupPhotoId(String groupPhotoId) {
@@ -52,6 +58,7 @@ public class GroupPhotoPhotoServiceImpl extends BaseCachedServiceImpl<GroupPhoto
         LambdaQueryWrapper<GroupPhotoPhoto> queryWrapper = new LambdaQueryWrapper<>();
         queryWrapper.eq(GroupPhotoPhoto::getGroupPhotoId, groupPhotoId);
         this.remove(queryWrapper);
+        photoCacheInvalidator.invalidate(new PhotoCacheDependencies().groupMembershipChanged());
     }
 
     @Override
@@ -81,5 +88,6 @@ public class GroupPhotoPhotoServiceImpl extends BaseCachedServiceImpl<GroupPhoto
                 this.save(newRelation);
             }
         }
+        photoCacheInvalidator.invalidate(new PhotoCacheDependencies().groupMembershipChanged());
     }
 }
@@ -0,0 +1,378 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.service.PendingWatchService;
+import com.qingdai.service.PhotoIngestService;
+import com.qingdai.service.PhotoService;
+import com.qingdai.utils.FileUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 待处理目录监听实现
+ * 通过WatchService接收新建和修改事件，文件大小和修改时间在stable-ms内不再变化才认为写入完成；
+ * 写入完成的文件攒够一批或debounce-ms内没有新文件时交给导入流水线。
+ * 导入成功的源文件由流水线删除，导入失败的文件记入检查点，重启后内容不变时不再重试
+ * </p>
+ */
+@Service
+@Slf4j
+public class PendingWatchServiceImpl implements PendingWatchService {
+
+    private static final String CHECKPOINT_FILE = ".watch-checkpoint";
+    private static final long POLL_MS = 200;
+
+    @Autowired
+    private PhotoIngestService photoIngestService;
+
+    @Value("${qingdai.url.pendingUrl}")
+    private String pendingUrl;
+
+    @Value("${qingdai.url.fullSizeUrl}")
+    private String fullSizeUrl;
+
+    @Value("${qingdai.url.thumbnail100KUrl}")
+    private String thumbnail100KUrl;
+
+    @Value("${qingdai.url.thumbnail1000KUrl}")
+    private String thumbnail1000KUrl;
+
+    @Value("${qingdai.ingest.watch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${qingdai.ingest.watch.stable-ms:2000}")
+    private long stableMs;
+
+    @Value("${qingdai.ingest.watch.debounce-ms:1000}")
+    private long debounceMs;
+
+    @Value("${qingdai.ingest.watch.max-batch:50}")
+    private int maxBatch;
+
+    @Value("${qingdai.ingest.watch.overwrite:false}")
+    private boolean overwrite;
+
+    private volatile boolean running;
+    private volatile WatchService watchService;
+
+    // 已交给流水线但仍留在目录中的文件：名称 -> 大小和修改时间
+    private final Map<String, String> checkpoint = new ConcurrentHashMap<>();
+
+    // 等待写入完成的文件，只在监听线程中访问
+    private final Map<String, Candidate> candidates = new LinkedHashMap<>();
+
+    // 写入完成、等待导入的文件，只在监听线程中访问
+    private final List<File> ready = new ArrayList<>();
+    private long lastReadyTime;
+
+    private final AtomicLong ingestedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile int waitingCount;
+    private volatile long lastBatchTime;
+
+    // 等待写入完成的单个文件
+    private static class Candidate {
+        private final Path path;
+        private long size = -1;
+        private long modified = -1;
+        private long lastChange;
+
+        private Candidate(Path path, long now) {
+            this.path = path;
+            this.lastChange = now;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("待处理目录监听未开启");
+            return;
+        }
+        Path pendingDir = Paths.get(pendingUrl);
+        if (!Files.isDirectory(pendingDir)) {
+            log.warn("待处理目录不存在，不启动监听: {}", pendingUrl);
+            return;
+        }
+        try {
+            watchService = pendingDir.getFileSystem().newWatchService();
+            pendingDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.error("注册待处理目录监听失败: {}", e.getMessage(), e);
+            return;
+        }
+        loadCheckpoint(pendingDir);
+
+        running = true;
+        Thread watcher = new CustomizableThreadFactory("pending-watcher-").newThread(() -> watchLoop(pendingDir));
+        watcher.setDaemon(true);
+        watcher.start();
+        log.info("开始监听待处理目录: {}", pendingDir);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        WatchService service = watchService;
+        if (service != null) {
+            // 正在导入的批次不中断，由流水线自行完成
+            try {
+                service.close();
+            } catch (IOException e) {
+                log.warn("关闭待处理目录监听失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void watchLoop(Path pendingDir) {
+        // 启动前已在目录中的文件同样等待写入完成后导入
+        rescan(pendingDir, System.currentTimeMillis());
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // 事件过多时丢失的部分通过重新扫描目录补齐
+                            rescan(pendingDir, now);
+                        } else {
+                            offer(pendingDir.resolve((Path) event.context()), now);
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.error("待处理目录已不可访问，停止监听: {}", pendingDir);
+                        break;
+                    }
+                }
+                step(pendingDir, now);
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("待处理目录监听出错: {}", e.getMessage(), e);
+            }
+        }
+        running = false;
+        log.info("待处理目录监听已停止");
+    }
+
+    // 收集写入完成的文件，攒够一批或debounce-ms内没有新文件时导入
+    void step(Path pendingDir, long now) {
+        int readyBefore = ready.size();
+        collectStable(now, ready);
+        if (ready.size() > readyBefore) {
+            lastReadyTime = now;
+        }
+        if (!ready.isEmpty() && (ready.size() >= maxBatch || now - lastReadyTime >= debounceMs)) {
+            if (ingest(pendingDir, ready)) {
+                ready.clear();
+            } else {
+                // 没拿到导入锁，保留本批，从等待结束时起debounce-ms后重试
+                lastReadyTime = Math.max(now, System.currentTimeMillis());
+            }
+        }
+    }
+
+    void rescan(Path pendingDir, long now) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pendingDir)) {
+            for (Path path : stream) {
+                offer(path, now);
+            }
+        } catch (IOException e) {
+            log.error("扫描待处理目录失败: {}", e.getMessage(), e);
+        }
+    }
+
+    // 收到事件的文件重新开始计时，上传任务的临时目录和隐藏文件不处理
+    private void offer(Path path, long now) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(".") || !FileUtils.isSupportedPhotoName(name)) {
+            return;
+        }
+        Candidate candidate = candidates.get(name);
+        if (candidate == null) {
+            candidates.put(name, new Candidate(path, now));
+        } else {
+            candidate.lastChange = now;
+        }
+        waitingCount = candidates.size();
+    }
+
+    // 大小和修改时间在stable-ms内没有变化的文件移入待导入列表
+    private void collectStable(long now, List<File> ready) {
+        Iterator<Candidate> iterator = candidates.values().iterator();
+        while (iterator.hasNext()) {
+            Candidate candidate = iterator.next();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(candidate.path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // 已被删除或移走
+                iterator.remove();
+                continue;
+            }
+            if (!attributes.isRegularFile()) {
+                iterator.remove();
+                continue;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (size != candidate.size || modified != candidate.modified) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.lastChange = now;
+                continue;
+            }
+            if (size == 0 || now - candidate.lastChange < stableMs) {
+                continue;
+            }
+            iterator.remove();
+            String name = candidate.path.getFileName().toString();
+            if (version(size, modified).equals(checkpoint.get(name))) {
+                log.debug("跳过导入失败过且内容未变化的文件: {}", name);
+                continue;
+            }
+            ready.add(candidate.path.toFile());
+        }
+        waitingCount = candidates.size();
+    }
+
+    // 返回false表示本批未处理，需要稍后重试
+    private boolean ingest(Path pendingDir, List<File> batch) {
+        File fullSizeDir = FileUtils.validateFolder(fullSizeUrl);
+        File thumbnail100KDir = FileUtils.validateFolder(thumbnail100KUrl);
+        File thumbnail1000KDir = FileUtils.validateFolder(thumbnail1000KUrl);
+        if (fullSizeDir == null || thumbnail100KDir == null || thumbnail1000KDir == null) {
+            log.error("目录验证失败，本批{}张图片暂不导入", batch.size());
+            return true;
+        }
+
+        long startTime = System.currentTimeMillis();
+        PhotoService.ProcessResult result = photoIngestService.ingestFiles(batch, thumbnail100KDir, thumbnail1000KDir,
+                fullSizeDir, overwrite);
+        if (result == null) {
+            // 不记入检查点，文件仍按原样留在待处理目录
+            return false;
+        }
+
+        // 导入成功的源文件已被删除，仍在目录中的是导入失败的文件
+        List<String> failedLines = new ArrayList<>();
+        for (File file : batch) {
+            if (file.isFile()) {
+                String version = version(file.length(), file.lastModified());
+                checkpoint.put(file.getName(), version);
+                failedLines.add(file.getName() + "\t" + version);
+            }
+        }
+        appendCheckpoint(pendingDir, failedLines);
+
+        int saved = result.getNewPhotos().size();
+        ingestedCount.addAndGet(saved);
+        failedCount.addAndGet(failedLines.size());
+        lastBatchTime = System.currentTimeMillis();
+        log.info("自动导入待处理图片{}张，入库{}张，失败{}张，耗时{}ms", batch.size(), saved, failedLines.size(),
+                lastBatchTime - startTime);
+        return true;
+    }
+
+    private static String version(long size, long modified) {
+        return size + ":" + modified;
+    }
+
+    // 读取检查点，只保留仍在目录中且内容未变化的文件，并重写检查点文件
+    void loadCheckpoint(Path pendingDir) {
+        Path checkpointPath = pendingDir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointPath)) {
+            return;
+        }
+        Map<String, String> entries = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(checkpointPath, StandardCharsets.UTF_8)) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    entries.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取待处理目录检查点失败: {}", e.getMessage());
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            File file = pendingDir.resolve(entry.getKey()).toFile();
+            if (file.isFile() && version(file.length(), file.lastModified()).equals(entry.getValue())) {
+                checkpoint.put(entry.getKey(), entry.getValue());
+                lines.add(entry.getKey() + "\t" + entry.getValue());
+            }
+        }
+        try {
+            Path temp = pendingDir.resolve(CHECKPOINT_FILE + ".writing");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("重写待处理目录检查点失败: {}", e.getMessage());
+        }
+        log.info("已加载待处理目录检查点，{}个导入失败的文件不再重试", checkpoint.size());
+    }
+
+    private void appendCheckpoint(Path pendingDir, List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        try {
+            Files.write(pendingDir.resolve(CHECKPOINT_FILE), lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("记录待处理目录检查点失败: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running);
+        status.put("pendingDir", pendingUrl);
+        status.put("waitingCount", waitingCount);
+        status.put("ingestedCount", ingestedCount.get());
+        status.put("failedCount", failedCount.get());
+        status.put("skippedCount", checkpoint.size());
+        status.put("lastBatchTime", lastBatchTime);
+        return status;
+    }
+}
@@ -0,0 +1,436 @@
+package com.qingdai.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.qingdai.entity.Photo;
+import com.qingdai.mapper.PhotoMapper;
+import com.qingdai.service.PhotoConsistencyService;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.ThumbnailStore;
+import com.qingdai.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 一致性检查实现
+ * 数据库通过流式查询只读取ID和文件名，三个档位各自在一个线程中列出一次并排序，
+ * 与数据库文件名按有序集合归并比较，不再逐张照片调用exists或逐个文件查询数据库
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoConsistencyServiceImpl implements PhotoConsistencyService {
+
+    private static final String REPORT_PREFIX = "consistency-";
+    private static final String REPORT_SUFFIX = ".json";
+    private static final DateTimeFormatter REPORT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // 报告按普通JSON保存，不使用Redis专用的带类型信息的ObjectMapper
+    private static final ObjectMapper REPORT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    @Autowired
+    private PhotoMapper photoMapper;
+
+    @Autowired
+    @Qualifier("fullSizePhotoStorage")
+    private PhotoStorage fullSizePhotoStorage;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Autowired
+    @Qualifier("consistencyScanExecutor")
+    private ExecutorService scanExecutor;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${qingdai.url.thumbnail1000KUrl}")
+    private String thumbnail1000KUrl;
+
+    @Value("${qingdai.consistency.report-dir}")
+    private String reportDir;
+
+    @Value("${qingdai.consistency.report-keep:30}")
+    private int reportKeep;
+
+    @Value("${qingdai.redis.key.consistency-scan-status}")
+    private String scanStatusKeyPrefix;
+
+    // 正在执行的后台检查，同一时间只执行一个
+    private final AtomicReference<String> runningScanId = new AtomicReference<>();
+
+    @Override
+    public ScanReport scan(Consumer<TierDiff> listener) {
+        return scan(UUID.randomUUID().toString(), listener);
+    }
+
+    private ScanReport scan(String scanId, Consumer<TierDiff> listener) {
+        long startTime = System.currentTimeMillis();
+        log.info("开始一致性检查: {}", scanId);
+
+        // 数据库和三个档位同时读取，每个档位列出完成且数据库读取完成后立即比较
+        CompletableFuture<DbSnapshot> db = CompletableFuture.supplyAsync(this::loadDatabase, scanExecutor);
+        Map<String, CompletableFuture<TierDiff>> futures = new LinkedHashMap<>();
+        futures.put(TIER_FULL_SIZE, diffTier(TIER_FULL_SIZE, fullSizePhotoStorage::list, db, listener));
+        futures.put(TIER_100K, diffTier(TIER_100K, thumbnailStore::list, db, listener));
+        futures.put(TIER_1000K, diffTier(TIER_1000K, this::list1000K, db, listener));
+
+        DbSnapshot snapshot;
+        Map<String, TierDiff> tiers = new LinkedHashMap<>();
+        try {
+            snapshot = db.join();
+            for (Map.Entry<String, CompletableFuture<TierDiff>> entry : futures.entrySet()) {
+                tiers.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException("一致性检查失败: " + cause.getMessage(), cause);
+        }
+
+        // 三个档位都缺失的文件名，各列表均已排序，依次求交集
+        List<String> missingAllFiles = intersect(intersect(tiers.get(TIER_FULL_SIZE).getMissing(),
+                tiers.get(TIER_100K).getMissing()), tiers.get(TIER_1000K).getMissing());
+        List<String> missingAllDetails = new ArrayList<>(missingAllFiles.size());
+        for (String fileName : missingAllFiles) {
+            missingAllDetails.add(String.format("ID:%s,文件名:%s,原图缺失:true,100K缺失:true,1000K缺失:true",
+                    snapshot.idOf(fileName), fileName));
+        }
+
+        long durationMs = System.currentTimeMillis() - startTime;
+        log.info("一致性检查完成: {}, 数据库{}张照片，耗时{}ms", scanId, snapshot.getCount(), durationMs);
+        return new ScanReport(scanId, startTime, durationMs, snapshot.getCount(), tiers, missingAllFiles,
+                missingAllDetails);
+    }
+
+    private CompletableFuture<TierDiff> diffTier(String tier, NameLister lister, CompletableFuture<DbSnapshot> db,
+            Consumer<TierDiff> listener) {
+        CompletableFuture<TierListing> listing = CompletableFuture.supplyAsync(() -> listTier(tier, lister),
+                scanExecutor);
+        return listing.thenCombineAsync(db, (files, snapshot) -> {
+            TierDiff diff = diff(tier, files, snapshot.getNames());
+            log.info("档位{}比较完成：{}个文件，{}个缺失，{}个没有数据库记录", tier, diff.getFileCount(),
+                    diff.getMissing().size(), diff.getNotInDb().size());
+            if (listener != null) {
+                try {
+                    listener.accept(diff);
+                } catch (RuntimeException e) {
+                    log.warn("一致性检查回调失败: {}, 错误: {}", tier, e.getMessage());
+                }
+            }
+            return diff;
+        }, scanExecutor);
+    }
+
+    // 流式读取数据库中的文件名，按文件名排序去重
+    private DbSnapshot loadDatabase() {
+        List<Photo> rows = new ArrayList<>();
+        photoMapper.streamFileNames(context -> {
+            Photo photo = context.getResultObject();
+            if (photo.getFileName() != null) {
+                rows.add(photo);
+            }
+        });
+        rows.sort(Comparator.comparing(Photo::getFileName));
+
+        String[] names = new String[rows.size()];
+        String[] ids = new String[rows.size()];
+        int size = 0;
+        for (Photo photo : rows) {
+            if (size > 0 && names[size - 1].equals(photo.getFileName())) {
+                continue;
+            }
+            names[size] = photo.getFileName();
+            ids[size] = photo.getId();
+            size++;
+        }
+        return new DbSnapshot(rows.size(), Arrays.copyOf(names, size), Arrays.copyOf(ids, size));
+    }
+
+    // 列出档位中的图片并排序，失败时记录错误，不把整个档位当作缺失
+    private TierListing listTier(String tier, NameLister lister) {
+        long startTime = System.currentTimeMillis();
+        try {
+            String[] names = lister.list().stream()
+                    .filter(FileUtils::isSupportedPhotoName)
+                    .sorted()
+                    .toArray(String[]::new);
+            log.debug("列出档位{}完成：{}个文件，耗时{}ms", tier, names.length, System.currentTimeMillis() - startTime);
+            return new TierListing(names, null);
+        } catch (IOException | RuntimeException e) {
+            log.error("列出档位{}失败: {}", tier, e.getMessage(), e);
+            return new TierListing(null, e.getMessage());
+        }
+    }
+
+    // 1000K档位直接在本机目录，只遍历一层，文件属性随目录遍历一起读取
+    private List<String> list1000K() throws IOException {
+        List<String> names = new ArrayList<>();
+        Path dir = Paths.get(thumbnail1000KUrl);
+        if (!Files.isDirectory(dir)) {
+            return names;
+        }
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && !name.startsWith(".")) {
+                    names.add(name);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return names;
+    }
+
+    // 两个有序且无重复的名称数组归并比较
+    private static TierDiff diff(String tier, TierListing listing, String[] dbNames) {
+        if (listing.getError() != null) {
+            return new TierDiff(tier, 0, new ArrayList<>(), new ArrayList<>(), listing.getError());
+        }
+        String[] files = listing.getNames();
+        List<String> missing = new ArrayList<>();
+        List<String> notInDb = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < dbNames.length || j < files.length) {
+            int cmp = i >= dbNames.length ? 1 : j >= files.length ? -1 : dbNames[i].compareTo(files[j]);
+            if (cmp < 0) {
+                missing.add(dbNames[i++]);
+            } else if (cmp > 0) {
+                notInDb.add(files[j++]);
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return new TierDiff(tier, files.length, missing, notInDb, null);
+    }
+
+    private static List<String> intersect(List<String> a, List<String> b) {
+        List<String> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int cmp = a.get(i).compareTo(b.get(j));
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                result.add(a.get(i));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String startScan() {
+        String scanId = UUID.randomUUID().toString();
+        while (!runningScanId.compareAndSet(null, scanId)) {
+            String running = runningScanId.get();
+            if (running != null) {
+                log.info("已有一致性检查在执行: {}", running);
+                return running;
+            }
+        }
+        updateScanStatus(scanId, "PROCESSING", 0, "一致性检查已开始", new HashMap<>());
+        scanExecutor.execute(() -> {
+            try {
+                runAndPersist(scanId);
+            } catch (Exception e) {
+                log.error("后台一致性检查失败: {}, 错误: {}", scanId, e.getMessage(), e);
+            }
+        });
+        return scanId;
+    }
+
+    @Override
+    public Map<String, Object> getScanStatus(String scanId) {
+        Object status = redisTemplate.opsForValue().get(scanStatusKeyPrefix + scanId);
+        if (status instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> statusInfo = (Map<String, Object>) status;
+            return statusInfo;
+        }
+        return null;
+    }
+
+    @Override
+    public ScanReport scanAndPersist() throws IOException {
+        String scanId = UUID.randomUUID().toString();
+        if (!runningScanId.compareAndSet(null, scanId)) {
+            log.info("已有一致性检查在执行，跳过本次检查: {}", runningScanId.get());
+            return null;
+        }
+        return runAndPersist(scanId);
+    }
+
+    // 执行检查，每个档位完成后更新进度，完成后保存报告；调用前已占用runningScanId
+    private ScanReport runAndPersist(String scanId) throws IOException {
+        Map<String, Object> tierResults = new ConcurrentHashMap<>();
+        try {
+            ScanReport report = scan(scanId, diff -> {
+                tierResults.put(diff.getTier(), REPORT_MAPPER.convertValue(diff, MAP_TYPE));
+                updateScanStatus(scanId, "PROCESSING", tierResults.size() * 90 / 3,
+                        "已完成档位: " + String.join("、", tierResults.keySet()), new HashMap<>(tierResults));
+            });
+            Path reportFile = persist(report);
+            Map<String, Object> statusInfo = REPORT_MAPPER.convertValue(report, MAP_TYPE);
+            updateScanStatus(scanId, "COMPLETED", 100, "一致性检查完成，报告: " + reportFile.getFileName(),
+                    statusInfo.get("tiers"));
+            return report;
+        } catch (IOException | RuntimeException e) {
+            updateScanStatus(scanId, "FAILED", 0, "一致性检查失败: " + e.getMessage(), new HashMap<>(tierResults));
+            throw e;
+        } finally {
+            runningScanId.compareAndSet(scanId, null);
+        }
+    }
+
+    private void updateScanStatus(String scanId, String status, int progress, String message, Object tiers) {
+        Map<String, Object> statusInfo = new HashMap<>();
+        statusInfo.put("scanId", scanId);
+        statusInfo.put("status", status);
+        statusInfo.put("progress", progress);
+        statusInfo.put("message", message);
+        statusInfo.put("tiers", tiers);
+        statusInfo.put("updateTime", System.currentTimeMillis());
+        try {
+            // 存储到Redis，设置24小时过期
+            redisTemplate.opsForValue().set(scanStatusKeyPrefix + scanId, statusInfo, 24, TimeUnit.HOURS);
+        } catch (RuntimeException e) {
+            log.warn("更新一致性检查进度失败: {}, 错误: {}", scanId, e.getMessage());
+        }
+    }
+
+    // 报告先写入临时文件再改名，只保留最近report-keep份
+    private Path persist(ScanReport report) throws IOException {
+        Path dir = Paths.get(reportDir);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(REPORT_PREFIX + LocalDateTime.now().format(REPORT_TIME) + REPORT_SUFFIX);
+        Path temp = dir.resolve("." + target.getFileName() + ".writing");
+        REPORT_MAPPER.writeValue(temp.toFile(), report);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("一致性检查报告已保存: {}", target);
+
+        List<Path> reports = listReports(dir);
+        for (int i = 0; i < reports.size() - Math.max(1, reportKeep); i++) {
+            Files.deleteIfExists(reports.get(i));
+        }
+        return target;
+    }
+
+    @Override
+    public Map<String, Object> getLatestReport() throws IOException {
+        Path dir = Paths.get(reportDir);
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        List<Path> reports = listReports(dir);
+        if (reports.isEmpty()) {
+            return null;
+        }
+        return REPORT_MAPPER.readValue(reports.get(reports.size() - 1).toFile(), MAP_TYPE);
+    }
+
+    // 报告文件名带时间，按名称排序即按时间排序
+    private static List<Path> listReports(Path dir) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, REPORT_PREFIX + "*" + REPORT_SUFFIX)) {
+            for (Path path : stream) {
+                reports.add(path);
+            }
+        }
+        reports.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        return reports;
+    }
+
+    // 档位的名称列表，store的list和目录遍历统一抛出IOException
+    private interface NameLister {
+        List<String> list() throws IOException;
+    }
+
+    private static class TierListing {
+        private final String[] names;
+        private final String error;
+
+        TierListing(String[] names, String error) {
+            this.names = names;
+            this.error = error;
+        }
+
+        String[] getNames() {
+            return names;
+        }
+
+        String getError() {
+            return error;
+        }
+    }
+
+    // 数据库文件名快照，names已排序去重，ids与names一一对应
+    private static class DbSnapshot {
+        private final int count;
+        private final String[] names;
+        private final String[] ids;
+
+        DbSnapshot(int count, String[] names, String[] ids) {
+            this.count = count;
+            this.names = names;
+            this.ids = ids;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        String[] getNames() {
+            return names;
+        }
+
+        String idOf(String fileName) {
+            int index = Arrays.binarySearch(names, fileName);
+            return index >= 0 ? ids[index] : null;
+        }
+    }
+}
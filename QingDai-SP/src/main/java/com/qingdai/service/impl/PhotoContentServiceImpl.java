@@ -0,0 +1,217 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.service.PhotoContentService;
+import com.qingdai.service.ThumbnailCacheService;
+import com.qingdai.storage.NamedStore;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.ThumbnailStore;
+import com.qingdai.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * 照片内容库服务实现类
+ * 内容库文件位于各档位目录下的.content/前两位哈希/完整哈希，文件系统不支持硬链接时退化为复制；
+ * 缩略图的WebP副本以“哈希.webp”一并登记，缺失时不影响命中；
+ * 原图和100K档位分别经由原图存储和缩略图存储访问，内容库文件以相同的相对路径作为名称，
+ * 分段存储时链接只增加索引记录，对象存储时链接为服务端复制
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoContentServiceImpl implements PhotoContentService {
+
+    private static final String STORE_DIR = ".content";
+
+    @Autowired
+    private ThumbnailCacheService thumbnailCacheService;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Autowired
+    @Qualifier("fullSizePhotoStorage")
+    private PhotoStorage fullSizePhotoStorage;
+
+    @Value("${qingdai.url.fullSizeUrl}")
+    private String fullSizeUrl;
+
+    @Value("${qingdai.url.thumbnail1000KUrl}")
+    private String thumbnail1000KUrl;
+
+    @Value("${qingdai.url.thumbnail100KUrl}")
+    private String thumbnail100KUrl;
+
+    @Override
+    public boolean contains(String contentHash) {
+        if (contentHash == null) {
+            return false;
+        }
+        if (!Files.isRegularFile(storePath(thumbnail1000KUrl, contentHash))) {
+            return false;
+        }
+        return thumbnailStore.exists(storeName(contentHash)) && fullSizePhotoStorage.exists(storeName(contentHash));
+    }
+
+    @Override
+    public List<File> linkFromStore(String contentHash, String fileName, boolean overwrite) throws IOException {
+        if (!contains(contentHash)) {
+            return null;
+        }
+        List<File> linkedFiles = new ArrayList<>();
+        Path entry = Paths.get(thumbnail1000KUrl, fileName);
+        if (!Files.exists(entry) || overwrite) {
+            Files.deleteIfExists(entry);
+            link(entry, storePath(thumbnail1000KUrl, contentHash));
+            linkedFiles.add(entry.toFile());
+        }
+        Path webpBlob = webpStorePath(thumbnail1000KUrl, contentHash);
+        Path webpEntry = FileUtils.getWebpFile(new File(thumbnail1000KUrl, fileName)).toPath();
+        if (Files.isRegularFile(webpBlob) && (!Files.exists(webpEntry) || overwrite)) {
+            Files.deleteIfExists(webpEntry);
+            link(webpEntry, webpBlob);
+            linkedFiles.add(webpEntry.toFile());
+        }
+
+        // 原图和100K档位
+        if (!fullSizePhotoStorage.exists(fileName) || overwrite) {
+            fullSizePhotoStorage.link(storeName(contentHash), fileName);
+            linkedFiles.add(new File(fullSizeUrl, fileName));
+        }
+        String webpName = FileUtils.getWebpName(fileName);
+        if (!thumbnailStore.exists(fileName) || overwrite) {
+            thumbnailStore.link(storeName(contentHash), fileName);
+            linkedFiles.add(new File(thumbnail100KUrl, fileName));
+        }
+        if (thumbnailStore.exists(webpStoreName(contentHash)) && (!thumbnailStore.exists(webpName) || overwrite)) {
+            thumbnailStore.link(webpStoreName(contentHash), webpName);
+            linkedFiles.add(new File(thumbnail100KUrl, webpName));
+        }
+        thumbnailCacheService.invalidateFileName(fileName);
+        log.debug("照片{}内容已存在，直接链接内容库文件", fileName);
+        return linkedFiles;
+    }
+
+    @Override
+    public void addToStore(String contentHash, String fileName) {
+        if (contentHash == null) {
+            return;
+        }
+        register(Paths.get(thumbnail1000KUrl, fileName), storePath(thumbnail1000KUrl, contentHash));
+        register(FileUtils.getWebpFile(new File(thumbnail1000KUrl, fileName)).toPath(),
+                webpStorePath(thumbnail1000KUrl, contentHash));
+        registerNamed(fullSizePhotoStorage, fileName, storeName(contentHash));
+        registerNamed(thumbnailStore, fileName, storeName(contentHash));
+        registerNamed(thumbnailStore, FileUtils.getWebpName(fileName), webpStoreName(contentHash));
+    }
+
+    @Override
+    public void releaseIfUnused(String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        releaseNamed(fullSizePhotoStorage, storeName(contentHash));
+        releaseNamed(thumbnailStore, storeName(contentHash));
+        releaseNamed(thumbnailStore, webpStoreName(contentHash));
+        for (Path blob : new Path[] { storePath(thumbnail1000KUrl, contentHash),
+                webpStorePath(thumbnail1000KUrl, contentHash) }) {
+            try {
+                if (Files.exists(blob) && (Integer) Files.getAttribute(blob, "unix:nlink") <= 1) {
+                    Files.delete(blob);
+                    log.debug("已删除不再引用的内容库文件: {}", blob);
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // 不支持链接计数的文件系统保留内容库文件
+                return;
+            } catch (IOException e) {
+                log.warn("删除内容库文件失败: {}, 错误: {}", blob, e.getMessage());
+            }
+        }
+    }
+
+    private Path storePath(String tierUrl, String contentHash) {
+        return Paths.get(tierUrl, STORE_DIR, contentHash.substring(0, 2), contentHash);
+    }
+
+    private Path webpStorePath(String tierUrl, String contentHash) {
+        return storePath(tierUrl, contentHash).resolveSibling(contentHash + FileUtils.WEBP_SUFFIX);
+    }
+
+    // 内容库文件在原图存储和缩略图存储中的名称，与按文件存放时的相对路径一致
+    private String storeName(String contentHash) {
+        return STORE_DIR + "/" + contentHash.substring(0, 2) + "/" + contentHash;
+    }
+
+    private String webpStoreName(String contentHash) {
+        return storeName(contentHash) + FileUtils.WEBP_SUFFIX;
+    }
+
+    // 与register相同，经由原图存储或缩略图存储完成
+    private void registerNamed(NamedStore store, String name, String storeName) {
+        try {
+            if (!store.exists(name)) {
+                return;
+            }
+            if (!store.exists(storeName)) {
+                store.link(name, storeName);
+            } else if (!store.isSameContent(storeName, name)) {
+                store.link(storeName, name);
+            }
+        } catch (IOException e) {
+            log.warn("登记内容库文件失败: {}, 错误: {}", name, e.getMessage());
+        }
+    }
+
+    private void releaseNamed(NamedStore store, String storeName) {
+        try {
+            if (store.exists(storeName) && !store.isShared(storeName)) {
+                store.delete(storeName);
+                log.debug("已删除不再引用的内容库文件: {}", storeName);
+            }
+        } catch (IOException e) {
+            log.warn("删除内容库文件失败: {}, 错误: {}", storeName, e.getMessage());
+        }
+    }
+
+    // 登记单个文件：内容库没有时链接进去，已有时让文件名改为指向内容库文件
+    private void register(Path entry, Path blob) {
+        try {
+            if (!Files.isRegularFile(entry)) {
+                return;
+            }
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                link(blob, entry);
+            } else if (!Files.isSameFile(blob, entry)) {
+                // 内容库已有相同内容，文件名改为指向内容库文件，释放重复的一份
+                Path tempEntry = entry.resolveSibling("." + entry.getFileName() + ".linking");
+                link(tempEntry, blob);
+                Files.move(tempEntry, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("登记内容库文件失败: {}, 错误: {}", entry, e.getMessage());
+        }
+    }
+
+    // 优先建立硬链接，不支持时复制
+    private void link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.entity.Photo;
+import com.qingdai.service.FileProcessService;
+import com.qingdai.service.PhotoContentService;
+import com.qingdai.service.PhotoIngestService;
+import com.qingdai.service.PhotoService;
+import com.qingdai.utils.FileStreamUtils;
+import com.qingdai.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * 待处理目录导入服务实现类
+ * 每张照片的元数据、压缩图、原图在图片处理线程池中执行，当前线程按批入库；
+ * 处理中和等待入库的照片数有上限，入库处理不过来时停止提交，内存中只保留这些照片加一个批次，与目录大小无关
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoIngestServiceImpl implements PhotoIngestService {
+
+    // 等待处理结果时检查停滞的间隔
+    private static final long POLL_INTERVAL_MS = 500;
+
+    @Lazy
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private FileProcessService fileProcessService;
+
+    @Autowired
+    private PhotoContentService photoContentService;
+
+    @Autowired
+    @Qualifier("imageProcessExecutor")
+    private ExecutorService imageProcessExecutor;
+
+    @Value("${qingdai.ingest.batch-size:50}")
+    private int batchSize;
+
+    @Value("${qingdai.ingest.max-in-flight:0}")
+    private int maxInFlight;
+
+    @Value("${qingdai.ingest.stall-timeout-ms:600000}")
+    private long stallTimeoutMs;
+
+    @Value("${qingdai.ingest.watch.lock-wait-ms:30000}")
+    private long lockWaitMs;
+
+    // 同一时间只允许一个导入任务处理待处理目录
+    private final ReentrantLock ingestLock = new ReentrantLock();
+
+    // 导入中的单张照片
+    private static class IngestItem {
+        private final File source;
+        private volatile Photo photo;
+        // 已生成的文件，失败时回滚
+        private final List<File> generatedFiles = new ArrayList<>();
+        // 处理成功，可以入库
+        private volatile boolean ready;
+
+        private IngestItem(File source) {
+            this.source = source;
+        }
+    }
+
+    @Override
+    public PhotoService.ProcessResult ingestFolder(File pendingDir, File thumbnail100KDir, File thumbnail1000KDir,
+            File fullSizeDir, boolean overwrite) {
+        if (!ingestLock.tryLock()) {
+            log.warn("已有待处理目录导入任务在运行");
+            return new PhotoService.ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
+        }
+        try {
+            File[] files = FileUtils.getImageFiles(pendingDir);
+            if (files == null || files.length == 0) {
+                log.warn("没有找到有效的待处理照片");
+                return new PhotoService.ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
+            }
+            return runPipeline(Arrays.asList(files), thumbnail100KDir, thumbnail1000KDir, fullSizeDir, overwrite);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    @Override
+    public PhotoService.ProcessResult ingestFiles(List<File> files, File thumbnail100KDir, File thumbnail1000KDir,
+            File fullSizeDir, boolean overwrite) {
+        try {
+            if (!ingestLock.tryLock(lockWaitMs, TimeUnit.MILLISECONDS)) {
+                log.warn("等待导入锁超过{}毫秒，{}张图片稍后重试", lockWaitMs, files.size());
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            // 等待期间可能已被手动导入处理并删除
+            List<File> existingFiles = files.stream().filter(File::isFile).collect(Collectors.toList());
+            if (existingFiles.isEmpty()) {
+                return new PhotoService.ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
+            }
+            return runPipeline(existingFiles, thumbnail100KDir, thumbnail1000KDir, fullSizeDir, overwrite);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    private PhotoService.ProcessResult runPipeline(List<File> files, File thumbnail100KDir, File thumbnail1000KDir,
+            File fullSizeDir, boolean overwrite) {
+        long startTime = System.currentTimeMillis();
+
+        // 正在处理和处理完等待入库的照片数上限，入库线程取走后才释放；并发度由图片处理线程池决定
+        int permits = maxInFlight > 0 ? maxInFlight : Runtime.getRuntime().availableProcessors() * 2;
+        Semaphore inFlight = new Semaphore(permits);
+        // 每个提交的任务无论成功、失败还是抛出Error都会放入一次
+        BlockingQueue<IngestItem> completed = new LinkedBlockingQueue<>();
+        List<Future<?>> futures = new ArrayList<>();
+        AtomicInteger failedCount = new AtomicInteger();
+
+        Map<File, Integer> thumbnailDirs = new LinkedHashMap<>();
+        thumbnailDirs.put(thumbnail1000KDir, 1000);
+        thumbnailDirs.put(thumbnail100KDir, 100);
+
+        List<Photo> savedPhotos = new ArrayList<>();
+        List<IngestItem> batch = new ArrayList<>(batchSize);
+        int submitted = 0;
+        int handled = 0;
+        long lastProgress = System.currentTimeMillis();
+        try {
+            // 元数据、压缩、复制原图在图片处理线程池中按张执行，入库在当前线程按批执行
+            for (File file : files) {
+                while (!inFlight.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    lastProgress = checkStalled(lastProgress, futures);
+                }
+                IngestItem item = new IngestItem(file);
+                futures.add(imageProcessExecutor.submit(
+                        () -> processItem(item, thumbnailDirs, fullSizeDir, overwrite, failedCount, completed)));
+                submitted++;
+
+                IngestItem done;
+                while ((done = completed.poll()) != null) {
+                    handled++;
+                    lastProgress = System.currentTimeMillis();
+                    collect(done, batch, savedPhotos, failedCount, inFlight);
+                }
+            }
+
+            while (handled < submitted) {
+                IngestItem done = completed.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    lastProgress = checkStalled(lastProgress, futures);
+                    continue;
+                }
+                handled++;
+                lastProgress = System.currentTimeMillis();
+                collect(done, batch, savedPhotos, failedCount, inFlight);
+            }
+            if (!batch.isEmpty()) {
+                savedPhotos.addAll(persistBatch(batch, failedCount));
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("导入待处理图片时被中断", e);
+        } catch (RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("待处理目录导入完成，入库：{}张，失败：{}张，耗时{}毫秒", savedPhotos.size(), failedCount.get(), duration);
+        return new PhotoService.ProcessResult(Collections.emptyList(), savedPhotos, !savedPhotos.isEmpty());
+    }
+
+    // 单张照片：读取元数据，链接内容库或生成压缩图，复制原图
+    private void processItem(IngestItem item, Map<File, Integer> thumbnailDirs, File fullSizeDir, boolean overwrite,
+            AtomicInteger failedCount, BlockingQueue<IngestItem> completed) {
+        try {
+            Photo photo;
+            try {
+                photo = photoService.getPhotoMetadataByFile(item.source);
+            } catch (RuntimeException e) {
+                log.error("读取图片{}元数据失败: {}", item.source.getName(), e.getMessage(), e);
+                photo = null;
+            }
+            if (photo == null) {
+                failedCount.incrementAndGet();
+                return;
+            }
+            item.photo = photo;
+
+            // 内容库中已有相同内容时直接链接三个档位，跳过压缩和复制原图
+            String contentHash = FileStreamUtils.sha256(item.source.toPath());
+            photo.setContentHash(contentHash);
+            // 上次入库提交后、删除源文件前中断时源文件会留下，同名同内容已入库的只删除源文件，避免重复插入
+            if (photoService.existsByFileNameAndContentHash(item.source.getName(), contentHash)) {
+                log.info("图片{}已入库，删除残留的源文件", item.source.getName());
+                FileUtils.deleteFile(item.source);
+                return;
+            }
+            List<File> linkedFiles = photoContentService.linkFromStore(contentHash, item.source.getName(), overwrite);
+            if (linkedFiles != null) {
+                item.generatedFiles.addAll(linkedFiles);
+                photo.setBlurHash(photoService.getBlurHashByContentHash(contentHash));
+            } else {
+                // 解码一次生成1000K和100K压缩图，解码内存受像素预算限制
+                FileProcessService.RenderResult rendered = fileProcessService.renderPhotoToFolders(
+                        item.source, thumbnailDirs, overwrite);
+                item.generatedFiles.addAll(rendered.getFiles());
+                photo.setBlurHash(rendered.getBlurHash());
+
+                File destFile = fileProcessService.placeFullSizePhoto(item.source, fullSizeDir, overwrite);
+                if (destFile != null) {
+                    item.generatedFiles.add(destFile);
+                }
+                // 有档位沿用了同名的已有文件时不入库也不登记内容库，按名称冲突处理，源文件留在待处理目录
+                if (destFile == null || !rendered.covers(thumbnailDirs.keySet(), item.source.getName())) {
+                    throw new IOException("同名照片已存在且未选择覆盖: " + item.source.getName());
+                }
+                photoContentService.addToStore(contentHash, item.source.getName());
+            }
+            item.ready = true;
+        } catch (IOException | RuntimeException e) {
+            failItem(item, failedCount, e);
+        } catch (Error e) {
+            failItem(item, failedCount, e);
+            throw e;
+        } finally {
+            completed.add(item);
+        }
+    }
+
+    private void collect(IngestItem item, List<IngestItem> batch, List<Photo> savedPhotos, AtomicInteger failedCount,
+            Semaphore inFlight) {
+        inFlight.release();
+        if (!item.ready) {
+            return;
+        }
+        batch.add(item);
+        // 每批独立提交，提交成功后删除源文件
+        if (batch.size() >= batchSize) {
+            savedPhotos.addAll(persistBatch(batch, failedCount));
+            batch.clear();
+        }
+    }
+
+    // 超过停滞时间没有任何照片处理完时放弃本次导入，避免一直占用导入锁
+    private long checkStalled(long lastProgress, List<Future<?>> futures) {
+        if (System.currentTimeMillis() - lastProgress < stallTimeoutMs) {
+            return lastProgress;
+        }
+        long running = futures.stream().filter(future -> !future.isDone()).count();
+        throw new IllegalStateException("导入待处理图片停滞超过" + stallTimeoutMs + "毫秒，未完成的照片：" + running + "张");
+    }
+
+    private List<Photo> persistBatch(List<IngestItem> batch, AtomicInteger failedCount) {
+        List<Photo> photos = batch.stream().map(item -> item.photo).collect(Collectors.toList());
+        try {
+            photoService.saveBatch(photos);
+        } catch (Exception e) {
+            log.error("批量保存{}张照片失败: {}", photos.size(), e.getMessage(), e);
+            batch.forEach(item -> fileProcessService.rollbackProcessedFiles(item.generatedFiles));
+            failedCount.addAndGet(batch.size());
+            return Collections.emptyList();
+        }
+
+        for (IngestItem item : batch) {
+            try {
+                FileUtils.deleteFile(item.source);
+            } catch (IOException e) {
+                log.warn("删除已导入的源文件失败: {}", e.getMessage());
+            }
+        }
+        log.debug("已提交{}张照片", photos.size());
+        return photos;
+    }
+
+    private void failItem(IngestItem item, AtomicInteger failedCount, Throwable e) {
+        log.error("导入图片{}失败: {}", item.source.getName(), e.getMessage(), e);
+        fileProcessService.rollbackProcessedFiles(item.generatedFiles);
+        failedCount.incrementAndGet();
+    }
+}
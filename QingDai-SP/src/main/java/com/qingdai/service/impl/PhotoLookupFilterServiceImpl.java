@@ -0,0 +1,243 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.mapper.PhotoMapper;
+import com.qingdai.service.PhotoLookupFilterService;
+import com.qingdai.utils.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 照片存在性过滤实现
+ * ID和文件名各用一个布隆过滤器。重建期间新加入的元素同时写入新旧两个过滤器，替换后不会丢失；
+ * 在事务中加入时提交后再加入一次，避免重建的流式读取恰好没读到未提交的记录。
+ * 其他节点新增的照片通过Redis发布订阅同步，否则其他节点会把新照片判定为不存在
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoLookupFilterServiceImpl implements PhotoLookupFilterService {
+
+    @Autowired
+    private PhotoMapper photoMapper;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${qingdai.lookup-filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${qingdai.lookup-filter.expected-insertions:200000}")
+    private long expectedInsertions;
+
+    @Value("${qingdai.lookup-filter.fpp:0.01}")
+    private double fpp;
+
+    @Value("${qingdai.lookup-filter.channel:qingdai:lookup-filter:add}")
+    private String channel;
+
+    // 为null表示尚未建立，此时不做过滤
+    private volatile Filters current;
+    // 正在重建的过滤器
+    private volatile Filters building;
+
+    private final Object rebuildLock = new Object();
+    private volatile LocalDateTime lastRebuildTime;
+    private volatile long lastRebuildMs;
+
+    private Counter idRejected;
+    private Counter fileNameRejected;
+    private final AtomicLong idPassed = new AtomicLong();
+    private final AtomicLong fileNamePassed = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        idRejected = Counter.builder("qingdai.lookup.filter.rejected")
+                .description("存在性过滤直接判定为不存在的查询次数")
+                .tag("type", "id")
+                .register(meterRegistry);
+        fileNameRejected = Counter.builder("qingdai.lookup.filter.rejected")
+                .description("存在性过滤直接判定为不存在的查询次数")
+                .tag("type", "fileName")
+                .register(meterRegistry);
+        if (enabled) {
+            redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+                Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+                if (body instanceof String) {
+                    // 消息格式：照片ID\n文件名（可为空）
+                    String[] parts = ((String) body).split("\n", 2);
+                    addLocally(parts[0], parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null);
+                }
+            }, new ChannelTopic(channel));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            log.info("照片存在性过滤未启用");
+            return;
+        }
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            // 建立失败时不过滤，等下次定时重建
+            log.error("建立照片存在性过滤器失败: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean mightContainId(String photoId) {
+        Filters filters = current;
+        if (filters == null || photoId == null) {
+            return true;
+        }
+        if (filters.ids.mightContain(photoId)) {
+            idPassed.incrementAndGet();
+            return true;
+        }
+        idRejected.increment();
+        return false;
+    }
+
+    @Override
+    public boolean mightContainFileName(String fileName) {
+        Filters filters = current;
+        if (filters == null || fileName == null) {
+            return true;
+        }
+        if (filters.fileNames.mightContain(fileName)) {
+            fileNamePassed.incrementAndGet();
+            return true;
+        }
+        fileNameRejected.increment();
+        return false;
+    }
+
+    @Override
+    public void add(String photoId, String fileName) {
+        if (!enabled || photoId == null) {
+            return;
+        }
+        addLocally(photoId, fileName);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addLocally(photoId, fileName);
+                    publish(photoId, fileName);
+                }
+            });
+        } else {
+            publish(photoId, fileName);
+        }
+    }
+
+    @Override
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long start = System.currentTimeMillis();
+            long count = photoMapper.selectCount(null);
+            // 留出增长空间，照片数超过预计值时按实际数量的两倍建立
+            Filters next = new Filters(Math.max(expectedInsertions, count * 2), fpp);
+            building = next;
+            try {
+                photoMapper.streamFileNames(context -> {
+                    next.add(context.getResultObject().getId(), context.getResultObject().getFileName());
+                });
+                current = next;
+            } finally {
+                building = null;
+            }
+            lastRebuildTime = LocalDateTime.now();
+            lastRebuildMs = System.currentTimeMillis() - start;
+            log.info("照片存在性过滤器已重建，共{}张照片，位数组{}位，哈希函数{}个，耗时{}ms",
+                    count, next.ids.getBitCount(), next.ids.getHashCount(), lastRebuildMs);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        Filters filters = current;
+        status.put("enabled", enabled);
+        status.put("ready", filters != null);
+        status.put("insertions", filters == null ? 0 : filters.insertions.get());
+        status.put("bitCount", filters == null ? 0 : filters.ids.getBitCount());
+        status.put("hashCount", filters == null ? 0 : filters.ids.getHashCount());
+        status.put("idRejected", (long) idRejected.count());
+        status.put("idPassed", idPassed.get());
+        status.put("fileNameRejected", (long) fileNameRejected.count());
+        status.put("fileNamePassed", fileNamePassed.get());
+        status.put("lastRebuildTime", lastRebuildTime);
+        status.put("lastRebuildMs", lastRebuildMs);
+        return status;
+    }
+
+    // 先读building再读current：读到building为null时重建要么没开始，要么已把新过滤器换成current，
+    // 反过来读会在两次读取之间错过刚换上的新过滤器
+    private void addLocally(String photoId, String fileName) {
+        Filters rebuilding = building;
+        if (rebuilding != null) {
+            rebuilding.add(photoId, fileName);
+        }
+        Filters filters = current;
+        if (filters != null && filters != rebuilding) {
+            filters.add(photoId, fileName);
+        }
+    }
+
+    private void publish(String photoId, String fileName) {
+        try {
+            redisTemplate.convertAndSend(channel, photoId + "\n" + (fileName == null ? "" : fileName));
+        } catch (RuntimeException e) {
+            // 其他节点在下次重建前可能把这张照片判定为不存在
+            log.warn("发送照片过滤器更新消息失败，ID: {}, 错误: {}", photoId, e.getMessage());
+        }
+    }
+
+    private static class Filters {
+        private final BloomFilter ids;
+        private final BloomFilter fileNames;
+        // 加入次数，含改名和重复加入，只用于观察
+        private final AtomicLong insertions = new AtomicLong();
+
+        private Filters(long expectedInsertions, double fpp) {
+            this.ids = BloomFilter.create(expectedInsertions, fpp);
+            this.fileNames = BloomFilter.create(expectedInsertions, fpp);
+        }
+
+        private void add(String photoId, String fileName) {
+            if (photoId != null) {
+                ids.put(photoId);
+                insertions.incrementAndGet();
+            }
+            if (fileName != null) {
+                fileNames.put(fileName);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.service.FileProcessService;
+import com.qingdai.service.PhotoRenditionService;
+import com.qingdai.storage.PhotoStorage;
+import com.qingdai.storage.ThumbnailStore;
+import com.qingdai.utils.DiskLruCache;
+import com.qingdai.utils.FileUtils;
+import com.qingdai.utils.ImageCompressUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * 照片按需渲染服务实现类
+ * 从100K、1000K、原图中选择第一个宽度不小于目标宽度的档位作为源图，结果写入按总大小淘汰的磁盘LRU缓存；
+ * 原图在对象存储中时先下载到缓存目录，渲染后删除。不允许使用原图时宽度限制在1000K档位以内；
+ * 100K档位通过ThumbnailStore读取，分段存储时没有单独的文件
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoRenditionServiceImpl implements PhotoRenditionService {
+
+    private static final int MIN_WIDTH = 16;
+    private static final double MIN_QUALITY = 0.3;
+    private static final double MAX_QUALITY = 0.95;
+
+    @Autowired
+    private FileProcessService fileProcessService;
+
+    @Autowired
+    @Qualifier("fullSizePhotoStorage")
+    private PhotoStorage fullSizePhotoStorage;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Value("${qingdai.url.thumbnail1000KUrl}")
+    private String thumbnail1000KUrl;
+
+    @Value("${qingdai.rendition.cache-dir:${java.io.tmpdir}/qingdai-renditions}")
+    private String cacheDir;
+
+    @Value("${qingdai.rendition.cache-max-mb:1024}")
+    private long cacheMaxMb;
+
+    @Value("${qingdai.rendition.width-step:64}")
+    private int widthStep;
+
+    @Value("${qingdai.rendition.max-width:4096}")
+    private int maxWidth;
+
+    private DiskLruCache cache;
+
+    // 正在生成的渲染任务，同一缓存键的并发请求共享同一个结果
+    private final ConcurrentHashMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        cache = new DiskLruCache(Paths.get(cacheDir), cacheMaxMb * 1024 * 1024);
+        log.info("渲染缓存目录: {}，已缓存{}个文件，共{}KB", cacheDir, cache.size(), cache.getTotalBytes() / 1024);
+    }
+
+    @Override
+    public File getRendition(String fileName, String contentHash, int width, double quality, String format,
+            boolean allowOriginal) throws IOException {
+        // 没有内容哈希的旧数据只能先查询原图，用ETag区分内容
+        PhotoStorage.StoredPhoto original = null;
+        String version = contentHash;
+        if (version == null) {
+            original = fullSizePhotoStorage.stat(fileName);
+            if (original == null) {
+                return null;
+            }
+            version = fileName + "\n" + original.getEtag();
+        }
+        String extension = normalizeFormat(format);
+        int targetWidth = normalizeWidth(width);
+        if (!allowOriginal) {
+            Dimension largest = tierDimension(new File(thumbnail1000KUrl, fileName));
+            if (largest == null) {
+                return null;
+            }
+            targetWidth = Math.min(targetWidth, largest.width);
+        }
+        double targetQuality = normalizeQuality(quality);
+        String key = cacheKey(version, targetWidth, targetQuality, extension);
+
+        // 内容变化时键随之变化，命中即可直接返回，旧内容的缓存由LRU淘汰
+        File cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (original == null) {
+            original = fullSizePhotoStorage.stat(fileName);
+            if (original == null) {
+                return null;
+            }
+        }
+
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            File rendered = render(original, key, targetWidth, targetQuality, extension, allowOriginal);
+            future.complete(rendered);
+            return rendered;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private File render(PhotoStorage.StoredPhoto original, String key, int targetWidth, double quality,
+            String extension, boolean allowOriginal) throws IOException {
+        String fileName = original.getName();
+        Source source = selectSource(fileName, targetWidth);
+        if (source != null) {
+            return render(fileName, source, key, targetWidth, quality, extension);
+        }
+        if (!allowOriginal) {
+            // 1000K档位在读取尺寸后被删除或替换
+            throw new IOException("没有可用于渲染的压缩图: " + fileName);
+        }
+        Path downloaded = null;
+        File originalFile = original.getFile();
+        if (originalFile == null) {
+            downloaded = Files.createTempFile(Paths.get(cacheDir), ".source-", "-" + fileName);
+            fullSizePhotoStorage.download(fileName, downloaded);
+            originalFile = downloaded.toFile();
+        }
+        try {
+            return render(fileName, new Source("fullSize", originalFile, null, null), key, targetWidth, quality,
+                    extension);
+        } finally {
+            if (downloaded != null) {
+                Files.deleteIfExists(downloaded);
+            }
+        }
+    }
+
+    private File render(String fileName, Source source, String key, int targetWidth, double quality,
+            String extension) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        int permits = source.data != null
+                ? fileProcessService.acquireDecodeBudget((long) source.dimension.width * source.dimension.height)
+                : fileProcessService.acquireDecodeBudget(source.file);
+        byte[] bytes;
+        try {
+            // 解码时按EXIF方向校正，只缩小不放大
+            BufferedImage image = (source.data != null
+                    ? Thumbnails.of(new ByteArrayInputStream(source.data))
+                    : Thumbnails.of(source.file)).scale(1.0).asBufferedImage();
+            if (image.getWidth() > targetWidth) {
+                image = Thumbnails.of(image).width(targetWidth).asBufferedImage();
+            }
+            if (ImageCompressUtils.isJpeg(extension)) {
+                image = ImageCompressUtils.toRgb(image);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageCompressUtils.encode(image, extension, quality, out);
+            bytes = out.toByteArray();
+        } finally {
+            fileProcessService.releaseDecodeBudget(permits);
+        }
+
+        File rendered = cache.put(key, bytes);
+        log.debug("生成渲染图: {}，源图: {}，宽度: {}，质量: {}，大小: {}KB，耗时{}毫秒", fileName, source.tier,
+                targetWidth, quality, bytes.length / 1024, System.currentTimeMillis() - startTime);
+        return rendered;
+    }
+
+    // 从小到大选择第一个宽度不小于目标宽度的档位，都不满足时返回null，使用原图
+    private Source selectSource(String fileName, int targetWidth) throws IOException {
+        ThumbnailStore.StoredThumbnail small = thumbnailStore.get(fileName);
+        if (small != null && small.getSize() <= Integer.MAX_VALUE) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) small.getSize());
+            small.readInto(buffer);
+            byte[] data = buffer.array();
+            Dimension dimension = FileUtils.getImageDimension(data);
+            if (dimension != null && dimension.width >= targetWidth) {
+                return new Source("100K", null, data, dimension);
+            }
+        }
+        File medium = new File(thumbnail1000KUrl, fileName);
+        Dimension dimension = tierDimension(medium);
+        if (dimension != null && dimension.width >= targetWidth) {
+            return new Source("1000K", medium, null, dimension);
+        }
+        return null;
+    }
+
+    private Dimension tierDimension(File tierFile) {
+        return tierFile.isFile() ? FileUtils.getImageDimension(tierFile) : null;
+    }
+
+    // 还原生成方抛出的异常，参数错误仍由调用方按400处理
+    private File await(CompletableFuture<File> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    // 宽度按步长向上取整，减少缓存键的数量
+    private int normalizeWidth(int width) {
+        int clamped = Math.max(MIN_WIDTH, Math.min(width, maxWidth));
+        return Math.min(maxWidth, (clamped + widthStep - 1) / widthStep * widthStep);
+    }
+
+    private double normalizeQuality(double quality) {
+        double clamped = Math.max(MIN_QUALITY, Math.min(quality, MAX_QUALITY));
+        return Math.round(clamped * 20) / 20.0;
+    }
+
+    private String normalizeFormat(String format) {
+        String lower = format == null ? "jpg" : format.toLowerCase();
+        switch (lower) {
+            case "jpg":
+            case "jpeg":
+                return "jpg";
+            case "png":
+                return "png";
+            case "webp":
+                if (!ImageCompressUtils.canEncode("webp")) {
+                    throw new IllegalArgumentException("当前环境没有WebP编码器");
+                }
+                return "webp";
+            default:
+                throw new IllegalArgumentException("不支持的图片格式: " + format);
+        }
+    }
+
+    // 渲染的源图，文件或内存中的图片二选一
+    private static class Source {
+        private final String tier;
+        private final File file;
+        private final byte[] data;
+        private final Dimension dimension;
+
+        private Source(String tier, File file, byte[] data, Dimension dimension) {
+            this.tier = tier;
+            this.file = file;
+            this.data = data;
+            this.dimension = dimension;
+        }
+    }
+
+    // 内容相同的照片共用渲染结果
+    private String cacheKey(String version, int width, double quality, String extension) {
+        String name = UUID.nameUUIDFromBytes(version.getBytes(StandardCharsets.UTF_8)).toString();
+        return String.format("%s_w%d_q%d.%s", name, width, Math.round(quality * 100), extension);
+    }
+}
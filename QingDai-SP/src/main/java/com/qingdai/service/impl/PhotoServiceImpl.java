@@ -5,7 +5,9 @@ import com.qingdai.entity.GroupPhotoPhoto;
 import com.qingdai.mapper.PhotoMapper;
 import com.qingdai.service.PhotoService;
 import com.qingdai.service.GroupPhotoPhotoService;
-import com.qingdai.service.base.BaseCachedServiceImpl;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.qingdai.cache.PhotoCacheDependencies;
+import com.qingdai.cache.PhotoCacheInvalidator;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
 
@@ -16,26 +18,27 @@ import java.time.YearMonth;
 import java.time.Year;
 import java.time.LocalDate;
 
-import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
 import com.drew.lang.Rational;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.qingdai.utils.DateUtils;
+import com.qingdai.utils.ExecutorUtils;
+import com.qingdai.utils.FileStreamUtils;
 import com.qingdai.utils.FileUtils;
+import com.qingdai.utils.ImageProbeUtils;
 import com.qingdai.utils.SnowflakeIdGenerator;
-import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.io.InputStream;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -47,13 +50,18 @@ import java.util.Collections;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.springframework.data.redis.core.RedisTemplate;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.springframework.transaction.annotation.Transactional;
 import com.qingdai.service.FileProcessService;
+import com.qingdai.service.PhotoIngestService;
+import com.qingdai.service.PhotoContentService;
+import com.qingdai.service.PhotoConsistencyService;
+import com.qingdai.service.PhotoLookupFilterService;
 import org.springframework.context.annotation.Lazy;
 import java.util.HashSet;
 import java.util.Set;
@@ -69,7 +77,7 @@ import java.util.Set;
 @Service
 @Slf4j
 @CacheConfig(cacheNames = "photo")
-public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo> implements PhotoService {
+public class PhotoServiceImpl extends ServiceImpl<PhotoMapper, Photo> implements PhotoService {
 
     @Value("${qingdai.photo.author}")
     private String author;
@@ -96,6 +104,26 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     @Autowired
     private FileProcessService fileProcessService;
 
+    @Autowired
+    @Qualifier("imageProcessExecutor")
+    private ExecutorService imageProcessExecutor;
+
+    @Lazy
+    @Autowired
+    private PhotoIngestService photoIngestService;
+
+    @Autowired
+    private PhotoContentService photoContentService;
+
+    @Autowired
+    private PhotoConsistencyService photoConsistencyService;
+
+    @Autowired
+    private PhotoCacheInvalidator photoCacheInvalidator;
+
+    @Autowired
+    private PhotoLookupFilterService photoLookupFilterService;
+
     // 雪花算法生成器
     private final SnowflakeIdGenerator idGenerator = new SnowflakeIdGenerator(1, 1);
 
@@ -145,17 +173,22 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     @Override
     @Cacheable(key = "'photosByFolder_' + #folder.getName()")
     public List<Photo> getPhotosByFolder(File folder) {
-        return Arrays.stream(FileUtils.getImageFiles(folder)) // 返回 Stream<File>
-                .parallel() // 并行处理
-                .map(this::getPhotoObjectByFile)
+        // 在图片处理线程池中并行解析
+        return ExecutorUtils.invokeAll(imageProcessExecutor, Arrays.asList(FileUtils.getImageFiles(folder)),
+                        this::getPhotoObjectByFile)
+                .stream()
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
-    // 根据照片ID获取文件名
+    // 根据照片ID获取文件名，过滤器判定不存在的ID不查缓存也不查数据库
     @Override
-    @Cacheable(key = "'fileName_' + #photoId", unless = "#result == null")
+    @Cacheable(key = "'fileName_' + #photoId", unless = "#result == null",
+            condition = "@photoLookupFilterServiceImpl.mightContainId(#photoId)")
     public String getFileNameById(String photoId) {
+        if (!photoLookupFilterService.mightContainId(photoId)) {
+            return null;
+        }
         Photo photo = getById(photoId);
         if (photo == null) {
             log.debug("照片ID在数据库中不存在: {}", photoId);
@@ -164,12 +197,37 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
         return photo.getFileName();
     }
 
+    // 根据照片ID获取内容哈希
+    @Override
+    @Cacheable(key = "'contentHash_' + #photoId", unless = "#result == null",
+            condition = "@photoLookupFilterServiceImpl.mightContainId(#photoId)")
+    public String getContentHashById(String photoId) {
+        if (!photoLookupFilterService.mightContainId(photoId)) {
+            return null;
+        }
+        Photo photo = getById(photoId);
+        return photo == null ? null : photo.getContentHash();
+    }
+
+    // 根据内容哈希查找已有照片的BlurHash
+    @Override
+    public String getBlurHashByContentHash(String contentHash) {
+        if (contentHash == null) {
+            return null;
+        }
+        Photo photo = getOne(new LambdaQueryWrapper<Photo>()
+                .select(Photo::getBlurHash)
+                .eq(Photo::getContentHash, contentHash)
+                .isNotNull(Photo::getBlurHash)
+                .last("limit 1"));
+        return photo == null ? null : photo.getBlurHash();
+    }
+
     // 处理上传的文件并返回Photo对象列表
     @Override
     public List<Photo> getPhotosByMultipartFiles(MultipartFile[] files) {
-        return Arrays.stream(files)
-                .parallel()
-                .map(this::getPhotoObjectByMultipartFile)
+        return ExecutorUtils.invokeAll(imageProcessExecutor, Arrays.asList(files), this::getPhotoObjectByMultipartFile)
+                .stream()
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
@@ -192,190 +250,55 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
         return fileProcessService.fileIsSupportedPhoto(file);
     }
 
-    /*
-     * 获取文件名、格式和基础名称。
-     * 将PNG格式转换为JPEG格式。
-     * 检查目标文件是否存在且是否允许覆盖。
-     * 计算最大字节数。
-     * 优先调整图片质量以满足大小要求。
-     * 如果调整质量不达标，则尝试缩小图片尺寸。
-     * 如果仍不达标，抛出异常。
-     */
-    private void compressPhoto(File fullSizeUrl, File thumbnailDir, int maxSizeKB, boolean overwrite) {
-        try {
-            log.info("开始处理图片: {}", fullSizeUrl.getAbsolutePath());
-            String fileName = fullSizeUrl.getName();
-            String formatName = FileUtils.getFileExtension(fileName).toLowerCase();
-            String baseName = FileUtils.getBaseName(fileName);
-
-            // 处理PNG转换为JPEG
-            if ("png".equals(formatName)) {
-                fileName = baseName + ".jpg"; // 修改后缀为jpg
-                formatName = "jpg";
-            }
-
-            File thumbnailUrl = new File(thumbnailDir, fileName);
-            log.info("目标文件路径: {}", thumbnailUrl.getAbsolutePath());
-
-            if (thumbnailUrl.exists() && !overwrite) {
-                log.info("文件已存在且不允许覆盖，跳过处理: {}", fileName);
-                return;
-            }
-
-            long maxSizeBytes = maxSizeKB * 1024L;
-            boolean sizeMet = false;
-
-            // 优先调整质量参数
-            log.info("开始调整图片质量，目标大小: {}KB", maxSizeKB);
-            sizeMet = adjustPhotoQuality(fullSizeUrl, thumbnailUrl, formatName, maxSizeBytes);
-
-            // 若未达标，调整尺寸
-            if (!sizeMet) {
-                log.info("质量调整未达标，开始调整图片尺寸");
-                sizeMet = scaleDownPhoto(fullSizeUrl, thumbnailUrl, formatName, maxSizeBytes);
-            }
-
-            if (!sizeMet) {
-                String errorMsg = String.format("无法压缩到指定大小: %s (当前大小: %dKB, 目标大小: %dKB)",
-                        fullSizeUrl.getName(),
-                        fullSizeUrl.length() / 1024,
-                        maxSizeKB);
-                log.error(errorMsg);
-                throw new IOException(errorMsg);
-            }
-            log.info("图片{}压缩成功", fullSizeUrl.getName());
-        } catch (IOException e) {
-            String errorMsg = String.format("文件处理失败: %s, 原因: %s", fullSizeUrl.getName(), e.getMessage());
-            log.error(errorMsg, e);
-            throw new RuntimeException(errorMsg, e);
-        }
-    }
-
     @Override
     public Photo getPhotoObjectByMultipartFile(MultipartFile file) {
-        File tempFile = null;
-        try {
-            String fileName = file.getOriginalFilename();
-
-            // 创建临时目录和文件
-            File tempDir = new File(System.getProperty("java.io.tmpdir"));
-            tempFile = new File(tempDir, fileName);
-
-            // 确保目录存在并保存文件
-            Files.createDirectories(tempFile.getParentFile().toPath());
-            file.transferTo(tempFile); // 添加文件传输操作
+        // 直接从上传流读取头部元数据，不落临时文件，也就不会有同名文件互相覆盖
+        try (InputStream in = file.getInputStream()) {
+            ImageProbeUtils.ProbeResult probe = ImageProbeUtils.probe(in);
+            if (probe == null)
+                return null;
 
-            Photo photo = getPhotoObjectByFile(tempFile);
+            Photo photo = buildBasicPhoto(file.getOriginalFilename(), probe.getWidth(), probe.getHeight());
+            processExifData(probe.getMetadata(), photo);
             return photo;
-        } catch (Exception e) {
-            System.out.println("处理文件失败: " + (tempFile != null ? tempFile.getAbsolutePath() : "unknown") + "\n" + e);
+        } catch (IOException | ImageProcessingException e) {
+            log.warn("读取上传图片元数据失败: {}, 错误: {}", file.getOriginalFilename(), e.getMessage());
             return null;
-        } finally {
-            if (tempFile != null && tempFile.exists()) {
-                try {
-                    Files.delete(tempFile.toPath()); // 使用NIO方式删除更可靠
-                } catch (IOException e) {
-                    System.out.println("删除临时文件失败: " + tempFile.getAbsolutePath());
-                }
-            }
         }
     }
 
     // 生成包含元数据的Photo对象
     private Photo getPhotoObjectByFile(File PhotoFile) {
+        return getPhotoMetadataByFile(PhotoFile);
+    }
+
+    // 一次读取图片头部获取尺寸和EXIF生成Photo对象，不解码像素
+    @Override
+    public Photo getPhotoMetadataByFile(File photoFile) {
         try {
-            BufferedImage image = ImageIO.read(PhotoFile);
-            if (image == null)
+            ImageProbeUtils.ProbeResult probe = ImageProbeUtils.probe(photoFile);
+            if (probe == null)
                 return null;
 
             // Id 原图 作者 宽度 高度 压缩图 简介 精选
-            Photo photo = buildBasicPhoto(PhotoFile, image);
+            Photo photo = buildBasicPhoto(photoFile.getName(), probe.getWidth(), probe.getHeight());
             // 拍摄时间 拍摄参数
-            processExifData(PhotoFile, photo);
-
+            processExifData(probe.getMetadata(), photo);
             return photo;
         } catch (IOException | ImageProcessingException e) {
-            System.out.println("处理文件失败: " + PhotoFile.getName() + e);
+            log.warn("读取图片元数据失败: {}, 错误: {}", photoFile.getName(), e.getMessage());
             return null;
         }
     }
 
-    // 循环逐步降低图片质量，直到满足文件大小要求 如果质量低于最小值仍未满足要求，则返回false
-    private boolean adjustPhotoQuality(File fullSizeUrl, File thumbnailUrl, String formatName, long maxSizeBytes)
-            throws IOException {
-        double quality = 0.85;
-        double minQuality = 0.2;
-        double step = 0.05;
-
-        while (quality >= minQuality) {
-            log.debug("尝试压缩质量: {}, 文件: {}", quality, fullSizeUrl.getName());
-            try {
-                Thumbnails.of(fullSizeUrl)
-                        .scale(1)
-                        .outputFormat(formatName)
-                        .outputQuality(quality)
-                        // 处理PNG透明背景
-                        .imageType(BufferedImage.TYPE_INT_RGB)
-                        .toFile(thumbnailUrl);
-
-                long currentSize = thumbnailUrl.length();
-                log.debug("压缩后大小: {}KB, 目标大小: {}KB", currentSize / 1024, maxSizeBytes / 1024);
-
-                if (currentSize <= maxSizeBytes) {
-                    log.info("质量调整成功，最终质量: {}, 文件大小: {}KB", quality, currentSize / 1024);
-                    return true;
-                }
-            } catch (Exception e) {
-                log.error("调整质量时发生错误，质量: {}, 文件: {}, 错误: {}", quality, fullSizeUrl.getName(), e.getMessage());
-                throw e;
-            }
-            quality = BigDecimal.valueOf(quality).subtract(BigDecimal.valueOf(step)).doubleValue();
-        }
-        log.warn("质量调整未达到目标大小，最低质量: {}, 文件: {}", minQuality, fullSizeUrl.getName());
-        return false;
-    }
-
-    // 图片按比例缩小
-    private boolean scaleDownPhoto(File fullSizeUrl, File thumbnailUrl, String formatName, long maxSizeBytes)
-            throws IOException {
-        double scale = 1.0;
-        double step = 0.1;
-
-        while (scale >= 0.1) {
-            log.debug("尝试缩放比例: {}, 文件: {}", scale, fullSizeUrl.getName());
-            try {
-                Thumbnails.of(fullSizeUrl)
-                        .scale(scale)
-                        .outputFormat(formatName)
-                        .outputQuality(0.7) // 适当质量值
-                        .imageType(BufferedImage.TYPE_INT_RGB)
-                        .toFile(thumbnailUrl);
-
-                long currentSize = thumbnailUrl.length();
-                log.debug("缩放后大小: {}KB, 目标大小: {}KB", currentSize / 1024, maxSizeBytes / 1024);
-
-                if (currentSize <= maxSizeBytes) {
-                    log.info("缩放成功，最终比例: {}, 文件大小: {}KB", scale, currentSize / 1024);
-                    return true;
-                }
-            } catch (Exception e) {
-                log.error("缩放图片时发生错误，比例: {}, 文件: {}, 错误: {}", scale, fullSizeUrl.getName(), e.getMessage());
-                throw e;
-            }
-            scale -= step;
-        }
-        log.warn("缩放未达到目标大小，最小比例: {}, 文件: {}", 0.1, fullSizeUrl.getName());
-        return false;
-    }
-
     // 生成Photo对象
-    private Photo buildBasicPhoto(File file, BufferedImage Photo) {
+    private Photo buildBasicPhoto(String fileName, int width, int height) {
         Photo photo = new Photo();
         photo.setId(idGenerator.nextId());
-        photo.setFileName(file.getName());
+        photo.setFileName(fileName);
         photo.setAuthor(author);
-        photo.setWidth(Photo.getWidth());
-        photo.setHeight(Photo.getHeight());
+        photo.setWidth(width);
+        photo.setHeight(height);
         photo.setTitle(null);
         photo.setIntroduce(null);
         photo.setStartRating(0);
@@ -383,8 +306,7 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     }
 
     // 处理EXIF数据
-    private void processExifData(File PhotoFile, Photo photo) throws ImageProcessingException, IOException {
-        Metadata metadata = ImageMetadataReader.readMetadata(PhotoFile);
+    private void processExifData(Metadata metadata, Photo photo) {
         ExifSubIFDDirectory exif = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
 
         if (exif == null)
@@ -553,129 +475,16 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
 
     @Override
     @Transactional(rollbackFor = Exception.class)
-    public ProcessResult processPhotosFromFrontend(MultipartFile[] files, Integer startRating, boolean overwrite) {
-        List<Photo> existingPhotos = new ArrayList<>();
-        List<Photo> newPhotos = new ArrayList<>();
-        List<File> processedFiles = new ArrayList<>(); // 用于记录已处理的文件，便于回滚
-
-        try {
-            if (files == null || files.length == 0) {
-                log.warn("没有收到文件");
-                return new ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
-            }
-
-            // 验证文件类型
-            List<MultipartFile> validFiles = Arrays.stream(files)
-                    .filter(this::multipartFileIsSupportedPhoto)
-                    .collect(Collectors.toList());
-
-            if (validFiles.isEmpty()) {
-                log.warn("没有有效的照片文件");
-                return new ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
-            }
-
-            // 遍历并处理每个文件
-            for (MultipartFile file : validFiles) {
-                // 获取照片对象
-                Photo photo = getPhotoObjectByMultipartFile(file);
-                if (photo == null) {
-                    log.warn("无法从文件中获取照片信息: {}", file.getOriginalFilename());
-                    continue;
-                }
-
-                // 设置初始星级
-                photo.setStartRating(startRating);
-
-                // 检查是否存在同名文件
-                Photo existingPhoto = getOne(
-                        new LambdaQueryWrapper<Photo>()
-                                .eq(Photo::getFileName, photo.getFileName()));
-
-                if (existingPhoto != null) {
-                    // 已经存在同名文件
-                    if (!overwrite) {
-                        log.warn("照片已存在且不覆盖: {}", photo.getFileName());
-                        continue;
-                    }
-
-                    log.info("覆盖已存在的照片: {}", photo.getFileName());
-                    // 保留ID和创建时间
-                    photo.setId(existingPhoto.getId());
-                    photo.setCreatedTime(existingPhoto.getCreatedTime());
-
-                    // 保留UI相关字段
-                    photo.setFileName(existingPhoto.getFileName());
-                    photo.setAuthor(existingPhoto.getAuthor());
-                    photo.setIntroduce(existingPhoto.getIntroduce());
-                    photo.setStartRating(existingPhoto.getStartRating());
-
-                    // 删除原有文件
-                    try {
-                        deletePhotoFiles(fullSizeUrl, thumbnail100KUrl, thumbnail1000KUrl, photo.getFileName());
-                        existingPhotos.add(photo);
-                    } catch (IOException e) {
-                        log.error("删除原有文件失败: {}, 错误: {}", photo.getFileName(), e.getMessage(), e);
-                        throw new RuntimeException("删除原有文件失败: " + e.getMessage(), e);
-                    }
-                } else {
-                    // 新照片，生成ID
-                    photo.setId(String.valueOf(idGenerator.nextId()));
-                    newPhotos.add(photo);
-                }
-
-                // 将文件保存到目标目录
-                try {
-                    String fileName = file.getOriginalFilename();
-                    // 保存原图
-                    File destFullSize = new File(fullSizeUrl, fileName);
-                    file.transferTo(destFullSize);
-                    processedFiles.add(destFullSize);
-
-                    // 压缩到1000K目录
-                    File destThumbnail1000K = new File(thumbnail1000KUrl, fileName);
-                    Thumbnails.of(destFullSize)
-                            .scale(1.0)
-                            .outputQuality(0.8)
-                            .toFile(destThumbnail1000K);
-                    processedFiles.add(destThumbnail1000K);
-
-                    // 压缩到100K目录
-                    File destThumbnail100K = new File(thumbnail100KUrl, fileName);
-                    Thumbnails.of(destThumbnail1000K)
-                            .scale(1.0)
-                            .outputQuality(0.5)
-                            .toFile(destThumbnail100K);
-                    processedFiles.add(destThumbnail100K);
-                } catch (IOException e) {
-                    log.error("保存文件失败: {}, 错误: {}", file.getOriginalFilename(), e.getMessage(), e);
-                    fileProcessService.rollbackProcessedFiles(processedFiles);
-                    throw new RuntimeException("保存文件失败: " + e.getMessage(), e);
-                }
-            }
-
-            // 保存到数据库
-            if (!existingPhotos.isEmpty()) {
-                updateBatchById(existingPhotos);
-            }
-
-            if (!newPhotos.isEmpty()) {
-                saveBatch(newPhotos);
-            }
-
-            return new ProcessResult(existingPhotos, newPhotos, true);
-        } catch (Exception e) {
-            log.error("处理照片时发生错误: {}", e.getMessage(), e);
-            // 回滚文件操作
-            fileProcessService.rollbackProcessedFiles(processedFiles);
-            // 事务会自动回滚数据库操作
-            throw new RuntimeException("处理照片失败: " + e.getMessage(), e);
-        }
+    public ProcessResult processPhotoFromMQ(String[] fileNames, String tempDirPath, Integer startRating,
+            boolean overwrite) {
+        return processPhotoFromMQ(fileNames, tempDirPath, startRating, overwrite, Collections.emptyMap(),
+                Collections.emptyMap());
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
     public ProcessResult processPhotoFromMQ(String[] fileNames, String tempDirPath, Integer startRating,
-            boolean overwrite) {
+            boolean overwrite, Map<String, String> blurHashes, Map<String, String> contentHashes) {
         List<Photo> existingPhotos = new ArrayList<>();
         List<Photo> newPhotos = new ArrayList<>();
 
@@ -698,6 +507,10 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
                 if (photoFile.exists() && fileIsSupportedPhoto(photoFile)) {
                     Photo photo = getPhotoObjectByFile(photoFile);
                     if (photo != null) {
+                        String contentHash = contentHashes.get(fileName);
+                        photo.setContentHash(contentHash != null ? contentHash : FileStreamUtils.sha256(photoFile.toPath()));
+                        String blurHash = blurHashes.get(fileName);
+                        photo.setBlurHash(blurHash != null ? blurHash : getBlurHashByContentHash(photo.getContentHash()));
                         photos.add(photo);
                     }
                 }
@@ -709,7 +522,7 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
             }
 
             // 检查重复文件名
-
+            List<String> replacedHashes = new ArrayList<>();
             for (Photo photo : photos) {
                 Photo existingPhoto = getOne(
                         new LambdaQueryWrapper<Photo>()
@@ -727,6 +540,10 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
                     photo.setId(existingPhoto.getId());
                     photo.setCreatedTime(existingPhoto.getCreatedTime());
                     existingPhotos.add(photo);
+                    if (existingPhoto.getContentHash() != null
+                            && !existingPhoto.getContentHash().equals(photo.getContentHash())) {
+                        replacedHashes.add(existingPhoto.getContentHash());
+                    }
                 } else {
                     // 新照片，生成ID
                     photo.setId(String.valueOf(idGenerator.nextId()));
@@ -744,6 +561,9 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
                 saveBatch(newPhotos);
             }
 
+            // 被覆盖的旧内容不再被引用时从内容库删除
+            replacedHashes.forEach(photoContentService::releaseIfUnused);
+
             return new ProcessResult(existingPhotos, newPhotos, true);
         } catch (Exception e) {
             log.error("处理照片元数据时发生错误: {}", e.getMessage(), e);
@@ -754,50 +574,21 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     @Override
     public Map<String, Object> validatePhotoExistence() {
         log.info("开始验证数据库照片在文件系统中的存在性");
-        List<Photo> allPhotos = list();
+        PhotoConsistencyService.ScanReport report = photoConsistencyService.scan(null);
 
         Map<String, Object> result = new HashMap<>();
-        List<String> missingFullSizeFiles = new ArrayList<>();
-        List<String> missingThumbnail100KFiles = new ArrayList<>();
-        List<String> missingThumbnail1000KFiles = new ArrayList<>();
-        List<String> missingAllFiles = new ArrayList<>();
-        List<String> missingDetails = new ArrayList<>();
-
-        if (allPhotos.isEmpty()) {
+        int totalCount = report.getDbPhotoCount();
+        if (totalCount == 0) {
             log.warn("数据库中没有照片记录");
             result.put("message", "数据库中没有照片记录");
             return result;
         }
 
-        int totalCount = allPhotos.size();
-
-        for (Photo photo : allPhotos) {
-            String fileName = photo.getFileName();
-            boolean fullSizeMissing = !new File(fullSizeUrl, fileName).exists();
-            boolean thumbnail100KMissing = !new File(thumbnail100KUrl, fileName).exists();
-            boolean thumbnail1000KMissing = !new File(thumbnail1000KUrl, fileName).exists();
-
-            if (fullSizeMissing) {
-                missingFullSizeFiles.add(fileName);
-            }
-
-            if (thumbnail100KMissing) {
-                missingThumbnail100KFiles.add(fileName);
-            }
-
-            if (thumbnail1000KMissing) {
-                missingThumbnail1000KFiles.add(fileName);
-            }
-
-            if (fullSizeMissing && thumbnail100KMissing && thumbnail1000KMissing) {
-                missingAllFiles.add(fileName);
-                missingDetails.add(String.format("ID:%s,文件名:%s,原图缺失:%s,100K缺失:%s,1000K缺失:%s",
-                        photo.getId(), fileName, 
-                        fullSizeMissing ? "true" : "false",
-                        thumbnail100KMissing ? "true" : "false",
-                        thumbnail1000KMissing ? "true" : "false"));
-            }
-        }
+        List<String> missingFullSizeFiles = report.getTier(PhotoConsistencyService.TIER_FULL_SIZE).getMissing();
+        List<String> missingThumbnail100KFiles = report.getTier(PhotoConsistencyService.TIER_100K).getMissing();
+        List<String> missingThumbnail1000KFiles = report.getTier(PhotoConsistencyService.TIER_1000K).getMissing();
+        List<String> missingAllFiles = report.getMissingAllFiles();
+        List<String> missingDetails = report.getMissingAllDetails();
 
         int missingFullSize = missingFullSizeFiles.size();
         int missingThumbnail100K = missingThumbnail100KFiles.size();
@@ -1238,7 +1029,6 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     }
 
     @Override
-    @CacheEvict(value = { "photo" }, allEntries = true)
     public boolean updateCameraName(String oldCamera, String newCamera) {
         log.info("更新相机型号: {} -> {}", oldCamera, newCamera);
         try {
@@ -1258,6 +1048,7 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
                     .update();
 
             if (updated) {
+                photoCacheInvalidator.invalidate(new PhotoCacheDependencies().cameraRenamed(oldCamera, newCamera));
                 log.info("成功将相机型号从 {} 更新为 {}, 更新了 {} 条记录", oldCamera, newCamera, count);
             } else {
                 log.error("更新相机型号失败: {} -> {}", oldCamera, newCamera);
@@ -1271,7 +1062,6 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     }
 
     @Override
-    @CacheEvict(value = { "photo" }, allEntries = true)
     public boolean updateLensName(String oldLens, String newLens) {
         log.info("更新镜头型号: {} -> {}", oldLens, newLens);
         try {
@@ -1291,6 +1081,7 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
                     .update();
 
             if (updated) {
+                photoCacheInvalidator.invalidate(new PhotoCacheDependencies().lensRenamed(oldLens, newLens));
                 log.info("成功将镜头型号从 {} 更新为 {}, 更新了 {} 条记录", oldLens, newLens, count);
             } else {
                 log.error("更新镜头型号失败: {} -> {}", oldLens, newLens);
@@ -1350,12 +1141,24 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     }
 
     @Override
-    @CacheEvict(value = { "photo" }, allEntries = true)
     public boolean updateFocalLength(String oldFocalLength, String newFocalLength) {
-        return baseMapper.update(
+        boolean updated = baseMapper.update(
                 new LambdaUpdateWrapper<Photo>()
                         .eq(Photo::getFocalLength, oldFocalLength)
                         .set(Photo::getFocalLength, newFocalLength)) > 0;
+        if (updated) {
+            photoCacheInvalidator.invalidate(
+                    new PhotoCacheDependencies().focalLengthRenamed(oldFocalLength, newFocalLength));
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean updateStartRating(String photoId, int startRating) {
+        Photo update = new Photo();
+        update.setId(photoId);
+        update.setStartRating(startRating);
+        return updateById(update);
     }
 
     /**
@@ -1481,6 +1284,7 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
             try {
                 fileProcessService.deletePhotoFiles(fullSizeUrl, thumbnail100KUrl, thumbnail1000KUrl,
                         photo.getFileName());
+                photoContentService.releaseIfUnused(photo.getContentHash());
             } catch (IOException e) {
                 log.error("删除照片文件失败，ID: {}, 文件名: {}, 错误: {}", id, photo.getFileName(), e.getMessage(), e);
                 throw new RuntimeException("删除照片文件失败: " + e.getMessage(), e);
@@ -1501,14 +1305,97 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
         }
     }
 
+    // 以下写操作按照片字段计算受影响的缓存键，只失效这些键，不再清空整个photo缓存
+
     @Override
     public boolean save(Photo entity) {
-        return super.save(entity);
+        boolean saved = super.save(entity);
+        if (saved) {
+            photoLookupFilterService.add(entity.getId(), entity.getFileName());
+            photoCacheInvalidator.invalidate(new PhotoCacheDependencies().photoInserted(entity));
+        }
+        return saved;
     }
 
     @Override
     public boolean saveBatch(Collection<Photo> entityList) {
-        return super.saveBatch(entityList);
+        boolean saved = super.saveBatch(entityList);
+        if (saved) {
+            PhotoCacheDependencies dependencies = new PhotoCacheDependencies();
+            for (Photo photo : entityList) {
+                photoLookupFilterService.add(photo.getId(), photo.getFileName());
+                dependencies.photoInserted(photo);
+            }
+            photoCacheInvalidator.invalidate(dependencies);
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean updateById(Photo entity) {
+        Photo before = entity.getId() == null ? null : baseMapper.selectById(entity.getId());
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            // 改名后的新文件名加入过滤器，旧文件名在下次重建时移除
+            if (entity.getFileName() != null) {
+                photoLookupFilterService.add(entity.getId(), entity.getFileName());
+            }
+            photoCacheInvalidator.invalidate(new PhotoCacheDependencies().photoUpdated(before, entity));
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<Photo> entityList) {
+        Map<String, Photo> beforeById = loadByIds(entityList.stream()
+                .map(Photo::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        boolean updated = super.updateBatchById(entityList);
+        if (updated) {
+            PhotoCacheDependencies dependencies = new PhotoCacheDependencies();
+            for (Photo photo : entityList) {
+                if (photo.getFileName() != null) {
+                    photoLookupFilterService.add(photo.getId(), photo.getFileName());
+                }
+                dependencies.photoUpdated(beforeById.get(photo.getId()), photo);
+            }
+            photoCacheInvalidator.invalidate(dependencies);
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        Photo before = baseMapper.selectById(id);
+        boolean removed = super.removeById(id);
+        if (removed && before != null) {
+            photoCacheInvalidator.invalidate(new PhotoCacheDependencies().photoDeleted(before));
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean removeByIds(Collection<?> idList) {
+        Map<String, Photo> beforeById = loadByIds(idList);
+        boolean removed = super.removeByIds(idList);
+        if (removed) {
+            PhotoCacheDependencies dependencies = new PhotoCacheDependencies();
+            beforeById.values().forEach(dependencies::photoDeleted);
+            photoCacheInvalidator.invalidate(dependencies);
+        }
+        return removed;
+    }
+
+    private Map<String, Photo> loadByIds(Collection<?> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Serializable> idList = ids.stream()
+                .map(id -> (Serializable) id)
+                .collect(Collectors.toList());
+        return baseMapper.selectBatchIds(idList).stream()
+                .collect(Collectors.toMap(Photo::getId, photo -> photo, (a, b) -> a));
     }
 
     /**
@@ -1578,55 +1465,32 @@ public class PhotoServiceImpl extends BaseCachedServiceImpl<PhotoMapper, Photo>
     }
 
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public ProcessResult processPendingPhotosWithCompression(File pendingDir, File thumbnail100KDir,
             File thumbnail1000KDir, File fullSizeDir, boolean overwrite) {
-        List<Photo> photos = new ArrayList<>();
-        List<File> processedFiles = new ArrayList<>(); // 用于记录已处理的文件，便于回滚
-
-        try {
-            // 1. 处理照片元数据
-            photos = getPhotosByFolder(pendingDir);
-            if (photos.isEmpty()) {
-                log.warn("没有找到有效的待处理照片");
-                return new ProcessResult(Collections.emptyList(), Collections.emptyList(), false);
-            }
-
-            // 为每个照片分配ID
-            for (Photo photo : photos) {
-                photo.setId(String.valueOf(idGenerator.nextId()));
-            }
-
-            // 2. 处理图片压缩
-            fileProcessService.processPhotoCompression(pendingDir, thumbnail100KDir, thumbnail1000KDir, fullSizeDir,
-                    overwrite);
-
-            // 3. 保存照片到数据库
-            saveBatch(photos);
-
-            // 4. 清理pending目录
-            try {
-                FileUtils.clearFolder(pendingDir, true);
-            } catch (Exception e) {
-                log.warn("清理pending目录时出错: {}, 但不影响主要流程", e.getMessage());
-                // 清理目录失败不影响主流程，所以不抛出异常
-            }
-
-            return new ProcessResult(Collections.emptyList(), photos, true);
-        } catch (Exception e) {
-            log.error("处理待处理图片时发生错误: {}", e.getMessage(), e);
-            // 事务会自动回滚数据库操作，这里主动回滚文件操作
-            fileProcessService.rollbackProcessedFiles(processedFiles);
-            throw new RuntimeException("处理待处理图片失败: " + e.getMessage(), e);
-        }
+        // 每张照片的元数据、压缩、复制原图并行处理，按批入库
+        return photoIngestService.ingestFolder(pendingDir, thumbnail100KDir, thumbnail1000KDir, fullSizeDir,
+                overwrite);
     }
 
     @Override
     public boolean existsByFileName(String fileName) {
+        if (!photoLookupFilterService.mightContainFileName(fileName)) {
+            return false;
+        }
         return count(new LambdaQueryWrapper<Photo>()
                 .eq(Photo::getFileName, fileName)) > 0;
     }
 
+    @Override
+    public boolean existsByFileNameAndContentHash(String fileName, String contentHash) {
+        if (contentHash == null || !photoLookupFilterService.mightContainFileName(fileName)) {
+            return false;
+        }
+        return count(new LambdaQueryWrapper<Photo>()
+                .eq(Photo::getFileName, fileName)
+                .eq(Photo::getContentHash, contentHash)) > 0;
+    }
+
     @Override
     public Map<String, Object> validateMeteorologyGroups() {
         log.info("开始验证气象组图冲突");
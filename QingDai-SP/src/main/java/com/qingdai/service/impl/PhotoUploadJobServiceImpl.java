@@ -0,0 +1,248 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.service.FileProcessService;
+import com.qingdai.service.PhotoService;
+import com.qingdai.service.PhotoUploadJobService;
+import com.qingdai.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * 照片上传任务服务实现类
+ * 任务清单和已完成文件列表保存在上传临时目录中，应用重启后据此继续处理未完成的任务
+ * </p>
+ */
+@Service
+@Slf4j
+public class PhotoUploadJobServiceImpl implements PhotoUploadJobService {
+
+    // 任务清单文件
+    private static final String MANIFEST_FILE = ".upload-job";
+    // 已完成文件列表，每行一个文件名
+    private static final String DONE_FILE = ".upload-job-done";
+    private static final String FILE_NAME_SEPARATOR = "/";
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private FileProcessService fileProcessService;
+
+    @Autowired
+    @Qualifier("photoUploadExecutor")
+    private ExecutorService photoUploadExecutor;
+
+    @Value("${qingdai.url.pendingUrl}")
+    private String pendingUrl;
+
+    @Value("${qingdai.url.fullSizeUrl}")
+    private String fullSizeUrl;
+
+    @Value("${qingdai.url.thumbnail100KUrl}")
+    private String thumbnail100KUrl;
+
+    @Value("${qingdai.url.thumbnail1000KUrl}")
+    private String thumbnail1000KUrl;
+
+    @Override
+    public String submitUploadJob(File tempDir, String[] fileNames, String[] contentHashes, Integer startRating,
+            boolean overwrite) throws IOException {
+        // 临时目录名是随机UUID，直接作为任务ID，重启后可由目录找回任务
+        String messageId = tempDir.getName();
+
+        Properties manifest = new Properties();
+        manifest.setProperty("messageId", messageId);
+        manifest.setProperty("startRating", String.valueOf(startRating));
+        manifest.setProperty("overwrite", String.valueOf(overwrite));
+        manifest.setProperty("fileNames", String.join(FILE_NAME_SEPARATOR, fileNames));
+        manifest.setProperty("contentHashes", String.join(FILE_NAME_SEPARATOR, contentHashes));
+        try (Writer writer = Files.newBufferedWriter(new File(tempDir, MANIFEST_FILE).toPath(), StandardCharsets.UTF_8)) {
+            manifest.store(writer, "photo upload job");
+        }
+
+        photoService.updatePhotoUploadStatus(messageId, "PROCESSING", 0,
+                String.format("任务已提交，共%d张图片，等待处理", fileNames.length));
+        photoUploadExecutor.execute(() -> runJob(tempDir, manifest));
+        log.info("已提交上传任务: {}，共{}张图片", messageId, fileNames.length);
+        return messageId;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        int resumed = resumeUnfinishedJobs();
+        if (resumed > 0) {
+            log.info("已恢复{}个未完成的上传任务", resumed);
+        }
+    }
+
+    @Override
+    public int resumeUnfinishedJobs() {
+        File pendingDir = FileUtils.validateFolder(pendingUrl);
+        if (pendingDir == null) {
+            return 0;
+        }
+        File[] jobDirs = pendingDir.listFiles(dir -> new File(dir, MANIFEST_FILE).isFile());
+        if (jobDirs == null) {
+            return 0;
+        }
+
+        int resumed = 0;
+        for (File jobDir : jobDirs) {
+            try {
+                Properties manifest = new Properties();
+                try (Reader reader = Files.newBufferedReader(new File(jobDir, MANIFEST_FILE).toPath(), StandardCharsets.UTF_8)) {
+                    manifest.load(reader);
+                }
+                photoUploadExecutor.execute(() -> runJob(jobDir, manifest));
+                resumed++;
+                log.info("恢复上传任务: {}", jobDir.getName());
+            } catch (IOException | RejectedExecutionException e) {
+                log.error("恢复上传任务{}失败: {}", jobDir.getName(), e.getMessage(), e);
+            }
+        }
+        return resumed;
+    }
+
+    // 逐张处理任务中的图片，每完成一张就记录并更新进度
+    private void runJob(File tempDir, Properties manifest) {
+        long startTime = System.currentTimeMillis();
+        String messageId = manifest.getProperty("messageId");
+        String startRatingValue = manifest.getProperty("startRating");
+        Integer startRating = startRatingValue == null || "null".equals(startRatingValue)
+                ? 0 : Integer.valueOf(startRatingValue);
+        boolean overwrite = Boolean.parseBoolean(manifest.getProperty("overwrite"));
+        List<String> fileNames = Arrays.asList(manifest.getProperty("fileNames", "").split(FILE_NAME_SEPARATOR));
+        // 旧版本写入的任务清单没有内容哈希，处理时重新计算
+        Map<String, String> contentHashes = new HashMap<>();
+        String contentHashValue = manifest.getProperty("contentHashes");
+        if (contentHashValue != null) {
+            String[] hashes = contentHashValue.split(FILE_NAME_SEPARATOR);
+            for (int i = 0; i < hashes.length && i < fileNames.size(); i++) {
+                contentHashes.put(fileNames.get(i), hashes[i]);
+            }
+        }
+
+        File fullSizeDir = FileUtils.validateFolder(fullSizeUrl);
+        File thumbnail100KDir = FileUtils.validateFolder(thumbnail100KUrl);
+        File thumbnail1000KDir = FileUtils.validateFolder(thumbnail1000KUrl);
+        if (fullSizeDir == null || thumbnail100KDir == null || thumbnail1000KDir == null) {
+            log.error("上传任务{}目录验证失败", messageId);
+            photoService.updatePhotoUploadStatus(messageId, "FAILED", 0, "目录验证失败");
+            return;
+        }
+
+        Set<String> doneFiles = readDoneFiles(tempDir);
+        List<String> failedFiles = new ArrayList<>();
+        int total = fileNames.size();
+        int newCount = 0;
+        int updatedCount = 0;
+
+        for (String fileName : fileNames) {
+            if (doneFiles.contains(fileName)) {
+                continue;
+            }
+            File photoFile = new File(tempDir, fileName);
+            List<File> processedFiles = Collections.emptyList();
+            try {
+                if (!fileProcessService.fileIsSupportedPhoto(photoFile)) {
+                    throw new IOException("文件不存在或格式不支持");
+                }
+                String contentHash = contentHashes.get(fileName);
+                FileProcessService.RenderResult rendered = fileProcessService.processSinglePhotoCompression(
+                        photoFile, contentHash, thumbnail100KDir, thumbnail1000KDir, fullSizeDir, overwrite);
+                processedFiles = rendered.getFiles();
+                Map<String, String> blurHashes = rendered.getBlurHash() == null ? Collections.emptyMap()
+                        : Collections.singletonMap(fileName, rendered.getBlurHash());
+                Map<String, String> knownHashes = contentHash == null ? Collections.emptyMap()
+                        : Collections.singletonMap(fileName, contentHash);
+                PhotoService.ProcessResult result = photoService.processPhotoFromMQ(new String[] { fileName },
+                        tempDir.getAbsolutePath(), startRating, overwrite, blurHashes, knownHashes);
+                if (!result.isSuccess()) {
+                    throw new IOException("图片元数据处理失败");
+                }
+                newCount += result.getNewPhotos().size();
+                updatedCount += result.getExistingPhotos().size();
+            } catch (Exception e) {
+                fileProcessService.rollbackProcessedFiles(processedFiles);
+                failedFiles.add(fileName);
+                log.error("上传任务{}处理图片{}失败: {}", messageId, fileName, e.getMessage(), e);
+            }
+
+            // 失败的文件同样记为已完成，重启后不再重复处理；进度100留给任务结束
+            markDone(tempDir, fileName);
+            doneFiles.add(fileName);
+            photoService.updatePhotoUploadStatus(messageId, "PROCESSING", doneFiles.size() * 99 / total,
+                    String.format("已处理%d/%d张图片：%s", doneFiles.size(), total, fileName));
+        }
+
+        try {
+            FileUtils.deleteFolder(tempDir);
+            log.info("已清理临时目录: {}", tempDir.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("清理临时目录时出错: {}", e.getMessage(), e);
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        if (!failedFiles.isEmpty() && failedFiles.size() == total) {
+            photoService.updatePhotoUploadStatus(messageId, "FAILED", 100,
+                    String.format("全部%d张图片处理失败", total));
+        } else {
+            String message = String.format("图片处理完成，新增：%d张，更新：%d张，耗时%d毫秒", newCount, updatedCount, duration);
+            if (!failedFiles.isEmpty()) {
+                message += "，失败：" + String.join("、", failedFiles);
+            }
+            photoService.updatePhotoUploadStatus(messageId, "COMPLETED", 100, message);
+        }
+        log.info("上传任务{}完成，新增：{}张，更新：{}张，失败：{}张，耗时{}毫秒",
+                messageId, newCount, updatedCount, failedFiles.size(), duration);
+    }
+
+    private Set<String> readDoneFiles(File tempDir) {
+        Path donePath = new File(tempDir, DONE_FILE).toPath();
+        if (!Files.exists(donePath)) {
+            return new HashSet<>();
+        }
+        try {
+            return new HashSet<>(Files.readAllLines(donePath, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("读取已完成文件列表失败: {}", e.getMessage());
+            return new HashSet<>();
+        }
+    }
+
+    private void markDone(File tempDir, String fileName) {
+        try {
+            Files.write(new File(tempDir, DONE_FILE).toPath(),
+                    Collections.singletonList(fileName), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("记录已完成文件{}失败: {}", fileName, e.getMessage());
+        }
+    }
+}
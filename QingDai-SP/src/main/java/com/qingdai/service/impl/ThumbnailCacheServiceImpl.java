@@ -0,0 +1,167 @@
+package com.qingdai.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.qingdai.service.PhotoService;
+import com.qingdai.service.ThumbnailCacheService;
+import com.qingdai.storage.ThumbnailStore;
+import com.qingdai.utils.DirectBuffers;
+import com.qingdai.utils.FileUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 热点缩略图缓存服务实现类
+ * 使用Caffeine（W-TinyLFU准入，低频的新条目不会挤掉高频的旧条目）按总字节数淘汰，文件内容放在堆外直接缓冲区中；
+ * 加载和失效并发时用失效代数判断，加载期间发生过失效的结果不会留在缓存中。
+ * 条目被淘汰或失效后，等正在写出它的请求都释放引用，立即释放堆外内存，不等GC
+ * </p>
+ */
+@Service
+@Slf4j
+public class ThumbnailCacheServiceImpl implements ThumbnailCacheService {
+
+    private static final String WEBP_KEY_SUFFIX = ":webp";
+
+    @Lazy
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ThumbnailStore thumbnailStore;
+
+    @Value("${qingdai.thumbnail-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${qingdai.thumbnail-cache.max-mb:256}")
+    private long maxMb;
+
+    @Value("${qingdai.thumbnail-cache.max-entry-kb:512}")
+    private int maxEntryKB;
+
+    private Cache<String, CachedThumbnail> cache;
+
+    // 每次失效加一，加载前后比较
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxMb * 1024 * 1024)
+                .weigher((String key, CachedThumbnail value) -> value.size())
+                .removalListener((String key, CachedThumbnail value, RemovalCause cause) -> {
+                    if (value != null) {
+                        value.release();
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "hotThumbnail");
+        Gauge.builder("qingdai.thumbnail.cache.bytes", cache,
+                        c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                .description("热点缩略图缓存占用的堆外字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("qingdai.thumbnail.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("热点缩略图缓存命中率")
+                .register(meterRegistry);
+        log.info("热点缩略图缓存: {}，容量{}MB，单条上限{}KB", enabled ? "已启用" : "已关闭", maxMb, maxEntryKB);
+    }
+
+    @Override
+    public CachedThumbnail get(String photoId, boolean webp) {
+        if (!enabled) {
+            return null;
+        }
+        String key = webp ? photoId + WEBP_KEY_SUFFIX : photoId;
+        CachedThumbnail cached = cache.getIfPresent(key);
+        // 取出后到加引用之间可能已被淘汰并释放，此时按未命中重新加载
+        if (cached != null && cached.retain()) {
+            return cached;
+        }
+
+        long generation = invalidations.get();
+        CachedThumbnail loaded;
+        try {
+            loaded = load(photoId, webp);
+        } catch (IOException e) {
+            log.warn("加载缩略图到缓存失败，ID: {}, 错误: {}", photoId, e.getMessage());
+            return null;
+        }
+        if (loaded == null) {
+            return null;
+        }
+        // 初始引用归缓存，这里为调用方再加一个，放入后立即被淘汰也不会释放
+        loaded.retain();
+        cache.put(key, loaded);
+        // 加载期间有失效时读到的可能是旧文件，不保留
+        if (invalidations.get() != generation) {
+            cache.asMap().remove(key, loaded);
+        }
+        return loaded;
+    }
+
+    private CachedThumbnail load(String photoId, boolean webp) throws IOException {
+        // 走缓存的ID到文件名映射，冷门缩略图也不查数据库
+        String fileName = photoService.getFileNameById(photoId);
+        if (fileName == null) {
+            return null;
+        }
+        ThumbnailStore.StoredThumbnail stored = thumbnailStore.get(fileName, webp);
+        if (stored == null || stored.getSize() > maxEntryKB * 1024L) {
+            return null;
+        }
+        MediaType mediaType = FileUtils.getImageMediaType(stored.getName());
+        if (mediaType == null) {
+            return null;
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect((int) stored.getSize());
+        try {
+            stored.readInto(data);
+        } catch (NoSuchFileException e) {
+            DirectBuffers.free(data);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            DirectBuffers.free(data);
+            throw e;
+        }
+        data.flip();
+        // 校验值和直接从存储读取时一致，客户端已缓存的ETag仍然有效
+        return new CachedThumbnail(fileName, photoService.getContentHashById(photoId), mediaType, stored.getEtag(),
+                stored.getLastModified(), data.asReadOnlyBuffer(), () -> DirectBuffers.free(data));
+    }
+
+    @Override
+    public void invalidateFileName(String fileName) {
+        if (fileName == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        cache.asMap().values().removeIf(cached -> fileName.equals(cached.getFileName()));
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+}
@@ -16,19 +16,20 @@ import com.qingdai.service.FileProcessService;
 import com.qingdai.service.RoleService;
 import com.qingdai.service.UserService;
 import com.qingdai.service.base.BaseCachedServiceImpl;
+import com.qingdai.storage.PhotoStorage;
 import com.qingdai.utils.DateUtils;
+import com.qingdai.utils.FileUtils;
 import com.qingdai.utils.JwtTokenUtil;
 import com.qingdai.utils.SnowflakeIdGenerator;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -40,6 +41,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -81,8 +83,9 @@ public class UserServiceImpl extends BaseCachedServiceImpl<UserMapper, User> imp
     @Value("${qingdai.photographer.id}")
     private String photographerId;
 
-    @Value("${qingdai.url.introduceUrl}")
-    private String introduceUrl;
+    @Autowired
+    @Qualifier("introducePhotoStorage")
+    private PhotoStorage introducePhotoStorage;
 
     // 雪花算法生成器
     private final SnowflakeIdGenerator idGenerator = new SnowflakeIdGenerator(1, 1);
@@ -311,110 +314,55 @@ public class UserServiceImpl extends BaseCachedServiceImpl<UserMapper, User> imp
     }
 
     @Override
-    public Resource getAvatarResource() throws IOException {
-        String avatarFileName = getAvatarFileName();
-        if (avatarFileName == null || avatarFileName.isEmpty()) {
-            return null;
-        }
-        
-        Path imagePath = Paths.get(introduceUrl + avatarFileName);
-        if (!Files.exists(imagePath)) {
-            return null;
-        }
-        
-        return new FileSystemResource(imagePath.toFile());
-    }
-    
-    @Override
-    public Resource getBackgroundResource() throws IOException {
-        String backgroundFileName = getBackgroundFileName();
-        if (backgroundFileName == null || backgroundFileName.isEmpty()) {
-            return null;
-        }
-        
-        Path imagePath = Paths.get(introduceUrl + backgroundFileName);
-        if (!Files.exists(imagePath)) {
-            return null;
+    public void saveAvatar(MultipartFile file) throws IOException {
+        // 压缩到100K以下
+        saveIntroduceImage(file, "avatar.jpg", 100);
+
+        // 更新用户头像文件名
+        User user = getById(photographerId);
+        if (user != null) {
+            user.setAvatar("avatar.jpg");
+            updateById(user);
         }
-        
-        return new FileSystemResource(imagePath.toFile());
     }
 
     @Override
-    public void saveAvatar(MultipartFile file) throws IOException {
-        if (file == null || file.isEmpty()) {
-            throw new IllegalArgumentException("文件不能为空");
-        }
+    public void saveBackground(MultipartFile file) throws IOException {
+        // 压缩到500K以下
+        saveIntroduceImage(file, "background.jpg", 500);
 
-        String newFileName = "avatar.jpg";
-        Path targetPath = Paths.get(introduceUrl + newFileName);
-        
-        // 确保目录存在
-        Files.createDirectories(targetPath.getParent());
-        
-        // 创建临时文件
-        File tempFile = new File(System.getProperty("java.io.tmpdir"), newFileName);
-        file.transferTo(tempFile);
-        
-        try {
-            // 使用FileProcessService压缩图片到100K以下
-            fileProcessService.thumbnailPhotosFromFolderToFolder(
-                tempFile.getParentFile(),
-                targetPath.getParent().toFile(),
-                100,  // 100KB
-                true  // 覆盖已存在的文件
-            );
-            
-            // 更新用户头像文件名
-            User user = getById(photographerId);
-            if (user != null) {
-                user.setAvatar(newFileName);
-                updateById(user);
-            }
-        } finally {
-            // 清理临时文件
-            if (tempFile.exists()) {
-                tempFile.delete();
-            }
+        // 更新用户背景图文件名
+        User user = getById(photographerId);
+        if (user != null) {
+            user.setBackground("background.jpg");
+            updateById(user);
         }
     }
 
-    @Override
-    public void saveBackground(MultipartFile file) throws IOException {
+    // 在临时目录中压缩后写入介绍图片存储，对象存储时上传
+    private void saveIntroduceImage(MultipartFile file, String fileName, int maxSizeKB) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("文件不能为空");
         }
 
-        String newFileName = "background.jpg";
-        Path targetPath = Paths.get(introduceUrl + newFileName);
-        
-        // 确保目录存在
-        Files.createDirectories(targetPath.getParent());
-        
-        // 创建临时文件
-        File tempFile = new File(System.getProperty("java.io.tmpdir"), newFileName);
-        file.transferTo(tempFile);
-        
+        File tempDir = Files.createTempDirectory("qingdai-introduce-").toFile();
         try {
-            // 使用FileProcessService压缩图片到500K以下
-            fileProcessService.thumbnailPhotosFromFolderToFolder(
-                tempFile.getParentFile(),
-                targetPath.getParent().toFile(),
-                500,  // 500KB
-                true  // 覆盖已存在的文件
+            File sourceFile = new File(tempDir, fileName);
+            file.transferTo(sourceFile);
+            File compressedDir = new File(tempDir, "compressed");
+            List<File> compressedFiles = fileProcessService.thumbnailPhotoToFolders(
+                    sourceFile,
+                    Collections.singletonMap(compressedDir, maxSizeKB),
+                    true  // 覆盖已存在的文件
             );
-            
-            // 更新用户背景图文件名
-            User user = getById(photographerId);
-            if (user != null) {
-                user.setBackground(newFileName);
-                updateById(user);
+            File compressedFile = new File(compressedDir, fileName);
+            if (!compressedFiles.contains(compressedFile)) {
+                throw new IOException("压缩图片失败: " + fileName);
             }
+            introducePhotoStorage.put(fileName, compressedFile);
         } finally {
             // 清理临时文件
-            if (tempFile.exists()) {
-                tempFile.delete();
-            }
+            FileUtils.deleteFolder(tempDir);
         }
     }
 }
@@ -0,0 +1,113 @@
+package com.qingdai.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本机目录上的名称存储，每个名称是目录下的一个文件，内容相同的名称用硬链接共享，文件系统不支持硬链接时退化为复制
+ */
+abstract class LocalNamedStore implements NamedStore {
+
+    protected Path root;
+
+    @Override
+    public boolean owns(File file) {
+        return root.equals(file.toPath().toAbsolutePath().normalize().getParent());
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return Files.isRegularFile(resolve(name));
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        return Files.deleteIfExists(resolve(name));
+    }
+
+    @Override
+    public boolean rename(String from, String to) throws IOException {
+        Path source = resolve(from);
+        if (!Files.isRegularFile(source)) {
+            return false;
+        }
+        Files.move(source, resolve(to), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    @Override
+    public void link(String existing, String name) throws IOException {
+        Path target = resolve(existing);
+        Path path = resolve(name);
+        Files.createDirectories(path.getParent());
+        // 先在旁边建立链接再替换，已有的文件在替换前一直可读
+        Path tempLink = path.resolveSibling("." + path.getFileName() + ".linking");
+        Files.deleteIfExists(tempLink);
+        try {
+            Files.createLink(tempLink, target);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(target, tempLink, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tempLink, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public boolean isSameContent(String first, String second) throws IOException {
+        Path firstPath = resolve(first);
+        Path secondPath = resolve(second);
+        return Files.exists(firstPath) && Files.exists(secondPath) && Files.isSameFile(firstPath, secondPath);
+    }
+
+    @Override
+    public boolean isShared(String name) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(resolve(name), "unix:nlink") > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // 不支持链接计数的文件系统按仍被引用处理
+            return true;
+        }
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return names;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!name.startsWith(".") && Files.isRegularFile(path)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    // 读取文件属性，不存在或不是普通文件时返回null
+    protected BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    protected Path resolve(String name) {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("非法的文件名称: " + name);
+        }
+        return path;
+    }
+}
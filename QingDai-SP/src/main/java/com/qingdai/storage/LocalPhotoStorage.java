@@ -0,0 +1,81 @@
+package com.qingdai.storage;
+
+import com.qingdai.utils.FileResponseUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * <p>
+ * 本机目录存储，每个名称是目录下的一个文件，图片由应用节点直接发送
+ * </p>
+ */
+@Slf4j
+public class LocalPhotoStorage extends LocalNamedStore implements PhotoStorage {
+
+    public LocalPhotoStorage(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        log.info("使用本机目录存储: {}", this.root);
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public StoredPhoto stat(String name) throws IOException {
+        Path path = resolve(name);
+        BasicFileAttributes attributes = readAttributes(path);
+        if (attributes == null) {
+            return null;
+        }
+        return new StoredPhoto(name, attributes.size(), FileResponseUtils.lastModified(attributes),
+                FileResponseUtils.etag(path, attributes), path.toFile());
+    }
+
+    @Override
+    public InputStream open(String name, long offset, long length) throws IOException {
+        Path path = resolve(name);
+        if (!Files.isRegularFile(path)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return new RangeInputStream(path, offset, length);
+    }
+
+    @Override
+    public void download(String name, Path target) throws IOException {
+        Files.copy(resolve(name), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void put(String name, File source) throws IOException {
+        Path path = resolve(name);
+        if (Files.exists(path) && Files.isSameFile(path, source.toPath())) {
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        // 先复制到临时文件再替换，不原地改写，避免改动与内容库共享的硬链接文件
+        Path tempFile = path.resolveSibling("." + path.getFileName() + ".writing");
+        try {
+            Files.copy(source.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    @Override
+    public URI presign(String name) {
+        return null;
+    }
+}
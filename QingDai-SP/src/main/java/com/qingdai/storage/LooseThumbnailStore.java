@@ -0,0 +1,56 @@
+package com.qingdai.storage;
+
+import com.qingdai.utils.FileResponseUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * <p>
+ * 单文件缩略图存储，每张图是100K目录下的一个文件，内容相同的名称用硬链接共享，文件系统不支持硬链接时退化为复制
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "qingdai.thumbnail-store.type", havingValue = "loose", matchIfMissing = true)
+@Slf4j
+public class LooseThumbnailStore extends LocalNamedStore implements ThumbnailStore {
+
+    @Value("${qingdai.url.thumbnail100KUrl}")
+    private String thumbnail100KUrl;
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(thumbnail100KUrl).toAbsolutePath().normalize();
+        log.info("100K缩略图使用单文件存储: {}", root);
+    }
+
+    @Override
+    public StoredThumbnail get(String name) throws IOException {
+        Path path = resolve(name);
+        BasicFileAttributes attributes = readAttributes(path);
+        if (attributes == null) {
+            return null;
+        }
+        return new StoredThumbnail(name, attributes.size(), FileResponseUtils.lastModified(attributes),
+                FileResponseUtils.etag(path, attributes), path.toFile(), null);
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        Path path = resolve(name);
+        Files.createDirectories(path.getParent());
+        // 先写临时文件再替换，不原地改写，避免改动与内容库共享的硬链接文件
+        Path tempFile = path.resolveSibling("." + path.getFileName() + ".writing");
+        Files.write(tempFile, data);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
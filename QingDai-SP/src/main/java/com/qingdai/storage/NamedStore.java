@@ -0,0 +1,77 @@
+package com.qingdai.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>
+ * 按名称存取的图片存储，名称是相对档位目录的路径（如“a.jpg”“.content/ab/哈希”）；
+ * 缩略图存储和原图存储共用这组操作，内容库据此在两者上建立链接
+ * </p>
+ */
+public interface NamedStore {
+
+    /**
+     * 文件是否属于该存储（位于档位目录下），属于时应通过名称访问而不是直接读写文件
+     * @param file 文件
+     * @return 是否属于
+     */
+    boolean owns(File file);
+
+    /**
+     * 是否存在
+     * @param name 名称
+     * @return 是否存在
+     */
+    boolean exists(String name);
+
+    /**
+     * 删除图片
+     * @param name 名称
+     * @return 是否删除，不存在时返回false
+     * @throws IOException 删除失败
+     */
+    boolean delete(String name) throws IOException;
+
+    /**
+     * 重命名图片，目标已存在时替换
+     * @param from 原名称
+     * @param to 新名称
+     * @return 是否重命名，原名称不存在时返回false
+     * @throws IOException 重命名失败
+     */
+    boolean rename(String from, String to) throws IOException;
+
+    /**
+     * 让name指向existing的内容，name已存在时替换
+     * @param existing 已有名称
+     * @param name 新名称
+     * @throws IOException existing不存在或建立失败
+     */
+    void link(String existing, String name) throws IOException;
+
+    /**
+     * 两个名称是否指向同一份内容
+     * @param first 名称
+     * @param second 名称
+     * @return 是否相同，任一不存在时返回false
+     * @throws IOException 读取失败
+     */
+    boolean isSameContent(String first, String second) throws IOException;
+
+    /**
+     * 内容是否还被其他名称引用，无法判断时返回true
+     * @param name 名称
+     * @return 是否被引用
+     * @throws IOException 读取失败
+     */
+    boolean isShared(String name) throws IOException;
+
+    /**
+     * 列出顶层名称，不含以“.”开头的内部名称
+     * @return 名称列表
+     * @throws IOException 读取失败
+     */
+    List<String> list() throws IOException;
+}
@@ -0,0 +1,169 @@
+package com.qingdai.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 缩略图分段文件，只在末尾追加，读取时通过只读内存映射切片；
+ * 文件按倍数预先扩展（稀疏），映射覆盖整个预分配区域，只在文件扩展后读到新区域时才重新映射，
+ * 旧映射由仍在使用的切片持有，回收后自动解除。预分配的空白部分在切换分段和关闭时截掉，
+ * 异常退出时留下的空白在重放时按不完整记录截断
+ */
+class PackSegment {
+
+    private static final long MIN_GROWTH = 4L * 1024 * 1024;
+
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final long limit;
+    // 已写入记录的长度
+    private volatile long size;
+    // 文件的实际长度，不小于size
+    private volatile long capacity;
+    private volatile MappedByteBuffer mapped;
+    // 仍被索引引用的数据字节数，由存储在写锁内维护
+    private volatile long liveBytes;
+
+    private PackSegment(int id, Path path, FileChannel channel, long limit, long size) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.limit = limit;
+        this.size = size;
+        this.capacity = size;
+    }
+
+    /**
+     * @param limit 预分配不超过的长度，单条记录更大时按记录长度扩展
+     */
+    static PackSegment open(int id, Path path, long limit) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new PackSegment(id, path, channel, limit, channel.size());
+    }
+
+    int getId() {
+        return id;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long liveBytes() {
+        return liveBytes;
+    }
+
+    void addLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    /**
+     * 追加一条记录，调用方负责串行化写入
+     *
+     * @return 记录的起始位置
+     */
+    long append(ByteBuffer record) throws IOException {
+        long position = size;
+        ensureCapacity(position + record.remaining());
+        long offset = position;
+        while (record.hasRemaining()) {
+            offset += channel.write(record, offset);
+        }
+        size = offset;
+        return position;
+    }
+
+    // 按当前长度的两倍扩展文件，只写最后一个字节，中间部分不占磁盘
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= capacity) {
+            return;
+        }
+        long grown = Math.max(required, Math.max(capacity * 2, MIN_GROWTH));
+        long target = Math.max(required, Math.min(grown, limit));
+        channel.write(ByteBuffer.wrap(new byte[1]), target - 1);
+        capacity = target;
+    }
+
+    /**
+     * 从指定位置读满buffer，不经过映射，用于启动时扫描
+     *
+     * @return 是否读满
+     */
+    boolean read(ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * 返回指定区间的只读切片
+     */
+    ByteBuffer slice(long offset, int length) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current == null || offset + length > current.capacity()) {
+            current = remap(offset + length);
+        }
+        return current.slice((int) offset, length).asReadOnlyBuffer();
+    }
+
+    private synchronized MappedByteBuffer remap(long required) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current != null && required <= current.capacity()) {
+            return current;
+        }
+        if (required > size) {
+            throw new IOException("读取位置超出分段文件长度: " + path);
+        }
+        current = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+        mapped = current;
+        return current;
+    }
+
+    // 丢弃position之后不完整的记录
+    void truncate(long position) throws IOException {
+        channel.truncate(position);
+        size = position;
+        capacity = position;
+    }
+
+    /**
+     * 截掉预分配但未写入的部分，映射中超出的区域不会再被读取
+     */
+    void trim() throws IOException {
+        if (capacity > size) {
+            channel.truncate(size);
+            capacity = size;
+        }
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,616 @@
+package com.qingdai.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * 分段缩略图存储，所有图片追加写入pack目录下的segment-序号.pack文件，读取时从内存映射中切片，不再逐张open/stat；
+ * 每条记录的格式（大端序）：
+ * </p>
+ * <pre>
+ * int 魔数 | byte 类型 | long 修改时间 | short 名称长度 | int 负载长度 | int CRC32(名称+负载) | 名称 | 负载
+ * PUT负载为图片内容；LINK负载为 int 分段号 | long 数据位置 | int 数据长度；DELETE负载为 int 分段号 | long 记录位置
+ * </pre>
+ * <p>
+ * 名称到数据位置的索引只在内存中，启动时按分段顺序重放记录重建，最后一个分段校验CRC并截掉写了一半的记录；
+ * 索引变化时同步维护每个数据位置的引用数和每个分段的存活字节数，判断共享和计算失效占比不再遍历索引；
+ * 删除和覆盖只追加记录，失效数据占比超过阈值的分段在后台压实：存活记录搬到当前分段后删除整个分段文件
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "qingdai.thumbnail-store.type", havingValue = "pack")
+@Slf4j
+public class PackedThumbnailStore implements ThumbnailStore {
+
+    private static final int MAGIC = 0x51445031;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_LINK = 2;
+    private static final byte TYPE_DELETE = 3;
+    private static final int HEADER_LENGTH = 4 + 1 + 8 + 2 + 4 + 4;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})\\.pack");
+
+    @Value("${qingdai.url.thumbnail100KUrl}")
+    private String thumbnail100KUrl;
+
+    @Value("${qingdai.thumbnail-store.pack-dir:${qingdai.url.thumbnail100KUrl}/.pack}")
+    private String packDir;
+
+    @Value("${qingdai.thumbnail-store.segment-mb:256}")
+    private int segmentMb;
+
+    @Value("${qingdai.thumbnail-store.compact-garbage-ratio:0.5}")
+    private double compactGarbageRatio;
+
+    @Value("${qingdai.thumbnail-store.import-loose:true}")
+    private boolean importLoose;
+
+    private Path root;
+    private Path directory;
+    private long segmentBytes;
+
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    // 数据位置（分段号和偏移）被多少个名称引用，只在写锁内修改
+    private final ConcurrentHashMap<Long, Integer> references = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, PackSegment> segments = new ConcurrentSkipListMap<>();
+    // 所有写入和压实串行执行，读取只查索引不加锁
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile PackSegment active;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(thumbnail100KUrl).toAbsolutePath().normalize();
+        directory = Paths.get(packDir).toAbsolutePath().normalize();
+        // 单个映射不能超过2GB
+        segmentBytes = Math.min(Math.max(segmentMb, 1), 1024) * 1024L * 1024L;
+        Files.createDirectories(directory);
+
+        List<Path> segmentFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.pack")) {
+            stream.forEach(segmentFiles::add);
+        }
+        segmentFiles.sort(null);
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            Matcher matcher = SEGMENT_NAME.matcher(segmentFiles.get(i).getFileName().toString());
+            if (!matcher.matches()) {
+                continue;
+            }
+            PackSegment segment = PackSegment.open(Integer.parseInt(matcher.group(1)), segmentFiles.get(i),
+                    segmentBytes);
+            segments.put(segment.getId(), segment);
+            replay(segment, i == segmentFiles.size() - 1);
+        }
+        active = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+
+        if (importLoose && index.isEmpty()) {
+            importLooseFiles();
+        }
+        log.info("100K缩略图使用分段存储: {}，{}个分段，{}个名称", directory, segments.size(), index.size());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (PackSegment segment : segments.values()) {
+            try {
+                segment.trim();
+                segment.force();
+                segment.close();
+            } catch (IOException e) {
+                log.warn("关闭分段文件失败: {}, 错误: {}", segment.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean owns(File file) {
+        return root.equals(file.toPath().toAbsolutePath().normalize().getParent());
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return index.containsKey(name);
+    }
+
+    @Override
+    public StoredThumbnail get(String name) throws IOException {
+        // 读取时分段恰好被压实删除的，重新查一次索引即可拿到新位置
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = index.get(name);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                ByteBuffer data = entry.dataSegment.slice(entry.dataOffset, entry.length);
+                return new StoredThumbnail(name, entry.length, entry.lastModified / 1000 * 1000, entry.etag(), null,
+                        data);
+            } catch (ClosedChannelException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        writeLock.lock();
+        try {
+            index(name, appendPut(name, ByteBuffer.wrap(data), System.currentTimeMillis()));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        writeLock.lock();
+        try {
+            Entry entry = index.get(name);
+            if (entry == null) {
+                return false;
+            }
+            appendDelete(name, entry.recordSegment.getId(), entry.recordOffset);
+            unindex(name);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) throws IOException {
+        writeLock.lock();
+        try {
+            Entry entry = index.get(from);
+            if (entry == null) {
+                return false;
+            }
+            index(to, appendLink(to, entry));
+            appendDelete(from, entry.recordSegment.getId(), entry.recordOffset);
+            unindex(from);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void link(String existing, String name) throws IOException {
+        writeLock.lock();
+        try {
+            Entry entry = index.get(existing);
+            if (entry == null) {
+                throw new IOException("缩略图不存在: " + existing);
+            }
+            index(name, appendLink(name, entry));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isSameContent(String first, String second) {
+        Entry firstEntry = index.get(first);
+        Entry secondEntry = index.get(second);
+        return firstEntry != null && secondEntry != null && firstEntry.sameData(secondEntry);
+    }
+
+    @Override
+    public boolean isShared(String name) {
+        Entry entry = index.get(name);
+        return entry != null && references.getOrDefault(entry.location(), 0) > 1;
+    }
+
+    @Override
+    public List<String> list() {
+        List<String> names = new ArrayList<>();
+        for (String name : index.keySet()) {
+            if (!name.startsWith(".")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 压实失效数据占比超过阈值的分段，当前写入的分段不压实
+     */
+    @Scheduled(fixedDelayString = "${qingdai.thumbnail-store.compact-interval-ms:600000}",
+            initialDelayString = "${qingdai.thumbnail-store.compact-interval-ms:600000}")
+    public void compact() {
+        for (PackSegment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.size() == 0) {
+                continue;
+            }
+            long liveBytes = segment.liveBytes();
+            double garbageRatio = 1 - (double) liveBytes / segment.size();
+            if (garbageRatio < compactGarbageRatio) {
+                continue;
+            }
+            try {
+                long startTime = System.currentTimeMillis();
+                int moved = compactSegment(segment);
+                log.info("已压实分段{}，失效占比{}%，搬移{}条记录，释放{}KB，耗时{}毫秒", segment.getId(),
+                        Math.round(garbageRatio * 100), moved, (segment.size() - liveBytes) / 1024,
+                        System.currentTimeMillis() - startTime);
+            } catch (IOException e) {
+                log.error("压实分段{}失败: {}", segment.getId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    // 设置名称的索引条目，先登记新数据位置再释放旧的，重新链接到同一数据时引用不会中途归零
+    private void index(String name, Entry entry) {
+        reference(entry);
+        Entry previous = index.put(name, entry);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    private void unindex(String name) {
+        Entry previous = index.remove(name);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    // 数据位置第一次被引用时计入分段的存活字节数，多个名称共享的数据只计一次
+    private void reference(Entry entry) {
+        if (references.merge(entry.location(), 1, Integer::sum) == 1) {
+            entry.dataSegment.addLiveBytes(entry.length);
+        }
+    }
+
+    private void release(Entry entry) {
+        if (references.computeIfPresent(entry.location(), (location, count) -> count > 1 ? count - 1 : null) == null) {
+            entry.dataSegment.addLiveBytes(-entry.length);
+        }
+    }
+
+    // 持有写锁期间按顺序搬移分段中的存活记录，之后删除分段文件；正在读旧映射的请求不受影响
+    private int compactSegment(PackSegment segment) throws IOException {
+        writeLock.lock();
+        try {
+            // 旧数据位置到搬移后条目的映射，共享数据只复制一次
+            Map<Long, Entry> movedData = new HashMap<>();
+            int moved = 0;
+            for (Map.Entry<String, Entry> item : new ArrayList<>(index.entrySet())) {
+                String name = item.getKey();
+                Entry entry = item.getValue();
+                if (entry.dataSegment == segment) {
+                    Entry target = movedData.get(entry.dataOffset);
+                    if (target == null) {
+                        target = appendPut(name, segment.slice(entry.dataOffset, entry.length), entry.lastModified);
+                        movedData.put(entry.dataOffset, target);
+                    } else {
+                        target = appendLink(name, target);
+                    }
+                    index(name, target);
+                    moved++;
+                } else if (entry.recordSegment == segment) {
+                    // 记录在该分段、数据在其他分段的链接
+                    index(name, appendLink(name, entry));
+                    moved++;
+                }
+            }
+            // 删除记录指向的分段还在时需要保留，否则重建索引时被删除的名称会复活
+            long position = 0;
+            while (position < segment.size()) {
+                Record record = readRecord(segment, position, false);
+                if (record == null) {
+                    break;
+                }
+                if (record.type == TYPE_DELETE && record.targetSegment != segment.getId()
+                        && segments.containsKey(record.targetSegment)) {
+                    appendDelete(record.name, record.targetSegment, record.targetOffset);
+                }
+                position = record.nextPosition;
+            }
+            active.force();
+            segments.remove(segment.getId());
+            segment.delete();
+            return moved;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // 按顺序重放分段中的记录重建索引
+    private void replay(PackSegment segment, boolean verify) throws IOException {
+        long position = 0;
+        while (position < segment.size()) {
+            Record record = readRecord(segment, position, verify);
+            if (record == null) {
+                log.warn("分段{}在位置{}处的记录不完整，已截断", segment.getId(), position);
+                segment.truncate(position);
+                break;
+            }
+            switch (record.type) {
+                case TYPE_PUT:
+                    index(record.name, new Entry(segment, position, segment, record.dataOffset,
+                            record.dataLength, record.lastModified));
+                    break;
+                case TYPE_LINK:
+                    PackSegment dataSegment = segments.get(record.targetSegment);
+                    // 目标分段已被压实说明这条链接已被后面的记录取代
+                    if (dataSegment != null) {
+                        index(record.name, new Entry(segment, position, dataSegment, record.targetOffset,
+                                record.dataLength, record.lastModified));
+                    }
+                    break;
+                case TYPE_DELETE:
+                    Entry entry = index.get(record.name);
+                    if (entry != null && entry.recordSegment.getId() == record.targetSegment
+                            && entry.recordOffset == record.targetOffset) {
+                        unindex(record.name);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position = record.nextPosition;
+        }
+    }
+
+    // 读取一条记录，不完整或校验失败时返回null；PUT只读头部，verify为true时才读数据校验CRC
+    private Record readRecord(PackSegment segment, long position, boolean verify) throws IOException {
+        if (segment.size() - position < HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (!segment.read(header, position)) {
+            return null;
+        }
+        int magic = header.getInt();
+        byte type = header.get();
+        long lastModified = header.getLong();
+        int nameLength = header.getShort() & 0xFFFF;
+        int payloadLength = header.getInt();
+        int crc = header.getInt();
+        long namePosition = position + HEADER_LENGTH;
+        long payloadPosition = namePosition + nameLength;
+        if (magic != MAGIC || payloadLength < 0 || payloadPosition + payloadLength > segment.size()) {
+            return null;
+        }
+
+        ByteBuffer nameBuffer = ByteBuffer.allocate(nameLength);
+        if (!segment.read(nameBuffer, namePosition)) {
+            return null;
+        }
+        Record record = new Record();
+        record.type = type;
+        record.lastModified = lastModified;
+        record.name = StandardCharsets.UTF_8.decode(nameBuffer.duplicate()).toString();
+        record.nextPosition = payloadPosition + payloadLength;
+
+        ByteBuffer payload = null;
+        if (type != TYPE_PUT || verify) {
+            payload = ByteBuffer.allocate(payloadLength);
+            if (!segment.read(payload, payloadPosition)) {
+                return null;
+            }
+        }
+        if (payload != null) {
+            CRC32 checksum = new CRC32();
+            checksum.update(nameBuffer.duplicate());
+            checksum.update(payload.duplicate());
+            if ((int) checksum.getValue() != crc) {
+                return null;
+            }
+        }
+
+        switch (type) {
+            case TYPE_PUT:
+                record.dataOffset = payloadPosition;
+                record.dataLength = payloadLength;
+                break;
+            case TYPE_LINK:
+                record.targetSegment = payload.getInt();
+                record.targetOffset = payload.getLong();
+                record.dataLength = payload.getInt();
+                break;
+            case TYPE_DELETE:
+                record.targetSegment = payload.getInt();
+                record.targetOffset = payload.getLong();
+                break;
+            default:
+                return null;
+        }
+        return record;
+    }
+
+    private Entry appendPut(String name, ByteBuffer data, long lastModified) throws IOException {
+        int length = data.remaining();
+        Appended appended = append(TYPE_PUT, name, data, lastModified);
+        return new Entry(appended.segment, appended.position, appended.segment, appended.payloadPosition, length,
+                lastModified);
+    }
+
+    private Entry appendLink(String name, Entry target) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(16);
+        payload.putInt(target.dataSegment.getId()).putLong(target.dataOffset).putInt(target.length).flip();
+        Appended appended = append(TYPE_LINK, name, payload, target.lastModified);
+        return new Entry(appended.segment, appended.position, target.dataSegment, target.dataOffset, target.length,
+                target.lastModified);
+    }
+
+    private void appendDelete(String name, int targetSegment, long targetOffset) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(12);
+        payload.putInt(targetSegment).putLong(targetOffset).flip();
+        append(TYPE_DELETE, name, payload, System.currentTimeMillis());
+    }
+
+    // 写满当前分段时切换到新分段；单条记录超过分段上限时独占一个分段
+    private Appended append(byte type, String name, ByteBuffer payload, long lastModified) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IOException("缩略图名称过长: " + name);
+        }
+        int payloadLength = payload.remaining();
+        CRC32 checksum = new CRC32();
+        checksum.update(nameBytes);
+        checksum.update(payload.duplicate());
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + nameBytes.length + payloadLength);
+        record.putInt(MAGIC).put(type).putLong(lastModified).putShort((short) nameBytes.length)
+                .putInt(payloadLength).putInt((int) checksum.getValue()).put(nameBytes).put(payload.duplicate());
+        record.flip();
+
+        if (active.size() > 0 && active.size() + record.remaining() > segmentBytes) {
+            PackSegment full = active;
+            try {
+                full.trim();
+            } catch (IOException e) {
+                // 截断失败只多占空间，重放时末尾的空白会被截掉
+                log.warn("截断分段{}的预分配空间失败: {}", full.getId(), e.getMessage());
+            }
+            full.force();
+            active = openSegment(full.getId() + 1);
+        }
+        PackSegment segment = active;
+        long position = segment.append(record);
+        return new Appended(segment, position, position + HEADER_LENGTH + nameBytes.length);
+    }
+
+    private PackSegment openSegment(int id) throws IOException {
+        PackSegment segment = PackSegment.open(id, directory.resolve(String.format("segment-%08d.pack", id)),
+                segmentBytes);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // 首次启用时导入100K目录下已有的文件，包括内容库；同一inode的文件只导入一次，其余建立链接
+    private void importLooseFiles() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        Map<Object, String> importedKeys = new HashMap<>();
+        int[] count = new int[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(directory) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String fileName = file.getFileName().toString();
+                if (!attrs.isRegularFile() || fileName.startsWith(".") || attrs.size() > Integer.MAX_VALUE) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                String existing = attrs.fileKey() == null ? null : importedKeys.get(attrs.fileKey());
+                writeLock.lock();
+                try {
+                    if (existing != null) {
+                        index(name, appendLink(name, index.get(existing)));
+                    } else {
+                        index(name, appendPut(name, ByteBuffer.wrap(Files.readAllBytes(file)),
+                                attrs.lastModifiedTime().toMillis()));
+                        if (attrs.fileKey() != null) {
+                            importedKeys.put(attrs.fileKey(), name);
+                        }
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        active.force();
+        if (count[0] > 0) {
+            log.info("已导入{}个单文件缩略图到分段存储，原文件保留，耗时{}毫秒", count[0],
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 索引条目：记录所在位置和数据所在位置，链接记录的数据在其他记录中
+     */
+    private static class Entry {
+        private final PackSegment recordSegment;
+        private final long recordOffset;
+        private final PackSegment dataSegment;
+        private final long dataOffset;
+        private final int length;
+        private final long lastModified;
+
+        private Entry(PackSegment recordSegment, long recordOffset, PackSegment dataSegment, long dataOffset,
+                int length, long lastModified) {
+            this.recordSegment = recordSegment;
+            this.recordOffset = recordOffset;
+            this.dataSegment = dataSegment;
+            this.dataOffset = dataOffset;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean sameData(Entry other) {
+            return dataSegment == other.dataSegment && dataOffset == other.dataOffset;
+        }
+
+        // 数据位置的键：分段号在高32位，偏移不超过单个映射的2GB
+        private long location() {
+            return (long) dataSegment.getId() << 32 | dataOffset;
+        }
+
+        // 数据位置不变内容就不变，压实搬移后ETag随之改变
+        private String etag() {
+            return String.format("\"p%x-%x-%x\"", dataSegment.getId(), dataOffset, length);
+        }
+    }
+
+    private static class Record {
+        private byte type;
+        private long lastModified;
+        private String name;
+        private long dataOffset;
+        private int dataLength;
+        private int targetSegment;
+        private long targetOffset;
+        private long nextPosition;
+    }
+
+    private static class Appended {
+        private final PackSegment segment;
+        private final long position;
+        private final long payloadPosition;
+
+        private Appended(PackSegment segment, long position, long payloadPosition) {
+            this.segment = segment;
+            this.position = position;
+            this.payloadPosition = payloadPosition;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.qingdai.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * 原图等大文件的存储接口，按名称（相对档位目录的路径）存取；
+ * local实现直接读写本机目录，s3实现存放在S3兼容的对象存储中，多个应用节点可共享同一份原图
+ * </p>
+ */
+public interface PhotoStorage extends NamedStore {
+
+    /**
+     * 图片是否直接存放在档位目录下，是时可以按“档位目录/名称”直接读写文件，写入后put为空操作
+     * @return 是否本机存储
+     */
+    boolean isLocal();
+
+    /**
+     * 读取图片的属性
+     * @param name 名称
+     * @return 图片属性，不存在时返回null
+     * @throws IOException 读取失败
+     */
+    StoredPhoto stat(String name) throws IOException;
+
+    /**
+     * 读取图片的一段内容
+     * @param name 名称
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 输入流，由调用方关闭
+     * @throws IOException 不存在或读取失败
+     */
+    InputStream open(String name, long offset, long length) throws IOException;
+
+    /**
+     * 把图片下载到本地文件，目标已存在时替换
+     * @param name 名称
+     * @param target 本地文件
+     * @throws IOException 不存在或下载失败
+     */
+    void download(String name, Path target) throws IOException;
+
+    /**
+     * 写入图片，已存在时替换；对象存储中大文件分片并行上传
+     * @param name 名称
+     * @param source 本地文件
+     * @throws IOException 写入失败
+     */
+    void put(String name, File source) throws IOException;
+
+    /**
+     * 生成可直接访问图片的临时地址，客户端重定向过去后不再经过应用节点
+     * @param name 名称
+     * @return 临时地址，不支持或未开启时返回null
+     */
+    URI presign(String name);
+
+    /**
+     * 存储中的图片，本地存储时file不为空
+     */
+    class StoredPhoto {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+        private final File file;
+
+        public StoredPhoto(String name, long size, long lastModified, String etag, File file) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.file = file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+}
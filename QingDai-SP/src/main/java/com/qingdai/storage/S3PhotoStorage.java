@@ -0,0 +1,352 @@
+package com.qingdai.storage;
+
+import com.qingdai.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * S3兼容对象存储（AWS S3、MinIO等），名称映射为“前缀+名称”的对象键；
+ * 超过阈值的文件按分片并行上传，读取支持Range，开启预签名时客户端直接从对象存储下载；
+ * 对象存储没有硬链接，链接通过服务端复制完成并在元数据中记录源ETag，用于判断内容是否相同；
+ * 无法统计引用数，isShared始终返回true，内容库对象不会被自动删除
+ * </p>
+ */
+@Slf4j
+public class S3PhotoStorage implements PhotoStorage {
+
+    // 分片上传要求除最后一片外每片不小于5MB
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final String SOURCE_ETAG = "source-etag";
+
+    private final S3Client client;
+    private final S3Presigner presigner;
+    private final ExecutorService uploadExecutor;
+    private final String bucket;
+    private final String prefix;
+    private final Path tierDir;
+    private final long multipartThreshold;
+    private final long partSize;
+    private final Duration presignTtl;
+
+    /**
+     * @param tierDir 档位在本机配置中的目录，只用于识别属于该存储的文件
+     * @param presignTtl 预签名地址有效期，为null时不使用重定向
+     */
+    public S3PhotoStorage(S3Client client, S3Presigner presigner, ExecutorService uploadExecutor, String bucket,
+            String prefix, Path tierDir, long multipartThreshold, long partSize, Duration presignTtl) {
+        this.client = client;
+        this.presigner = presigner;
+        this.uploadExecutor = uploadExecutor;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.tierDir = tierDir.toAbsolutePath().normalize();
+        this.multipartThreshold = Math.max(multipartThreshold, MIN_PART_SIZE);
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.presignTtl = presignTtl;
+        log.info("使用对象存储: {}/{}，对应目录: {}", bucket, prefix, this.tierDir);
+    }
+
+    @Override
+    public boolean owns(File file) {
+        return tierDir.equals(file.toPath().toAbsolutePath().normalize().getParent());
+    }
+
+    @Override
+    public boolean exists(String name) {
+        try {
+            return head(name) != null;
+        } catch (IOException e) {
+            log.warn("查询对象失败: {}, 错误: {}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
+    @Override
+    public StoredPhoto stat(String name) throws IOException {
+        HeadObjectResponse head = head(name);
+        if (head == null) {
+            return null;
+        }
+        return new StoredPhoto(name, head.contentLength(), head.lastModified().toEpochMilli() / 1000 * 1000,
+                quote(head.eTag()), null);
+    }
+
+    @Override
+    public InputStream open(String name, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        try {
+            return client.getObject(b -> b.bucket(bucket).key(key(name))
+                    .range("bytes=" + offset + "-" + (offset + length - 1)));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new NoSuchFileException(key(name));
+            }
+            throw failure("读取", name, e);
+        } catch (SdkException e) {
+            throw failure("读取", name, e);
+        }
+    }
+
+    @Override
+    public void download(String name, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            client.getObject(b -> b.bucket(bucket).key(key(name)), ResponseTransformer.toFile(target));
+        } catch (SdkException e) {
+            Files.deleteIfExists(target);
+            throw failure("下载", name, e);
+        }
+    }
+
+    @Override
+    public void put(String name, File source) throws IOException {
+        long size = source.length();
+        String contentType = contentType(name);
+        long startTime = System.currentTimeMillis();
+        try {
+            if (size < multipartThreshold) {
+                client.putObject(b -> b.bucket(bucket).key(key(name)).contentType(contentType),
+                        RequestBody.fromFile(source));
+            } else {
+                putMultipart(name, source.toPath(), size, contentType);
+            }
+        } catch (SdkException e) {
+            throw failure("上传", name, e);
+        }
+        log.debug("上传对象: {}，大小: {}KB，耗时{}毫秒", name, size / 1024, System.currentTimeMillis() - startTime);
+    }
+
+    // 各分片在上传线程池中并行上传，任一分片失败时放弃整个上传，避免残留未完成的分片
+    private void putMultipart(String name, Path source, long size, String contentType) throws IOException {
+        String key = key(name);
+        String uploadId = client.createMultipartUpload(b -> b.bucket(bucket).key(key).contentType(contentType))
+                .uploadId();
+        try {
+            int partCount = (int) ((size + partSize - 1) / partSize);
+            List<Future<CompletedPart>> futures = new ArrayList<>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                long offset = i * partSize;
+                long length = Math.min(partSize, size - offset);
+                futures.add(uploadExecutor.submit(() -> uploadPart(key, uploadId, partNumber, source, offset, length)));
+            }
+            List<CompletedPart> parts = new ArrayList<>(partCount);
+            for (Future<CompletedPart> future : futures) {
+                parts.add(await(future, futures));
+            }
+            client.completeMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(m -> m.parts(parts)));
+        } catch (IOException | RuntimeException e) {
+            abortMultipart(key, uploadId);
+            throw e;
+        }
+    }
+
+    private CompletedPart uploadPart(String key, String uploadId, int partNumber, Path source, long offset,
+            long length) {
+        // 每次重试都重新打开分片，SDK失败重试时可以从头读取
+        RequestBody body = RequestBody.fromContentProvider(() -> {
+            try {
+                return new RangeInputStream(source, offset, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, length, "application/octet-stream");
+        String eTag = client.uploadPart(b -> b.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber)
+                .contentLength(length), body).eTag();
+        return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+    }
+
+    private CompletedPart await(Future<CompletedPart> future, List<Future<CompletedPart>> futures)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new IOException("等待分片上传时被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new IOException("分片上传失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void abortMultipart(String key, String uploadId) {
+        try {
+            client.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+        } catch (SdkException e) {
+            log.warn("放弃分片上传失败: {}, 错误: {}", key, e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        if (head(name) == null) {
+            return false;
+        }
+        try {
+            client.deleteObject(b -> b.bucket(bucket).key(key(name)));
+            return true;
+        } catch (SdkException e) {
+            throw failure("删除", name, e);
+        }
+    }
+
+    @Override
+    public boolean rename(String from, String to) throws IOException {
+        HeadObjectResponse head = head(from);
+        if (head == null) {
+            return false;
+        }
+        copy(from, to, Collections.singletonMap(SOURCE_ETAG, contentEtag(head)), head.contentType());
+        delete(from);
+        return true;
+    }
+
+    @Override
+    public void link(String existing, String name) throws IOException {
+        HeadObjectResponse head = head(existing);
+        if (head == null) {
+            throw new NoSuchFileException(key(existing));
+        }
+        copy(existing, name, Collections.singletonMap(SOURCE_ETAG, contentEtag(head)), head.contentType());
+    }
+
+    // 服务端复制，数据不经过应用节点
+    private void copy(String from, String to, Map<String, String> metadata, String contentType) throws IOException {
+        try {
+            client.copyObject(b -> b.sourceBucket(bucket).sourceKey(key(from))
+                    .destinationBucket(bucket).destinationKey(key(to))
+                    .metadataDirective(MetadataDirective.REPLACE)
+                    .metadata(metadata)
+                    .contentType(contentType));
+        } catch (SdkException e) {
+            throw failure("复制", from + " -> " + to, e);
+        }
+    }
+
+    @Override
+    public boolean isSameContent(String first, String second) throws IOException {
+        HeadObjectResponse firstHead = head(first);
+        HeadObjectResponse secondHead = head(second);
+        if (firstHead == null || secondHead == null) {
+            return false;
+        }
+        // 复制出的对象记录了源ETag，比较双方的源ETag即可
+        return contentEtag(firstHead).equals(contentEtag(secondHead));
+    }
+
+    @Override
+    public boolean isShared(String name) {
+        return true;
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        try {
+            // 以“/”分隔只列出顶层对象，内容库等子目录不会展开
+            for (S3Object object : client.listObjectsV2Paginator(b -> b.bucket(bucket).prefix(prefix).delimiter("/"))
+                    .contents()) {
+                String name = object.key().substring(prefix.length());
+                if (!name.isEmpty() && !name.startsWith(".")) {
+                    names.add(name);
+                }
+            }
+        } catch (SdkException e) {
+            throw failure("列出", prefix, e);
+        }
+        return names;
+    }
+
+    @Override
+    public URI presign(String name) {
+        if (presignTtl == null) {
+            return null;
+        }
+        try {
+            return presigner.presignGetObject(GetObjectPresignRequest.builder()
+                    .signatureDuration(presignTtl)
+                    .getObjectRequest(b -> b.bucket(bucket).key(key(name)))
+                    .build()).url().toURI();
+        } catch (URISyntaxException | SdkException e) {
+            log.warn("生成预签名地址失败: {}, 错误: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private HeadObjectResponse head(String name) throws IOException {
+        try {
+            return client.headObject(b -> b.bucket(bucket).key(key(name)));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw failure("查询", name, e);
+        } catch (SdkException e) {
+            throw failure("查询", name, e);
+        }
+    }
+
+    // 对象内容的标识，复制出的对象沿用源对象的ETag
+    private String contentEtag(HeadObjectResponse head) {
+        return head.metadata().getOrDefault(SOURCE_ETAG, quote(head.eTag()));
+    }
+
+    private String key(String name) {
+        if (name.startsWith("/") || name.contains("..")) {
+            throw new IllegalArgumentException("非法的文件名称: " + name);
+        }
+        return prefix + name;
+    }
+
+    private String contentType(String name) {
+        MediaType mediaType = FileUtils.getImageMediaType(name);
+        return mediaType != null ? mediaType.toString() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    private static String quote(String etag) {
+        return etag.startsWith("\"") ? etag : "\"" + etag + "\"";
+    }
+
+    private static IOException failure(String action, String name, SdkException e) {
+        return new IOException(action + "对象失败: " + name + ", " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,110 @@
+package com.qingdai.storage;
+
+import com.qingdai.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * 100K缩略图存储接口，按名称（相对100K目录的路径，如“a.jpg”“a.jpg.webp”“.content/ab/哈希”）存取；
+ * loose实现每张图一个文件，pack实现把图片追加写入大分段文件并通过内存映射读取
+ * </p>
+ */
+public interface ThumbnailStore extends NamedStore {
+
+    /**
+     * 读取图片
+     * @param name 名称
+     * @return 图片，不存在时返回null
+     * @throws IOException 读取失败
+     */
+    StoredThumbnail get(String name) throws IOException;
+
+    /**
+     * 读取照片的缩略图，webp为true且有WebP副本时优先返回副本
+     * @param fileName 照片文件名
+     * @param webp 是否优先WebP
+     * @return 图片，不存在时返回null
+     * @throws IOException 读取失败
+     */
+    default StoredThumbnail get(String fileName, boolean webp) throws IOException {
+        StoredThumbnail stored = webp ? get(FileUtils.getWebpName(fileName)) : null;
+        return stored != null ? stored : get(fileName);
+    }
+
+    /**
+     * 写入图片，已存在时替换
+     * @param name 名称
+     * @param data 图片内容
+     * @throws IOException 写入失败
+     */
+    void put(String name, byte[] data) throws IOException;
+
+    /**
+     * 存储中的图片，文件存储时file不为空，分段存储时data为映射内存的只读切片
+     */
+    class StoredThumbnail {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+        private final File file;
+        private final ByteBuffer data;
+
+        public StoredThumbnail(String name, long size, long lastModified, String etag, File file, ByteBuffer data) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.file = file;
+            this.data = data;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public ByteBuffer getData() {
+            return data == null ? null : data.duplicate();
+        }
+
+        /**
+         * 把内容读入target，读满或读完为止
+         */
+        public void readInto(ByteBuffer target) throws IOException {
+            if (data != null) {
+                ByteBuffer source = data.duplicate();
+                if (source.remaining() > target.remaining()) {
+                    source.limit(source.position() + target.remaining());
+                }
+                target.put(source);
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (target.hasRemaining() && channel.read(target) != -1) {
+                    // 读满为止
+                }
+            }
+        }
+    }
+}
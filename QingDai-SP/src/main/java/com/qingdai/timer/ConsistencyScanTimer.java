@@ -0,0 +1,39 @@
+package com.qingdai.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.qingdai.service.PhotoConsistencyService;
+
+/**
+ * 一致性检查定时器
+ * 定时检查数据库与各档位图片是否一致，并保存检查报告
+ */
+@Component
+public class ConsistencyScanTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsistencyScanTimer.class);
+
+    @Autowired
+    private PhotoConsistencyService photoConsistencyService;
+
+    /**
+     * 默认每天3点30分执行，cron设为"-"时关闭
+     */
+    @Scheduled(cron = "${qingdai.consistency.cron:0 30 3 * * ?}")
+    public void scanConsistency() {
+        log.info("定时器开始执行一致性检查任务");
+        try {
+            PhotoConsistencyService.ScanReport report = photoConsistencyService.scanAndPersist();
+            if (report != null) {
+                log.info("定时器一致性检查完成，数据库{}张照片，三种图片都缺失{}张，耗时{}ms",
+                        report.getDbPhotoCount(), report.getMissingAllFiles().size(), report.getDurationMs());
+            }
+        } catch (Exception e) {
+            log.error("定时器一致性检查失败：{}", e.getMessage(), e);
+        }
+    }
+}
@@ -3,10 +3,12 @@ package com.qingdai.timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.qingdai.cache.TwoLevelCache;
 import com.qingdai.service.PhotoService;
 
 /**
@@ -22,7 +24,7 @@ public class PhotoCacheTimer {
     private PhotoService photoService;
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private CacheManager cacheManager;
     
     /**
      * 每天0点刷新照片统计数据缓存
@@ -32,13 +34,19 @@ public class PhotoCacheTimer {
     public void refreshPhotoDashboardStatsCache() {
         log.info("定时器开始执行照片统计数据缓存刷新任务");
         try {
-            // 删除旧的缓存
-            boolean deleted = redisTemplate.delete("photo::dashboardStats");
-            log.info("定时器删除旧缓存结果：{}", deleted ? "成功" : "缓存不存在");
-            
-            // 重新加载缓存（调用service方法，会触发缓存生成）
+            Cache photoCache = cacheManager.getCache("photo");
             long startTime = System.currentTimeMillis();
-            photoService.getPhotoDashboardStats();
+            // 本节点加载过该条目时直接重新计算并覆盖，刷新期间请求仍读到旧值，不会同时查库
+            if (photoCache instanceof TwoLevelCache && ((TwoLevelCache) photoCache).refresh("dashboardStats")) {
+                log.info("定时器已原地刷新照片统计数据缓存");
+            } else {
+                // 删除旧的缓存，通过缓存管理器同时清除各节点的一级缓存
+                boolean deleted = photoCache != null && photoCache.evictIfPresent("dashboardStats");
+                log.info("定时器删除旧缓存结果：{}", deleted ? "成功" : "缓存不存在");
+
+                // 重新加载缓存（调用service方法，会触发缓存生成）
+                photoService.getPhotoDashboardStats();
+            }
             long endTime = System.currentTimeMillis();
             
             log.info("定时器照片统计数据缓存刷新成功，耗时{}ms", endTime - startTime);
@@ -0,0 +1,35 @@
+package com.qingdai.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.qingdai.service.PhotoLookupFilterService;
+
+/**
+ * 照片存在性过滤器定时器
+ * 定时从数据库重建过滤器，清除已删除照片和旧文件名的残留，控制误判率
+ */
+@Component
+public class PhotoLookupFilterTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(PhotoLookupFilterTimer.class);
+
+    @Autowired
+    private PhotoLookupFilterService photoLookupFilterService;
+
+    /**
+     * 默认每天4点执行，cron设为"-"时关闭
+     */
+    @Scheduled(cron = "${qingdai.lookup-filter.rebuild-cron:0 0 4 * * ?}")
+    public void rebuildLookupFilter() {
+        log.info("定时器开始重建照片存在性过滤器");
+        try {
+            photoLookupFilterService.rebuild();
+        } catch (Exception e) {
+            log.error("定时器重建照片存在性过滤器失败：{}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.qingdai.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 长度前缀的二进制打包格式，一个响应返回多张图片，整数均为大端序：
+ * <pre>
+ * "QDB1" | int32 元数据长度 | 元数据(UTF-8 JSON)
+ * 每张图片: int32 ID长度 | ID(UTF-8) | int32 类型长度 | 类型(UTF-8) | int32 数据长度 | 数据
+ * 结束标记: int32 0
+ * </pre>
+ */
+public class BundleWriter {
+
+    public static final String CONTENT_TYPE = "application/vnd.qingdai.bundle";
+    private static final byte[] MAGIC = "QDB1".getBytes(StandardCharsets.US_ASCII);
+
+    private final DataOutputStream out;
+    private final WritableByteChannel channel;
+    private int count;
+
+    public BundleWriter(OutputStream out, byte[] metadata) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.channel = Channels.newChannel(this.out);
+        this.out.write(MAGIC);
+        this.out.writeInt(metadata.length);
+        this.out.write(metadata);
+    }
+
+    /**
+     * 写入内存中的图片
+     */
+    public void write(String id, String contentType, ByteBuffer data) throws IOException {
+        ByteBuffer body = data.duplicate();
+        writeEntryHeader(id, contentType, body.remaining());
+        while (body.hasRemaining()) {
+            channel.write(body);
+        }
+        count++;
+    }
+
+    /**
+     * 写入文件中的图片，文件不存在时跳过
+     *
+     * @return 是否写入
+     */
+    public boolean write(String id, String contentType, File file) throws IOException {
+        FileChannel source;
+        try {
+            source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (source) {
+            long size = source.size();
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+            writeEntryHeader(id, contentType, (int) size);
+            out.flush();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, channel);
+                if (transferred <= 0) {
+                    throw new IOException("文件在打包过程中被截断: " + file.getName());
+                }
+                position += transferred;
+            }
+        }
+        count++;
+        return true;
+    }
+
+    /**
+     * 写入结束标记
+     *
+     * @return 写入的图片数
+     */
+    public int finish() throws IOException {
+        out.writeInt(0);
+        out.flush();
+        return count;
+    }
+
+    private void writeEntryHeader(String id, String contentType, int length) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] typeBytes = contentType.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(idBytes.length);
+        out.write(idBytes);
+        out.writeInt(typeBytes.length);
+        out.write(typeBytes);
+        out.writeInt(length);
+    }
+}
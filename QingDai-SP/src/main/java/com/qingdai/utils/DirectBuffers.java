@@ -0,0 +1,50 @@
+package com.qingdai.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外直接缓冲区的立即释放
+ * 直接缓冲区默认要等对象被GC回收后才释放堆外内存，缓存淘汰频繁时堆外占用会远超缓存容量；
+ * 通过sun.misc.Unsafe.invokeCleaner（jdk.unsupported模块导出，不需要额外启动参数）立即释放，不可用时退回等GC回收。
+ * 释放后再访问缓冲区会导致JVM崩溃，调用方必须保证没有其他线程还在使用
+ */
+@Slf4j
+public class DirectBuffers {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("无法立即释放堆外缓冲区，改为等待GC回收: {}", e.getMessage());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * 释放allocateDirect分配的缓冲区，必须传入分配时的原始对象而不是duplicate、slice等视图
+     */
+    public static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("释放堆外缓冲区失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.qingdai.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按总字节数限制的磁盘LRU缓存
+ * 索引只在内存中记录文件名和大小，启动时按文件修改时间重建访问顺序
+ */
+public class DiskLruCache {
+
+    private final Path directory;
+    private final long maxBytes;
+    // accessOrder为true时按访问顺序排列，最久未访问的在最前
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    public DiskLruCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * 获取缓存文件，不存在时返回null
+     */
+    public synchronized File get(String key) {
+        Long size = entries.get(key);
+        if (size == null) {
+            return null;
+        }
+        File file = directory.resolve(key).toFile();
+        if (!file.isFile()) {
+            entries.remove(key);
+            totalBytes -= size;
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * 写入缓存，先写临时文件再重命名，写入后按需淘汰最久未访问的文件
+     */
+    public File put(String key, byte[] data) throws IOException {
+        Path target = directory.resolve(key);
+        Path tempFile = Files.createTempFile(directory, ".", ".tmp");
+        try {
+            Files.write(tempFile, data);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, (long) data.length);
+            totalBytes += data.length - (previous == null ? 0 : previous);
+            trim();
+        }
+        return target.toFile();
+    }
+
+    /**
+     * 删除缓存
+     */
+    public synchronized void remove(String key) throws IOException {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        Files.deleteIfExists(directory.resolve(key));
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                // 删除失败时仍从索引中移除，下次启动重建索引时会重新计入
+            }
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void load() {
+        File[] files = directory.toFile().listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().startsWith(".")) {
+                // 上次异常退出留下的临时文件
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trim();
+    }
+}
@@ -0,0 +1,39 @@
+package com.qingdai.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+public class ExecutorUtils {
+
+    // 在指定线程池中逐个执行任务并按输入顺序收集结果，任一任务异常时取消剩余任务
+    public static <T, R> List<R> invokeAll(ExecutorService executor, Collection<T> inputs, Function<T, R> task) {
+        List<Future<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            futures.add(executor.submit(() -> task.apply(input)));
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待任务完成时被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("任务执行失败: " + cause.getMessage(), cause);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,382 @@
+package com.qingdai.utils;
+
+import com.qingdai.storage.PhotoStorage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * 带缓存校验的文件响应
+ * ETag由文件标识（inode或路径）、大小和修改时间生成，只读取文件属性，命中If-None-Match/If-Modified-Since时直接返回304；
+ * Range请求（单段和多段）交给Spring的ResourceRegion处理，If-Range不匹配时返回完整文件；
+ * 超过阈值的完整文件绕过消息转换器直接写响应：连接器支持时交给Tomcat sendfile，否则用FileChannel.transferTo；
+ * 对象存储中的文件默认按单段Range读取对象转发，开启重定向（redirect-downloads）时返回预签名地址
+ */
+public class FileResponseUtils {
+
+    // 供FileServeMetricsFilter按档位统计的请求属性
+    public static final String TIER_ATTRIBUTE = FileResponseUtils.class.getName() + ".tier";
+    public static final String MODE_ATTRIBUTE = FileResponseUtils.class.getName() + ".mode";
+    public static final String BYTES_ATTRIBUTE = FileResponseUtils.class.getName() + ".bytes";
+
+    public static final String MODE_NOT_MODIFIED = "not-modified";
+    public static final String MODE_RESOURCE = "resource";
+    public static final String MODE_SENDFILE = "sendfile";
+    public static final String MODE_TRANSFER = "transfer";
+    public static final String MODE_MEMORY = "memory";
+    public static final String MODE_REDIRECT = "redirect";
+    public static final String MODE_PROXY = "proxy";
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * 返回文件响应，文件不存在时返回404，不支持的图片格式返回415
+     *
+     * @param file         文件
+     * @param tier         档位名，用于统计
+     * @param request      当前请求，用于读取条件请求头
+     * @param cacheControl 缓存策略
+     */
+    public static ResponseEntity<Resource> serve(File file, String tier, HttpServletRequest request,
+            CacheControl cacheControl) throws IOException {
+        return serve(file, tier, request, null, cacheControl, Long.MAX_VALUE);
+    }
+
+    /**
+     * 返回文件响应，完整文件不小于directThreshold字节时直接写入response并返回null，
+     * 控制器返回null的ResponseEntity时Spring视为请求已处理
+     *
+     * @param response        当前响应，为null时不使用直接写出
+     * @param directThreshold 直接写出的最小文件大小（字节）
+     */
+    public static ResponseEntity<Resource> serve(File file, String tier, HttpServletRequest request,
+            HttpServletResponse response, CacheControl cacheControl, long directThreshold) throws IOException {
+        request.setAttribute(TIER_ATTRIBUTE, tier);
+        MediaType mediaType = FileUtils.getImageMediaType(file.getName());
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+        Path path = file.toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (!attributes.isRegularFile()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        String etag = etag(path, attributes);
+        long lastModified = lastModified(attributes);
+        HttpHeaders headers = validatorHeaders(etag, lastModified, cacheControl);
+        if (isNotModified(request, etag, lastModified)) {
+            return notModified(request, headers);
+        }
+
+        long size = attributes.size();
+        headers.setContentType(mediaType);
+        String range = request.getHeader(HttpHeaders.RANGE);
+        boolean rangeApplies = range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified);
+        if (!rangeApplies) {
+            // 有Range时长度由Spring按区间设置，多段响应（multipart/byteranges）不能带完整文件的长度
+            headers.setContentLength(size);
+        }
+        if (!rangeApplies && response != null && size >= directThreshold) {
+            writeDirect(path, size, headers, request, response);
+            return null;
+        }
+
+        request.setAttribute(MODE_ATTRIBUTE, MODE_RESOURCE);
+        request.setAttribute(BYTES_ATTRIBUTE, size);
+        if (range != null && !rangeApplies) {
+            // 文件已变化，忽略Range返回完整文件；InputStreamResource不会触发Spring的分段处理
+            return ResponseEntity.ok().headers(headers)
+                    .body(new InputStreamResource(() -> Files.newInputStream(path)));
+        }
+        return ResponseEntity.ok().headers(headers).body(new FileSystemResource(path));
+    }
+
+    /**
+     * 返回存储中的文件：开启重定向、能生成预签名地址时返回302；本地文件同serve；否则读取对象转发，只支持单段Range
+     *
+     * @param storage 存储
+     * @param name    名称
+     * @return 内容已写入response时返回null
+     */
+    public static ResponseEntity<Resource> serveStored(PhotoStorage storage, String name, String tier,
+            HttpServletRequest request, HttpServletResponse response, CacheControl cacheControl, long directThreshold)
+            throws IOException {
+        request.setAttribute(TIER_ATTRIBUTE, tier);
+        MediaType mediaType = FileUtils.getImageMediaType(name);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+        URI location = storage.presign(name);
+        if (location != null) {
+            request.setAttribute(MODE_ATTRIBUTE, MODE_REDIRECT);
+            request.setAttribute(BYTES_ATTRIBUTE, 0L);
+            // 不先查询对象，省去一次往返，对象不存在时由对象存储返回404；预签名地址会过期，重定向本身不缓存
+            return ResponseEntity.status(HttpStatus.FOUND).location(location).cacheControl(CacheControl.noStore())
+                    .build();
+        }
+
+        PhotoStorage.StoredPhoto stored = storage.stat(name);
+        if (stored == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (stored.getFile() != null) {
+            return serve(stored.getFile(), tier, request, response, cacheControl, directThreshold);
+        }
+
+        String etag = stored.getEtag();
+        long lastModified = stored.getLastModified();
+        HttpHeaders headers = validatorHeaders(etag, lastModified, cacheControl);
+        if (isNotModified(request, etag, lastModified)) {
+            return notModified(request, headers);
+        }
+        long size = stored.getSize();
+        long start = 0;
+        long length = size;
+        HttpStatus status = HttpStatus.OK;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            long[] bounds = parseSingleRange(range, size);
+            if (bounds != null && bounds.length == 0) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                status = HttpStatus.PARTIAL_CONTENT;
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            }
+        }
+        headers.setContentType(mediaType);
+        headers.setContentLength(length);
+        response.setStatus(status.value());
+        headers.forEach((headerName, values) -> values.forEach(value -> response.addHeader(headerName, value)));
+        request.setAttribute(MODE_ATTRIBUTE, MODE_PROXY);
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            request.setAttribute(BYTES_ATTRIBUTE, 0L);
+            return null;
+        }
+        request.setAttribute(BYTES_ATTRIBUTE, length);
+        try (InputStream in = storage.open(name, start, length)) {
+            in.transferTo(response.getOutputStream());
+        }
+        response.flushBuffer();
+        return null;
+    }
+
+    /**
+     * 从内存缓冲区返回完整内容，校验逻辑与读文件时相同；不处理Range，带Range的请求由调用方改为读文件
+     *
+     * @return 304响应；内容已写入response时返回null
+     */
+    public static ResponseEntity<Resource> serveBuffer(ByteBuffer data, MediaType mediaType, String etag,
+            long lastModified, String tier, HttpServletRequest request, HttpServletResponse response,
+            CacheControl cacheControl) throws IOException {
+        request.setAttribute(TIER_ATTRIBUTE, tier);
+        HttpHeaders headers = validatorHeaders(etag, lastModified, cacheControl);
+        if (isNotModified(request, etag, lastModified)) {
+            return notModified(request, headers);
+        }
+        ByteBuffer body = data.duplicate();
+        headers.setContentType(mediaType);
+        headers.setContentLength(body.remaining());
+        response.setStatus(HttpStatus.OK.value());
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        request.setAttribute(MODE_ATTRIBUTE, MODE_MEMORY);
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            request.setAttribute(BYTES_ATTRIBUTE, 0L);
+            return null;
+        }
+        request.setAttribute(BYTES_ATTRIBUTE, (long) body.remaining());
+        WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+        while (body.hasRemaining()) {
+            target.write(body);
+        }
+        response.flushBuffer();
+        return null;
+    }
+
+    private static HttpHeaders validatorHeaders(String etag, long lastModified, CacheControl cacheControl) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setLastModified(lastModified);
+        headers.setCacheControl(cacheControl);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        return headers;
+    }
+
+    private static ResponseEntity<Resource> notModified(HttpServletRequest request, HttpHeaders headers) {
+        request.setAttribute(MODE_ATTRIBUTE, MODE_NOT_MODIFIED);
+        request.setAttribute(BYTES_ATTRIBUTE, 0L);
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+    }
+
+    // 不经过堆内缓冲写出完整文件
+    private static void writeDirect(Path path, long size, HttpHeaders headers, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            request.setAttribute(MODE_ATTRIBUTE, MODE_TRANSFER);
+            request.setAttribute(BYTES_ATTRIBUTE, 0L);
+            return;
+        }
+        request.setAttribute(BYTES_ATTRIBUTE, size);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // 响应体由Tomcat在请求处理结束后用sendfile发送，这里不写任何内容
+            request.setAttribute(MODE_ATTRIBUTE, MODE_SENDFILE);
+            request.setAttribute(SENDFILE_FILENAME, path.toRealPath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, size);
+            return;
+        }
+
+        request.setAttribute(MODE_ATTRIBUTE, MODE_TRANSFER);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            // 只发送打开时的长度，期间文件被替换也不会和Content-Length不一致
+            while (position < size) {
+                long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("文件在发送过程中被截断: " + path);
+                }
+                position += transferred;
+            }
+        }
+        response.flushBuffer();
+    }
+
+    // 强校验值：同一inode（硬链接共享）、大小和修改时间都相同时内容相同
+    public static String etag(Path path, BasicFileAttributes attributes) {
+        Object identity = attributes.fileKey() != null ? attributes.fileKey() : path.toAbsolutePath().normalize();
+        return String.format("\"%x-%x-%x\"", Integer.toUnsignedLong(Objects.hashCode(identity)), attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+    }
+
+    // HTTP日期精确到秒
+    public static long lastModified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method)) {
+            return false;
+        }
+        // 有If-None-Match时忽略If-Modified-Since
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            for (String value : Collections.list(request.getHeaders(HttpHeaders.IF_NONE_MATCH))) {
+                for (String candidate : value.split(",")) {
+                    String tag = candidate.trim();
+                    if ("*".equals(tag) || stripWeak(tag).equals(etag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = parseDate(request.getHeader(HttpHeaders.IF_MODIFIED_SINCE));
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    // If-Range只接受强校验值或完全相等的日期
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        return parseDate(value) == lastModified;
+    }
+
+    /**
+     * 解析单段Range，返回[起始, 结束]；多段或无法解析时返回null（按完整文件返回），无法满足时返回空数组
+     */
+    private static long[] parseSingleRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // 后缀形式：最后N个字节
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start >= size || start > end) {
+                return new long[0];
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.qingdai.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * 流式写文件
+ * 数据只经过一次：写入磁盘的同时计算SHA-256并保留文件头部字节，供后续读取元数据，
+ * 先写到目标目录下的临时文件，完成后原子重命名为目标文件
+ */
+public class FileStreamUtils {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 默认保留的头部字节数，足以覆盖绝大多数JPEG的EXIF段和SOF
+    public static final int DEFAULT_HEADER_BYTES = 128 * 1024;
+
+    /**
+     * 写入结果
+     */
+    public static class WriteResult {
+        private final Path path;
+        private final long size;
+        private final String sha256;
+        private final byte[] header;
+
+        public WriteResult(Path path, long size, String sha256, byte[] header) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+            this.header = header;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        // 文件开头的字节，文件小于保留长度时即为完整文件
+        public byte[] getHeader() {
+            return header;
+        }
+    }
+
+    /**
+     * 把输入流写入目标文件，目标已存在时覆盖
+     *
+     * @param in          输入流，由调用方关闭
+     * @param target      目标文件
+     * @param headerBytes 保留的头部字节数
+     */
+    public static WriteResult write(InputStream in, Path target, int headerBytes) throws IOException {
+        Files.createDirectories(target.getParent());
+        MessageDigest digest = newSha256();
+        byte[] header = new byte[headerBytes];
+        int headerLength = 0;
+        long size = 0;
+
+        Path tempFile = target.resolveSibling("." + target.getFileName() + ".uploading");
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                // 同一份缓冲区先计算摘要、截取头部，再写入磁盘
+                ByteBuffer view = buffer.duplicate();
+                if (headerLength < headerBytes) {
+                    int length = Math.min(view.remaining(), headerBytes - headerLength);
+                    view.get(header, headerLength, length);
+                    headerLength += length;
+                }
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new WriteResult(target, size, HexFormat.of().formatHex(digest.digest()),
+                Arrays.copyOf(header, headerLength));
+    }
+
+    /**
+     * 流式计算文件的SHA-256
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+    }
+}
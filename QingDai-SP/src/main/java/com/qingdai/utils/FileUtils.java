@@ -1,65 +1,117 @@
 package com.qingdai.utils;
 
+import com.qingdai.storage.ThumbnailStore;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public class FileUtils {
-    private static final int ZIP_BUFFER_SIZE = 4096;
-
-    // 获取文件列表的资源响应
-    public static ResponseEntity<Resource> getFilesResource(List<File> files) throws IOException {
-        if (files == null || files.isEmpty()) {
-            throw new IllegalArgumentException("文件列表不能为空");
-        }
-
-        File tempDir = createTempDir(new File(System.getProperty("java.io.tmpdir")));
-        File zipFile = new File(tempDir, "package_" + System.currentTimeMillis() + ".zip");
-
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile))) {
-            for (File file : files) {
-                if (!file.exists() || !file.canRead())
-                    continue;
-
-                ZipEntry entry = new ZipEntry(file.getName());
-                zos.putNextEntry(entry);
-
-                try (FileInputStream fis = new FileInputStream(file)) {
-                    byte[] buffer = new byte[ZIP_BUFFER_SIZE];
-                    int length;
-                    while ((length = fis.read(buffer)) > 0) {
-                        zos.write(buffer, 0, length);
+    // 把缩略图以STORED方式（不压缩）逐个写入ZIP输出流：JPEG再用DEFLATE压缩没有收益，
+    // 文件先读一遍算CRC，再从同一个通道直接传输到输出流，内存占用固定，也不落临时文件；分段存储的图片直接从映射内存写出
+    public static int writeStoredZip(List<ThumbnailStore.StoredThumbnail> thumbnails, OutputStream out)
+            throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(out);
+        zos.setMethod(ZipOutputStream.STORED);
+        WritableByteChannel target = Channels.newChannel(zos);
+        Set<String> entryNames = new HashSet<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        int count = 0;
+        for (ThumbnailStore.StoredThumbnail thumbnail : thumbnails) {
+            if (!entryNames.add(thumbnail.getName())) {
+                continue;
+            }
+            ByteBuffer data = thumbnail.getData();
+            if (data != null) {
+                CRC32 crc = new CRC32();
+                crc.update(data.duplicate());
+                zos.putNextEntry(storedEntry(thumbnail.getName(), data.remaining(), crc));
+                while (data.hasRemaining()) {
+                    target.write(data);
+                }
+                zos.closeEntry();
+                count++;
+                continue;
+            }
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(thumbnail.getFile().toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // 打包过程中文件被删除，跳过
+                continue;
+            }
+            try (channel) {
+                long size = channel.size();
+                // CRC和传输都只覆盖打开时的长度，期间文件被重新生成时不会和条目头不一致
+                CRC32 crc = new CRC32();
+                long read = 0;
+                while (read < size) {
+                    buffer.limit((int) Math.min(buffer.capacity(), size - read));
+                    int length = channel.read(buffer, read);
+                    if (length <= 0) {
+                        throw new IOException("文件在打包过程中被截断: " + thumbnail.getName());
+                    }
+                    read += length;
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+                zos.putNextEntry(storedEntry(thumbnail.getName(), size, crc));
+                long position = 0;
+                while (position < size) {
+                    long transferred = channel.transferTo(position, size - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("文件在打包过程中被截断: " + thumbnail.getName());
                     }
+                    position += transferred;
                 }
                 zos.closeEntry();
+                count++;
             }
-        } catch (IOException e) {
-            deleteFolder(tempDir);
-            throw new IOException("压缩文件创建失败: " + e.getMessage());
         }
+        zos.finish();
+        zos.flush();
+        return count;
+    }
 
-        Resource resource = new FileSystemResource(zipFile);
-        return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=\"" + zipFile.getName() + "\"")
-                .contentType(MediaType.parseMediaType("application/zip"))
-                .contentLength(zipFile.length())
-                .body(resource);
+    private static ZipEntry storedEntry(String name, long size, CRC32 crc) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+        return entry;
     }
 
     // 判断目录是否存在，不存在直接异常
@@ -81,6 +133,13 @@ public class FileUtils {
         return (lastDotIndex == -1) ? fileName : fileName.substring(0, lastDotIndex);
     }
 
+    // 仅支持jpg、jpeg、png、gif格式
+    public static boolean isSupportedPhotoName(String name) {
+        String fileName = name.toLowerCase();
+        return fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") ||
+               fileName.endsWith(".png") || fileName.endsWith(".gif");
+    }
+
     private static final String[] IMAGE_EXTENSIONS = { "jpg", "jpeg", "png" };
     private static final String EXTENSION_PATTERN = ".*\\.(%s)$";
 
@@ -98,59 +157,125 @@ public class FileUtils {
         return folder.listFiles((dir, name) -> name.toLowerCase().matches(pattern));
     }
 
-    // 获取封装好文件的响应体
-    public static ResponseEntity<Resource> getFileResource(String filePath, String fileName) {
-        File file = Paths.get(filePath).resolve(fileName).toFile();
-        if (!file.exists() || !file.canRead()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    // 只读取图片头部获取尺寸，不解码像素，无法识别时返回null
+    public static Dimension getImageDimension(File file) {
+        return readImageDimension(file);
+    }
+
+    // 内存中的图片（如分段存储的缩略图）获取尺寸
+    public static Dimension getImageDimension(byte[] data) {
+        return readImageDimension(new ByteArrayInputStream(data));
+    }
+
+    private static Dimension readImageDimension(Object input) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
         }
+    }
 
-        long contentLength = file.length();
-        Resource resource = new FileSystemResource(file);
+    // 获取图片像素数，无法识别时返回0
+    public static long getImagePixelCount(File file) {
+        Dimension dimension = getImageDimension(file);
+        return dimension == null ? 0 : (long) dimension.width * dimension.height;
+    }
 
-        String fileExtension = getFileExtension(fileName).toLowerCase();
-        MediaType mediaType;
-        if (fileExtension.equals("jpg") || fileExtension.equals("jpeg")) {
-            mediaType = MediaType.IMAGE_JPEG;
-        } else if (fileExtension.equals("png")) {
-            mediaType = MediaType.IMAGE_PNG;
-        } else {
-            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+    // WebP副本的文件名后缀，与原文件放在同一目录
+    public static final String WEBP_SUFFIX = ".webp";
+    public static final MediaType IMAGE_WEBP = MediaType.parseMediaType("image/webp");
+
+    // 获取文件对应的WebP副本
+    public static File getWebpFile(File file) {
+        return new File(file.getParentFile(), getWebpName(file.getName()));
+    }
+
+    // 获取文件名对应的WebP副本名
+    public static String getWebpName(String fileName) {
+        return fileName + WEBP_SUFFIX;
+    }
+
+    // 请求的Accept头是否明确接受WebP
+    public static boolean acceptsWebp(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream()
+                    .anyMatch(type -> IMAGE_WEBP.equalsTypeAndSubtype(type) && type.getQualityValue() > 0);
+        } catch (InvalidMediaTypeException e) {
+            return false;
         }
+    }
 
-        return ResponseEntity.ok()
-                .contentType(mediaType)
-                .contentLength(contentLength)
-                .body(resource);
+    // 根据Accept头选择WebP副本或原文件，调用方需要给响应加上Vary: Accept以免缓存混用
+    public static File negotiateWebp(File file, String accept) {
+        File webpFile = getWebpFile(file);
+        return acceptsWebp(accept) && webpFile.isFile() ? webpFile : file;
+    }
+
+    // 给按Accept协商的响应加上Vary: Accept
+    public static ResponseEntity<Resource> varyOnAccept(ResponseEntity<Resource> response) {
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(response.getBody());
+    }
+
+    // 获取封装好文件的响应体
+    public static ResponseEntity<Resource> getFileResource(String filePath, String fileName) {
+        return getFileResource(Paths.get(filePath).resolve(fileName).toFile());
     }
 
-    // 获取单个文件的资源响应
     public static ResponseEntity<Resource> getFileResource(File file) {
         if (!file.exists() || !file.canRead()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
 
-        long contentLength = file.length();
-        Resource resource = new FileSystemResource(file);
-
-        String fileExtension = getFileExtension(file.getName()).toLowerCase();
-        MediaType mediaType;
-        if (fileExtension.equals("jpg") || fileExtension.equals("jpeg")) {
-            mediaType = MediaType.IMAGE_JPEG;
-        } else if (fileExtension.equals("png")) {
-            mediaType = MediaType.IMAGE_PNG;
-        } else {
+        MediaType mediaType = getImageMediaType(file.getName());
+        if (mediaType == null) {
             return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
         }
 
         return ResponseEntity.ok()
                 .contentType(mediaType)
-                .contentLength(contentLength)
-                .body(resource);
+                .contentLength(file.length())
+                .body(new FileSystemResource(file));
     }
 
-    // 保存MultipartFile到指定目录
-    public static void saveFile(MultipartFile file, File destDir) throws IOException {
+    // 按扩展名获取图片的媒体类型，不支持的格式返回null
+    public static MediaType getImageMediaType(String fileName) {
+        String fileExtension = getFileExtension(fileName).toLowerCase();
+        switch (fileExtension) {
+            case "jpg":
+            case "jpeg":
+                return MediaType.IMAGE_JPEG;
+            case "png":
+                return MediaType.IMAGE_PNG;
+            case "gif":
+                return MediaType.IMAGE_GIF;
+            case "webp":
+                return IMAGE_WEBP;
+            default:
+                return null;
+        }
+    }
+
+    // 保存MultipartFile到指定目录，写入的同时计算内容哈希
+    public static FileStreamUtils.WriteResult saveFile(MultipartFile file, File destDir) throws IOException {
         if (!destDir.exists() && !destDir.mkdirs()) {
             throw new IOException("无法创建目标目录: " + destDir.getAbsolutePath());
         }
@@ -161,21 +286,11 @@ public class FileUtils {
         }
 
         File destFile = new File(destDir, fileName);
-        try {
-            if (file.isEmpty()) {
-                throw new IOException("上传的文件内容为空");
-            }
-
-            // 创建父目录（如果不存在）
-            Files.createDirectories(destFile.getParentFile().toPath());
-
-            // 执行文件复制操作
-            try {
-                Files.copy(file.getInputStream(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } catch (Exception e) {
-                System.out.println("Files.copy:" + e);
-            }
-
+        if (file.isEmpty()) {
+            throw new IOException("上传的文件内容为空");
+        }
+        try (InputStream in = file.getInputStream()) {
+            return FileStreamUtils.write(in, destFile.toPath(), 0);
         } catch (IOException e) {
             throw new IOException("文件保存失败: " + destFile.getName() + ", 错误原因: " + e.getMessage(), e);
         }
@@ -222,6 +337,27 @@ public class FileUtils {
         Files.copy(sourceFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
+    // 优先建立硬链接，不在同一文件系统或不支持时复制；目标已存在时按overwrite决定是否替换
+    public static void linkOrCopyFile(File sourceFile, File destFile, boolean overwrite) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IOException("源文件不存在或不是文件: " + sourceFile.getAbsolutePath());
+        }
+        if (destFile.exists() && !overwrite) {
+            return;
+        }
+        Files.createDirectories(destFile.getParentFile().toPath());
+        // 先链接到临时名称再原子替换，读取方不会看到缺失的文件
+        Path tempLink = destFile.toPath().resolveSibling("." + destFile.getName() + ".linking");
+        try {
+            Files.deleteIfExists(tempLink);
+            Files.createLink(tempLink, sourceFile.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.deleteIfExists(tempLink);
+            Files.copy(sourceFile.toPath(), tempLink, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tempLink, destFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     // 删除文件夹中的所有文件
     public static void deleteFile(File file) throws IOException {
         if (!file.exists())
@@ -0,0 +1,210 @@
+package com.qingdai.utils;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 按目标大小压缩图片
+ * 所有尝试都在内存中编码并只统计字节数，由调用方把最终结果写入磁盘；
+ * 先二分查找质量，质量降到下限仍超出大小时再二分查找缩放比例
+ */
+public class ImageCompressUtils {
+
+    private static final double MAX_QUALITY = 0.9;
+    private static final double MIN_QUALITY = 0.1;
+    private static final double MIN_SCALE = 0.05;
+    // 缩放阶段使用的固定质量
+    private static final double SCALE_QUALITY = 0.8;
+    // 每个阶段最多的二分次数
+    private static final int MAX_SEARCH_STEPS = 5;
+
+    /**
+     * 压缩结果
+     */
+    public static class CompressResult {
+        private final byte[] bytes;
+        private final double quality;
+        private final double scale;
+        private final boolean sizeMet;
+        private final int encodeCount;
+
+        public CompressResult(byte[] bytes, double quality, double scale, boolean sizeMet, int encodeCount) {
+            this.bytes = bytes;
+            this.quality = quality;
+            this.scale = scale;
+            this.sizeMet = sizeMet;
+            this.encodeCount = encodeCount;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public double getQuality() {
+            return quality;
+        }
+
+        public double getScale() {
+            return scale;
+        }
+
+        public boolean isSizeMet() {
+            return sizeMet;
+        }
+
+        public int getEncodeCount() {
+            return encodeCount;
+        }
+    }
+
+    /**
+     * 把图片压缩到不超过maxSizeBytes，落在[maxSizeBytes * (1 - tolerance), maxSizeBytes]区间即视为命中
+     *
+     * @param image        已解码的图片
+     * @param formatName   输出格式
+     * @param maxSizeBytes 最大字节数
+     * @param tolerance    允许低于目标大小的比例
+     * @return 压缩结果，无法达到目标大小时返回能得到的最小结果
+     */
+    public static CompressResult compressToSize(BufferedImage image, String formatName, long maxSizeBytes,
+            double tolerance) throws IOException {
+        if (isJpeg(formatName)) {
+            image = toRgb(image);
+        }
+        long minAcceptBytes = (long) (maxSizeBytes * (1 - tolerance));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int encodeCount = 0;
+
+        // 最高质量就满足大小时直接返回
+        int size = encode(image, formatName, MAX_QUALITY, buffer);
+        encodeCount++;
+        if (size <= maxSizeBytes) {
+            return new CompressResult(buffer.toByteArray(), MAX_QUALITY, 1.0, true, encodeCount);
+        }
+        long fullScaleSize = size;
+
+        // 二分查找满足大小的最高质量
+        byte[] best = null;
+        double bestQuality = 0;
+        double low = MIN_QUALITY;
+        double high = MAX_QUALITY;
+        for (int i = 0; i < MAX_SEARCH_STEPS; i++) {
+            double quality = (low + high) / 2;
+            size = encode(image, formatName, quality, buffer);
+            encodeCount++;
+            if (size <= maxSizeBytes) {
+                best = buffer.toByteArray();
+                bestQuality = quality;
+                if (size >= minAcceptBytes) {
+                    break;
+                }
+                low = quality;
+            } else {
+                high = quality;
+            }
+        }
+        if (best != null) {
+            return new CompressResult(best, bestQuality, 1.0, true, encodeCount);
+        }
+
+        // 质量下限仍然超出时按缩放比例二分，文件大小大致与像素数成正比，用平方根估算首个比例
+        double scaleLow = MIN_SCALE;
+        double scaleHigh = 1.0;
+        double scale = Math.sqrt((double) maxSizeBytes / fullScaleSize * (MAX_QUALITY / SCALE_QUALITY));
+        scale = Math.max(MIN_SCALE, Math.min(scale, 1.0));
+        double bestScale = 0;
+        byte[] smallest = null;
+        double smallestScale = MIN_SCALE;
+        for (int i = 0; i < MAX_SEARCH_STEPS; i++) {
+            BufferedImage scaled = Thumbnails.of(image).scale(scale).asBufferedImage();
+            size = encode(scaled, formatName, SCALE_QUALITY, buffer);
+            encodeCount++;
+            if (size <= maxSizeBytes) {
+                best = buffer.toByteArray();
+                bestScale = scale;
+                if (size >= minAcceptBytes) {
+                    break;
+                }
+                scaleLow = scale;
+            } else {
+                if (smallest == null || size < smallest.length) {
+                    smallest = buffer.toByteArray();
+                    smallestScale = scale;
+                }
+                scaleHigh = scale;
+            }
+            scale = (scaleLow + scaleHigh) / 2;
+        }
+        if (best != null) {
+            return new CompressResult(best, SCALE_QUALITY, bestScale, true, encodeCount);
+        }
+        return new CompressResult(smallest, SCALE_QUALITY, smallestScale, false, encodeCount);
+    }
+
+    /**
+     * 在内存中按指定质量编码图片
+     *
+     * @return 编码后的字节数
+     */
+    public static int encode(BufferedImage image, String formatName, double quality, ByteArrayOutputStream out)
+            throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("不支持的图片格式: " + formatName);
+        }
+        ImageWriter writer = writers.next();
+        out.reset();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                String[] types = param.getCompressionTypes();
+                if (param.getCompressionType() == null && types != null && types.length > 0) {
+                    param.setCompressionType(types[0]);
+                }
+                param.setCompressionQuality((float) quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.size();
+    }
+
+    // 当前环境是否有该格式的编码器
+    public static boolean canEncode(String formatName) {
+        return ImageIO.getImageWritersByFormatName(formatName).hasNext();
+    }
+
+    public static boolean isJpeg(String formatName) {
+        return "jpeg".equalsIgnoreCase(formatName) || "jpg".equalsIgnoreCase(formatName);
+    }
+
+    // JPEG不支持透明通道，带透明通道的图片先转为RGB
+    public static BufferedImage toRgb(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+}
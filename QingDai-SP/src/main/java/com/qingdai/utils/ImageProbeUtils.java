@@ -0,0 +1,111 @@
+package com.qingdai.utils;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.gif.GifHeaderDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.png.PngDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * 图片头部探测
+ * 一次顺序读取同时拿到尺寸（JPEG SOF / PNG IHDR / GIF头）和EXIF，不解码像素；
+ * JPEG读到SOS即停止，通常只需读取几十KB
+ */
+public class ImageProbeUtils {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 探测结果
+     */
+    public static class ProbeResult {
+        private final int width;
+        private final int height;
+        private final Metadata metadata;
+
+        public ProbeResult(int width, int height, Metadata metadata) {
+            this.width = width;
+            this.height = height;
+            this.metadata = metadata;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+    }
+
+    /**
+     * 探测图片尺寸和元数据
+     *
+     * @return 探测结果，无法从头部获取尺寸时返回null
+     */
+    public static ProbeResult probe(File file) throws IOException, ImageProcessingException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+            return probe(in);
+        }
+    }
+
+    /**
+     * 先从写入时保留的头部字节探测，头部不完整导致失败时再读取文件
+     */
+    public static ProbeResult probe(byte[] header, File file) throws IOException, ImageProcessingException {
+        try {
+            ProbeResult result = probe(new ByteArrayInputStream(header));
+            if (result != null) {
+                return result;
+            }
+        } catch (IOException | ImageProcessingException | RuntimeException e) {
+            // 头部截断时元数据可能解析失败，回退到完整文件
+        }
+        return probe(file);
+    }
+
+    /**
+     * 从输入流探测图片尺寸和元数据，流需支持mark/reset或由本方法包装
+     */
+    public static ProbeResult probe(InputStream in) throws IOException, ImageProcessingException {
+        InputStream stream = in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        Metadata metadata = ImageMetadataReader.readMetadata(stream);
+
+        ProbeResult result = fromDirectory(metadata.getFirstDirectoryOfType(JpegDirectory.class),
+                JpegDirectory.TAG_IMAGE_WIDTH, JpegDirectory.TAG_IMAGE_HEIGHT, metadata);
+        if (result == null) {
+            result = fromDirectory(metadata.getFirstDirectoryOfType(PngDirectory.class),
+                    PngDirectory.TAG_IMAGE_WIDTH, PngDirectory.TAG_IMAGE_HEIGHT, metadata);
+        }
+        if (result == null) {
+            result = fromDirectory(metadata.getFirstDirectoryOfType(GifHeaderDirectory.class),
+                    GifHeaderDirectory.TAG_IMAGE_WIDTH, GifHeaderDirectory.TAG_IMAGE_HEIGHT, metadata);
+        }
+        return result;
+    }
+
+    private static ProbeResult fromDirectory(Directory directory, int widthTag, int heightTag, Metadata metadata) {
+        if (directory == null) {
+            return null;
+        }
+        Integer width = directory.getInteger(widthTag);
+        Integer height = directory.getInteger(heightTag);
+        if (width == null || height == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        return new ProbeResult(width, height, metadata);
+    }
+}
@@ -0,0 +1,51 @@
+package com.qingdai.utils;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * 图片解码的内存准入控制
+ * 以百万像素为单位限制同时处于解码状态的像素总数，超出预算的任务阻塞等待；
+ * 单张超过总预算的图片按总预算计算，保证它仍能独占运行
+ */
+public class PixelBudgetGate {
+
+    private static final long PIXELS_PER_PERMIT = 1_000_000L;
+
+    private final int maxPermits;
+    private final Semaphore permits;
+
+    public PixelBudgetGate(long maxMegapixels) {
+        this.maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMegapixels));
+        this.permits = new Semaphore(maxPermits, true);
+    }
+
+    /**
+     * 申请解码指定像素数所需的预算
+     *
+     * @param pixels 像素数，未知时传0按最小单位计算
+     * @return 实际占用的许可数，释放时原样传回
+     */
+    public int acquire(long pixels) throws InterruptedException {
+        int need = (int) Math.min(maxPermits, Math.max(1, (pixels + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT));
+        permits.acquire(need);
+        return need;
+    }
+
+    public void release(int acquired) {
+        permits.release(acquired);
+    }
+
+    // 当前处于解码状态的百万像素数
+    public int getInFlightMegapixels() {
+        return maxPermits - permits.availablePermits();
+    }
+
+    public int getMaxMegapixels() {
+        return maxPermits;
+    }
+
+    // 等待预算的线程数
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+}
@@ -0,0 +1,153 @@
+package com.qingdai.cache;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.qingdai.config.RedisConfig;
+import com.qingdai.entity.Photo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis值序列化器的基准测试，比较原来的带类型JSON与Smile（压缩/不压缩）的编解码耗时和编码后大小
+ * 不是单元测试，不会在mvn test中运行，用 main 方法或 JMH 命令行执行：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingdai.cache.RedisSerializerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisSerializerBenchmark {
+
+    @Param({"json", "smile", "smile-lz4"})
+    private String codec;
+
+    // photoList：照片列表；photoPage：分页结果；stats：统计Map
+    @Param({"photoList", "photoPage", "stats"})
+    private String payload;
+
+    private RedisSerializer<Object> serializer;
+    private Object value;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        serializer = createSerializer(codec);
+        value = createPayload(payload);
+        bytes = serializer.serialize(value);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(bytes);
+    }
+
+    static RedisSerializer<Object> createSerializer(String codec) {
+        ObjectMapper jsonMapper = RedisConfig.configureRedisMapper(new ObjectMapper());
+        Jackson2JsonRedisSerializer<Object> json = new Jackson2JsonRedisSerializer<>(jsonMapper, Object.class);
+        if ("json".equals(codec)) {
+            return json;
+        }
+        SmileFactory smileFactory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        ObjectMapper smileMapper = RedisConfig.configureRedisMapper(new ObjectMapper(smileFactory));
+        // 与application.yaml中的默认阈值一致
+        int threshold = "smile-lz4".equals(codec) ? 2048 : 0;
+        return new VersionedRedisSerializer(smileMapper, json, 1, threshold);
+    }
+
+    static Object createPayload(String payload) {
+        switch (payload) {
+            case "photoList":
+                return createPhotos(200);
+            case "photoPage":
+                Page<Photo> page = new Page<>(1, 30, 5000);
+                page.setRecords(createPhotos(30));
+                return page;
+            case "stats":
+                Map<String, Object> stats = new HashMap<>();
+                Map<String, Long> cameras = new HashMap<>();
+                for (int i = 0; i < 40; i++) {
+                    cameras.put("Camera Model " + i, (long) (i * 17));
+                }
+                stats.put("cameraStats", cameras);
+                stats.put("photoCount", 5000L);
+                stats.put("updatedTime", LocalDateTime.now());
+                return stats;
+            default:
+                throw new IllegalArgumentException("未知的数据类型: " + payload);
+        }
+    }
+
+    private static List<Photo> createPhotos(int count) {
+        List<Photo> photos = new ArrayList<>(count);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < count; i++) {
+            Photo photo = new Photo();
+            photo.setId(String.valueOf(1890000000000000000L + i));
+            photo.setTitle("照片标题 " + i);
+            photo.setFileName("IMG_" + (10000 + i) + ".jpg");
+            photo.setAuthor("QingDai");
+            photo.setWidth(6000);
+            photo.setHeight(4000);
+            photo.setShootTime("2024:05:" + (10 + i % 20) + " 18:30:00");
+            photo.setAperture("f/2.8");
+            photo.setShutter("1/250");
+            photo.setIso("200");
+            photo.setCamera("Camera Model " + (i % 5));
+            photo.setLens("Lens " + (i % 3));
+            photo.setFocalLength("35mm");
+            photo.setIntroduce("拍摄于城市街头的一张照片，编号 " + i);
+            photo.setContentHash(Long.toHexString(0x9e3779b97f4a7c15L * (i + 1)) + "0123456789abcdef");
+            photo.setBlurHash("LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+            photo.setStartRating(i % 2);
+            photo.setCreatedTime(now.minusDays(i));
+            photo.setUpdatedTime(now);
+            photos.add(photo);
+        }
+        return photos;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // 先输出编码后的大小，JMH只统计耗时
+        for (String p : new String[]{"photoList", "photoPage", "stats"}) {
+            Object value = createPayload(p);
+            for (String c : new String[]{"json", "smile", "smile-lz4"}) {
+                System.out.printf("%-10s %-10s %8d bytes%n", p, c, createSerializer(c).serialize(value).length);
+            }
+        }
+        new Runner(new OptionsBuilder()
+                .include(RedisSerializerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
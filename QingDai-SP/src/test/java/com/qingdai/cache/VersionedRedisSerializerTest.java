@@ -0,0 +1,155 @@
+package com.qingdai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.qingdai.config.RedisConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 带版本头的Redis值编码：头部、结构版本、LZ4压缩、标量兼容以及回退到JSON
+ */
+class VersionedRedisSerializerTest {
+
+    private final Jackson2JsonRedisSerializer<Object> json = new Jackson2JsonRedisSerializer<>(
+            RedisConfig.configureRedisMapper(new ObjectMapper()), Object.class);
+
+    @Test
+    void structuredValuesCarryHeader() {
+        VersionedRedisSerializer serializer = serializer(3, 0);
+        Map<String, String> value = smallMap();
+        byte[] bytes = serializer.serialize(value);
+
+        assertEquals(VersionedRedisSerializer.MAGIC, bytes[0]);
+        assertEquals(3, bytes[1]);
+        assertEquals(0, bytes[2]);
+        assertEquals(value, serializer.deserialize(bytes));
+    }
+
+    @Test
+    void otherSchemaVersionIsAMiss() {
+        byte[] bytes = serializer(1, 0).serialize(smallMap());
+        assertNull(serializer(2, 0).deserialize(bytes));
+        assertNull(serializer(1, 0).deserialize(new byte[] { VersionedRedisSerializer.MAGIC, 1 }));
+    }
+
+    @Test
+    void largeValuesAreCompressedWithLz4() {
+        Map<String, String> value = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            value.put("camera-" + i, "Camera Model " + (i % 5) + " with lens " + (i % 3));
+        }
+        byte[] plain = serializer(1, 0).serialize(value);
+        VersionedRedisSerializer serializer = serializer(1, 2048);
+        byte[] compressed = serializer.serialize(value);
+
+        assertEquals(1, compressed[2] & 0x01);
+        assertTrue(compressed.length < plain.length);
+        assertEquals(value, serializer.deserialize(compressed));
+        // 读取方的阈值不影响解码
+        assertEquals(value, serializer(1, 0).deserialize(compressed));
+
+        byte[] small = serializer.serialize(smallMap());
+        assertEquals(0, small[2]);
+    }
+
+    @Test
+    void corruptCompressedValuesAreAMiss() {
+        VersionedRedisSerializer serializer = serializer(1, 16);
+        byte[] compressed = serializer.serialize(largeMap());
+
+        // 伪造的超大长度前缀不分配内存
+        byte[] oversized = compressed.clone();
+        ByteBuffer.wrap(oversized, VersionedRedisSerializer.HEADER_LENGTH, 4).putInt(Integer.MAX_VALUE);
+        assertNull(serializer.deserialize(oversized));
+        byte[] negative = compressed.clone();
+        ByteBuffer.wrap(negative, VersionedRedisSerializer.HEADER_LENGTH, 4).putInt(-1);
+        assertNull(serializer.deserialize(negative));
+
+        // 长度前缀大于实际解压长度
+        byte[] longer = compressed.clone();
+        ByteBuffer.wrap(longer, VersionedRedisSerializer.HEADER_LENGTH, 4).putInt(lengthPrefix(compressed) + 100);
+        assertNull(serializer.deserialize(longer));
+
+        // 截断的压缩数据和缺少长度前缀
+        assertNull(serializer.deserialize(Arrays.copyOf(compressed, compressed.length / 2)));
+        assertNull(serializer.deserialize(Arrays.copyOf(compressed, VersionedRedisSerializer.HEADER_LENGTH + 2)));
+
+        assertEquals(largeMap(), serializer.deserialize(compressed));
+    }
+
+    @Test
+    void decompressedLengthIsBoundedByConfiguredMaximum() {
+        byte[] compressed = serializer(1, 16).serialize(largeMap());
+        int length = lengthPrefix(compressed);
+        ObjectMapper smileMapper = RedisConfig.configureRedisMapper(new ObjectMapper(new SmileFactory()));
+
+        assertNull(new VersionedRedisSerializer(smileMapper, json, 1, 16, length - 1).deserialize(compressed));
+        assertEquals(largeMap(), new VersionedRedisSerializer(smileMapper, json, 1, 16, length).deserialize(compressed));
+    }
+
+    @Test
+    void scalarsStayPlainJson() {
+        VersionedRedisSerializer serializer = serializer(1, 2048);
+        for (Object scalar : new Object[] { "photo:view:1", 42L, true }) {
+            byte[] bytes = serializer.serialize(scalar);
+            assertArrayEquals(json.serialize(scalar), bytes);
+        }
+        assertEquals("photo:view:1", serializer.deserialize(json.serialize("photo:view:1")));
+        assertEquals(42, ((Number) serializer.deserialize(json.serialize(42L))).intValue());
+        assertEquals(0, serializer.serialize(null).length);
+        assertNull(serializer.deserialize(new byte[0]));
+    }
+
+    @Test
+    void legacyJsonStructuresAreAMiss() {
+        assertNull(serializer(1, 0).deserialize(json.serialize(smallMap())));
+    }
+
+    @Test
+    void jsonOnlyTreatsBinaryValuesAsAMiss() {
+        RedisSerializer<Object> jsonOnly = VersionedRedisSerializer.jsonOnly(json);
+        assertNull(jsonOnly.deserialize(serializer(1, 0).serialize(smallMap())));
+        assertNull(jsonOnly.deserialize(serializer(1, 16).serialize(smallMap())));
+
+        byte[] bytes = jsonOnly.serialize(smallMap());
+        assertArrayEquals(json.serialize(smallMap()), bytes);
+        assertEquals(smallMap(), jsonOnly.deserialize(bytes));
+        assertEquals("photo:view:1", jsonOnly.deserialize(jsonOnly.serialize("photo:view:1")));
+    }
+
+    private VersionedRedisSerializer serializer(int schemaVersion, int compressThreshold) {
+        ObjectMapper smileMapper = RedisConfig.configureRedisMapper(new ObjectMapper(new SmileFactory()));
+        return new VersionedRedisSerializer(smileMapper, json, schemaVersion, compressThreshold);
+    }
+
+    private static int lengthPrefix(byte[] compressed) {
+        return ByteBuffer.wrap(compressed, VersionedRedisSerializer.HEADER_LENGTH, 4).getInt();
+    }
+
+    private static Map<String, String> largeMap() {
+        Map<String, String> value = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            value.put("camera-" + i, "Camera Model " + (i % 5));
+        }
+        return value;
+    }
+
+    private static Map<String, String> smallMap() {
+        Map<String, String> value = new HashMap<>();
+        value.put("camera", "Camera Model 1");
+        value.put("lens", "Lens 2");
+        return value;
+    }
+}
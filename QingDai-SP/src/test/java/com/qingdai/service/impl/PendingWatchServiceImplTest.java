@@ -0,0 +1,202 @@
+package com.qingdai.service.impl;
+
+import com.qingdai.service.PhotoIngestService;
+import com.qingdai.service.PhotoService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 待处理目录监听的写入完成判断、批次合并、导入锁超时重试和失败检查点
+ */
+class PendingWatchServiceImplTest {
+
+    private static final long STABLE_MS = 2000;
+    private static final long DEBOUNCE_MS = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private Path pendingDir;
+    private RecordingIngestService ingestService;
+    private long start;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        pendingDir = Files.createDirectories(tempDir.resolve("pending"));
+        ingestService = new RecordingIngestService();
+        // 导入锁超时后按真实时间重新计时，测试时间从当前时间开始
+        start = System.currentTimeMillis();
+    }
+
+    @Test
+    void filesAreIngestedAfterStableAndDebounce() throws IOException {
+        PendingWatchServiceImpl watcher = watcher(50);
+        write("a.jpg", 100);
+        write("notes.txt", 100);
+        write(".hidden.jpg", 100);
+        watcher.rescan(pendingDir, start);
+
+        watcher.step(pendingDir, start);
+        watcher.step(pendingDir, start + STABLE_MS - 1);
+        // 写入完成后还要等debounce-ms没有新文件
+        watcher.step(pendingDir, start + STABLE_MS);
+        watcher.step(pendingDir, start + STABLE_MS + DEBOUNCE_MS - 1);
+        assertTrue(ingestService.batches.isEmpty());
+
+        watcher.step(pendingDir, start + STABLE_MS + DEBOUNCE_MS);
+        assertEquals(List.of(List.of("a.jpg")), ingestService.batches);
+    }
+
+    @Test
+    void growingFileRestartsStabilityTimer() throws IOException {
+        PendingWatchServiceImpl watcher = watcher(50);
+        write("a.jpg", 100);
+        watcher.rescan(pendingDir, start);
+        watcher.step(pendingDir, start);
+
+        Files.write(pendingDir.resolve("a.jpg"), new byte[100], StandardOpenOption.APPEND);
+        watcher.step(pendingDir, start + 1500);
+        watcher.step(pendingDir, start + STABLE_MS + DEBOUNCE_MS);
+        assertTrue(ingestService.batches.isEmpty());
+
+        watcher.step(pendingDir, start + 1500 + STABLE_MS);
+        watcher.step(pendingDir, start + 1500 + STABLE_MS + DEBOUNCE_MS);
+        assertEquals(List.of(List.of("a.jpg")), ingestService.batches);
+    }
+
+    @Test
+    void fullBatchIsIngestedWithoutDebounce() throws IOException {
+        PendingWatchServiceImpl watcher = watcher(2);
+        write("a.jpg", 100);
+        write("b.jpg", 100);
+        write("c.jpg", 100);
+        watcher.rescan(pendingDir, start);
+        watcher.step(pendingDir, start);
+
+        watcher.step(pendingDir, start + STABLE_MS);
+        assertEquals(1, ingestService.batches.size());
+        assertEquals(3, ingestService.batches.get(0).size());
+    }
+
+    @Test
+    void lockTimeoutKeepsBatchAndRetriesAfterDebounce() throws IOException {
+        PendingWatchServiceImpl watcher = watcher(50);
+        write("a.jpg", 100);
+        ingestService.lockTimeouts = 1;
+        watcher.rescan(pendingDir, start);
+        watcher.step(pendingDir, start);
+        watcher.step(pendingDir, start + STABLE_MS);
+
+        long retryFrom = start + STABLE_MS + DEBOUNCE_MS;
+        watcher.step(pendingDir, retryFrom);
+        assertEquals(1, ingestService.batches.size());
+        assertTrue(Files.exists(pendingDir.resolve("a.jpg")));
+        assertTrue(Files.notExists(pendingDir.resolve(".watch-checkpoint")));
+
+        watcher.step(pendingDir, retryFrom + DEBOUNCE_MS - 1);
+        assertEquals(1, ingestService.batches.size());
+        watcher.step(pendingDir, retryFrom + DEBOUNCE_MS);
+        assertEquals(List.of(List.of("a.jpg"), List.of("a.jpg")), ingestService.batches);
+        assertTrue(Files.notExists(pendingDir.resolve("a.jpg")));
+    }
+
+    @Test
+    void failedFilesAreCheckpointedAndSkippedUntilChanged() throws IOException {
+        PendingWatchServiceImpl watcher = watcher(50);
+        write("a.jpg", 100);
+        write("b.jpg", 100);
+        ingestService.failing.add("a.jpg");
+        ingestOnce(watcher, start);
+        assertEquals(1, ingestService.batches.size());
+
+        File failed = pendingDir.resolve("a.jpg").toFile();
+        List<String> lines = Files.readAllLines(pendingDir.resolve(".watch-checkpoint"), StandardCharsets.UTF_8);
+        assertEquals(List.of("a.jpg\t" + failed.length() + ":" + failed.lastModified()), lines);
+
+        // 重启后内容未变化的失败文件不再重试
+        PendingWatchServiceImpl restarted = watcher(50);
+        restarted.loadCheckpoint(pendingDir);
+        ingestOnce(restarted, start);
+        assertEquals(1, ingestService.batches.size());
+
+        // 内容变化后重新导入
+        write("a.jpg", 200);
+        ingestOnce(restarted, start + 10_000);
+        assertEquals(List.of("a.jpg"), ingestService.batches.get(1));
+    }
+
+    private void ingestOnce(PendingWatchServiceImpl watcher, long from) {
+        watcher.rescan(pendingDir, from);
+        watcher.step(pendingDir, from);
+        watcher.step(pendingDir, from + STABLE_MS);
+        watcher.step(pendingDir, from + STABLE_MS + DEBOUNCE_MS);
+    }
+
+    private PendingWatchServiceImpl watcher(int maxBatch) throws IOException {
+        PendingWatchServiceImpl watcher = new PendingWatchServiceImpl();
+        ReflectionTestUtils.setField(watcher, "photoIngestService", ingestService);
+        ReflectionTestUtils.setField(watcher, "pendingUrl", pendingDir.toString());
+        ReflectionTestUtils.setField(watcher, "fullSizeUrl", directory("full"));
+        ReflectionTestUtils.setField(watcher, "thumbnail100KUrl", directory("100K"));
+        ReflectionTestUtils.setField(watcher, "thumbnail1000KUrl", directory("1000K"));
+        ReflectionTestUtils.setField(watcher, "stableMs", STABLE_MS);
+        ReflectionTestUtils.setField(watcher, "debounceMs", DEBOUNCE_MS);
+        ReflectionTestUtils.setField(watcher, "maxBatch", maxBatch);
+        return watcher;
+    }
+
+    private String directory(String name) throws IOException {
+        return Files.createDirectories(tempDir.resolve(name)).toString();
+    }
+
+    private void write(String name, int length) throws IOException {
+        Files.write(pendingDir.resolve(name), new byte[length]);
+    }
+
+    /**
+     * 记录每批文件名；成功的文件像流水线一样删除，失败的留在目录中
+     */
+    private static class RecordingIngestService implements PhotoIngestService {
+        private final List<List<String>> batches = new ArrayList<>();
+        private final List<String> failing = new ArrayList<>();
+        private int lockTimeouts;
+
+        @Override
+        public PhotoService.ProcessResult ingestFolder(File pendingDir, File thumbnail100KDir, File thumbnail1000KDir,
+                File fullSizeDir, boolean overwrite) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PhotoService.ProcessResult ingestFiles(List<File> files, File thumbnail100KDir, File thumbnail1000KDir,
+                File fullSizeDir, boolean overwrite) {
+            batches.add(files.stream().map(File::getName).sorted().collect(Collectors.toList()));
+            if (lockTimeouts > 0) {
+                lockTimeouts--;
+                return null;
+            }
+            for (File file : files) {
+                if (!failing.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+            return new PhotoService.ProcessResult(Collections.emptyList(), Collections.emptyList(), true);
+        }
+    }
+}
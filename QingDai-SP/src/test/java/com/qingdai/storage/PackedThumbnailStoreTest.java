@@ -0,0 +1,259 @@
+package com.qingdai.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段缩略图存储的记录格式、重放和压实
+ */
+class PackedThumbnailStoreTest {
+
+    private static final int RECORD_DATA_LENGTH = 100_000;
+
+    @TempDir
+    Path tempDir;
+
+    private PackedThumbnailStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    void putLinkRenameDeleteSurviveReopen() throws IOException {
+        store = open();
+        byte[] first = data(1, 1000);
+        byte[] second = data(2, 2000);
+        store.put("a.jpg", first);
+        store.put("b.jpg", second);
+        store.link("a.jpg", "c.jpg");
+        assertTrue(store.rename("b.jpg", "d.jpg"));
+        assertTrue(store.delete("a.jpg"));
+        assertFalse(store.delete("a.jpg"));
+
+        assertNull(store.get("a.jpg"));
+        assertArrayEquals(first, read(store, "c.jpg"));
+        assertArrayEquals(second, read(store, "d.jpg"));
+
+        store.destroy();
+        store = open();
+        assertFalse(store.exists("a.jpg"));
+        assertFalse(store.exists("b.jpg"));
+        assertArrayEquals(first, read(store, "c.jpg"));
+        assertArrayEquals(second, read(store, "d.jpg"));
+        assertFalse(store.isShared("c.jpg"));
+    }
+
+    @Test
+    void sharedDataAndEtag() throws IOException {
+        store = open();
+        store.put("a.jpg", data(3, 500));
+        store.link("a.jpg", "b.jpg");
+        assertTrue(store.isSameContent("a.jpg", "b.jpg"));
+        assertTrue(store.isShared("a.jpg"));
+        assertEquals(store.get("a.jpg").getEtag(), store.get("b.jpg").getEtag());
+
+        store.put("a.jpg", data(4, 500));
+        assertFalse(store.isSameContent("a.jpg", "b.jpg"));
+        assertArrayEquals(data(3, 500), read(store, "b.jpg"));
+    }
+
+    @Test
+    void sharingFollowsLinksOverwritesAndReplay() throws IOException {
+        store = open();
+        store.put("a.jpg", data(10, 500));
+        store.link("a.jpg", "b.jpg");
+        store.link("a.jpg", "c.jpg");
+        assertTrue(store.delete("b.jpg"));
+        assertTrue(store.isShared("a.jpg"));
+        assertTrue(store.rename("c.jpg", "d.jpg"));
+        assertTrue(store.isShared("d.jpg"));
+
+        store.put("a.jpg", data(11, 500));
+        assertFalse(store.isShared("a.jpg"));
+        assertFalse(store.isShared("d.jpg"));
+
+        store.link("d.jpg", "e.jpg");
+        store.destroy();
+        store = open();
+        assertTrue(store.isShared("d.jpg"));
+        assertFalse(store.isShared("a.jpg"));
+        assertTrue(store.delete("e.jpg"));
+        assertFalse(store.isShared("d.jpg"));
+    }
+
+    @Test
+    void linkedDataKeepsSegmentFromCompaction() throws IOException {
+        store = open();
+        for (int i = 0; i < 12; i++) {
+            store.put(i + ".jpg", data(i, RECORD_DATA_LENGTH));
+        }
+        // 删除原名称后数据仍被链接引用，第一个分段不算失效
+        for (int i = 0; i < 8; i++) {
+            store.link(i + ".jpg", "alias-" + i + ".jpg");
+            assertTrue(store.delete(i + ".jpg"));
+        }
+        store.compact();
+        assertTrue(Files.exists(segmentFile(1)));
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(store.delete("alias-" + i + ".jpg"));
+        }
+        store.compact();
+        assertFalse(Files.exists(segmentFile(1)));
+        for (int i = 8; i < 12; i++) {
+            assertArrayEquals(data(i, RECORD_DATA_LENGTH), read(store, i + ".jpg"));
+        }
+    }
+
+    @Test
+    void incompleteTailIsTruncatedOnReplay() throws IOException {
+        store = open();
+        store.put("a.jpg", data(5, 1000));
+        store.put("b.jpg", data(6, 1000));
+        store.destroy();
+        Path segment = segmentFile(1);
+        long length = Files.size(segment);
+
+        // 写了一半的记录加上预分配留下的空白
+        byte[] head = Arrays.copyOf(Files.readAllBytes(segment), 40);
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(head));
+            channel.write(ByteBuffer.allocate(4096));
+        }
+
+        store = open();
+        assertEquals(length, Files.size(segment));
+        assertArrayEquals(data(5, 1000), read(store, "a.jpg"));
+        assertArrayEquals(data(6, 1000), read(store, "b.jpg"));
+
+        store.put("c.jpg", data(7, 1000));
+        store.destroy();
+        store = open();
+        assertArrayEquals(data(7, 1000), read(store, "c.jpg"));
+    }
+
+    @Test
+    void corruptedLastRecordIsDropped() throws IOException {
+        store = open();
+        store.put("a.jpg", data(8, 1000));
+        store.put("b.jpg", data(9, 1000));
+        store.destroy();
+        Path segment = segmentFile(1);
+        long length = Files.size(segment);
+
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.WRITE)) {
+            channel.position(length - 1);
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) 0xFF }));
+        }
+
+        store = open();
+        assertArrayEquals(data(8, 1000), read(store, "a.jpg"));
+        assertFalse(store.exists("b.jpg"));
+    }
+
+    @Test
+    void segmentsRollOverAndPreallocationIsTrimmed() throws IOException {
+        store = open();
+        for (int i = 0; i < 12; i++) {
+            store.put(i + ".jpg", data(i, RECORD_DATA_LENGTH));
+        }
+        // 第一个分段在切换时截掉预分配部分
+        assertTrue(Files.size(segmentFile(1)) <= 1024 * 1024);
+        assertTrue(Files.exists(segmentFile(2)));
+        for (int i = 0; i < 12; i++) {
+            assertArrayEquals(data(i, RECORD_DATA_LENGTH), read(store, i + ".jpg"));
+        }
+
+        store.destroy();
+        long trimmed = Files.size(segmentFile(2));
+        store = open();
+        assertEquals(trimmed, Files.size(segmentFile(2)));
+        for (int i = 0; i < 12; i++) {
+            assertArrayEquals(data(i, RECORD_DATA_LENGTH), read(store, i + ".jpg"));
+        }
+    }
+
+    @Test
+    void compactionMovesLiveRecordsAndDeletesSegment() throws IOException {
+        store = open();
+        for (int i = 0; i < 12; i++) {
+            store.put(i + ".jpg", data(i, RECORD_DATA_LENGTH));
+        }
+        // 记录在第二个分段、数据在第一个分段的链接
+        store.link("9.jpg", "alias.jpg");
+        for (int i = 0; i < 8; i++) {
+            assertTrue(store.delete(i + ".jpg"));
+        }
+        String etagBefore = store.get("9.jpg").getEtag();
+
+        store.compact();
+        assertFalse(Files.exists(segmentFile(1)));
+        assertTrue(store.isSameContent("9.jpg", "alias.jpg"));
+        assertFalse(etagBefore.equals(store.get("9.jpg").getEtag()));
+        assertLiveAfterCompaction();
+
+        store.destroy();
+        store = open();
+        assertLiveAfterCompaction();
+        assertTrue(store.isSameContent("9.jpg", "alias.jpg"));
+    }
+
+    private void assertLiveAfterCompaction() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            assertFalse(store.exists(i + ".jpg"));
+        }
+        for (int i = 8; i < 12; i++) {
+            assertArrayEquals(data(i, RECORD_DATA_LENGTH), read(store, i + ".jpg"));
+        }
+        assertArrayEquals(data(9, RECORD_DATA_LENGTH), read(store, "alias.jpg"));
+    }
+
+    private PackedThumbnailStore open() throws IOException {
+        PackedThumbnailStore opened = new PackedThumbnailStore();
+        ReflectionTestUtils.setField(opened, "thumbnail100KUrl", tempDir.toString());
+        ReflectionTestUtils.setField(opened, "packDir", tempDir.resolve(".pack").toString());
+        ReflectionTestUtils.setField(opened, "segmentMb", 1);
+        ReflectionTestUtils.setField(opened, "compactGarbageRatio", 0.5);
+        ReflectionTestUtils.setField(opened, "importLoose", false);
+        opened.init();
+        return opened;
+    }
+
+    private Path segmentFile(int id) {
+        return tempDir.resolve(".pack").resolve(String.format("segment-%08d.pack", id));
+    }
+
+    private static byte[] read(ThumbnailStore store, String name) throws IOException {
+        ThumbnailStore.StoredThumbnail stored = store.get(name);
+        ByteBuffer buffer = ByteBuffer.allocate((int) stored.getSize());
+        stored.readInto(buffer);
+        return buffer.array();
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i * 7);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,334 @@
+package com.qingdai.storage;
+
+import com.qingdai.utils.FileResponseUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对象存储的读写、预签名和原图接口的转发，用内存中的S3客户端代替MinIO
+ */
+class S3PhotoStorageTest {
+
+    private static final String BUCKET = "qingdai";
+
+    @TempDir
+    Path tempDir;
+
+    private InMemoryS3Client client;
+    private S3Presigner presigner;
+
+    @BeforeEach
+    void setUp() {
+        client = new InMemoryS3Client();
+        // 预签名只在本地计算签名，不访问网络
+        presigner = S3Presigner.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create("minioadmin", "minioadmin")))
+                .endpointOverride(URI.create("http://127.0.0.1:9000"))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        presigner.close();
+    }
+
+    @Test
+    void putStatOpenDownloadDelete() throws IOException {
+        S3PhotoStorage storage = storage(null);
+        byte[] data = data(10_000);
+        storage.put("a.jpg", write("a.jpg", data));
+
+        assertTrue(client.objects.containsKey("fullSize/a.jpg"));
+        assertEquals("image/jpeg", client.objects.get("fullSize/a.jpg").contentType);
+        PhotoStorage.StoredPhoto stored = storage.stat("a.jpg");
+        assertEquals(data.length, stored.getSize());
+        assertTrue(stored.getEtag().startsWith("\""));
+        assertNull(stored.getFile());
+
+        try (InputStream in = storage.open("a.jpg", 100, 50)) {
+            assertArrayEquals(Arrays.copyOfRange(data, 100, 150), in.readAllBytes());
+        }
+        Path target = tempDir.resolve("download.jpg");
+        storage.download("a.jpg", target);
+        assertArrayEquals(data, Files.readAllBytes(target));
+
+        assertTrue(storage.delete("a.jpg"));
+        assertFalse(storage.delete("a.jpg"));
+        assertFalse(storage.exists("a.jpg"));
+        assertNull(storage.stat("a.jpg"));
+        assertThrows(NoSuchFileException.class, () -> storage.open("a.jpg", 0, 10));
+    }
+
+    @Test
+    void linkAndRenameKeepContentIdentity() throws IOException {
+        S3PhotoStorage storage = storage(null);
+        storage.put("a.jpg", write("a.jpg", data(2000)));
+        storage.put("b.jpg", write("b.jpg", data(3000)));
+
+        storage.link("a.jpg", "c.jpg");
+        assertTrue(storage.isSameContent("a.jpg", "c.jpg"));
+        assertFalse(storage.isSameContent("a.jpg", "b.jpg"));
+
+        assertTrue(storage.rename("c.jpg", "d.jpg"));
+        assertFalse(storage.exists("c.jpg"));
+        assertTrue(storage.isSameContent("a.jpg", "d.jpg"));
+        assertFalse(storage.rename("c.jpg", "e.jpg"));
+        assertThrows(NoSuchFileException.class, () -> storage.link("missing.jpg", "f.jpg"));
+    }
+
+    @Test
+    void presignOnlyWhenEnabled() {
+        assertNull(storage(null).presign("a.jpg"));
+
+        URI location = storage(Duration.ofSeconds(300)).presign("a.jpg");
+        assertNotNull(location);
+        assertEquals("127.0.0.1", location.getHost());
+        assertEquals("/qingdai/fullSize/a.jpg", location.getPath());
+        assertTrue(location.getQuery().contains("X-Amz-Expires=300"));
+        assertTrue(location.getQuery().contains("X-Amz-Signature="));
+    }
+
+    @Test
+    void serveStoredStreamsByDefault() throws IOException {
+        S3PhotoStorage storage = storage(null);
+        byte[] data = data(5000);
+        storage.put("a.jpg", write("a.jpg", data));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/photos/a/fullsize");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(serve(storage, "a.jpg", request, response));
+        assertEquals(200, response.getStatus());
+        assertEquals("image/jpeg", response.getContentType());
+        assertArrayEquals(data, response.getContentAsByteArray());
+        assertEquals(FileResponseUtils.MODE_PROXY, request.getAttribute(FileResponseUtils.MODE_ATTRIBUTE));
+
+        // 条件请求和单段Range
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/api/photos/a/fullsize");
+        conditional.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        assertEquals(304, serve(storage, "a.jpg", conditional, new MockHttpServletResponse()).getStatusCode().value());
+
+        MockHttpServletRequest ranged = new MockHttpServletRequest("GET", "/api/photos/a/fullsize");
+        ranged.addHeader(HttpHeaders.RANGE, "bytes=10-19");
+        MockHttpServletResponse partial = new MockHttpServletResponse();
+        assertNull(serve(storage, "a.jpg", ranged, partial));
+        assertEquals(206, partial.getStatus());
+        assertEquals("bytes 10-19/5000", partial.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), partial.getContentAsByteArray());
+
+        ResponseEntity<?> missing = serve(storage, "missing.jpg",
+                new MockHttpServletRequest("GET", "/api/photos/b/fullsize"), new MockHttpServletResponse());
+        assertEquals(404, missing.getStatusCode().value());
+    }
+
+    @Test
+    void serveStoredRedirectsWhenEnabled() throws IOException {
+        S3PhotoStorage storage = storage(Duration.ofSeconds(300));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/photos/a/fullsize");
+        ResponseEntity<?> redirect = serve(storage, "a.jpg", request, new MockHttpServletResponse());
+        assertEquals(302, redirect.getStatusCode().value());
+        assertEquals("/qingdai/fullSize/a.jpg", redirect.getHeaders().getLocation().getPath());
+        assertEquals(FileResponseUtils.MODE_REDIRECT, request.getAttribute(FileResponseUtils.MODE_ATTRIBUTE));
+    }
+
+    private ResponseEntity<?> serve(PhotoStorage storage, String name, MockHttpServletRequest request,
+            MockHttpServletResponse response) throws IOException {
+        return FileResponseUtils.serveStored(storage, name, "fullsize", request, response, CacheControl.noCache(),
+                0);
+    }
+
+    private S3PhotoStorage storage(Duration presignTtl) {
+        return new S3PhotoStorage(client, presigner, null, BUCKET, "fullSize/", tempDir.resolve("fullSize"),
+                16L * 1024 * 1024, 8L * 1024 * 1024, presignTtl);
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        return Files.write(tempDir.resolve(name), data).toFile();
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 13);
+        }
+        return data;
+    }
+
+    /**
+     * 只实现存储用到的单对象操作，行为与MinIO一致：不存在的对象返回404，复制时按REPLACE替换元数据
+     */
+    private static class InMemoryS3Client implements S3Client {
+
+        private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            StoredObject object = find(request.bucket(), request.key());
+            return HeadObjectResponse.builder()
+                    .contentLength((long) object.data.length)
+                    .contentType(object.contentType)
+                    .eTag(object.eTag)
+                    .lastModified(object.lastModified)
+                    .metadata(object.metadata)
+                    .build();
+        }
+
+        @Override
+        public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            StoredObject object = find(request.bucket(), request.key());
+            int start = 0;
+            int end = object.data.length - 1;
+            if (request.range() != null) {
+                String[] bounds = request.range().substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            byte[] body = Arrays.copyOfRange(object.data, start, end + 1);
+            GetObjectResponse response = GetObjectResponse.builder()
+                    .contentLength((long) body.length)
+                    .contentType(object.contentType)
+                    .eTag(object.eTag)
+                    .build();
+            try {
+                return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(body)));
+            } catch (Exception e) {
+                throw SdkClientException.create("读取对象失败", e);
+            }
+        }
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            return getObject(request, ResponseTransformer.toInputStream());
+        }
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            checkBucket(request.bucket());
+            byte[] data;
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                data = in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            StoredObject object = new StoredObject(data, request.contentType(), Collections.emptyMap());
+            objects.put(request.key(), object);
+            return PutObjectResponse.builder().eTag(object.eTag).build();
+        }
+
+        @Override
+        public CopyObjectResponse copyObject(CopyObjectRequest request) {
+            StoredObject source = find(request.sourceBucket(), request.sourceKey());
+            checkBucket(request.destinationBucket());
+            objects.put(request.destinationKey(), new StoredObject(source.data, request.contentType(),
+                    new HashMap<>(request.metadata())));
+            return CopyObjectResponse.builder().build();
+        }
+
+        @Override
+        public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+            checkBucket(request.bucket());
+            objects.remove(request.key());
+            return DeleteObjectResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private StoredObject find(String bucket, String key) {
+            checkBucket(bucket);
+            StoredObject object = objects.get(key);
+            if (object == null) {
+                throw (S3Exception) S3Exception.builder().statusCode(404).message("The specified key does not exist.")
+                        .build();
+            }
+            return object;
+        }
+
+        private static void checkBucket(String bucket) {
+            if (!BUCKET.equals(bucket)) {
+                throw (S3Exception) S3Exception.builder().statusCode(404).message("The specified bucket does not exist.")
+                        .build();
+            }
+        }
+    }
+
+    private static class StoredObject {
+        private final byte[] data;
+        private final String contentType;
+        private final Map<String, String> metadata;
+        private final String eTag;
+        private final Instant lastModified = Instant.now();
+
+        private StoredObject(byte[] data, String contentType, Map<String, String> metadata) {
+            this.data = data;
+            this.contentType = contentType;
+            this.metadata = metadata;
+            // 内容相同则ETag相同，与单次上传时MinIO返回的MD5一样
+            this.eTag = "\"" + Integer.toHexString(Arrays.hashCode(data)) + "\"";
+        }
+    }
+}
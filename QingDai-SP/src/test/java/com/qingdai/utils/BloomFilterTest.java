@@ -0,0 +1,92 @@
+package com.qingdai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 布隆过滤器的参数计算、无漏判和误判率
+ */
+class BloomFilterTest {
+
+    @Test
+    void addedValuesAreAlwaysFound() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(photoId(i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(photoId(i)));
+        }
+        assertFalse(BloomFilter.create(100, 0.01).mightContain(photoId(1)));
+    }
+
+    @Test
+    void sizingFollowsExpectedInsertionsAndFpp() {
+        BloomFilter filter = BloomFilter.create(1_000_000, 0.01);
+        // m = -n·ln(p)/ln²2 ≈ 9.59n，k = m/n·ln2 ≈ 7
+        assertTrue(filter.getBitCount() >= 9_585_058L && filter.getBitCount() < 9_585_058L + 64);
+        assertEquals(7, filter.getHashCount());
+        assertEquals(64, BloomFilter.create(0, 0.5).getBitCount());
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(100, 1));
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTarget() {
+        int inserted = 100_000;
+        double fpp = 0.01;
+        BloomFilter filter = BloomFilter.create(inserted, fpp);
+        for (int i = 0; i < inserted; i++) {
+            filter.put(photoId(i));
+        }
+        int probes = 200_000;
+        int falsePositives = 0;
+        for (int i = inserted; i < inserted + probes; i++) {
+            if (filter.mightContain(photoId(i))) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue(rate < fpp * 1.5, "误判率过高: " + rate);
+    }
+
+    @Test
+    void concurrentPutsAreNotLost() throws Exception {
+        BloomFilter filter = BloomFilter.create(80_000, 0.01);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t * 10_000;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < offset + 10_000; i++) {
+                        filter.put(photoId(i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < 80_000; i++) {
+            assertTrue(filter.mightContain(photoId(i)));
+        }
+    }
+
+    // 与雪花ID相近的19位数字
+    private static String photoId(int i) {
+        return String.valueOf(1890000000000000000L + i * 7919L);
+    }
+}
@@ -0,0 +1,101 @@
+package com.qingdai.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 磁盘LRU缓存的按字节淘汰、访问顺序和启动时重建索引
+ */
+class DiskLruCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void leastRecentlyUsedIsEvictedFirst() throws IOException {
+        DiskLruCache cache = new DiskLruCache(tempDir, 300);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", new byte[100]);
+        assertNull(cache.get("b"));
+        assertFalse(Files.exists(tempDir.resolve("b")));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(300, cache.getTotalBytes());
+
+        // 一次写入可以淘汰多个文件
+        cache.put("e", new byte[250]);
+        assertEquals(1, cache.size());
+        assertEquals(250, cache.getTotalBytes());
+        assertNotNull(cache.get("e"));
+    }
+
+    @Test
+    void replacingAndRemovingKeepTotalInSync() throws IOException {
+        DiskLruCache cache = new DiskLruCache(tempDir, 1000);
+        cache.put("a", new byte[100]);
+        cache.put("a", new byte[40]);
+        assertEquals(1, cache.size());
+        assertEquals(40, cache.getTotalBytes());
+        assertEquals(40, Files.size(tempDir.resolve("a")));
+
+        cache.remove("a");
+        cache.remove("missing");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalBytes());
+        assertFalse(Files.exists(tempDir.resolve("a")));
+    }
+
+    @Test
+    void externallyDeletedFileIsAMiss() throws IOException {
+        DiskLruCache cache = new DiskLruCache(tempDir, 1000);
+        File file = cache.put("a", new byte[100]);
+        assertTrue(file.delete());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    void reloadOrdersByModifiedTimeAndTrims() throws IOException {
+        long now = System.currentTimeMillis();
+        write("old", 100, now - 30_000);
+        write("middle", 100, now - 20_000);
+        write("new", 100, now - 10_000);
+        // 异常退出留下的临时文件
+        write(".123.tmp", 100, now);
+
+        DiskLruCache cache = new DiskLruCache(tempDir, 250);
+        assertFalse(Files.exists(tempDir.resolve(".123.tmp")));
+        assertFalse(Files.exists(tempDir.resolve("old")));
+        assertEquals(2, cache.size());
+        assertEquals(200, cache.getTotalBytes());
+
+        cache.put("newest", new byte[100]);
+        assertNull(cache.get("middle"));
+        assertNotNull(cache.get("new"));
+        assertNotNull(cache.get("newest"));
+    }
+
+    private void write(String name, int length, long lastModified) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.write(path, new byte[length]);
+        assertTrue(path.toFile().setLastModified(lastModified));
+    }
+}
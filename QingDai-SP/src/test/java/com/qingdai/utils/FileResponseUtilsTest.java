@@ -0,0 +1,137 @@
+package com.qingdai.utils;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * 文件响应的条件请求：304、If-Range、单段和多段Range
+ */
+class FileResponseUtilsTest {
+
+    private static final int FILE_LENGTH = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private MockMvc mockMvc;
+
+    private String etag;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path path = tempDir.resolve("photo.jpg");
+        Files.write(path, data());
+        mockMvc = MockMvcBuilders.standaloneSetup(new FileController(path.toFile())).build();
+        etag = mockMvc.perform(get("/file")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    void fullFileCarriesLengthAndValidators() throws Exception {
+        MvcResult result = mockMvc.perform(get("/file")).andReturn();
+        assertEquals(200, result.getResponse().getStatus());
+        assertEquals(String.valueOf(FILE_LENGTH), result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("bytes", result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertArrayEquals(data(), result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void matchingValidatorsReturnNotModified() throws Exception {
+        MvcResult byEtag = mockMvc.perform(get("/file").header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn();
+        assertEquals(304, byEtag.getResponse().getStatus());
+        assertEquals(0, byEtag.getResponse().getContentAsByteArray().length);
+
+        String lastModified = byEtag.getResponse().getHeader(HttpHeaders.LAST_MODIFIED);
+        MvcResult byDate = mockMvc.perform(get("/file").header(HttpHeaders.IF_MODIFIED_SINCE, lastModified))
+                .andReturn();
+        assertEquals(304, byDate.getResponse().getStatus());
+
+        // 有If-None-Match时忽略If-Modified-Since
+        MvcResult changed = mockMvc.perform(get("/file").header(HttpHeaders.IF_NONE_MATCH, "\"other\"")
+                .header(HttpHeaders.IF_MODIFIED_SINCE, lastModified)).andReturn();
+        assertEquals(200, changed.getResponse().getStatus());
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws Exception {
+        MvcResult result = mockMvc.perform(get("/file").header(HttpHeaders.RANGE, "bytes=10-19")).andReturn();
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes 10-19/" + FILE_LENGTH, result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("10", result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertArrayEquals(Arrays.copyOfRange(data(), 10, 20), result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void ifRangeMismatchReturnsFullFile() throws Exception {
+        MvcResult matched = mockMvc.perform(get("/file").header(HttpHeaders.RANGE, "bytes=0-9")
+                .header(HttpHeaders.IF_RANGE, etag)).andReturn();
+        assertEquals(206, matched.getResponse().getStatus());
+        assertEquals(10, matched.getResponse().getContentAsByteArray().length);
+
+        MvcResult mismatched = mockMvc.perform(get("/file").header(HttpHeaders.RANGE, "bytes=0-9")
+                .header(HttpHeaders.IF_RANGE, "\"other\"")).andReturn();
+        assertEquals(200, mismatched.getResponse().getStatus());
+        assertNull(mismatched.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(String.valueOf(FILE_LENGTH), mismatched.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertArrayEquals(data(), mismatched.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void multipleRangesAreMultipartWithoutFileLength() throws Exception {
+        MvcResult result = mockMvc.perform(get("/file").header(HttpHeaders.RANGE, "bytes=0-4,100-104")).andReturn();
+        assertEquals(206, result.getResponse().getStatus());
+        assertTrue(result.getResponse().getContentType().startsWith("multipart/byteranges"));
+        assertNull(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+
+        String body = new String(result.getResponse().getContentAsByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-4/" + FILE_LENGTH));
+        assertTrue(body.contains("Content-Range: bytes 100-104/" + FILE_LENGTH));
+        assertTrue(body.contains(new String(Arrays.copyOfRange(data(), 100, 105), StandardCharsets.ISO_8859_1)));
+    }
+
+    private static byte[] data() {
+        byte[] data = new byte[FILE_LENGTH];
+        for (int i = 0; i < FILE_LENGTH; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    @RestController
+    static class FileController {
+
+        private final File file;
+
+        FileController(File file) {
+            this.file = file;
+        }
+
+        @GetMapping("/file")
+        ResponseEntity<Resource> file(HttpServletRequest request) throws IOException {
+            return FileResponseUtils.serve(file, "test", request, CacheControl.noCache());
+        }
+    }
+}
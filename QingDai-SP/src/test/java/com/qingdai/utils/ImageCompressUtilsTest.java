@@ -0,0 +1,122 @@
+package com.qingdai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按目标大小压缩：质量二分、缩放二分和无法达到目标时的返回值
+ */
+class ImageCompressUtilsTest {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    @Test
+    void fittingImageIsEncodedOnceAtMaxQuality() throws IOException {
+        BufferedImage image = noise(1);
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", 10_000_000, 0.1);
+
+        assertTrue(result.isSizeMet());
+        assertEquals(1, result.getEncodeCount());
+        assertEquals(0.9, result.getQuality());
+        assertEquals(1.0, result.getScale());
+    }
+
+    @Test
+    void qualityBisectionStopsInsideTolerance() throws IOException {
+        BufferedImage image = noise(2);
+        // 第一次二分的质量0.5恰好落在[目标 * 0.9, 目标]内
+        long target = (long) (encodedSize(image, 0.5) * 1.05);
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", target, 0.1);
+
+        assertTrue(result.isSizeMet());
+        assertEquals(0.5, result.getQuality(), 1e-9);
+        assertEquals(1.0, result.getScale());
+        assertEquals(2, result.getEncodeCount());
+        assertTrue(result.getBytes().length <= target);
+    }
+
+    @Test
+    void qualityBisectionKeepsHighestQualityUnderTarget() throws IOException {
+        BufferedImage image = noise(3);
+        long target = (encodedSize(image, 0.1) + encodedSize(image, 0.9)) / 2;
+        // 容差为0时不会提前结束，用满全部二分次数
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", target, 0);
+
+        assertTrue(result.isSizeMet());
+        assertEquals(1 + 5, result.getEncodeCount());
+        assertEquals(1.0, result.getScale());
+        assertTrue(result.getQuality() > 0.1 && result.getQuality() < 0.9);
+        assertTrue(result.getBytes().length <= target);
+        // 比结果高一个二分步长的质量会超出目标
+        assertTrue(encodedSize(image, result.getQuality() + 0.8 / 32) > target);
+        assertEquals(WIDTH, decode(result.getBytes()).getWidth());
+    }
+
+    @Test
+    void scaleBisectionRunsWhenMinQualityIsTooLarge() throws IOException {
+        BufferedImage image = noise(4);
+        long target = encodedSize(image, 0.1) / 4;
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", target, 0.2);
+
+        assertTrue(result.isSizeMet());
+        assertTrue(result.getScale() < 1.0);
+        assertEquals(0.8, result.getQuality());
+        assertTrue(result.getBytes().length <= target);
+        assertTrue(result.getEncodeCount() > 1 + 5 && result.getEncodeCount() <= 1 + 5 + 5);
+        BufferedImage decoded = decode(result.getBytes());
+        assertEquals(Math.round(WIDTH * result.getScale()), decoded.getWidth(), 1);
+    }
+
+    @Test
+    void unreachableTargetReturnsSmallestAttempt() throws IOException {
+        BufferedImage image = noise(5);
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", 100, 0.1);
+
+        assertFalse(result.isSizeMet());
+        assertNotNull(result.getBytes());
+        assertTrue(result.getBytes().length > 100);
+        assertTrue(result.getScale() < 1.0);
+        assertEquals(1 + 5 + 5, result.getEncodeCount());
+    }
+
+    @Test
+    void alphaImagesAreFlattenedForJpeg() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        ImageCompressUtils.CompressResult result = ImageCompressUtils.compressToSize(image, "jpg", 10_000_000, 0.1);
+
+        assertTrue(result.isSizeMet());
+        assertEquals(WIDTH, decode(result.getBytes()).getWidth());
+    }
+
+    // 随机噪点几乎不可压缩，大小随质量和缩放单调变化
+    private static BufferedImage noise(long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static long encodedSize(BufferedImage image, double quality) throws IOException {
+        return ImageCompressUtils.encode(image, "jpg", quality, new ByteArrayOutputStream());
+    }
+
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+}
@@ -38,6 +38,14 @@ export const getThumbnail100KPhotos = async (ids: string): Promise<any> => {
   });
 };
 
+// 打包获取100K压缩照片，传ids或page+pageSize，响应为长度前缀的二进制格式，用parseThumbnailBundle解析
+export const getThumbnail100KBundle = async (params: { ids?: string; page?: number; pageSize?: number }): Promise<any> => {
+  return await request.get(`${CDN_URL}/cdn/bundle/small`, {
+    params,
+    responseType: 'arraybuffer'
+  });
+};
+
 // 获取100K压缩照片(单张)
 export const getThumbnail100KPhoto = async (id: string): Promise<any> => {
   return await request.get(`${CDN_URL}/cdn/thumbnail/small`, {
@@ -14,6 +14,7 @@ export interface WaterfallItem {
   title: string         // 标题
   introduce: string     // 介绍
   startRating: number   //代表作
+  blurHash?: string     // BlurHash占位串
 
   aspectRatio?: number  // 自动计算的宽高比
   calcWidth?: number    // 自动计算的宽度（像素）
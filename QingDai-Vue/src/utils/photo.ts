@@ -1,16 +1,61 @@
-import JSZip from 'jszip';
 import { ElMessage } from 'element-plus';
-import { getThumbnail100KPhotos, getPhotosByIds, getThumbnail1000KPhoto, getFullSizePhoto, getPhotoInfo, getThumbnail100KPhoto } from '@/api/photo';
+import { getThumbnail100KBundle, getPhotosByIds, getThumbnail1000KPhoto, getFullSizePhoto, getPhotoInfo, getThumbnail100KPhoto } from '@/api/photo';
 import type { WaterfallItem } from '@/types';
 import { get100KPhotoFromDB, save100KPhotoToDB, get1000KPhotoFromDB, save1000KPhotoToDB, getFullPhotoFromDB, saveFullPhotoToDB } from "@/utils/indexedDB";
 
 
 
+// 单次打包请求的照片数，与服务端qingdai.cdn.bundle-max-items的默认值一致
+const BUNDLE_MAX_ITEMS = 100;
+
 // 增强的瀑布流项类型，支持动态属性
 export interface EnhancedWaterfallItem extends WaterfallItem {
   [key: string]: any;
 }
 
+/**
+ * 解析打包接口返回的二进制数据
+ * 格式："QDB1" | 元数据长度 | 元数据JSON | 多个(ID长度 | ID | 类型长度 | 类型 | 数据长度 | 数据) | 0
+ * @param buffer 响应数据
+ * @returns 元数据和按照片ID索引的图片
+ */
+export const parseThumbnailBundle = (buffer: ArrayBuffer): { metadata: any; files: Map<string, Blob> } => {
+  const view = new DataView(buffer);
+  const decoder = new TextDecoder();
+  const magic = decoder.decode(new Uint8Array(buffer, 0, 4));
+  if (magic !== 'QDB1') {
+    throw new Error('无法识别的打包格式');
+  }
+  let offset = 4;
+  const readString = (length: number) => {
+    const value = decoder.decode(new Uint8Array(buffer, offset, length));
+    offset += length;
+    return value;
+  };
+
+  const metadataLength = view.getInt32(offset);
+  offset += 4;
+  const metadata = JSON.parse(readString(metadataLength));
+
+  const files = new Map<string, Blob>();
+  while (offset < buffer.byteLength) {
+    const idLength = view.getInt32(offset);
+    offset += 4;
+    if (idLength === 0) {
+      break;
+    }
+    const id = readString(idLength);
+    const typeLength = view.getInt32(offset);
+    offset += 4;
+    const type = readString(typeLength);
+    const dataLength = view.getInt32(offset);
+    offset += 4;
+    files.set(id, new Blob([new Uint8Array(buffer, offset, dataLength)], { type }));
+    offset += dataLength;
+  }
+  return { metadata, files };
+};
+
 /**
  * 批量获取100K照片缩略图
  * @param items 需要获取缩略图的照片项列表
@@ -68,51 +113,40 @@ export const get100KPhotos = async (
     // 去重后的照片ID
     const uniquePhotoIds = [...new Set(photoIds)];
 
-    // 调用API获取缩略图，只传递唯一的ID
-    const response = await getThumbnail100KPhotos(uniquePhotoIds.join(','));
-
-    const zip = await JSZip.loadAsync(response.data);
+    // 调用打包接口获取缩略图，只传递唯一的ID；每次最多传BUNDLE_MAX_ITEMS个，
+    // 服务端上限更小时只打包前面的照片，其余按返回的remainingIds继续请求
+    const files = new Map<string, Blob>();
+    let pendingIds: string[] = uniquePhotoIds;
+    while (pendingIds.length > 0) {
+      const requestIds = pendingIds.slice(0, BUNDLE_MAX_ITEMS);
+      const response = await getThumbnail100KBundle({ ids: requestIds.join(',') });
+      const bundle = parseThumbnailBundle(response.data);
+      bundle.files.forEach((blob, id) => files.set(id, blob));
+      const remainingIds: string[] = bundle.metadata?.remainingIds || [];
+      // 本次没有打包任何照片时停止，避免服务端异常时死循环
+      if (remainingIds.length >= requestIds.length) {
+        break;
+      }
+      pendingIds = remainingIds.concat(pendingIds.slice(BUNDLE_MAX_ITEMS));
+    }
 
     // 处理每个唯一的照片ID
     for (const photoId of uniquePhotoIds) {
       const items = idToItemsMap.get(photoId) || [];
-      if (items.length > 0) {
-        const fileName = items[0][fileNameKey];
-        const file = zip.file(`${fileName}`);
-
-        if (file) {
-          const blob = await file.async('blob');
-          const url = URL.createObjectURL(blob);
-          // 存储到IndexedDB并设置URL
-          await save100KPhotoToDB(photoId, blob);
-
-          // 更新所有对应项目的缩略图
-          items.forEach(item => {
-            item[srcKey] = url;
-          });
-
-        } else {
-          // 尝试通过模糊匹配文件名查找
-          const matchedFile = Object.values(zip.files).find(f =>
-            !f.dir && (f.name.includes(photoId) || (fileName && f.name.includes(fileName)))
-          );
-
-          if (matchedFile) {
-            const blob = await matchedFile.async('blob');
-            const url = URL.createObjectURL(blob);
-            await save100KPhotoToDB(photoId, blob);
-
-            items.forEach(item => {
-              item[srcKey] = url;
-            });
-          } else {
-            // 文件未找到的情况
-            items.forEach(item => {
-              item[srcKey] = '';
-            });
-            console.error('ZIP包中未找到照片:', photoId);
-          }
-        }
+      const blob = files.get(photoId);
+      if (blob) {
+        const url = URL.createObjectURL(blob);
+        // 存储到IndexedDB并设置URL
+        await save100KPhotoToDB(photoId, blob);
+        items.forEach(item => {
+          item[srcKey] = url;
+        });
+      } else {
+        // 文件未找到的情况
+        items.forEach(item => {
+          item[srcKey] = '';
+        });
+        console.error('打包响应中未找到照片:', photoId);
       }
     }
   } catch (error) {
@@ -147,6 +181,28 @@ export const getPhotosByIdsWithThumbnail = async (photoIds: string[]): Promise<E
   }
 };
 
+const BLUR_HASH_CHARACTERS = '0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~';
+
+/**
+ * 取BlurHash的平均色，缩略图加载前作为占位背景
+ * @param blurHash BlurHash占位串
+ * @returns CSS颜色，无效时返回undefined
+ */
+export const blurHashAverageColor = (blurHash?: string): string | undefined => {
+  if (!blurHash || blurHash.length < 6) {
+    return undefined;
+  }
+  let value = 0;
+  for (const char of blurHash.substring(2, 6)) {
+    const digit = BLUR_HASH_CHARACTERS.indexOf(char);
+    if (digit < 0) {
+      return undefined;
+    }
+    value = value * 83 + digit;
+  }
+  return `rgb(${value >> 16}, ${(value >> 8) & 255}, ${value & 255})`;
+};
+
 /**
  * 处理照片基础数据，确保所有字段都有默认值
  * @param item 原始照片数据
@@ -174,6 +230,7 @@ export const processPhotoData = (item: any): EnhancedWaterfallItem => {
     calcWidth: item.calcWidth || 0,
     calcHeight: item.calcHeight || 0,
     compressedSrc: item.compressedSrc ?? '',
+    blurHash: item.blurHash || undefined,
   };
 
   // 如果存在groupId，添加到结果中
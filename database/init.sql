@@ -16,11 +16,15 @@ create table
         star_rating int null comment '星标',
         created_time datetime default CURRENT_TIMESTAMP null comment '创建时间',
         updated_time datetime default CURRENT_TIMESTAMP null on update CURRENT_TIMESTAMP comment '更新时间',
-        focal_length varchar(255) null comment '焦距'
+        focal_length varchar(255) null comment '焦距',
+        content_hash char(64) null comment '原图SHA-256',
+        blur_hash varchar(64) null comment 'BlurHash占位串'
     );
 
 create index photo_time_index on photo (shoot_time desc);
 
+create index photo_content_hash_index on photo (content_hash);
+
 create table
     group_photo (
         id char(18) not null comment 'id' primary key,
@@ -0,0 +1,6 @@
+-- 已有数据库升级：照片内容哈希，内容库按哈希链接已有的压缩图
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本
+alter table photo
+    add column content_hash char(64) null comment '原图SHA-256' after focal_length;
+
+create index photo_content_hash_index on photo (content_hash);
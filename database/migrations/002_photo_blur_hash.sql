@@ -0,0 +1,4 @@
+-- 已有数据库升级：照片BlurHash占位串，列表在原图加载前显示模糊占位
+-- 需先执行 001_photo_content_hash.sql；新建的数据库直接使用 init.sql，不需要执行本脚本
+alter table photo
+    add column blur_hash varchar(64) null comment 'BlurHash占位串' after content_hash;